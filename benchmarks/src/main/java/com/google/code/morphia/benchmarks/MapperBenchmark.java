@@ -0,0 +1,60 @@
+package com.google.code.morphia.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.DBObject;
+
+/**
+ * {@link Mapper#toDBObject(Object)} and {@link Mapper#fromDBObject(Class, DBObject, com.google.code.morphia.mapping.cache.EntityCache)}
+ * in isolation (no server), for each of the {@link Shapes}. Run with {@code -prof gc} to see the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+	@Param({ "flat", "wide", "deep", "large", "map", "serialized", "polymorphic" })
+	public String shape;
+
+	private Mapper mapper;
+	private Object entity;
+	private Class<?> declaredType;
+	private DBObject dbObj;
+
+	@Setup
+	public void setUp() {
+		Morphia morphia = new Morphia();
+		for (Class<?> c : Shapes.classes())
+			morphia.map(c);
+		mapper = morphia.getMapper();
+		entity = Shapes.create(shape);
+		declaredType = Shapes.declaredType(shape);
+		dbObj = mapper.toDBObject(entity);
+	}
+
+	@Benchmark
+	public DBObject toDBObject() {
+		return mapper.toDBObject(entity);
+	}
+
+	@Benchmark
+	public Object fromDBObject() {
+		return mapper.fromDBObject(declaredType, dbObj, mapper.createEntityCache());
+	}
+}
@@ -0,0 +1,252 @@
+package com.google.code.morphia.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.lazy.CGLibLazyProxyFactory;
+import com.google.code.morphia.mapping.lazy.DefaultDatastoreProvider;
+import com.mongodb.DBObject;
+import com.mongodb.FakeDB;
+import com.mongodb.FakeMongo;
+
+/**
+ * <p>
+ * Loading references (eager and lazy; single, list and map) against an in-process {@link FakeDB}, with a fixed
+ * latency per round trip; the round trips made are reported as the {@code roundTrips} counter (per operation, with
+ * {@code -prof gc} or not). Each benchmark decodes one stored document with a fresh entity cache, except where noted.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@SuppressWarnings("unchecked")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReferenceBenchmark {
+	static final int REFS = 20;
+
+	@Entity
+	public static class Author {
+		@Id ObjectId id;
+		String name;
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	@Entity
+	public static class Book {
+		@Id ObjectId id;
+		@Reference Author author;
+	}
+
+	@Entity
+	public static class LazyBook {
+		@Id ObjectId id;
+		@Reference(lazy = true) Author author;
+	}
+
+	@Entity
+	public static class Shelf {
+		@Id ObjectId id;
+		@Reference List<Author> authors = new ArrayList<Author>();
+	}
+
+	@Entity
+	public static class LazyShelf {
+		@Id ObjectId id;
+		@Reference(lazy = true) List<Author> authors = new ArrayList<Author>();
+	}
+
+	@Entity
+	public static class Catalog {
+		@Id ObjectId id;
+		@Reference Map<String, Author> authors = new HashMap<String, Author>();
+	}
+
+	@Entity
+	public static class LazyCatalog {
+		@Id ObjectId id;
+		@Reference(lazy = true) Map<String, Author> authors = new HashMap<String, Author>();
+	}
+
+	/** Counts the round trips made by each benchmark operation */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class RoundTrips {
+		public long roundTrips;
+	}
+
+	/** the latency of each round trip */
+	@Param({ "0", "50" })
+	public int latencyMicros;
+
+	private FakeDB db;
+	private Mapper mapper;
+	private Datastore ds;
+	private final CGLibLazyProxyFactory proxyFactory = new CGLibLazyProxyFactory();
+	private Key<Author> authorKey;
+	private DBObject book, lazyBook, shelf, lazyShelf, sameAuthorShelf, catalog, lazyCatalog;
+
+	@Setup
+	public void setUp() throws Exception {
+		Morphia morphia = new Morphia();
+		morphia.map(Author.class).map(Book.class).map(LazyBook.class).map(Shelf.class).map(LazyShelf.class)
+				.map(Catalog.class).map(LazyCatalog.class);
+		FakeMongo mongo = new FakeMongo();
+		db = mongo.getDB("benchmarks");
+		ds = morphia.createDatastore(mongo, "benchmarks");
+		mapper = morphia.getMapper();
+
+		List<Author> authors = new ArrayList<Author>();
+		for (int i = 0; i < REFS; i++) {
+			Author a = new Author();
+			a.name = "author" + i;
+			ds.save(a);
+			authors.add(a);
+		}
+		authorKey = ds.getKey(authors.get(0));
+
+		Book b = new Book();
+		b.author = authors.get(0);
+		book = stored(b);
+		LazyBook lb = new LazyBook();
+		lb.author = authors.get(0);
+		lazyBook = stored(lb);
+
+		Shelf s = new Shelf();
+		s.authors.addAll(authors);
+		shelf = stored(s);
+		LazyShelf ls = new LazyShelf();
+		ls.authors.addAll(authors);
+		lazyShelf = stored(ls);
+		Shelf same = new Shelf();
+		for (int i = 0; i < REFS; i++)
+			same.authors.add(authors.get(0));
+		sameAuthorShelf = stored(same);
+
+		Catalog c = new Catalog();
+		LazyCatalog lc = new LazyCatalog();
+		for (Author a : authors) {
+			c.authors.put(a.name, a);
+			lc.authors.put(a.name, a);
+		}
+		catalog = stored(c);
+		lazyCatalog = stored(lc);
+
+		db.setLatency(latencyMicros, TimeUnit.MICROSECONDS);
+	}
+
+	private DBObject stored(Object entity) {
+		ds.save(entity);
+		return mapper.toDBObject(entity);
+	}
+
+	private <T> T decode(Class<T> clazz, DBObject dbObj) {
+		return (T) mapper.fromDBObject(clazz, dbObj, mapper.createEntityCache());
+	}
+
+	private <T> T decode(Class<T> clazz, DBObject dbObj, RoundTrips counter) {
+		long before = db.getRoundTrips();
+		T entity = decode(clazz, dbObj);
+		counter.roundTrips += db.getRoundTrips() - before;
+		return entity;
+	}
+
+	@Benchmark
+	public Object eagerSingle(RoundTrips counter) {
+		return decode(Book.class, book, counter);
+	}
+
+	/** decoding only: creates the proxy (after checking the reference exists) */
+	@Benchmark
+	public Object lazySingle(RoundTrips counter) {
+		return decode(LazyBook.class, lazyBook, counter);
+	}
+
+	/** decoding, then using the proxy */
+	@Benchmark
+	public Object lazySingleResolved(RoundTrips counter) {
+		long before = db.getRoundTrips();
+		LazyBook b = decode(LazyBook.class, lazyBook);
+		String name = b.author.getName();
+		counter.roundTrips += db.getRoundTrips() - before;
+		return name;
+	}
+
+	@Benchmark
+	public Object eagerList(RoundTrips counter) {
+		return decode(Shelf.class, shelf, counter);
+	}
+
+	@Benchmark
+	public Object lazyList(RoundTrips counter) {
+		return decode(LazyShelf.class, lazyShelf, counter);
+	}
+
+	/** decoding, then iterating the proxied list (one fetch per element) */
+	@Benchmark
+	public int lazyListResolved(RoundTrips counter) {
+		long before = db.getRoundTrips();
+		LazyShelf s = decode(LazyShelf.class, lazyShelf);
+		int length = 0;
+		for (Author a : s.authors)
+			length += a.getName().length();
+		counter.roundTrips += db.getRoundTrips() - before;
+		return length;
+	}
+
+	@Benchmark
+	public Object eagerMap(RoundTrips counter) {
+		return decode(Catalog.class, catalog, counter);
+	}
+
+	@Benchmark
+	public int lazyMapResolved(RoundTrips counter) {
+		long before = db.getRoundTrips();
+		LazyCatalog c = decode(LazyCatalog.class, lazyCatalog);
+		int length = 0;
+		for (Author a : c.authors.values())
+			length += a.getName().length();
+		counter.roundTrips += db.getRoundTrips() - before;
+		return length;
+	}
+
+	/** the same reference, many times: one fetch, then entity cache hits */
+	@Benchmark
+	public Object cacheHits(RoundTrips counter) {
+		return decode(Shelf.class, sameAuthorShelf, counter);
+	}
+
+	/** creating a proxy, without a round trip */
+	@Benchmark
+	public Object proxyCreation() {
+		return proxyFactory.createProxy(Author.class, authorKey, new DefaultDatastoreProvider());
+	}
+}
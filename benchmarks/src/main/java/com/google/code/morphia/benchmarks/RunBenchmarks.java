@@ -0,0 +1,25 @@
+package com.google.code.morphia.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the benchmarks with the GC/allocation profiler; with arguments, hands them to the JMH command line instead
+ * ({@code java -jar benchmarks.jar Mapper -prof gc}).
+ */
+public final class RunBenchmarks {
+	private RunBenchmarks() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		Options opts = new OptionsBuilder().include(RunBenchmarks.class.getPackage().getName() + ".*")
+				.addProfiler(GCProfiler.class).build();
+		new Runner(opts).run();
+	}
+}
@@ -0,0 +1,199 @@
+package com.google.code.morphia.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Serialized;
+
+/**
+ * The entity shapes mapped by the benchmarks; {@link #create(String)} builds a populated instance of one.
+ */
+public final class Shapes {
+	public static final String[] NAMES = { "flat", "wide", "deep", "large", "map", "serialized", "polymorphic" };
+
+	private Shapes() {
+	}
+
+	/** like TestPerf.Address */
+	@Entity
+	public static class Flat {
+		@Id ObjectId id = new ObjectId();
+		String name = "Scott";
+		String street = "3400 Maple";
+		String city = "Manhattan Beach";
+		String state = "CA";
+		int zip = 94114;
+		Date added = new Date();
+	}
+
+	@Entity
+	public static class Wide {
+		@Id ObjectId id = new ObjectId();
+		String s0 = "s0", s1 = "s1", s2 = "s2", s3 = "s3", s4 = "s4", s5 = "s5", s6 = "s6", s7 = "s7", s8 = "s8", s9 = "s9";
+		int i0 = 0, i1 = 1, i2 = 2, i3 = 3, i4 = 4, i5 = 5, i6 = 6, i7 = 7, i8 = 8, i9 = 9;
+		long l0 = 0, l1 = 1, l2 = 2, l3 = 3, l4 = 4;
+		double d0 = 0.5, d1 = 1.5, d2 = 2.5, d3 = 3.5, d4 = 4.5;
+		boolean b0 = true, b1 = false, b2 = true, b3 = false, b4 = true;
+		Date t0 = new Date(), t1 = new Date(), t2 = new Date(), t3 = new Date(), t4 = new Date();
+		Integer n0 = 10, n1 = 11, n2 = 12, n3 = 13, n4 = 14;
+	}
+
+	@Embedded
+	public static class Node {
+		String name;
+		int depth;
+		@Embedded List<Node> children = new ArrayList<Node>();
+
+		public Node() {
+		}
+
+		Node(int depth, int fanOut) {
+			this.name = "node" + depth;
+			this.depth = depth;
+			if (depth > 0)
+				for (int i = 0; i < fanOut; i++)
+					children.add(new Node(depth - 1, fanOut));
+		}
+	}
+
+	/** an @Embedded tree, 4 levels of 3 children (121 nodes) */
+	@Entity
+	public static class Deep {
+		@Id ObjectId id = new ObjectId();
+		@Embedded Node root = new Node(4, 3);
+	}
+
+	@Entity
+	public static class Large {
+		@Id ObjectId id = new ObjectId();
+		int[] ints = new int[1000];
+		double[] doubles = new double[1000];
+		List<String> strings = new ArrayList<String>();
+		List<Long> longs = new ArrayList<Long>();
+
+		public Large() {
+			for (int i = 0; i < 1000; i++) {
+				ints[i] = i;
+				doubles[i] = i / 3.0;
+				strings.add("string-" + i);
+				longs.add((long) i * 1000);
+			}
+		}
+	}
+
+	@Embedded
+	public static class Point {
+		int x, y;
+
+		public Point() {
+		}
+
+		Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	@Entity
+	public static class Maps {
+		@Id ObjectId id = new ObjectId();
+		Map<String, String> strings = new HashMap<String, String>();
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		@Embedded Map<String, Point> points = new HashMap<String, Point>();
+
+		public Maps() {
+			for (int i = 0; i < 100; i++) {
+				strings.put("k" + i, "v" + i);
+				counts.put("c" + i, i);
+				points.put("p" + i, new Point(i, -i));
+			}
+		}
+	}
+
+	@Entity
+	public static class WithSerialized {
+		@Id ObjectId id = new ObjectId();
+		String name = "serialized";
+		@Serialized HashMap<String, List<Integer>> blob = new HashMap<String, List<Integer>>();
+		@Serialized(disableCompression = true) ArrayList<String> plain = new ArrayList<String>();
+
+		public WithSerialized() {
+			for (int i = 0; i < 50; i++) {
+				List<Integer> l = new ArrayList<Integer>();
+				for (int j = 0; j < 10; j++)
+					l.add(i * j);
+				blob.put("key" + i, l);
+				plain.add("value" + i);
+			}
+		}
+	}
+
+	@Embedded
+	public static abstract class Animal {
+		String name;
+	}
+
+	public static class Dog extends Animal {
+		boolean barks = true;
+	}
+
+	public static class Cat extends Animal {
+		int lives = 9;
+	}
+
+	@Entity
+	public static class Owner {
+		@Id ObjectId id = new ObjectId();
+		@Embedded List<Animal> pets = new ArrayList<Animal>();
+	}
+
+	/** a subclass, stored and decoded through its @Entity base class */
+	public static class PolymorphicOwner extends Owner {
+		String note = "subclass";
+
+		public PolymorphicOwner() {
+			for (int i = 0; i < 10; i++) {
+				Animal a = (i % 2 == 0) ? new Dog() : new Cat();
+				a.name = "pet" + i;
+				pets.add(a);
+			}
+		}
+	}
+
+	/** the classes to map */
+	public static Class<?>[] classes() {
+		return new Class<?>[] { Flat.class, Wide.class, Deep.class, Large.class, Maps.class, WithSerialized.class,
+				Owner.class, PolymorphicOwner.class };
+	}
+
+	public static Object create(String shape) {
+		if ("flat".equals(shape))
+			return new Flat();
+		if ("wide".equals(shape))
+			return new Wide();
+		if ("deep".equals(shape))
+			return new Deep();
+		if ("large".equals(shape))
+			return new Large();
+		if ("map".equals(shape))
+			return new Maps();
+		if ("serialized".equals(shape))
+			return new WithSerialized();
+		if ("polymorphic".equals(shape))
+			return new PolymorphicOwner();
+		throw new IllegalArgumentException("Unknown shape: " + shape);
+	}
+
+	/** @return the class to decode the shape as (its declared type) */
+	public static Class<?> declaredType(String shape) {
+		return "polymorphic".equals(shape) ? Owner.class : create(shape).getClass();
+	}
+}
@@ -0,0 +1,92 @@
+package com.mongodb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An in-process stand-in for a database, for the benchmarks: documents are kept in memory ({@link FakeDBCollection}),
+ * every call which would be a round trip to the server is counted, and can be made to take a fixed time (spinning, so
+ * it is precise at microseconds).
+ * </p>
+ * <p>
+ * It is in the driver's package because the driver's cursors read through package-private methods of
+ * {@link DBCollection}.
+ * </p>
+ */
+public class FakeDB extends DB {
+	private final Map<String, FakeDBCollection> collections = new ConcurrentHashMap<String, FakeDBCollection>();
+	private final AtomicLong roundTrips = new AtomicLong();
+	private volatile long latencyNanos = 0;
+	private volatile int lastN = 0;
+
+	public FakeDB(String name) {
+		super(name);
+	}
+
+	/** Makes every round trip take (at least) that long */
+	public void setLatency(long latency, TimeUnit unit) {
+		this.latencyNanos = unit.toNanos(latency);
+	}
+
+	/** @return the number of round trips made so far */
+	public long getRoundTrips() {
+		return roundTrips.get();
+	}
+
+	/** Counts a round trip, and waits for the latency */
+	void roundTrip() {
+		roundTrips.incrementAndGet();
+		long latency = latencyNanos;
+		if (latency > 0) {
+			long end = System.nanoTime() + latency;
+			while (System.nanoTime() < end)
+				;
+		}
+	}
+
+	/** Records the number of documents the last write (to any collection) affected, for getlasterror */
+	void setLastN(int n) {
+		this.lastN = n;
+	}
+
+	/** @return the number of documents the last write affected */
+	int getLastN() {
+		return lastN;
+	}
+
+	@Override
+	protected DBCollection doGetCollection(String name) {
+		FakeDBCollection coll = collections.get(name);
+		if (coll == null) {
+			coll = new FakeDBCollection(this, name);
+			collections.put(name, coll);
+		}
+		return coll;
+	}
+
+	@Override
+	public DBCollection getCollectionFromFull(String fullNameSpace) {
+		return getCollection(fullNameSpace.substring(fullNameSpace.indexOf('.') + 1));
+	}
+
+	/** There is only the one database */
+	@Override
+	public DB getSisterDB(String name) {
+		throw new UnsupportedOperationException("The fake database has no sister databases");
+	}
+
+	@Override
+	public void requestStart() {
+	}
+
+	@Override
+	public void requestDone() {
+	}
+
+	@Override
+	public void requestEnsureConnection() {
+	}
+}
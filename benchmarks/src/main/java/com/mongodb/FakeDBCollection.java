@@ -0,0 +1,158 @@
+package com.mongodb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.types.ObjectId;
+
+/**
+ * <p>
+ * A collection of a {@link FakeDB}, kept in memory (by _id, in no particular order). Queries match on equality and
+ * {@code $in}, which is what loading entities and references needs; sort, projections and update operators are not
+ * supported (updates replace the document). The stored documents are returned as they are, not copied.
+ * </p>
+ * <p>
+ * The {@code $cmd} collection answers {@code count} and {@code getlasterror}, and ok's any other command.
+ * </p>
+ */
+public class FakeDBCollection extends DBCollection {
+	private final FakeDB db;
+	private final Map<Object, DBObject> docs = new ConcurrentHashMap<Object, DBObject>();
+
+	FakeDBCollection(FakeDB db, String name) {
+		super(db, name);
+		this.db = db;
+	}
+
+	public void insert(DBObject o) {
+		insert(new DBObject[] { o });
+	}
+
+	public void insert(List<DBObject> list) {
+		insert(list.toArray(new DBObject[list.size()]));
+	}
+
+	public void insert(DBObject[] arr) {
+		db.roundTrip();
+		for (DBObject o : arr) {
+			if (o.get("_id") == null)
+				o.put("_id", new ObjectId());
+			docs.put(o.get("_id"), o);
+		}
+		db.setLastN(0);
+	}
+
+	public void update(DBObject q, DBObject o, boolean upsert, boolean multi) {
+		db.roundTrip();
+		for (String key : o.keySet())
+			if (key.startsWith("$"))
+				throw new UnsupportedOperationException("The fake collection only replaces documents: " + o);
+		List<DBObject> matched = matching(q);
+		if (matched.isEmpty() && upsert) {
+			if (o.get("_id") == null)
+				o.put("_id", (q.get("_id") != null) ? q.get("_id") : new ObjectId());
+			docs.put(o.get("_id"), o);
+			db.setLastN(1);
+			return;
+		}
+		int n = 0;
+		for (DBObject old : matched) {
+			o.put("_id", old.get("_id"));
+			docs.put(old.get("_id"), o);
+			n++;
+			if (!multi)
+				break;
+		}
+		db.setLastN(n);
+	}
+
+	public void remove(DBObject q) {
+		db.roundTrip();
+		List<DBObject> matched = matching(q);
+		for (DBObject o : matched)
+			docs.remove(o.get("_id"));
+		db.setLastN(matched.size());
+	}
+
+	protected void doapply(DBObject o) {
+	}
+
+	public void createIndex(DBObject keys, DBObject options) {
+		db.roundTrip();
+	}
+
+	Iterator<DBObject> __find(DBObject ref, DBObject fields, int numToSkip, int batchSize, int options) {
+		db.roundTrip();
+		if (getName().equals("$cmd"))
+			return command(ref).iterator();
+
+		// the cursor wraps the query when it has a sort, hint, ...
+		if (ref != null && (ref.containsField("$query") || (ref.containsField("query") && ref.containsField("orderby"))))
+			ref = (DBObject) (ref.containsField("$query") ? ref.get("$query") : ref.get("query"));
+
+		List<DBObject> results = matching(ref);
+		int from = Math.min(numToSkip, results.size());
+		int to = (batchSize < 0) ? Math.min(results.size(), from - batchSize) : results.size();
+		return new ArrayList<DBObject>(results.subList(from, to)).iterator();
+	}
+
+	private List<DBObject> command(DBObject cmd) {
+		CommandResult res = new CommandResult();
+		res.put("ok", 1.0);
+		String name = cmd.keySet().iterator().next();
+		if (name.equals("count")) {
+			FakeDBCollection coll = (FakeDBCollection) db.getCollection(cmd.get("count").toString());
+			res.put("n", (double) coll.matching((DBObject) cmd.get("query")).size());
+		} else if (name.equals("getlasterror")) {
+			res.put("n", db.getLastN());
+			res.put("err", null);
+		}
+		List<DBObject> list = new ArrayList<DBObject>(1);
+		list.add(res);
+		return list;
+	}
+
+	/** @return the number of documents stored */
+	public int size() {
+		return docs.size();
+	}
+
+	private List<DBObject> matching(DBObject q) {
+		if (q == null || q.keySet().isEmpty())
+			return new ArrayList<DBObject>(docs.values());
+
+		Object id = q.get("_id");
+		if (q.keySet().size() == 1 && id != null && !(id instanceof DBObject)) {
+			DBObject doc = docs.get(id);
+			List<DBObject> one = new ArrayList<DBObject>(1);
+			if (doc != null)
+				one.add(doc);
+			return one;
+		}
+
+		List<DBObject> results = new ArrayList<DBObject>();
+		for (DBObject doc : docs.values())
+			if (matches(doc, q))
+				results.add(doc);
+		return results;
+	}
+
+	private static boolean matches(DBObject doc, DBObject q) {
+		for (String key : q.keySet()) {
+			Object cond = q.get(key);
+			Object val = doc.get(key);
+			if (cond instanceof DBObject && ((DBObject) cond).containsField("$in")) {
+				if (!((Collection<?>) ((DBObject) cond).get("$in")).contains(val))
+					return false;
+			} else if (cond instanceof DBObject && ((DBObject) cond).keySet().iterator().next().startsWith("$"))
+				throw new UnsupportedOperationException("The fake collection only matches equality and $in: " + q);
+			else if ((cond == null) ? val != null : !cond.equals(val))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,26 @@
+package com.mongodb;
+
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Mongo} whose databases are {@link FakeDB}s; nothing is ever connected to.
+ */
+public class FakeMongo extends Mongo {
+	private final Map<String, FakeDB> dbs = new ConcurrentHashMap<String, FakeDB>();
+
+	public FakeMongo() throws UnknownHostException {
+		super("127.0.0.1", 27017);
+	}
+
+	@Override
+	public FakeDB getDB(String name) {
+		FakeDB db = dbs.get(name);
+		if (db == null) {
+			db = new FakeDB(name);
+			dbs.put(name, db);
+		}
+		return db;
+	}
+}
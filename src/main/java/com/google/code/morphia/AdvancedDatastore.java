@@ -1,6 +1,17 @@
 package com.google.code.morphia;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.code.morphia.io.ExportFormat;
+import com.google.code.morphia.io.ExportStats;
+import com.google.code.morphia.io.ImportStats;
+import com.google.code.morphia.query.CheckpointStore;
+import com.google.code.morphia.query.CheckpointedIterator;
 import com.google.code.morphia.query.Query;
+import com.google.code.morphia.query.QueryTemplate;
 import com.google.code.morphia.query.UpdateOperations;
 import com.mongodb.DBObject;
 import com.mongodb.DBRef;
@@ -32,6 +43,41 @@ public interface AdvancedDatastore extends Datastore {
 	<T> Key<T> save(String kind, T entity);
 	<T> void delete(String kind, T id);
 	
+	/**
+	 * Deletes the given entities and/or {@link Key}s, grouped by collection, with one {@code _id $in} remove per
+	 * {@code chunkSize} ids. The removes are run on the executor, if one is given, or on the calling thread.
+	 */
+	DeleteResults deleteAll(Iterable<?> entitiesOrKeys, int chunkSize, ExecutorService executor);
+	
+	/**
+	 * Runs {@link #ensureIndexes(boolean)} on the executor (or, if null, a daemon thread) so startup doesn't wait for
+	 * the index builds; errors are logged, and reported by the future.
+	 */
+	Future<?> ensureIndexesAsync(boolean background, ExecutorService executor);
+	
+	/**
+	 * Scans the results of the query with one cursor (and thread) per partition; the {@code _id} range is split evenly
+	 * between the smallest and largest id (ObjectIds by timestamp, numbers by value, strings by their first differing
+	 * character), so skewed ids give uneven partitions. Other id types are scanned in one partition. Blocks until all
+	 * partitions are done. The query may not filter on {@code _id}, and its order, offset and limit are not used.
+	 * 
+	 * @param executor runs the partitions; if null a thread per partition is created for the scan
+	 * @param listener may be null
+	 */
+	<T> ScanResults parallelScan(Query<T> query, int partitions, ScanConsumer<? super T> consumer, ScanProgressListener listener, ExecutorService executor);
+	
+	/**
+	 * Iterates over the query results in {@code _id} order, saving the last processed id to the store (every
+	 * {@link CheckpointedIterator#DEFAULT_CHECKPOINT_INTERVAL} entities), and resuming after it if the scan was run before.
+	 */
+	<T> CheckpointedIterator<T> fetchCheckpointed(Query<T> query, String scanName, CheckpointStore store);
+	
+	/** Writes the query results to the file; see {@link com.google.code.morphia.io.Exporter} */
+	<T> ExportStats export(Query<T> query, File file, ExportFormat format, boolean gzip) throws IOException;
+	
+	/** Bulk inserts the documents in the file into the collection for the class; see {@link com.google.code.morphia.io.Importer} */
+	<T> ImportStats importFrom(File file, Class<T> clazz, ExportFormat format, boolean prePersist) throws IOException;
+	
 	<T> Key<T> insert(String kind, T entity);
 	
 	<T> Key<T> insert(T entity);
@@ -39,6 +85,9 @@ public interface AdvancedDatastore extends Datastore {
 	<T> Iterable<Key<T>> insert(Iterable<T>entities);
 
 
+	/** Creates a reusable, pre-validated query shape; see {@link QueryTemplate} */
+	<T> QueryTemplate<T> createQueryTemplate(Class<T> clazz);
+
 	//DBObject implementations; incase we don't have features impl'd yet
 	<T> Query<T> createQuery(Class<T> kind, DBObject q);
 	<T> UpdateOperations<T> createUpdateOperations(Class<T> kind, DBObject ops);
@@ -0,0 +1,143 @@
+package com.google.code.morphia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.MappingException;
+import com.mongodb.DB;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+
+/**
+ * <p>
+ * The value of a {@link com.google.code.morphia.annotations.Chunked @Chunked} field: data (bytes, or a stream) which
+ * is stored in GridFS chunks when the entity is saved, and read from them, when asked for, after it is loaded.
+ * </p>
+ * <p>
+ * A new value is written from its stream (read once, in chunks) to the database of the datastore saving the entity,
+ * the first time it is saved (and removed again if the entity can't be saved); after that it is
+ * {@link #isStored() stored}, and saving the entity again only stores its id. To change the data, set a new
+ * ChunkedData. A loaded value reads from the database it was loaded from.
+ * </p>
+ * <p>
+ * The file is removed when the entity is saved with another value (or none), or deleted, through the datastore.
+ * Documents changed or removed otherwise (update operations, the driver) leave their files behind.
+ * </p>
+ */
+public class ChunkedData {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(ChunkedData.class);
+
+	private InputStream source;
+	private ObjectId id;
+	private String bucket;
+	private DB db;
+	private GridFSDBFile file;
+
+	/** Data to store from the stream (which is closed once it is stored) */
+	public ChunkedData(InputStream source) {
+		if (source == null)
+			throw new IllegalArgumentException("source is null");
+		this.source = source;
+	}
+
+	public ChunkedData(byte[] bytes) {
+		this(new ByteArrayInputStream(bytes));
+	}
+
+	/** Stored data, in the bucket of the database (null if it isn't known; then it can't be read) */
+	public ChunkedData(ObjectId id, String bucket, DB db) {
+		this.id = id;
+		this.bucket = bucket;
+		this.db = db;
+	}
+
+	/** Writes the data to the bucket of the database; the source is read, and closed */
+	void store(DB db, String bucket) {
+		if (source == null)
+			throw new MappingException("The data was already read, or removed when its entity could not be saved; set a new "
+					+ ChunkedData.class.getSimpleName());
+		InputStream in = source;
+		source = null;
+		try {
+			GridFSInputFile created = new GridFS(db, bucket).createFile(in);
+			created.save();
+			this.id = (ObjectId) created.getId();
+			this.bucket = bucket;
+			this.db = db;
+			this.file = null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				log.warning("Error closing the source of the data", e);
+			}
+		}
+	}
+
+	/** Removes the stored data (written for an entity which could not be saved) */
+	void remove() {
+		new GridFS(db, bucket).remove(id);
+		id = null;
+		file = null;
+	}
+
+	public boolean isStored() {
+		return id != null;
+	}
+
+	/** @return the id of the GridFS file, or null if not stored yet */
+	public ObjectId getId() {
+		return id;
+	}
+
+	/** @return the size of the stored data (read from the GridFS file), or -1 if not stored yet */
+	public long getLength() {
+		return isStored() ? file().getLength() : -1;
+	}
+
+	/**
+	 * @return the data, streamed from the chunks if stored; otherwise the source (which can only be read once, and
+	 *         then is not stored)
+	 */
+	public InputStream getInputStream() {
+		return isStored() ? file().getInputStream() : source;
+	}
+
+	/** Reads all the data; each call reads it again */
+	public byte[] getBytes() throws IOException {
+		InputStream in = getInputStream();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(isStored() ? (int) getLength() : 8 * 1024);
+			byte[] buf = new byte[8 * 1024];
+			for (int n = in.read(buf); n >= 0; n = in.read(buf))
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private GridFSDBFile file() {
+		if (file == null) {
+			if (db == null)
+				throw new MappingException("GridFS file " + id + " in " + bucket
+						+ " was not loaded through a datastore; there is no database to read it from");
+			file = new GridFS(db, bucket).findOne(id);
+			if (file == null)
+				throw new MappingException("No GridFS file " + id + " in " + bucket);
+		}
+		return file;
+	}
+
+	@Override
+	public String toString() {
+		return isStored() ? "ChunkedData{" + bucket + ":" + id + "}" : "ChunkedData{not stored}";
+	}
+}
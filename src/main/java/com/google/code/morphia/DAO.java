@@ -5,6 +5,7 @@ import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.code.morphia.query.KeysetPage;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.QueryResults;
 import com.google.code.morphia.query.UpdateOperations;
@@ -158,6 +159,18 @@ public class DAO<T,K extends Serializable> {
     	return q;
     }
 
+    /**
+     * Gets a page of entities in the given order; pass the token of the previous page, or null for the first one.
+     * @see Query#page(int, String)
+     */
+    public KeysetPage<T> findPage(String order, int pageSize, String continuationToken) {
+        return findPage(createQuery().order(order), pageSize, continuationToken);
+    }
+
+    public KeysetPage<T> findPage(Query<T> q, int pageSize, String continuationToken) {
+        return q.page(pageSize, continuationToken);
+    }
+
     public void dropCollection() {
     	ds.getCollection(entityClazz).drop();
     }
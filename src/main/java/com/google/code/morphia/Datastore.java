@@ -1,6 +1,7 @@
 package com.google.code.morphia;
 
 import java.util.List;
+import java.util.Map;
 
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.UpdateOperations;
@@ -9,6 +10,7 @@ import com.google.code.morphia.utils.IndexDirection;
 import com.google.code.morphia.utils.IndexFieldDef;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.DBRef;
 import com.mongodb.Mongo;
 /**
@@ -27,6 +29,12 @@ public interface Datastore {
 	<T> void delete(Query<T> q);
 	/** Deletes the given entity (by id) */
 	<T> void delete(T entity);
+	/**
+	 * Deletes the given entities and/or {@link Key}s (which may be of different kinds). The ids are grouped by
+	 * collection and removed with one {@code _id $in} query per chunk.
+	 * @return the number of documents removed per collection
+	 */
+	DeleteResults deleteAll(Iterable<?> entitiesOrKeys);
 
 	/** Find all instances by type */
 	<T> Query<T> find(Class<T> clazz);
@@ -112,6 +120,23 @@ public interface Datastore {
 	 */
 	<T> T findAndModify(Query<T> q, UpdateOperations<T> ops, boolean oldVersion);
 
+	/**
+	 * Runs a map-reduce on the documents found by the query (using its filter, order and limit).
+	 * @param type where the results go; for anything but {@link MapreduceType#INLINE} the output collection is the
+	 *            one mapped to {@code outputType}, so it can be refreshed incrementally ({@code MERGE}/{@code REDUCE})
+	 * @param finalize may be null
+	 * @param scopeFields (global) variables for the functions; may be null
+	 * @param outputType the class each output document ({@code {_id: key, value: ...}}) is mapped to
+	 */
+	<T> MapreduceResults<T> mapReduce(MapreduceType type, Query<?> q, String map, String reduce, String finalize, Map<String, Object> scopeFields, Class<T> outputType);
+
+	/**
+	 * Groups the documents found by the query by the keys, and maps each group document (the keys and the fields of
+	 * the reduced {@code initial} document) to {@code resultType}. All the groups are returned in one reply.
+	 * @param finalize may be null
+	 */
+	<T> List<T> group(Query<?> q, String[] keys, DBObject initial, String reduce, String finalize, Class<T> resultType);
+
 	/** The builder for all update operations */
 	<T> UpdateOperations<T> createUpdateOperations(Class<T> kind);
 	
@@ -126,9 +151,18 @@ public interface Datastore {
 
 	/** Ensures (creating if necessary) the index and direction */
 	<T> void ensureIndex(Class<T> clazz, String name, IndexFieldDef[] fields, boolean unique, boolean dropDupsOnCreate);
+
+	/** Ensures (creating if necessary) the index and direction; a background build doesn't block the collection */
+	<T> void ensureIndex(Class<T> clazz, String name, IndexFieldDef[] fields, boolean unique, boolean dropDupsOnCreate, boolean background);
 	
-	/** Ensures (creating if necessary) the indexes found during class mapping (using {@code @Indexed)}*/
+	/** Ensures (creating if necessary) the indexes found during class mapping (using {@code @Indexes/@Indexed)}*/
 	void ensureIndexes();
+	/**
+	 * Ensures the indexes found during class mapping; only indexes missing from the collections (compared by keys)
+	 * are created.
+	 * @param background builds all of them in the background (otherwise only those which ask for it)
+	 */
+	void ensureIndexes(boolean background);
 	/** Ensures (creating if necessary) the indexes found during class mapping (using {@code @Indexed)}*/
 	<T> void ensureIndexes(Class<T>  clazz);
 	/** ensure capped DBCollections for {@code Entity}(s) */
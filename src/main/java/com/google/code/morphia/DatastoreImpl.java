@@ -1,17 +1,37 @@
 package com.google.code.morphia;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.bson.types.ObjectId;
 
 import com.google.code.morphia.annotations.CappedAt;
+import com.google.code.morphia.annotations.Chunked;
+import com.google.code.morphia.annotations.Index;
 import com.google.code.morphia.annotations.Indexed;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.PostPersist;
-import com.google.code.morphia.annotations.Version;
+import com.google.code.morphia.io.ExportFormat;
+import com.google.code.morphia.io.ExportStats;
+import com.google.code.morphia.io.Exporter;
+import com.google.code.morphia.io.ImportStats;
+import com.google.code.morphia.io.Importer;
 import com.google.code.morphia.logging.MorphiaLogger;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
 import com.google.code.morphia.mapping.MappedClass;
@@ -22,9 +42,15 @@ import com.google.code.morphia.mapping.cache.EntityCache;
 import com.google.code.morphia.mapping.lazy.DatastoreHolder;
 import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReference;
 import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+import com.google.code.morphia.metrics.OperationTimer;
+import com.google.code.morphia.metrics.OperationType;
+import com.google.code.morphia.query.CheckpointStore;
+import com.google.code.morphia.query.CheckpointedIterator;
+import com.google.code.morphia.query.FilterOperator;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.QueryException;
 import com.google.code.morphia.query.QueryImpl;
+import com.google.code.morphia.query.QueryTemplate;
 import com.google.code.morphia.query.UpdateOperations;
 import com.google.code.morphia.query.UpdateOpsImpl;
 import com.google.code.morphia.query.UpdateResults;
@@ -36,7 +62,6 @@ import com.mongodb.CommandResult;
 import com.mongodb.DB;
 import com.mongodb.DB.WriteConcern;
 import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.DBRef;
 import com.mongodb.Mongo;
@@ -50,9 +75,17 @@ import com.mongodb.Mongo;
 public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	private static final MorphiaLogger log = MorphiaLoggerFactory.get(DatastoreImpl.class);
 	
+	/** The max number of ids sent in a single {@code $in} remove */
+	public static final int DEFAULT_DELETE_CHUNK_SIZE = 1000;
+	
 	protected Morphia morphia;
 	protected Mongo mongo;
 	protected DB db;
+	protected volatile WriteConcern defConcern = WriteConcern.STRICT;
+	
+	/** the resolved collection/fields per type; built once, so operations don't have to look them up each time */
+	@SuppressWarnings("rawtypes")
+	private final ConcurrentHashMap<Class, MappedClassContext> contexts = new ConcurrentHashMap<Class, MappedClassContext>();
 	
 	public DatastoreImpl(Morphia morphia, Mongo mongo) {
 		this(morphia, mongo, null);
@@ -73,10 +106,31 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 		this(morphia, mongo, dbName, null, null);
 	}
 	
+	/** For datastores which don't keep their data on a server (see {@link com.google.code.morphia.memory.InMemoryDatastore}); there is no {@link #getDB() DB} */
+	protected DatastoreImpl(Morphia morphia) {
+		this.morphia = morphia;
+		DatastoreHolder.getInstance().set(this);
+	}
+	
+	/**
+	 * The write concern of the collections; the default, STRICT, checks the result of each write (getLastError). It is
+	 * set on each collection when that is first used (and on those already in use when this is called).
+	 */
+	public void setDefaultWriteConcern(WriteConcern wc) {
+		this.defConcern = wc;
+		for (MappedClassContext ctx : contexts.values())
+			if (ctx.getCollection() != null)
+				ctx.getCollection().setWriteConcern(wc);
+	}
+	
+	public WriteConcern getDefaultWriteConcern() {
+		return defConcern;
+	}
+	
 	public <T, V> DBRef createRef(Class<T> clazz, V id) {
 		if (id == null)
 			throw new MappingException("Could not get id for " + clazz.getName());
-		return new DBRef(getDB(), getCollection(clazz).getName(), id);
+		return new DBRef(getDB(), getContext(clazz).getCollectionName(), id);
 	}
 	
 
@@ -107,7 +161,15 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	}
 	
 	protected <T, V> void delete(DBCollection dbColl, V id) {
+		OperationTimer timer = startTimer(OperationType.DELETE, dbColl);
 		dbColl.remove(BasicDBObjectBuilder.start().add(Mapper.ID_KEY, id).get());
+		if (timer != null)
+			timer.server().done();
+	}
+	
+	/** @return a timer for the operation; null if operations are not being measured */
+	protected OperationTimer startTimer(OperationType type, DBCollection dbColl) {
+		return OperationTimer.start(getMapper().getMetrics(), type, dbColl.getName());
 	}
 	
 
@@ -119,20 +181,138 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 
 	public <T, V> void delete(Class<T> clazz, V id) {
 		DBCollection dbColl = getCollection(clazz);
+		List<ChunkedData> chunks = storedChunks(clazz, dbColl, new BasicDBObject(Mapper.ID_KEY, id));
 		delete(dbColl, id);
+		removeChunks(chunks);
 	}
 
 	public <T, V> void delete(Class<T> clazz, Iterable<V> ids) {
-		DBCollection dbColl = getCollection(clazz);			
-		DBObject q = null;
-		DBCursor cursor = ((QueryImpl<T>) find(clazz).disableValidation().filter(Mapper.ID_KEY + " in", ids)).prepareCursor();
-		q = cursor.getQuery();
+		DBCollection dbColl = getCollection(clazz);
+		Mapper mapr = getMapper();
+		List<Object> chunk = new ArrayList<Object>();
+		for (V id : ids) {
+			chunk.add(mapr.toMongoObject(id));
+			if (chunk.size() == DEFAULT_DELETE_CHUNK_SIZE) {
+				removeIds(clazz, dbColl, chunk);
+				chunk = new ArrayList<Object>();
+			}
+		}
+		if (!chunk.isEmpty())
+			removeIds(clazz, dbColl, chunk);
+	}
+	
+	public DeleteResults deleteAll(Iterable<?> entitiesOrKeys) {
+		return deleteAll(entitiesOrKeys, DEFAULT_DELETE_CHUNK_SIZE, null);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public DeleteResults deleteAll(Iterable<?> entitiesOrKeys, int chunkSize, ExecutorService executor) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize must be > 0");
+		
+		Mapper mapr = getMapper();
+		Map<String, DBCollection> colls = new HashMap<String, DBCollection>();
+		Map<String, Class> classes = new HashMap<String, Class>();
+		Map<String, List<Object>> idsByKind = new LinkedHashMap<String, List<Object>>();
+		for (Object o : entitiesOrKeys) {
+			if (o == null)
+				continue;
+			Key<?> key = getKey(o);
+			String kind = key.updateKind(mapr);
+			List<Object> ids = idsByKind.get(kind);
+			if (ids == null) {
+				ids = new ArrayList<Object>();
+				idsByKind.put(kind, ids);
+				Class kindClass = key.getKindClass();
+				classes.put(kind, kindClass);
+				colls.put(kind, (kindClass != null) ? getCollection(kindClass) : getDB().getCollection(kind));
+			}
+			ids.add(mapr.toMongoObject(key.getId()));
+		}
+		
+		DeleteResults results = new DeleteResults();
+		List<String> chunkKinds = new ArrayList<String>();
+		List<Future<Long>> pending = new ArrayList<Future<Long>>();
+		for (Map.Entry<String, List<Object>> e : idsByKind.entrySet()) {
+			final String kind = e.getKey();
+			final Class kindClass = classes.get(kind);
+			final DBCollection dbColl = colls.get(kind);
+			List<Object> ids = e.getValue();
+			for (int from = 0; from < ids.size(); from += chunkSize) {
+				final List<Object> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+				if (executor == null) {
+					results.add(kind, removeIds(kindClass, dbColl, chunk));
+				} else {
+					chunkKinds.add(kind);
+					pending.add(executor.submit(new Callable<Long>() {
+						public Long call() throws Exception {
+							return removeIds(kindClass, dbColl, chunk);
+						}
+					}));
+				}
+			}
+		}
+		
+		for (int i = 0; i < pending.size(); i++) {
+			try {
+				results.add(chunkKinds.get(i), pending.get(i).get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new MappingException("Interrupted while deleting from " + chunkKinds.get(i), ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof RuntimeException)
+					throw (RuntimeException) ex.getCause();
+				throw new MappingException("Error deleting from " + chunkKinds.get(i), ex.getCause());
+			}
+		}
 		
-		if ( q!=null )
-			dbColl.remove(q);
-		else
-			for (Object id : ids)
-				delete(clazz, id);
+		if (log.isDebugEnabled())
+			log.debug("Bulk delete removed " + results);
+		return results;
+	}
+	
+	public <T> ScanResults parallelScan(Query<T> query, int partitions, ScanConsumer<? super T> consumer, ScanProgressListener listener, ExecutorService executor) {
+		return new ParallelScanner<T>((QueryImpl<T>) query, getMapper()).scan(partitions, consumer, listener, executor);
+	}
+	
+	public <T> CheckpointedIterator<T> fetchCheckpointed(Query<T> query, String scanName, CheckpointStore store) {
+		return new CheckpointedIterator<T>(query, getMapper(), scanName, store);
+	}
+	
+	public <T> ExportStats export(Query<T> query, File file, ExportFormat format, boolean gzip) throws IOException {
+		return new Exporter(this).format(format).gzip(gzip).export(query, file);
+	}
+	
+	public <T> ImportStats importFrom(File file, Class<T> clazz, ExportFormat format, boolean prePersist) throws IOException {
+		return new Importer<T>(this, clazz).format(format).prePersist(prePersist).importFrom(file);
+	}
+	
+	/** Removes the documents, and the GridFS files of their @Chunked fields (if the class, which may be null, has any) */
+	@SuppressWarnings("rawtypes")
+	private long removeIds(Class kindClass, DBCollection dbColl, List<Object> ids) {
+		List<ChunkedData> chunks = (kindClass == null) ? new ArrayList<ChunkedData>() : storedChunks(kindClass, dbColl,
+				new BasicDBObject(Mapper.ID_KEY, new BasicDBObject(FilterOperator.IN.val(), ids)));
+		long removed = removeIds(dbColl, ids);
+		removeChunks(chunks);
+		return removed;
+	}
+	
+	/** Removes the documents with the (already mapped) ids; returns the number removed as reported by the server. */
+	protected long removeIds(DBCollection dbColl, List<Object> ids) {
+		DBObject q = new BasicDBObject(Mapper.ID_KEY, new BasicDBObject(FilterOperator.IN.val(), ids));
+		if (log.isTraceEnabled())
+			log.trace("Executing remove(" + dbColl.getName() + ") for " + ids.size() + " ids");
+		
+		OperationTimer timer = startTimer(OperationType.DELETE, dbColl);
+		dbColl.remove(q);
+		CommandResult lastErr = dbColl.getDB().getLastError();
+		if (lastErr.get("err") != null)
+			throw new MappingException("Error: " + lastErr.toString());
+		Object n = lastErr.get("n");
+		long removed = (n instanceof Number) ? ((Number) n).longValue() : 0;
+		if (timer != null)
+			timer.server().documents((int) removed).done();
+		return removed;
 	}
 	
 
@@ -152,17 +332,26 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	public <T> void delete(Query<T> query) {
 		QueryImpl<T> q = (QueryImpl<T>) query;
 		DBCollection dbColl = getCollection(q.getEntityClass());
-		if (q.getQueryObject() != null)
-			dbColl.remove(q.getQueryObject());
-		else	
-			dbColl.remove(new BasicDBObject());
+		DBObject filter = (q.getQueryObject() != null) ? q.getQueryObject() : new BasicDBObject();
+		List<ChunkedData> chunks = storedChunks(q.getEntityClass(), dbColl, filter);
+		OperationTimer timer = startTimer(OperationType.DELETE, dbColl);
+		long start = q.slowLogStart();
+		dbColl.remove(filter);
+		if (timer != null)
+			timer.server().done();
+		q.logIfSlow(OperationType.DELETE, start, -1);
+		removeChunks(chunks);
 	}
 	
 
 	public <T> void ensureIndex(Class<T> clazz, String name, IndexFieldDef[] defs, boolean unique,
 			boolean dropDupsOnCreate) {
+		ensureIndex(clazz, name, defs, unique, dropDupsOnCreate, false);
+	}
+	
+	public <T> void ensureIndex(Class<T> clazz, String name, IndexFieldDef[] defs, boolean unique,
+			boolean dropDupsOnCreate, boolean background) {
 		BasicDBObjectBuilder keys = BasicDBObjectBuilder.start();
-		BasicDBObjectBuilder keyOpts = null;
 		for (IndexFieldDef def : defs) {
 			String fieldName = def.getField();
 			IndexDirection dir = def.getDirection();
@@ -172,6 +361,28 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 				keys.add(fieldName, (dir == IndexDirection.ASC) ? 1 : -1);
 		}
 		
+		ensureIndex(getCollection(clazz), null, keys.get(), name, unique, dropDupsOnCreate, background, false);
+	}
+	
+	/**
+	 * Creates the index, unless one with the same keys is already in {@code existing} (the collection's
+	 * {@code getIndexInfo()}; null to always call ensureIndex).
+	 * @return true if the index was (or may have been) created
+	 */
+	protected boolean ensureIndex(DBCollection dbColl, List<DBObject> existing, DBObject keys, String name,
+			boolean unique, boolean dropDupsOnCreate, boolean background, boolean sparse) {
+		if (existing != null)
+			for (DBObject idx : existing)
+				if (sameKeys(keys, (DBObject) idx.get("key"))) {
+					if (unique != Boolean.TRUE.equals(idx.get("unique")) || sparse != Boolean.TRUE.equals(idx.get("sparse")))
+						log.warning("Index " + idx.get("name") + " on " + dbColl.getName() + " exists with different options ("
+								+ idx + "); drop it to recreate it with unique=" + unique + ", sparse=" + sparse);
+					else if (log.isDebugEnabled())
+						log.debug("Index " + idx.get("name") + " on " + dbColl.getName() + " already exists");
+					return false;
+				}
+		
+		BasicDBObjectBuilder keyOpts = null;
 		if (name != null && !name.isEmpty()) {
 			if (keyOpts == null)
 				keyOpts = new BasicDBObjectBuilder();
@@ -184,17 +395,45 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 			if (dropDupsOnCreate)
 				keyOpts.add("dropDups", true);
 		}
+		if (background) {
+			if (keyOpts == null)
+				keyOpts = new BasicDBObjectBuilder();
+			keyOpts.add("background", true);
+		}
+		if (sparse) {
+			if (keyOpts == null)
+				keyOpts = new BasicDBObjectBuilder();
+			keyOpts.add("sparse", true);
+		}
 		
-		DBCollection dbColl = getCollection(clazz);
-		log.debug("Ensuring index for " + dbColl.getName() + "." + defs + " with keys " + keys);
 		if (keyOpts == null) {
-			log.debug("Ensuring index for " + dbColl.getName() + "." + defs + " with keys " + keys);
-			dbColl.ensureIndex(keys.get());
+			log.debug("Ensuring index for " + dbColl.getName() + " with keys " + keys);
+			dbColl.ensureIndex(keys);
 		} else {
-			log.debug("Ensuring index for " + dbColl.getName() + "." + defs + " with keys " + keys + " and opts "
-					+ keyOpts);
-			dbColl.ensureIndex(keys.get(), keyOpts.get());
+			log.debug("Ensuring index for " + dbColl.getName() + " with keys " + keys + " and opts " + keyOpts);
+			dbColl.ensureIndex(keys, keyOpts.get());
 		}
+		if (existing != null)
+			existing.add(new BasicDBObject("key", keys));
+		return true;
+	}
+	
+	/** compares index keys; the order of the fields matters (unlike {@link DBObject#equals(Object)}) */
+	private static boolean sameKeys(DBObject keys, DBObject other) {
+		if (other == null || keys.keySet().size() != other.keySet().size())
+			return false;
+		Iterator<String> it = other.keySet().iterator();
+		for (String k : keys.keySet()) {
+			if (!k.equals(it.next()))
+				return false;
+			Object v = keys.get(k), o = other.get(k);
+			if (v instanceof Number && o instanceof Number) {
+				if (((Number) v).intValue() != ((Number) o).intValue())
+					return false;
+			} else if (v == null || !v.equals(o))
+				return false;
+		}
+		return true;
 	}
 	
 	public <T> void ensureIndex(Class<T> type, String name, IndexDirection dir) {
@@ -206,15 +445,67 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	}
 	
 	protected void ensureIndexes(MappedClass mc) {
+		ensureIndexes(mc, false);
+	}
+	
+	/**
+	 * Creates the {@code @Indexes} and {@code @Indexed} indexes of the class which don't exist yet.
+	 * @param background builds all the indexes in the background (otherwise only those which ask for it)
+	 * @return the number of indexes created
+	 */
+	protected int ensureIndexes(MappedClass mc, boolean background) {
 		if (mc.getEntityAnnotation() == null)
-			return;
+			return 0;
+		DBCollection dbColl = getCollection(mc.getClazz());
+		List<DBObject> existing = new ArrayList<DBObject>(dbColl.getIndexInfo());
+		int created = 0;
+		
+		Indexes indexes = (Indexes) mc.getReleventAnnotations().get(Indexes.class);
+		if (indexes != null)
+			for (Index index : indexes.value())
+				if (ensureIndex(dbColl, existing, parseIndexFields(mc, index.value()), index.name(), index.unique(),
+						index.dropDups(), background || index.background(), index.sparse()))
+					created++;
+		
 		for (MappedField mf : mc.getPersistenceFields()) {
 			if (mf.hasAnnotation(Indexed.class)) {
 				Indexed index = mf.getAnnotation(Indexed.class);
-				ensureIndex(mc.getClazz(), index.name(), new IndexFieldDef[] {new IndexFieldDef(mf.getNameToStore(), index
-						.value())}, index.unique(), index.dropDups());
+				BasicDBObjectBuilder keys = BasicDBObjectBuilder.start();
+				if (index.value() == IndexDirection.DESC)
+					keys.add(mf.getNameToStore(), -1);
+				else
+					keys.add(mf.getNameToStore(), 1);
+				if (ensureIndex(dbColl, existing, keys.get(), index.name(), index.unique(), index.dropDups(),
+						background || index.background(), index.sparse()))
+					created++;
+			}
+		}
+		return created;
+	}
+	
+	/** parses the fields of an {@link Index} ("a, -b.c") into index keys, using the stored names */
+	protected static DBObject parseIndexFields(MappedClass mc, String spec) {
+		BasicDBObject keys = new BasicDBObject();
+		for (String field : spec.split(",")) {
+			field = field.trim();
+			if (field.length() == 0)
+				continue;
+			int dir = 1;
+			if (field.startsWith("-")) {
+				dir = -1;
+				field = field.substring(1).trim();
 			}
+			String[] parts = field.split("\\.", 2);
+			MappedField mf = mc.getMappedField(parts[0]);
+			if (mf == null)
+				mf = mc.getMappedFieldByJavaField(parts[0]);
+			if (mf == null)
+				throw new MappingException("@Index(\"" + spec + "\") on " + mc.getClazz().getName() + " refers to unknown field '" + parts[0] + "'");
+			keys.append((parts.length > 1) ? mf.getNameToStore() + "." + parts[1] : mf.getNameToStore(), dir);
 		}
+		if (keys.isEmpty())
+			throw new MappingException("@Index on " + mc.getClazz().getName() + " has no fields");
+		return keys;
 	}
 	
 
@@ -225,11 +516,39 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	
 
 	public void ensureIndexes() {
+		ensureIndexes(false);
+	}
+	
+	public void ensureIndexes(boolean background) {
 		// loops over mappedClasses and call ensureIndex for each @Entity object
 		// (for now)
+		int created = 0;
 		for (MappedClass mc : morphia.getMappedClasses().values()) {
-			ensureIndexes(mc);
+			created += ensureIndexes(mc, background);
 		}
+		if (log.isInfoEnabled() && created > 0)
+			log.info("Created " + created + " indexes");
+	}
+	
+	public Future<?> ensureIndexesAsync(final boolean background, ExecutorService executor) {
+		FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+			public void run() {
+				try {
+					ensureIndexes(background);
+				} catch (RuntimeException e) {
+					log.error("Error while ensuring indexes", e);
+					throw e;
+				}
+			}
+		}, null);
+		if (executor != null)
+			executor.execute(task);
+		else {
+			Thread t = new Thread(task, "morphia-ensureIndexes");
+			t.setDaemon(true);
+			t.start();
+		}
+		return task;
 	}
 	
 
@@ -263,7 +582,16 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	
 
 	public <T> Query<T> createQuery(Class<T> clazz) {
-		return new QueryImpl<T>(clazz, getCollection(clazz), this);
+		return newQuery(clazz, getContext(clazz).getCollectionName());
+	}
+	
+	/** Creates the queries of this datastore, on the collection */
+	protected <T> QueryImpl<T> newQuery(Class<T> clazz, String kind) {
+		return new QueryImpl<T>(clazz, getDB().getCollection(kind), this);
+	}
+
+	public <T> QueryTemplate<T> createQueryTemplate(Class<T> clazz) {
+		return new QueryTemplate<T>(clazz, getCollection(clazz), this);
 	}
 
 	public <T> Query<T> createQuery(Class<T> kind, DBObject q) {
@@ -273,7 +601,7 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	}
 
 	public <T> Query<T> find(String kind, Class<T> clazz) {
-		return new QueryImpl<T>(clazz, getDB().getCollection(kind), this);
+		return newQuery(clazz, kind);
 	}
 	
 
@@ -394,18 +722,13 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	
 
 	public <T, V> T get(Class<T> clazz, V id) {
-		List<T> results = find(getCollection(clazz).getName(), clazz, Mapper.ID_KEY, id, 0, 1).asList();
-		if (results == null || results.size() == 0)
-			return null;
-		return results.get(0);
+		return find(getContext(clazz).getCollectionName(), clazz, Mapper.ID_KEY, id, 0, 1).get();
 	}
 	
 
 	public <T> T getByKey(Class<T> clazz, Key<T> key) {
-		Mapper mapr = morphia.getMapper();
-
-		String kind = mapr.getCollectionName(clazz);
-		String keyKind = key.updateKind(mapr);
+		String kind = getContext(clazz).getCollectionName();
+		String keyKind = key.updateKind(getMapper());
 		if (!kind.equals(keyKind))
 			throw new RuntimeException("collection names don't match for key and class: " + kind + " != " + keyKind);
 		
@@ -420,12 +743,29 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 		return (T) get(entity.getClass(), id);
 	}
 	
+	/**
+	 * Returns the {@link MappedClassContext} for the type, resolving (and caching) the mapped class, collection and
+	 * special fields on first use.
+	 */
+	@SuppressWarnings("rawtypes")
+	public MappedClassContext getContext(Class clazz) {
+		MappedClassContext ctx = contexts.get(clazz);
+		if (ctx == null) {
+			MappedClass mc = getMapper().getMappedClass(clazz);
+			DBCollection dbColl = (getDB() == null) ? null : getDB().getCollection(mc.getCollectionName());
+			if (dbColl != null)
+				dbColl.setWriteConcern(defConcern);
+			ctx = new MappedClassContext(mc, dbColl);
+			MappedClassContext existing = contexts.putIfAbsent(clazz, ctx);
+			if (existing != null)
+				ctx = existing;
+		}
+		return ctx;
+	}
+	
 	@SuppressWarnings("rawtypes")
 	public DBCollection getCollection(Class clazz) {
-		String collName = morphia.getMapper().getCollectionName(clazz);
-		DBCollection dbC = getDB().getCollection(collName);
-		dbC.setWriteConcern(WriteConcern.STRICT);
-		return dbC;
+		return getContext(clazz).getCollection();
 	}
 
 	public DBCollection getCollection(Object obj) {
@@ -436,17 +776,25 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 
 	public <T> long getCount(T entity) {
 		entity = ProxyHelper.unwrap(entity);
-		return getCollection(entity).getCount();
+		return count(getCollection(entity));
 	}
 	
 
 	public <T> long getCount(Class<T> clazz) {
-		return getCollection(clazz).getCount();
+		return count(getCollection(clazz));
 	}
 	
 
 	public long getCount(String kind) {
-		return getDB().getCollection(kind).getCount();
+		return count(getDB().getCollection(kind));
+	}
+	
+	protected long count(DBCollection dbColl) {
+		OperationTimer timer = startTimer(OperationType.COUNT, dbColl);
+		long count = dbColl.getCount();
+		if (timer != null)
+			timer.server().done();
+		return count;
 	}
 	
 
@@ -466,18 +814,7 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 	
 	protected Object getId(Object entity) {
 		entity = ProxyHelper.unwrap(entity);
-		MappedClass mc;
-		String keyClassName = entity.getClass().getName();
-		if (morphia.getMappedClasses().containsKey(keyClassName))
-			mc = morphia.getMappedClasses().get(keyClassName);
-		else
-			mc = new MappedClass(entity.getClass(), getMapper());
-		
-		try {
-			return mc.getIdField().get(entity);
-		} catch (Exception e) {
-			return null;
-		}
+		return getContext(entity.getClass()).getId(entity);
 	}
 	
 	public Mapper getMapper() {
@@ -516,10 +853,15 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 		Mapper mapr = morphia.getMapper();
 		
 		DB db = dbColl.getDB();
+		OperationTimer timer = startTimer(OperationType.INSERT, dbColl);
+		List<ChunkedData> chunks = storeChunks(entity, db);
+		boolean inserted = false;
 		// TODO scary message from driver ... db.requestStart();
 		try {
 			LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
 			DBObject dbObj = mapr.toDBObject(entity, involvedObjects);
+			if (timer != null)
+				timer.mapped();
 			
 			dbColl.insert(dbObj);
 			List<? extends DBObject> obj = new ArrayList();
@@ -533,12 +875,19 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 				if (lastErr.get("err") != null)
 					throw new MappingException("Error: " + lastErr.toString());
 			}
+			inserted = true;
+			if (timer != null)
+				timer.server().document(dbObj);
 			postSaveOperations(entity, dbObj, dbColl, involvedObjects);
+			if (timer != null)
+				timer.mapped().done();
 			Key<T> key = new Key<T>(dbColl.getName(), getId(entity));
 			key.setKindClass((Class<? extends T>) entity.getClass());
 			
 			return key;
 		} finally {
+			if (!inserted)
+				removeChunks(chunks);
 			// TODO scary message from driver ... db.requestDone();
 		}
 		
@@ -563,16 +912,21 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 
 		entity = ProxyHelper.unwrap(entity);
 		Mapper mapr = morphia.getMapper();
-		MappedClass mc = mapr.getMappedClass(entity);
+		MappedField mfVersion = getContext(entity.getClass()).getVersionField();
 		
 		DB db = dbColl.getDB();
+		OperationTimer timer = startTimer(OperationType.SAVE, dbColl);
+		Object id = getContext(entity.getClass()).getId(entity);
+		List<ChunkedData> previous = (id == null) ? new ArrayList<ChunkedData>() : storedChunks(entity.getClass(), dbColl,
+				new BasicDBObject(Mapper.ID_KEY, mapr.toMongoObject(id)));
+		List<ChunkedData> chunks = storeChunks(entity, db);
+		boolean saved = false;
 //		db.requestStart();
 		try {
 			LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
 			DBObject dbObj = mapr.toDBObject(entity, involvedObjects);
-			MappedField mfVersion= null;
-			if (!mc.getFieldsAnnotatedWith(Version.class).isEmpty())
-				mfVersion = mc.getFieldsAnnotatedWith(Version.class).get(0);
+			if (timer != null)
+				timer.mapped();
 			
 			if (mfVersion != null) {
 				String versionKeyName = mfVersion.getNameToStore();
@@ -607,16 +961,98 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 				if (lastErr.get("err") != null)
 					throw new MappingException("Error: " + lastErr.toString());
 			}
+			saved = true;
+			removeReplacedChunks(entity, previous);
+			if (timer != null)
+				timer.server().document(dbObj);
 			postSaveOperations(entity, dbObj, dbColl, involvedObjects);
+			if (timer != null)
+				timer.mapped().done();
 			Key<T> key = new Key<T>(dbColl.getName(), getId(entity));
 			key.setKindClass((Class<? extends T>) entity.getClass());
 			
 			return key;
 		} finally {
+			if (!saved)
+				removeChunks(chunks);
 //			db.requestDone();
 		}
 	}
 	
+	/**
+	 * Writes the new {@link Chunked} data of the entity to GridFS, in the database; the caller removes it again (see
+	 * {@link #removeChunks(List)}) if the entity is not saved
+	 */
+	private List<ChunkedData> storeChunks(Object entity, DB db) {
+		List<ChunkedData> written = new ArrayList<ChunkedData>();
+		for (MappedField mf : getContext(entity.getClass()).getChunkedFields()) {
+			ChunkedData data = (ChunkedData) mf.getFieldValue(entity);
+			if (data == null || data.isStored())
+				continue;
+			try {
+				data.store(db, mf.getAnnotation(Chunked.class).bucket());
+			} catch (RuntimeException e) {
+				removeChunks(written);
+				throw e;
+			}
+			written.add(data);
+		}
+		return written;
+	}
+	
+	/**
+	 * The GridFS files the {@link Chunked} fields of the matching documents refer to; read before the documents are
+	 * deleted or replaced, to remove the files afterwards (see {@link #removeChunks(List)})
+	 */
+	@SuppressWarnings("rawtypes")
+	private List<ChunkedData> storedChunks(Class clazz, DBCollection dbColl, DBObject q) {
+		List<ChunkedData> stored = new ArrayList<ChunkedData>();
+		List<MappedField> fields = getContext(clazz).getChunkedFields();
+		if (fields.isEmpty())
+			return stored;
+		BasicDBObject keys = new BasicDBObject();
+		for (MappedField mf : fields)
+			keys.put(mf.getNameToStore(), 1);
+		for (DBObject doc : dbColl.find(q, keys))
+			addChunks(fields, doc, dbColl.getDB(), stored);
+		return stored;
+	}
+	
+	private static void addChunks(List<MappedField> fields, DBObject doc, DB db, List<ChunkedData> into) {
+		for (MappedField mf : fields) {
+			Object id = doc.get(mf.getNameToStore());
+			if (id instanceof ObjectId)
+				into.add(new ChunkedData((ObjectId) id, mf.getAnnotation(Chunked.class).bucket(), db));
+		}
+	}
+	
+	/** Removes the files the saved entity no longer refers to */
+	private void removeReplacedChunks(Object entity, List<ChunkedData> previous) {
+		if (previous.isEmpty())
+			return;
+		Set<ObjectId> kept = new HashSet<ObjectId>();
+		for (MappedField mf : getContext(entity.getClass()).getChunkedFields()) {
+			ChunkedData data = (ChunkedData) mf.getFieldValue(entity);
+			if (data != null && data.getId() != null)
+				kept.add(data.getId());
+		}
+		List<ChunkedData> replaced = new ArrayList<ChunkedData>();
+		for (ChunkedData data : previous)
+			if (!kept.contains(data.getId()))
+				replaced.add(data);
+		removeChunks(replaced);
+	}
+	
+	private void removeChunks(List<ChunkedData> files) {
+		for (ChunkedData data : files) {
+			try {
+				data.remove();
+			} catch (RuntimeException e) {
+				log.warning("Could not remove " + data, e);
+			}
+		}
+	}
+	
 	private void firePostPersistForChildren(LinkedHashMap<Object, DBObject> involvedObjects, Mapper mapr) {
 		for (Map.Entry<Object, DBObject> e : involvedObjects.entrySet()) {
 			Object entity = e.getKey();
@@ -681,7 +1117,7 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 		return res;
 	}
 	
-	private <T> void postSaveOperations(Object entity, DBObject dbObj, DBCollection dbColl,
+	protected <T> void postSaveOperations(Object entity, DBObject dbObj, DBCollection dbColl,
 			LinkedHashMap<Object, DBObject> involvedObjects) {
 		Mapper mapr = morphia.getMapper();
 		MappedClass mc = mapr.getMappedClass(entity);
@@ -716,9 +1152,15 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 		if (log.isTraceEnabled())
 			log.trace("Executing update(" + dbColl.getName() + ") for query: " + q + ", ops: " + u + ", multi: " + multi + ", upsert: " + createIfMissing);
 
+		OperationTimer timer = startTimer(OperationType.UPDATE, dbColl);
+		long start = qImpl.slowLogStart();
 		dbColl.update(q, u, createIfMissing, multi);
 		CommandResult opRes = dbColl.getDB().getLastError();
-		return new UpdateResults<T>(opRes);
+		UpdateResults<T> res = new UpdateResults<T>(opRes);
+		if (timer != null)
+			timer.server().documents(res.getUpdatedCount() + res.getInsertedCount()).done();
+		qImpl.logIfSlow(OperationType.UPDATE, start, res.getUpdatedCount() + res.getInsertedCount());
+		return res;
 	}
 
 	public <T> T findAndDelete(Query<T> query) {
@@ -740,8 +1182,18 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 		if (log.isTraceEnabled())
 			log.trace("Executing findAndModify(" + dbColl.getName() + ") with " + cmd);
 
-		T entity = (T) morphia.getMapper().fromDBObject(qi.getEntityClass(), (DBObject) db.command(cmd).get("value"),
-				cache);
+		OperationTimer timer = startTimer(OperationType.FIND_AND_MODIFY, dbColl);
+		DBObject res = (DBObject) db.command(cmd).get("value");
+		if (timer != null)
+			timer.server();
+		T entity = (T) morphia.getMapper().fromDBObject(qi.getEntityClass(), res, cache, getDB());
+		if (timer != null)
+			timer.document(res).mapped().done();
+		if (res != null) {
+			List<ChunkedData> chunks = new ArrayList<ChunkedData>();
+			addChunks(getContext(qi.getEntityClass()).getChunkedFields(), res, dbColl.getDB(), chunks);
+			removeChunks(chunks);
+		}
         return entity;
 	}
 
@@ -774,12 +1226,97 @@ public class DatastoreImpl implements Datastore, AdvancedDatastore {
 		if (log.isTraceEnabled())
 			log.info("Executing findAndModify(" + dbColl.getName() + ") with " + cmd);
 
+		OperationTimer timer = startTimer(OperationType.FIND_AND_MODIFY, dbColl);
 		DBObject res = (DBObject) db.command( cmd ).get( "value" );
+		if (timer != null)
+			timer.server();
 		
-		if (res == null) 
-			return null;
-		else
-			return (T) morphia.getMapper().fromDBObject(qi.getEntityClass(), res, createCache());
+		T entity = null;
+		if (res != null) 
+			entity = (T) morphia.getMapper().fromDBObject(qi.getEntityClass(), res, createCache(), getDB());
+		if (timer != null)
+			timer.document(res).mapped().done();
+		return entity;
+	}
+	
+	public <T> MapreduceResults<T> mapReduce(MapreduceType type, Query<?> q, String map, String reduce, String finalize, Map<String, Object> scopeFields, Class<T> outputType) {
+		QueryImpl<?> qi = (QueryImpl<?>) q;
+		DBCollection dbColl = qi.getCollection();
+		String outColl = (type == MapreduceType.INLINE) ? null : getCollection(outputType).getName();
+		
+		BasicDBObject cmd = new BasicDBObject("mapreduce", dbColl.getName());
+		cmd.append("map", map);
+		cmd.append("reduce", reduce);
+		cmd.append("out", new BasicDBObject(type.value(), (outColl == null) ? 1 : outColl));
+		if (finalize != null)
+			cmd.append("finalize", finalize);
+		if (scopeFields != null && !scopeFields.isEmpty())
+			cmd.append("scope", new BasicDBObject(scopeFields));
+		appendQuery(cmd, qi);
+		if (qi.getLimit() > 0)
+			cmd.append("limit", qi.getLimit());
+		
+		DBObject res = runCommand("mapreduce", dbColl, cmd);
+		MapreduceResults<T> results = new MapreduceResults<T>(type, outColl, res);
+		if (outColl == null) {
+			EntityCache cache = createCache();
+			List<T> inline = new ArrayList<T>();
+			for (Object o : (Iterable<Object>) res.get("results"))
+				inline.add((T) getMapper().fromDBObject(outputType, (DBObject) o, cache, getDB()));
+			results.setResults(inline);
+		} else
+			results.setOutput(this, outputType);
+		
+		if (log.isDebugEnabled())
+			log.debug("mapReduce(" + dbColl.getName() + ") " + results);
+		return results;
+	}
+	
+	public <T> List<T> group(Query<?> q, String[] keys, DBObject initial, String reduce, String finalize, Class<T> resultType) {
+		QueryImpl<?> qi = (QueryImpl<?>) q;
+		DBCollection dbColl = qi.getCollection();
+		
+		BasicDBObject key = new BasicDBObject();
+		for (String k : keys)
+			key.append(k, true);
+		BasicDBObject group = new BasicDBObject("ns", dbColl.getName());
+		group.append("key", key);
+		group.append("initial", (initial == null) ? new BasicDBObject() : initial);
+		group.append("$reduce", reduce);
+		if (finalize != null)
+			group.append("finalize", finalize);
+		DBObject cond = qi.getQueryObject();
+		if (cond != null && !cond.keySet().isEmpty())
+			group.append("cond", cond);
+		
+		DBObject res = runCommand("group", dbColl, new BasicDBObject("group", group));
+		EntityCache cache = createCache();
+		List<T> groups = new ArrayList<T>();
+		for (Object o : (Iterable<Object>) res.get("retval"))
+			groups.add((T) getMapper().fromDBObject(resultType, (DBObject) o, cache, getDB()));
+		return groups;
+	}
+	
+	/** Adds the filter and order of the query to the command */
+	private static void appendQuery(BasicDBObject cmd, QueryImpl<?> qi) {
+		DBObject q = qi.getQueryObject();
+		if (q != null && !q.keySet().isEmpty())
+			cmd.append("query", q);
+		DBObject s = qi.getSortObject();
+		if (s != null && !s.keySet().isEmpty())
+			cmd.append("sort", s);
+	}
+	
+	private DBObject runCommand(String name, DBCollection dbColl, DBObject cmd) {
+		if (log.isTraceEnabled())
+			log.trace("Executing " + name + "(" + dbColl.getName() + ") with " + cmd);
+		OperationTimer timer = startTimer(OperationType.COMMAND, dbColl);
+		CommandResult res = db.command(cmd);
+		if (timer != null)
+			timer.server().done();
+		if (!res.ok())
+			throw new MappingException(name + "(" + dbColl.getName() + ") failed: " + res.getErrorMessage());
+		return res;
 	}
 	
 	/** Converts a list of keys to refs */
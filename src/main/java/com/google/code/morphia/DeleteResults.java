@@ -0,0 +1,41 @@
+package com.google.code.morphia;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The number of documents removed by a bulk delete, per collection.
+ */
+public class DeleteResults {
+	private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+	private long total = 0;
+
+	/** Adds the number of documents removed from the collection (by a chunk of the delete) */
+	public void add(String kind, long removed) {
+		Long prev = counts.get(kind);
+		counts.put(kind, (prev == null) ? removed : prev + removed);
+		total += removed;
+	}
+
+	/** @return the number of documents removed from the collection */
+	public long getCount(String kind) {
+		Long c = counts.get(kind);
+		return (c == null) ? 0 : c;
+	}
+
+	/** @return the number of documents removed, keyed by collection name */
+	public Map<String, Long> getCounts() {
+		return Collections.unmodifiableMap(counts);
+	}
+
+	/** @return the number of documents removed from all collections */
+	public long getTotal() {
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "DeleteResults{total=" + total + ", counts=" + counts + "}";
+	}
+}
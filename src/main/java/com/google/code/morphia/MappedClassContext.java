@@ -0,0 +1,71 @@
+package com.google.code.morphia;
+
+import java.util.List;
+
+import com.google.code.morphia.annotations.Chunked;
+import com.google.code.morphia.annotations.Version;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.mongodb.DBCollection;
+
+/**
+ * <p>
+ * Everything a {@link Datastore} operation needs to know about a mapped type, resolved once: the {@link MappedClass},
+ * the {@link DBCollection}, and the @Id/@Version/@Chunked fields.
+ * </p>
+ */
+public class MappedClassContext {
+	private final MappedClass mappedClass;
+	private final DBCollection dbColl;
+	private final MappedField idField;
+	private final MappedField versionField;
+	private final List<MappedField> chunkedFields;
+
+	MappedClassContext(MappedClass mc, DBCollection dbColl) {
+		this.mappedClass = mc;
+		this.dbColl = dbColl;
+
+		this.idField = (mc.getIdField() == null) ? null : mc.getMappedIdField();
+		List<MappedField> versions = mc.getFieldsAnnotatedWith(Version.class);
+		this.versionField = versions.isEmpty() ? null : versions.get(0);
+		this.chunkedFields = mc.getFieldsAnnotatedWith(Chunked.class);
+	}
+
+	public MappedClass getMappedClass() {
+		return mappedClass;
+	}
+
+	public DBCollection getCollection() {
+		return dbColl;
+	}
+
+	public String getCollectionName() {
+		return mappedClass.getCollectionName();
+	}
+
+	/** @return the @Id field, or null if the type doesn't have one */
+	public MappedField getIdField() {
+		return idField;
+	}
+
+	/** @return the @Version field, or null if the type isn't versioned */
+	public MappedField getVersionField() {
+		return versionField;
+	}
+
+	/** @return the @Chunked fields (empty for most types) */
+	public List<MappedField> getChunkedFields() {
+		return chunkedFields;
+	}
+
+	/** @return the value of the @Id field, or null if there is none (or it isn't set) */
+	public Object getId(Object entity) {
+		if (idField == null)
+			return null;
+		try {
+			return idField.getFieldValue(entity);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.google.code.morphia;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.code.morphia.query.Query;
+import com.mongodb.DBObject;
+
+/**
+ * The results of a map-reduce; either the (mapped) inline results, or a {@link Query} on the output collection.
+ */
+public class MapreduceResults<T> implements Iterable<T> {
+	private final MapreduceType type;
+	private final String outputCollectionName;
+	private final long timeMillis;
+	private final long inputCount, emitCount, outputCount;
+	private List<T> results;
+	private AdvancedDatastore ds;
+	private Class<T> clazz;
+
+	MapreduceResults(MapreduceType type, String outputCollectionName, DBObject res) {
+		this.type = type;
+		this.outputCollectionName = outputCollectionName;
+		this.timeMillis = number(res.get("timeMillis"));
+		DBObject counts = (DBObject) res.get("counts");
+		inputCount = (counts == null) ? 0 : number(counts.get("input"));
+		emitCount = (counts == null) ? 0 : number(counts.get("emit"));
+		outputCount = (counts == null) ? 0 : number(counts.get("output"));
+	}
+
+	private static long number(Object o) {
+		return (o instanceof Number) ? ((Number) o).longValue() : 0;
+	}
+
+	void setResults(List<T> results) {
+		this.results = results;
+	}
+
+	void setOutput(AdvancedDatastore ds, Class<T> clazz) {
+		this.ds = ds;
+		this.clazz = clazz;
+	}
+
+	public MapreduceType getType() {
+		return type;
+	}
+
+	/** @return the collection the results were written to; null for {@link MapreduceType#INLINE} */
+	public String getOutputCollectionName() {
+		return outputCollectionName;
+	}
+
+	/** @return a new query on the output collection; null for {@link MapreduceType#INLINE} */
+	public Query<T> createQuery() {
+		return (results != null) ? null : ds.find(outputCollectionName, clazz);
+	}
+
+	/** @return the inline results, or all the documents in the output collection */
+	public List<T> asList() {
+		return (results != null) ? Collections.unmodifiableList(results) : createQuery().asList();
+	}
+
+	public Iterator<T> iterator() {
+		return (results != null) ? Collections.unmodifiableList(results).iterator() : createQuery().fetch().iterator();
+	}
+
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/** @return the number of documents matched by the query */
+	public long getInputCount() {
+		return inputCount;
+	}
+
+	/** @return the number of times emit was called */
+	public long getEmitCount() {
+		return emitCount;
+	}
+
+	/** @return the number of documents produced */
+	public long getOutputCount() {
+		return outputCount;
+	}
+
+	@Override
+	public String toString() {
+		return "MapreduceResults{type=" + type + ", output=" + outputCollectionName + ", input=" + inputCount + ", emit="
+				+ emitCount + ", output=" + outputCount + ", millis=" + timeMillis + "}";
+	}
+}
@@ -0,0 +1,26 @@
+package com.google.code.morphia;
+
+/**
+ * Where the output of a map-reduce goes; see {@link Datastore#mapReduce}.
+ */
+public enum MapreduceType {
+	/** the results are returned with the command (limited to the max document size) */
+	INLINE("inline"),
+	/** the output collection is replaced with the results */
+	REPLACE("replace"),
+	/** the results are saved to the output collection, overwriting documents with the same key */
+	MERGE("merge"),
+	/** the results are reduced with the documents (with the same key) already in the output collection */
+	REDUCE("reduce");
+
+	private final String value;
+
+	private MapreduceType(String value) {
+		this.value = value;
+	}
+
+	/** @return the name of the option in the command's {@code out} document */
+	public String value() {
+		return value;
+	}
+}
@@ -17,9 +17,14 @@
 package com.google.code.morphia;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Entity;
@@ -27,6 +32,10 @@ import com.google.code.morphia.mapping.MappedClass;
 import com.google.code.morphia.mapping.Mapper;
 import com.google.code.morphia.mapping.MappingException;
 import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.mapping.registry.MappingRegistry;
+import com.google.code.morphia.metrics.MappingProfiler;
+import com.google.code.morphia.metrics.OperationMetrics;
+import com.google.code.morphia.metrics.SlowOperationLog;
 import com.google.code.morphia.utils.ReflectionUtils;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
@@ -75,7 +84,10 @@ public class Morphia {
     }
 
     /**
-     * Tries to map all classes in the package specified.
+     * Tries to map all classes in the package specified. Uses the {@link MappingRegistry} of the package (written at
+     * compile time by the {@link com.google.code.morphia.mapping.registry.MappingRegistryProcessor}) if every jar or
+     * directory with classes of the package has one; otherwise loads all the classes of the package to find the mapped
+     * ones.
      *
      * @param packageName
      *            the name of the package to process
@@ -84,20 +96,41 @@ public class Morphia {
      * @return the Morphia instance
      */
     public synchronized Morphia mapPackage(String packageName, boolean ignoreInvalidClasses) {
+        return mapPackage(packageName, ignoreInvalidClasses, null);
+    }
+
+    /**
+     * Like {@link #mapPackage(String, boolean)}, mapping (and validating) the classes concurrently on the executor (see
+     * {@link #mapAll(Collection, ExecutorService, boolean)}).
+     */
+    public synchronized Morphia mapPackage(String packageName, boolean ignoreInvalidClasses, ExecutorService executor) {
         try {
-            for (Class c : ReflectionUtils.getClasses(packageName)) {
-                try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            List<Class> classes = new ArrayList<Class>();
+            Map<String, MappingRegistry.Entry> registered = null;
+            List<MappingRegistry.Entry> entries = MappingRegistry.forPackage(loader, packageName);
+            if (entries != null) {
+                registered = new HashMap<String, MappingRegistry.Entry>();
+                for (MappingRegistry.Entry e : entries) {
+                    try {
+                        classes.add(e.load(loader));
+                        registered.put(e.getClassName(), e);
+                    } catch (MappingException ex) {
+                        if (!ignoreInvalidClasses) {
+                            throw ex;
+                        }
+                    }
+                }
+            } else {
+                for (Class c : ReflectionUtils.getClasses(loader, packageName)) {
                     Embedded embeddedAnn = ReflectionUtils.getClassEmbeddedAnnotation(c);
                     Entity enityAnn = ReflectionUtils.getClassEntityAnnotation(c);
                     if ( enityAnn != null || embeddedAnn != null ) {
-                        map(c);
-                    }
-                } catch (MappingException ex) {
-                    if (!ignoreInvalidClasses) {
-                        throw ex;
+                        classes.add(c);
                     }
                 }
             }
+            mapper.addMappedClasses(classes, registered, executor, ignoreInvalidClasses);
             return this;
         } catch (IOException ioex) {
             throw new MappingException("Could not get map classes from package " + packageName, ioex);
@@ -106,6 +139,17 @@ public class Morphia {
         }
     }
 
+    /**
+     * Maps (and validates) the classes concurrently, on the executor (or serially in this thread, if it is null); the
+     * classes are only added once all of them are mapped. If any can't be mapped, a
+     * {@link com.google.code.morphia.mapping.BulkMappingException BulkMappingException} reports all of them and none
+     * are added, unless ignoreInvalidClasses is set.
+     */
+    public synchronized Morphia mapAll(Collection<Class> classes, ExecutorService executor, boolean ignoreInvalidClasses) {
+        mapper.addMappedClasses(classes, executor, ignoreInvalidClasses);
+        return this;
+    }
+
     /**
      * Get a set of all classes that are mapped by this instance.
      *
@@ -145,6 +189,33 @@ public class Morphia {
 
     public Mapper getMapper() { return this.mapper; }
 
+    /**
+     * Reports every operation of the datastores created from this instance to the metrics (see
+     * {@link com.google.code.morphia.metrics.HistogramMetrics HistogramMetrics}); null turns measuring off.
+     */
+    public Morphia setMetrics(OperationMetrics metrics) {
+        mapper.setMetrics(metrics);
+        return this;
+    }
+
+    public OperationMetrics getMetrics() { return mapper.getMetrics(); }
+
+    /** Measures the cost of mapping each class (and field) to and from documents; null turns profiling off. */
+    public Morphia setMappingProfiler(MappingProfiler profiler) {
+        mapper.setProfiler(profiler);
+        return this;
+    }
+
+    public MappingProfiler getMappingProfiler() { return mapper.getProfiler(); }
+
+    /** Logs the queries, counts, updates and deletes slower than the log's threshold; null turns it off. */
+    public Morphia setSlowOperationLog(SlowOperationLog slowLog) {
+        mapper.setSlowOperationLog(slowLog);
+        return this;
+    }
+
+    public SlowOperationLog getSlowOperationLog() { return mapper.getSlowOperationLog(); }
+
     public Datastore createDatastore(String dbName) { 
     	return createDatastore(dbName, null, null);
 	}
@@ -0,0 +1,198 @@
+package com.google.code.morphia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.query.FilterOperator;
+import com.google.code.morphia.query.QueryException;
+import com.google.code.morphia.query.QueryImpl;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * Splits a query into {@code _id} ranges and scans each range on its own cursor and thread.
+ */
+class ParallelScanner<T> {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(ParallelScanner.class);
+
+	/** how often (in entities) progress is reported */
+	static final int PROGRESS_INTERVAL = 1000;
+
+	private final QueryImpl<T> query;
+	private final Mapper mapr;
+	private final DBCollection dbColl;
+	private final DBObject baseQuery;
+
+	ParallelScanner(QueryImpl<T> query, Mapper mapr) {
+		if (query.getOffset() > 0 || query.getLimit() > 0)
+			throw new QueryException("A parallel scan can not use offset/limit");
+		this.query = query;
+		this.mapr = mapr;
+		this.dbColl = query.getCollection();
+		DBObject q = query.getQueryObject();
+		this.baseQuery = (q == null) ? new BasicDBObject() : q;
+		if (baseQuery.containsField(Mapper.ID_KEY))
+			throw new QueryException("A parallel scan partitions on " + Mapper.ID_KEY + "; the query can not filter on it too");
+	}
+
+	/**
+	 * Finds the lower bound of each partition (the first is null), splitting the range between the smallest and
+	 * largest {@code _id} evenly: ObjectIds by timestamp, numbers by value, and strings at the first character they
+	 * differ in. Any other id type (or a mix of types) is scanned in one partition.
+	 */
+	List<Object> splitPoints(int partitions) {
+		List<Object> bounds = new ArrayList<Object>(partitions);
+		bounds.add(null);
+		if (partitions == 1)
+			return bounds;
+
+		Object min = boundaryId(1);
+		Object max = boundaryId(-1);
+		if (min == null || min.equals(max))
+			return bounds;
+
+		if (min instanceof ObjectId && max instanceof ObjectId) {
+			long start = timestamp((ObjectId) min);
+			long end = timestamp((ObjectId) max);
+			for (int i = 1; i < partitions; i++) {
+				long ts = start + ((end - start) * i) / partitions;
+				ObjectId split = new ObjectId(String.format("%08x", ts) + "0000000000000000");
+				if (!split.equals(bounds.get(bounds.size() - 1)) && timestamp(split) > start)
+					bounds.add(split);
+			}
+		} else if (isIntegral(min) && isIntegral(max)) {
+			long start = ((Number) min).longValue();
+			long end = ((Number) max).longValue();
+			for (int i = 1; i < partitions; i++) {
+				Long split = start + (long) (((double) (end - start) * i) / partitions);
+				if (split > start && !split.equals(bounds.get(bounds.size() - 1)))
+					bounds.add(split);
+			}
+		} else if (min instanceof Number && max instanceof Number) {
+			double start = ((Number) min).doubleValue();
+			double end = ((Number) max).doubleValue();
+			for (int i = 1; i < partitions; i++)
+				bounds.add(start + ((end - start) * i) / partitions);
+		} else if (min instanceof String && max instanceof String) {
+			String lo = (String) min;
+			String hi = (String) max;
+			int at = 0;
+			while (at < lo.length() && lo.charAt(at) == hi.charAt(at))
+				at++;
+			String prefix = hi.substring(0, at);
+			int first = (at < lo.length()) ? lo.charAt(at) : 0;
+			int last = hi.charAt(at);
+			for (int i = 1; i < partitions; i++) {
+				int c = first + ((last - first) * i) / partitions;
+				String split = prefix + (char) c;
+				if (c > first && !split.equals(bounds.get(bounds.size() - 1)))
+					bounds.add(split);
+			}
+		} else {
+			log.info("Scanning " + dbColl.getName() + " in one partition; can not split the range of " + Mapper.ID_KEY
+					+ " from " + min + " to " + max);
+		}
+		return bounds;
+	}
+
+	ScanResults scan(int partitions, final ScanConsumer<? super T> consumer, final ScanProgressListener listener,
+			ExecutorService executor) {
+		if (partitions < 1)
+			throw new IllegalArgumentException("partitions must be > 0");
+
+		final List<Object> bounds = splitPoints(partitions);
+		final ScanResults results = new ScanResults(bounds.toArray());
+		if (log.isDebugEnabled())
+			log.debug("Scanning " + dbColl.getName() + " in " + bounds.size() + " partitions starting at " + bounds);
+
+		boolean ownExecutor = (executor == null);
+		if (ownExecutor)
+			executor = Executors.newFixedThreadPool(bounds.size());
+		try {
+			List<Future<?>> pending = new ArrayList<Future<?>>(bounds.size());
+			for (int i = 0; i < bounds.size(); i++) {
+				final int partition = i;
+				final Object lower = bounds.get(i);
+				final Object upper = (i + 1 < bounds.size()) ? bounds.get(i + 1) : null;
+				pending.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						scanPartition(partition, lower, upper, consumer, listener, results);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : pending)
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MappingException("Interrupted while scanning " + dbColl.getName(), e);
+		} catch (ExecutionException e) {
+			throw new MappingException("Error scanning " + dbColl.getName(), e.getCause());
+		} finally {
+			if (ownExecutor)
+				executor.shutdownNow();
+		}
+		return results;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void scanPartition(int partition, Object lower, Object upper, ScanConsumer<? super T> consumer,
+			ScanProgressListener listener, ScanResults results) {
+		BasicDBObject range = new BasicDBObject();
+		if (lower != null)
+			range.put(FilterOperator.GREATER_THAN_OR_EQUAL.val(), lower);
+		if (upper != null)
+			range.put(FilterOperator.LESS_THAN.val(), upper);
+		DBObject q = new BasicDBObject(baseQuery.toMap());
+		if (!range.isEmpty())
+			q.put(Mapper.ID_KEY, range);
+
+		long count = 0;
+		Throwable error = null;
+		DBCursor cursor = dbColl.find(q, query.getFieldsObject());
+		try {
+			while (cursor.hasNext()) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				T entity = (T) mapr.fromDBObject(query.getEntityClass(), cursor.next(), mapr.createEntityCache(), dbColl.getDB());
+				consumer.consume(partition, entity);
+				count++;
+				if (listener != null && count % PROGRESS_INTERVAL == 0)
+					listener.progress(partition, count);
+			}
+		} catch (Throwable t) {
+			error = t;
+			log.warning("Partition " + partition + " of the scan of " + dbColl.getName() + " failed after " + count, t);
+		}
+		results.done(partition, count, error);
+		if (listener != null)
+			listener.partitionDone(partition, count, error);
+	}
+
+	private Object boundaryId(int dir) {
+		DBCursor c = dbColl.find(baseQuery, new BasicDBObject(Mapper.ID_KEY, 1)).sort(new BasicDBObject(Mapper.ID_KEY, dir)).limit(1);
+		return c.hasNext() ? c.next().get(Mapper.ID_KEY) : null;
+	}
+
+	private static boolean isIntegral(Object id) {
+		return id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte;
+	}
+
+	/** the (seconds) timestamp in the first 4 bytes of the id */
+	private static long timestamp(ObjectId id) {
+		return Long.parseLong(id.toString().substring(0, 8), 16);
+	}
+}
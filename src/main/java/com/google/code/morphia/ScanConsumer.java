@@ -0,0 +1,10 @@
+package com.google.code.morphia;
+
+/**
+ * Receives the entities of a {@link AdvancedDatastore#parallelScan parallel scan}; it is called concurrently, from one
+ * thread per partition.
+ */
+public interface ScanConsumer<T> {
+	/** Handles one entity; throwing stops the partition (the others continue) */
+	void consume(int partition, T entity) throws Exception;
+}
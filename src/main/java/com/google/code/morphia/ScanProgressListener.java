@@ -0,0 +1,13 @@
+package com.google.code.morphia;
+
+/**
+ * Notified of the progress of each partition of a {@link AdvancedDatastore#parallelScan parallel scan}; called from
+ * the partition threads.
+ */
+public interface ScanProgressListener {
+	/** Called periodically, with the number of entities consumed so far in the partition */
+	void progress(int partition, long scanned);
+
+	/** Called once per partition when it finishes; error is null unless the partition failed */
+	void partitionDone(int partition, long scanned, Throwable error);
+}
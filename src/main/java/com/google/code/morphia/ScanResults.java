@@ -0,0 +1,80 @@
+package com.google.code.morphia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a {@link AdvancedDatastore#parallelScan parallel scan}, per partition.
+ */
+public class ScanResults {
+	private final Object[] lowerBounds;
+	private final long[] counts;
+	private final Throwable[] errors;
+
+	ScanResults(Object[] lowerBounds) {
+		this.lowerBounds = lowerBounds;
+		this.counts = new long[lowerBounds.length];
+		this.errors = new Throwable[lowerBounds.length];
+	}
+
+	void done(int partition, long count, Throwable error) {
+		counts[partition] = count;
+		errors[partition] = error;
+	}
+
+	/** @return the number of partitions the scan was split into */
+	public int getPartitionCount() {
+		return counts.length;
+	}
+
+	/** @return the (inclusive) lower {@code _id} bound of the partition; null for the first one */
+	public Object getLowerBound(int partition) {
+		return lowerBounds[partition];
+	}
+
+	/** @return the number of entities consumed in the partition */
+	public long getCount(int partition) {
+		return counts[partition];
+	}
+
+	/** @return the error which stopped the partition, or null */
+	public Throwable getError(int partition) {
+		return errors[partition];
+	}
+
+	/** @return the errors of all failed partitions */
+	public List<Throwable> getErrors() {
+		List<Throwable> errs = new ArrayList<Throwable>();
+		for (Throwable t : errors)
+			if (t != null)
+				errs.add(t);
+		return Collections.unmodifiableList(errs);
+	}
+
+	/** @return true if all partitions completed without error */
+	public boolean isSuccessful() {
+		return getErrors().isEmpty();
+	}
+
+	/** @return the number of entities consumed in all partitions */
+	public long getTotal() {
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ScanResults{total=").append(getTotal()).append(", partitions=[");
+		for (int i = 0; i < counts.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(counts[i]);
+			if (errors[i] != null)
+				sb.append("(failed: ").append(errors[i]).append(")");
+		}
+		return sb.append("]}").toString();
+	}
+}
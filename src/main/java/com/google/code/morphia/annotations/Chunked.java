@@ -0,0 +1,34 @@
+package com.google.code.morphia.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.google.code.morphia.mapping.Mapper;
+
+/**
+ * <p>
+ * Stores a {@link com.google.code.morphia.ChunkedData} field out of the document, in the chunks of a GridFS bucket;
+ * the document keeps the id of the GridFS file, and the data is only read when it is asked for.
+ * </p>
+ * <p>
+ * New data is written to the database of the datastore which saves (or inserts) the entity, before the entity is
+ * mapped; so it can't be set by a {@code @PrePersist} method, nor be in an embedded object.
+ * </p>
+ *
+ * <pre>
+ * &#064;Chunked ChunkedData attachment = new ChunkedData(inputStream);
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Chunked {
+	/** The name of the Mongo value storing the (GridFS file) id; defaults to the name of the field */
+	String value() default Mapper.IGNORED_FIELDNAME;
+
+	/** The GridFS bucket (the files and chunks collections are bucket.files and bucket.chunks) */
+	String bucket() default "fs";
+}
@@ -0,0 +1,27 @@
+package com.google.code.morphia.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A (compound) index, declared on the class with {@link Indexes}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface Index {
+	/** The fields, in order, separated by commas; prefix a field with '-' for descending: {@code "lastName, -age"} */
+	String value();
+	/** The name of the index to create; default is to let the mongodb create a name (in the form of key1_1/-1_key2_1/-1...*/
+	String name() default "";
+	/** Creates the index as a unique value index; inserting duplicates values in these fields will cause errors */
+	boolean unique() default false;
+	/** Tells the unique index to drop duplicates silently when creating; only the first will be kept*/
+	boolean dropDups() default false;
+	/** Builds the index in the background, without blocking other operations on the collection */
+	boolean background() default false;
+	/** Leaves documents without the (first) field out of the index */
+	boolean sparse() default false;
+}
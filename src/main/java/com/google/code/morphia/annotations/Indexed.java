@@ -26,4 +26,8 @@ public @interface Indexed {
 	boolean unique() default false;
 	/** Tells the unique index to drop duplicates silently when creating; only the first will be kept*/
 	boolean dropDups() default false;
+	/** Builds the index in the background, without blocking other operations on the collection */
+	boolean background() default false;
+	/** Leaves documents without the field out of the index */
+	boolean sparse() default false;
 }
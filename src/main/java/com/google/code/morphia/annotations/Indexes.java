@@ -0,0 +1,22 @@
+package com.google.code.morphia.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies the (compound) indexes of an {@code @Entity}.
+ * 
+ * <pre>
+ * &#064;Entity &#064;Indexes(&#064;Index("lastName, -age"))
+ * </pre>
+ */
+@Documented @Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+public @interface Indexes {
+	Index[] value();
+}
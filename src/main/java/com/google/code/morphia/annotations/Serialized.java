@@ -23,18 +23,31 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.serialization.SerializedCodec;
 
 /**
- * Marker for fields that should be (java) serialized
+ * Marker for fields that should be serialized (by default with java serialization; see
+ * {@link com.google.code.morphia.mapping.MapperOptions#serializedCodec}). On a class, it sets the {@link #codec()} of
+ * the fields of that type which don't set one. byte[] fields are stored as is, unless
+ * {@link com.google.code.morphia.mapping.MapperOptions#serializeByteArrays} is set.
  * 
  * @author Scott Hernandez
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.FIELD)
+@Target({ElementType.FIELD, ElementType.TYPE})
 public @interface Serialized {
 
 	boolean disableCompression() default false;
 	
+	/** The {@link java.util.zip.Deflater} level (1-9) */
+	int compressionLevel() default -1;
+	
+	/** Values serialized to this many bytes, or less, are stored uncompressed */
+	int compressAbove() default 0;
+	
+	/** The codec to serialize with; {@link SerializedCodec} itself means the one of the type, or the default one */
+	Class<? extends SerializedCodec> codec() default SerializedCodec.class;
+	
 	String value() default Mapper.IGNORED_FIELDNAME;
 }
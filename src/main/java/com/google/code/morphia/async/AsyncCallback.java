@@ -0,0 +1,13 @@
+package com.google.code.morphia.async;
+
+/**
+ * Notified when a {@link ResultFuture} completes. Callbacks run on the thread that completed the future (or on the
+ * registering thread, if it was already complete), so they should not block.
+ */
+public interface AsyncCallback<T> {
+	/** the operation completed normally */
+	void onSuccess(T result);
+
+	/** the operation failed, or was cancelled ({@link java.util.concurrent.CancellationException}) */
+	void onFailure(Throwable t);
+}
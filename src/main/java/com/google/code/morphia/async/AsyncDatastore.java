@@ -0,0 +1,62 @@
+package com.google.code.morphia.async;
+
+import java.util.List;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DeleteResults;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.query.Query;
+import com.google.code.morphia.query.UpdateOperations;
+import com.google.code.morphia.query.UpdateResults;
+
+/**
+ * <p>
+ * Non-blocking facade over a {@link Datastore}; each call is run on an executor and returns a {@link ResultFuture}.
+ * </p>
+ * <p>
+ * The entities and queries passed in must not be modified until the returned future completes.
+ * </p>
+ */
+public interface AsyncDatastore {
+	/** Find the given entity (by id); see {@link Datastore#get(Class, Object)} */
+	<T, V> ResultFuture<T> get(Class<T> clazz, V id);
+
+	/** Find the given entities (by key); see {@link Datastore#getByKeys(Class, Iterable)} */
+	<T> ResultFuture<List<T>> getByKeys(Class<T> clazz, Iterable<Key<T>> keys);
+
+	/** Runs the query and fetches all results; cancelling the future closes the cursor */
+	<T> ResultFuture<List<T>> asList(Query<T> query);
+
+	/** Runs the query and fetches the first result (or null) */
+	<T> ResultFuture<T> first(Query<T> query);
+
+	/** Counts the results of the query; see {@link Query#countAll()} */
+	<T> ResultFuture<Long> count(Query<T> query);
+
+	/** Saves the entity; see {@link Datastore#save(Object)} */
+	<T> ResultFuture<Key<T>> save(T entity);
+
+	/** Saves the entities; see {@link Datastore#save(Iterable)} */
+	<T> ResultFuture<Iterable<Key<T>>> save(Iterable<T> entities);
+
+	/** Inserts the entity; see {@link com.google.code.morphia.AdvancedDatastore#insert(Object)} */
+	<T> ResultFuture<Key<T>> insert(T entity);
+
+	/** Updates all entities matching the query; see {@link Datastore#update(Query, UpdateOperations)} */
+	<T> ResultFuture<UpdateResults<T>> update(Query<T> query, UpdateOperations<T> ops);
+
+	/** Updates the first entity matching the query; see {@link Datastore#updateFirst(Query, UpdateOperations)} */
+	<T> ResultFuture<UpdateResults<T>> updateFirst(Query<T> query, UpdateOperations<T> ops);
+
+	/** Deletes the entity (by id); see {@link Datastore#delete(Object)} */
+	<T> ResultFuture<Void> delete(T entity);
+
+	/** Deletes the entities matching the query; see {@link Datastore#delete(Query)} */
+	<T> ResultFuture<Void> delete(Query<T> query);
+
+	/** Deletes the entities and/or keys; see {@link Datastore#deleteAll(Iterable)} */
+	ResultFuture<DeleteResults> deleteAll(Iterable<?> entitiesOrKeys);
+
+	/** @return the (blocking) datastore the operations are run against */
+	Datastore getDatastore();
+}
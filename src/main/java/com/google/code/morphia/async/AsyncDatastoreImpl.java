@@ -0,0 +1,277 @@
+package com.google.code.morphia.async;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import com.google.code.morphia.AdvancedDatastore;
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.DeleteResults;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.metrics.OperationType;
+import com.google.code.morphia.query.MorphiaIterator;
+import com.google.code.morphia.query.Query;
+import com.google.code.morphia.query.QueryImpl;
+import com.google.code.morphia.query.UpdateOperations;
+import com.google.code.morphia.query.UpdateResults;
+
+/**
+ * <p>
+ * Runs {@link Datastore} operations on the given {@link Executor} (a thread pool, or one thread per task, ...), with at
+ * most {@code maxConcurrent} of them in flight at once. Operations over the limit are queued here, not in the
+ * executor, so no executor thread is ever blocked waiting for a permit.
+ * </p>
+ */
+public class AsyncDatastoreImpl implements AsyncDatastore {
+	private final Datastore ds;
+	private final Executor executor;
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<ResultFuture<?>> queued = new ConcurrentLinkedQueue<ResultFuture<?>>();
+
+	public AsyncDatastoreImpl(Datastore ds, Executor executor) {
+		this(ds, executor, Integer.MAX_VALUE);
+	}
+
+	public AsyncDatastoreImpl(Datastore ds, Executor executor, int maxConcurrent) {
+		if (maxConcurrent < 1)
+			throw new IllegalArgumentException("maxConcurrent must be > 0");
+		this.ds = ds;
+		this.executor = executor;
+		this.permits = new Semaphore(maxConcurrent);
+	}
+
+	public Datastore getDatastore() {
+		return ds;
+	}
+
+	/** @return the number of operations waiting for a permit */
+	public int getQueuedCount() {
+		return queued.size();
+	}
+
+	protected <V> ResultFuture<V> submit(Callable<V> op) {
+		return submit(new ResultFuture<V>(op));
+	}
+
+	/** Queues the (fully built) future; it may run, on this thread too, before this returns */
+	protected <V> ResultFuture<V> submit(ResultFuture<V> f) {
+		queued.add(f);
+		dispatch();
+		return f;
+	}
+
+	/** Hands queued operations to the executor while there are permits left. */
+	private void dispatch() {
+		while (!queued.isEmpty() && permits.tryAcquire()) {
+			final ResultFuture<?> next = queued.poll();
+			if (next == null) {
+				permits.release();
+				return;
+			}
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							next.run();
+						} finally {
+							permits.release();
+							dispatch();
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				permits.release();
+				next.cancel(false);
+				throw e;
+			}
+		}
+	}
+
+	public <T, V> ResultFuture<T> get(final Class<T> clazz, final V id) {
+		return submit(new CursorOp<T>() {
+			T read() {
+				MorphiaIterator<T> it = fetch(ds.find(clazz, Mapper.ID_KEY, id).limit(1));
+				it.reportAs(OperationType.GET);
+				return first(it);
+			}
+		});
+	}
+
+	public <T> ResultFuture<List<T>> getByKeys(final Class<T> clazz, final Iterable<Key<T>> keys) {
+		return submit(new CursorOp<List<T>>() {
+			List<T> read() {
+				Map<String, List<Object>> idsByKind = new LinkedHashMap<String, List<Object>>();
+				for (Key<T> key : keys) {
+					String kind = key.updateKind(((DatastoreImpl) ds).getMapper());
+					if (!idsByKind.containsKey(kind))
+						idsByKind.put(kind, new ArrayList<Object>());
+					idsByKind.get(kind).add(key.getId());
+				}
+				List<T> results = new ArrayList<T>();
+				for (Map.Entry<String, List<Object>> e : idsByKind.entrySet()) {
+					Query<T> q = ((AdvancedDatastore) ds).find(e.getKey(), clazz).disableValidation().filter("_id in", e.getValue());
+					readAll(fetch(q), results);
+				}
+				return results;
+			}
+		});
+	}
+
+	public <T> ResultFuture<List<T>> asList(final Query<T> query) {
+		return submit(new CursorOp<List<T>>() {
+			List<T> read() {
+				return readAll(fetch(query), new ArrayList<T>());
+			}
+		});
+	}
+
+	public <T> ResultFuture<T> first(final Query<T> query) {
+		return submit(new CursorOp<T>() {
+			T read() {
+				// like Query.get()
+				QueryImpl<T> qi = (QueryImpl<T>) query;
+				int oldLimit = qi.getLimit();
+				MorphiaIterator<T> it;
+				try {
+					it = fetch(qi.limit(1));
+				} finally {
+					qi.limit(oldLimit);
+				}
+				it.reportAs(OperationType.GET);
+				return first(it);
+			}
+		});
+	}
+
+	/** Submits the operation, with the future it checks for cancellation */
+	private <R> ResultFuture<R> submit(CursorOp<R> op) {
+		op.future = new ResultFuture<R>(op);
+		return submit(op.future);
+	}
+
+	/**
+	 * An operation reading query results. Between documents it checks its future (set before it is queued) for
+	 * cancellation, and then stops, closing the cursor on this (the worker) thread.
+	 */
+	private abstract static class CursorOp<R> implements Callable<R> {
+		private ResultFuture<R> future;
+
+		abstract R read();
+
+		public R call() throws Exception {
+			return read();
+		}
+
+		<T> MorphiaIterator<T> fetch(Query<T> query) {
+			return (MorphiaIterator<T>) ((QueryImpl<T>) query).fetch();
+		}
+
+		<T> List<T> readAll(MorphiaIterator<T> it, List<T> into) {
+			try {
+				while (it.hasNext()) {
+					checkCancelled();
+					into.add(it.next());
+				}
+			} finally {
+				it.close();
+			}
+			return into;
+		}
+
+		<T> T first(MorphiaIterator<T> it) {
+			try {
+				checkCancelled();
+				return it.hasNext() ? it.next() : null;
+			} finally {
+				it.close();
+			}
+		}
+
+		private void checkCancelled() {
+			if (future.isCancelled())
+				throw new CancellationException();
+		}
+	}
+
+	public <T> ResultFuture<Long> count(final Query<T> query) {
+		return submit(new Callable<Long>() {
+			public Long call() throws Exception {
+				return query.countAll();
+			}
+		});
+	}
+
+	public <T> ResultFuture<Key<T>> save(final T entity) {
+		return submit(new Callable<Key<T>>() {
+			public Key<T> call() throws Exception {
+				return ds.save(entity);
+			}
+		});
+	}
+
+	public <T> ResultFuture<Iterable<Key<T>>> save(final Iterable<T> entities) {
+		return submit(new Callable<Iterable<Key<T>>>() {
+			public Iterable<Key<T>> call() throws Exception {
+				return ds.save(entities);
+			}
+		});
+	}
+
+	public <T> ResultFuture<Key<T>> insert(final T entity) {
+		return submit(new Callable<Key<T>>() {
+			public Key<T> call() throws Exception {
+				return ((AdvancedDatastore) ds).insert(entity);
+			}
+		});
+	}
+
+	public <T> ResultFuture<UpdateResults<T>> update(final Query<T> query, final UpdateOperations<T> ops) {
+		return submit(new Callable<UpdateResults<T>>() {
+			public UpdateResults<T> call() throws Exception {
+				return ds.update(query, ops);
+			}
+		});
+	}
+
+	public <T> ResultFuture<UpdateResults<T>> updateFirst(final Query<T> query, final UpdateOperations<T> ops) {
+		return submit(new Callable<UpdateResults<T>>() {
+			public UpdateResults<T> call() throws Exception {
+				return ds.updateFirst(query, ops);
+			}
+		});
+	}
+
+	public <T> ResultFuture<Void> delete(final T entity) {
+		return submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				ds.delete(entity);
+				return null;
+			}
+		});
+	}
+
+	public <T> ResultFuture<Void> delete(final Query<T> query) {
+		return submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				ds.delete(query);
+				return null;
+			}
+		});
+	}
+
+	public ResultFuture<DeleteResults> deleteAll(final Iterable<?> entitiesOrKeys) {
+		return submit(new Callable<DeleteResults>() {
+			public DeleteResults call() throws Exception {
+				return ds.deleteAll(entitiesOrKeys);
+			}
+		});
+	}
+}
@@ -0,0 +1,124 @@
+package com.google.code.morphia.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>
+ * The pending result of an {@link AsyncDatastore} operation. On top of {@link java.util.concurrent.Future} it supports
+ * completion callbacks and chaining ({@link #transform(Transformer)}).
+ * </p>
+ * <p>
+ * Cancelling the future (or anything transformed from it) stops a running query: the worker reading it checks for
+ * cancellation between documents, and closes its cursor.
+ * </p>
+ */
+public class ResultFuture<T> extends FutureTask<T> {
+
+	/** Converts the result of one future into the result of the next */
+	public interface Transformer<F, V> {
+		V transform(F input) throws Exception;
+	}
+
+	private final List<AsyncCallback<? super T>> callbacks = new ArrayList<AsyncCallback<? super T>>();
+	private boolean completed = false;
+	private volatile ResultFuture<?> source;
+
+	public ResultFuture(Callable<T> callable) {
+		super(callable);
+	}
+
+	/** Registers the callback; it is called immediately if the result is already available */
+	public ResultFuture<T> addCallback(AsyncCallback<? super T> cb) {
+		synchronized (callbacks) {
+			if (!completed) {
+				callbacks.add(cb);
+				return this;
+			}
+		}
+		notify(cb);
+		return this;
+	}
+
+	/**
+	 * Returns a future for the result of applying the transformer to this result. The transformer runs on the thread
+	 * completing this future; failures (and cancellation) are passed along.
+	 */
+	public <V> ResultFuture<V> transform(final Transformer<? super T, V> transformer) {
+		final ResultFuture<V> next = new ResultFuture<V>(new Callable<V>() {
+			public V call() throws Exception {
+				return transformer.transform(ResultFuture.this.getResult());
+			}
+		});
+		next.source = this;
+		addCallback(new AsyncCallback<T>() {
+			public void onSuccess(T result) {
+				next.run();
+			}
+
+			public void onFailure(Throwable t) {
+				next.run();
+			}
+		});
+		return next;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			ResultFuture<?> src = source;
+			if (src != null)
+				src.cancel(mayInterruptIfRunning);
+		}
+		return cancelled;
+	}
+
+	@Override
+	protected void done() {
+		List<AsyncCallback<? super T>> toCall;
+		synchronized (callbacks) {
+			completed = true;
+			toCall = new ArrayList<AsyncCallback<? super T>>(callbacks);
+			callbacks.clear();
+		}
+		for (AsyncCallback<? super T> cb : toCall)
+			notify(cb);
+	}
+
+	/** Gets the (completed) result, unwrapping the {@link ExecutionException} */
+	private T getResult() throws Exception {
+		try {
+			return get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		}
+	}
+
+	private void notify(AsyncCallback<? super T> cb) {
+		T result;
+		try {
+			result = getResult();
+		} catch (CancellationException e) {
+			cb.onFailure(e);
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cb.onFailure(e);
+			return;
+		} catch (Exception e) {
+			cb.onFailure(e);
+			return;
+		}
+		cb.onSuccess(result);
+	}
+}
@@ -9,6 +9,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import com.google.code.morphia.annotations.Serialized;
 import com.google.code.morphia.logging.MorphiaLogger;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
 import com.google.code.morphia.mapping.MappedField;
@@ -29,6 +30,7 @@ public class DefaultConverters {
 	
 	private List<TypeConverter> untypedTypeEncoders = new LinkedList<TypeConverter>();
 	private Map<Class,List<TypeConverter>> tcMap = new HashMap<Class,List<TypeConverter>>();
+	private final SerializedObjectConverter serializedConverter = new SerializedObjectConverter();
 	
 	public DefaultConverters() {
 		// some converters are commented out since the passthrough converter is enabled.
@@ -48,7 +50,7 @@ public class DefaultConverters {
 		addConverter(new LocaleConverter());
 		addConverter(new ShortConverter());
 		addConverter(new IntegerConverter());
-		addConverter(new SerializedObjectConverter());
+		addConverter(serializedConverter);
 		addConverter(new CharArrayConverter());
 		addConverter(new DateConverter());
 		addConverter(new KeyConverter());
@@ -99,6 +101,10 @@ public class DefaultConverters {
 	}
 	
 	private TypeConverter getEncoder(final MappedField mf) {
+		// before the type's converter; a @Serialized byte[] is not just passed through
+		if (mf.hasAnnotation(Serialized.class))
+			return serializedConverter;
+		
 		List<TypeConverter> tcs = tcMap.get(mf.getType());
 		if(tcs != null) {
 			if (tcs.size() > 1)
@@ -151,6 +157,11 @@ public class DefaultConverters {
 	public Object encode(Class c, Object o) {
 		return getEncoder(c).encode(o);
 	}
+	
+	/** Encodes the value as it is stored for the field */
+	public Object encode(Object o, MappedField mf) {
+		return getEncoder(mf).encode(o, mf);
+	}
 
 	public void setMapper(Mapper mapr) {
 		for(List<TypeConverter> tcs : tcMap.values())
@@ -4,6 +4,9 @@
 package com.google.code.morphia.converters;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
 
 import org.bson.types.Binary;
 
@@ -11,12 +14,15 @@ import com.google.code.morphia.annotations.Serialized;
 import com.google.code.morphia.mapping.MappedField;
 import com.google.code.morphia.mapping.MappingException;
 import com.google.code.morphia.mapping.Serializer;
+import com.google.code.morphia.mapping.serialization.SerializedCodec;
 
 /**
  * @author Uwe Schaefer, (us@thomas-daily.de)
  */
 @SuppressWarnings("unchecked")
 public class SerializedObjectConverter extends TypeConverter {
+	private static final Map<Class, SerializedCodec> codecs = new ConcurrentHashMap<Class, SerializedCodec>();
+	
 	@Override
 	protected boolean isSupported(Class c, MappedField optionalExtraInfo) {
 		if (optionalExtraInfo != null)
@@ -34,8 +40,10 @@ public class SerializedObjectConverter extends TypeConverter {
 		}
 		
 		try {
-			boolean useCompression = !f.getAnnotation(Serialized.class).disableCompression();
-			return Serializer.deserialize(fromDBObject, useCompression);
+			byte[] bytes = (fromDBObject instanceof Binary) ? ((Binary) fromDBObject).getData() : (byte[]) fromDBObject;
+			if (isStoredAsIs(f))
+				return bytes;
+			return Serializer.deserialize(bytes, getCodec(f));
 		} catch (IOException e) {
 			throw new MappingException("While deserializing to " + f.getFullName(), e);
 		} catch (ClassNotFoundException e) {
@@ -45,14 +53,40 @@ public class SerializedObjectConverter extends TypeConverter {
 	
 	@Override
 	public Object encode(Object value, MappedField f) {
-		if (value == null)
-			return null;
+		if (value == null || isStoredAsIs(f))
+			return value;
 		try {
-			boolean useCompression = !f.getAnnotation(Serialized.class).disableCompression();
-			return Serializer.serialize(value, useCompression);
+			Serialized s = f.getAnnotation(Serialized.class);
+			int level = s.disableCompression() ? Deflater.NO_COMPRESSION : s.compressionLevel();
+			return Serializer.serialize(value, getCodec(f), level, s.compressAbove());
 		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 	
+	/** byte[] fields are stored as is, unless {@link com.google.code.morphia.mapping.MapperOptions#serializeByteArrays} */
+	private boolean isStoredAsIs(MappedField f) {
+		return byte[].class.equals(f.getType()) && !mapr.getOptions().serializeByteArrays;
+	}
+	
+	/** The codec of the field's annotation, else of its type's, else the default one */
+	private SerializedCodec getCodec(MappedField f) {
+		Class<? extends SerializedCodec> type = f.getAnnotation(Serialized.class).codec();
+		if (SerializedCodec.class.equals(type)) {
+			Serialized onType = (Serialized) f.getType().getAnnotation(Serialized.class);
+			if (onType == null || SerializedCodec.class.equals(onType.codec()))
+				return mapr.getOptions().serializedCodec;
+			type = onType.codec();
+		}
+		SerializedCodec codec = codecs.get(type);
+		if (codec == null) {
+			try {
+				codec = type.newInstance();
+			} catch (Exception e) {
+				throw new MappingException("Cannot create the codec " + type.getName() + " of " + f.getFullName(), e);
+			}
+			codecs.put(type, codec);
+		}
+		return codec;
+	}
 }
@@ -0,0 +1,13 @@
+package com.google.code.morphia.io;
+
+/**
+ * The file formats of {@link Exporter} and {@link Importer}.
+ */
+public enum ExportFormat {
+	/** concatenated BSON documents, as written by mongodump; no entity decoding */
+	BSON,
+	/** one (mongo extended) JSON document per line, as stored; no entity decoding */
+	JSON,
+	/** one JSON document per line, of the mapped fields only (loaded into the entity class first, which runs the load lifecycle callbacks) */
+	ENTITY_JSON
+}
@@ -0,0 +1,45 @@
+package com.google.code.morphia.io;
+
+/**
+ * The document count and throughput of an export or import.
+ */
+public class ExportStats {
+	private final long documents;
+	private final long bytes;
+	private final long millis;
+
+	ExportStats(long documents, long bytes, long millis) {
+		this.documents = documents;
+		this.bytes = bytes;
+		this.millis = millis;
+	}
+
+	/** @return the number of documents written/read */
+	public long getDocuments() {
+		return documents;
+	}
+
+	/** @return the number of (uncompressed) bytes written/read */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/** @return the elapsed time in milliseconds */
+	public long getMillis() {
+		return millis;
+	}
+
+	public double getDocumentsPerSecond() {
+		return (millis == 0) ? documents * 1000d : documents * 1000d / millis;
+	}
+
+	public double getMegabytesPerSecond() {
+		return ((millis == 0) ? bytes * 1000d : bytes * 1000d / millis) / (1024 * 1024);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d docs, %d bytes in %d ms (%.0f docs/s, %.1f MB/s)", documents, bytes, millis,
+				getDocumentsPerSecond(), getMegabytesPerSecond());
+	}
+}
@@ -0,0 +1,168 @@
+package com.google.code.morphia.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+import org.bson.BSON;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.query.Query;
+import com.google.code.morphia.query.QueryImpl;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * <p>
+ * Writes the results of a query to a file, through a channel and one reusable (direct) buffer. The query's
+ * {@link Query#retrievedFields(boolean, String...) projection}, order and limit are used.
+ * </p>
+ * <p>
+ * {@link ExportFormat#ENTITY_JSON} loads each document into its entity (so the entity's {@code @PreLoad/@PostLoad}
+ * methods, and the mapper's interceptors, are called for every exported document) and writes the fields of the
+ * document that are mapped, under their stored names. Nothing is mapped back out, so no persist callbacks are run.
+ * </p>
+ *
+ * <pre>
+ * ExportStats stats = new Exporter(ds).format(ExportFormat.BSON).gzip(true).export(ds.find(Hotel.class), file);
+ * </pre>
+ */
+public class Exporter {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(Exporter.class);
+	private static final byte[] NEWLINE = { '\n' };
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private final Mapper mapr;
+	private ExportFormat format = ExportFormat.BSON;
+	private boolean gzip = false;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	public Exporter(Datastore ds) {
+		this.mapr = ((DatastoreImpl) ds).getMapper();
+	}
+
+	/** The file format; see the class comment for the lifecycle methods {@link ExportFormat#ENTITY_JSON} calls */
+	public Exporter format(ExportFormat format) {
+		this.format = format;
+		return this;
+	}
+
+	/** Compresses the file (gzip) */
+	public Exporter gzip(boolean gzip) {
+		this.gzip = gzip;
+		return this;
+	}
+
+	/** The size of the write buffer; larger means fewer (system) calls */
+	public Exporter bufferSize(int bytes) {
+		if (bytes < 1024)
+			throw new IllegalArgumentException("bufferSize must be >= 1024");
+		this.bufferSize = bytes;
+		return this;
+	}
+
+	public <T> ExportStats export(Query<T> query, File file) throws IOException {
+		QueryImpl<T> qi = (QueryImpl<T>) query;
+		long start = System.currentTimeMillis();
+		long docs = 0, bytes = 0;
+
+		OutputStream out = new FileOutputStream(file);
+		if (gzip) {
+			try {
+				out = new GZIPOutputStream(out, 64 * 1024);
+			} catch (IOException e) {
+				out.close();
+				throw e;
+			}
+		}
+		WritableByteChannel channel = gzip ? Channels.newChannel(out) : ((FileOutputStream) out).getChannel();
+		ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize);
+
+		DBCursor cursor = qi.prepareCursor();
+		try {
+			while (cursor.hasNext()) {
+				DBObject dbObj = cursor.next();
+				byte[] encoded = encode(qi.getEntityClass(), dbObj);
+				bytes += write(channel, buf, encoded);
+				if (format != ExportFormat.BSON)
+					bytes += write(channel, buf, NEWLINE);
+				docs++;
+			}
+			flush(channel, buf);
+		} finally {
+			try {
+				channel.close();
+			} finally {
+				out.close();
+			}
+		}
+
+		ExportStats stats = new ExportStats(docs, bytes, System.currentTimeMillis() - start);
+		if (log.isInfoEnabled())
+			log.info("Exported " + qi.getCollection().getName() + " to " + file + ": " + stats);
+		return stats;
+	}
+
+	private byte[] encode(Class<?> clazz, DBObject dbObj) throws IOException {
+		switch (format) {
+		case BSON:
+			return BSON.encode(dbObj);
+		case JSON:
+			return JSON.serialize(dbObj).getBytes("UTF-8");
+		default:
+			mapr.fromDBObject(clazz, dbObj, mapr.createEntityCache());
+			return JSON.serialize(mappedFields(mapr.getMappedClass(clazz), dbObj)).getBytes("UTF-8");
+		}
+	}
+
+	/** The mapped fields of the (loaded) document, renamed from any {@code @AlsoLoad} name to the stored one */
+	private static DBObject mappedFields(MappedClass mc, DBObject dbObj) {
+		DBObject res = new BasicDBObject();
+		for (String key : dbObj.keySet()) {
+			if (Mapper.ID_KEY.equals(key) || Mapper.CLASS_NAME_FIELDNAME.equals(key))
+				res.put(key, dbObj.get(key));
+			else {
+				MappedField mf = mc.getMappedField(key);
+				if (mf != null && !res.containsField(mf.getNameToStore()))
+					res.put(mf.getNameToStore(), dbObj.get(key));
+			}
+		}
+		return res;
+	}
+
+	/** Buffers the bytes, flushing the buffer to the channel when it is full; returns the number of bytes */
+	private static int write(WritableByteChannel channel, ByteBuffer buf, byte[] bytes) throws IOException {
+		if (bytes.length > buf.remaining()) {
+			flush(channel, buf);
+			if (bytes.length > buf.capacity()) {
+				ByteBuffer big = ByteBuffer.wrap(bytes);
+				while (big.hasRemaining())
+					channel.write(big);
+				return bytes.length;
+			}
+		}
+		buf.put(bytes);
+		return bytes.length;
+	}
+
+	private static void flush(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+}
@@ -0,0 +1,40 @@
+package com.google.code.morphia.io;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of an {@link Importer} run: documents read (and bytes), inserted and rejected.
+ */
+public class ImportStats extends ExportStats {
+	private final long inserted;
+	private final long rejected;
+	private final List<Throwable> errors;
+
+	ImportStats(long documents, long bytes, long millis, long inserted, long rejected, List<Throwable> errors) {
+		super(documents, bytes, millis);
+		this.inserted = inserted;
+		this.rejected = rejected;
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	/** @return the number of documents inserted */
+	public long getInserted() {
+		return inserted;
+	}
+
+	/** @return the number of documents which could not be decoded/mapped */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/** @return the first few errors for rejected documents */
+	public List<Throwable> getErrors() {
+		return errors;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ", " + inserted + " inserted, " + rejected + " rejected";
+	}
+}
@@ -0,0 +1,377 @@
+package com.google.code.morphia.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bson.BSON;
+import org.bson.BSONObject;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.MappingException;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * <p>
+ * Bulk loads a BSON (mongodump style) or JSON-lines file into the collection of an entity class.
+ * </p>
+ * <p>
+ * The file is memory-mapped (in windows) and split into documents on the calling thread; several threads decode the
+ * documents and (unless disabled) check that they map to the entity class, and one thread inserts them in batches.
+ * The queues between the stages are bounded, so reading slows down to the pace of the inserts.
+ * </p>
+ *
+ * <pre>
+ * ImportStats stats = new Importer&lt;Hotel&gt;(ds, Hotel.class).format(ExportFormat.JSON).prePersist(true).importFrom(file);
+ * </pre>
+ */
+public class Importer<T> {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(Importer.class);
+
+	/** the number of errors kept for the stats */
+	private static final int MAX_ERRORS = 10;
+	private static final List<byte[]> END_OF_INPUT = new ArrayList<byte[]>(0);
+	private static final List<DBObject> END_OF_BATCHES = new ArrayList<DBObject>(0);
+
+	private final Mapper mapr;
+	private final Class<T> clazz;
+	private final DBCollection dbColl;
+
+	private ExportFormat format = ExportFormat.BSON;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int batchSize = 1000;
+	private int maxBatchBytes = 4 * 1024 * 1024;
+	private int pendingBatches = 4;
+	private int windowSize = 64 * 1024 * 1024;
+	private boolean validate = true;
+	private boolean prePersist = false;
+	private boolean stopOnError = true;
+
+	public Importer(Datastore ds, Class<T> clazz) {
+		this.mapr = ((DatastoreImpl) ds).getMapper();
+		this.clazz = clazz;
+		this.dbColl = ds.getCollection(clazz);
+	}
+
+	/** The file format; {@link ExportFormat#ENTITY_JSON} is read as JSON */
+	public Importer<T> format(ExportFormat format) {
+		this.format = format;
+		return this;
+	}
+
+	/** The number of decoding threads */
+	public Importer<T> threads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be > 0");
+		this.threads = threads;
+		return this;
+	}
+
+	/** The max number of documents, and (encoded) bytes, per insert */
+	public Importer<T> batchSize(int documents, int bytes) {
+		if (documents < 1 || bytes < 1)
+			throw new IllegalArgumentException("batch size must be > 0");
+		this.batchSize = documents;
+		this.maxBatchBytes = bytes;
+		return this;
+	}
+
+	/** The number of decoded batches waiting for the inserter before decoding blocks */
+	public Importer<T> pendingBatches(int batches) {
+		if (batches < 1)
+			throw new IllegalArgumentException("pendingBatches must be > 0");
+		this.pendingBatches = batches;
+		return this;
+	}
+
+	/** The size of the part of the file mapped at one time; it must hold the largest document */
+	public Importer<T> windowSize(int bytes) {
+		if (bytes < 1024)
+			throw new IllegalArgumentException("windowSize must be >= 1024");
+		this.windowSize = bytes;
+		return this;
+	}
+
+	/** Load each document into the entity class (to check it maps) before inserting it; on by default */
+	public Importer<T> validate(boolean validate) {
+		this.validate = validate;
+		return this;
+	}
+
+	/** Load each document into the entity class and map it back out, running the @PrePersist/@PreSave callbacks */
+	public Importer<T> prePersist(boolean prePersist) {
+		this.prePersist = prePersist;
+		return this;
+	}
+
+	/** Stop at the first document which can not be decoded/mapped (the default), or skip it and carry on */
+	public Importer<T> stopOnError(boolean stopOnError) {
+		this.stopOnError = stopOnError;
+		return this;
+	}
+
+	public ImportStats importFrom(File file) throws IOException {
+		long start = System.currentTimeMillis();
+		final BlockingQueue<List<byte[]>> raw = new ArrayBlockingQueue<List<byte[]>>(threads * 2);
+		final BlockingQueue<List<DBObject>> batches = new ArrayBlockingQueue<List<DBObject>>(pendingBatches);
+		final AtomicReference<Throwable> fatal = new AtomicReference<Throwable>();
+		final AtomicLong inserted = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+		final AtomicInteger decodersLeft = new AtomicInteger(threads);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		long docs = 0, bytes = 0;
+		try {
+			for (int i = 0; i < threads; i++)
+				workers.add(pool.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						try {
+							decode(raw, batches, fatal, rejected, errors);
+						} finally {
+							if (decodersLeft.decrementAndGet() == 0)
+								put(batches, END_OF_BATCHES, fatal);
+						}
+						return null;
+					}
+				}));
+			workers.add(pool.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					insert(batches, fatal, inserted);
+					return null;
+				}
+			}));
+
+			FileChannel ch = new FileInputStream(file).getChannel();
+			try {
+				long size = ch.size();
+				long pos = 0;
+				List<byte[]> chunk = new ArrayList<byte[]>(batchSize);
+				while (pos < size && fatal.get() == null) {
+					long len = Math.min(windowSize, size - pos);
+					boolean lastWindow = (pos + len == size);
+					MappedByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+					window.order(ByteOrder.LITTLE_ENDIAN);
+					int off = 0;
+					while (fatal.get() == null) {
+						int docLen = nextDocumentLength(window, off, lastWindow);
+						if (docLen < 0)
+							break;
+						byte[] doc = new byte[docLen];
+						window.position(off);
+						window.get(doc);
+						off += docLen;
+						if (format != ExportFormat.BSON && isBlank(doc))
+							continue;
+						chunk.add(doc);
+						docs++;
+						bytes += docLen;
+						if (chunk.size() == batchSize) {
+							put(raw, chunk, fatal);
+							chunk = new ArrayList<byte[]>(batchSize);
+						}
+					}
+					if (off == 0 && fatal.get() == null)
+						throw new IOException(lastWindow ? "Truncated/corrupt document at offset " + pos + " in " + file
+								: "Document at offset " + pos + " is larger than the window size (" + windowSize + ")");
+					pos += off;
+				}
+				if (!chunk.isEmpty())
+					put(raw, chunk, fatal);
+			} finally {
+				ch.close();
+			}
+
+			for (int i = 0; i < threads; i++)
+				put(raw, END_OF_INPUT, fatal);
+			for (Future<?> f : workers)
+				f.get();
+		} catch (AbortException e) {
+			// another stage failed; fatal has the cause
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fatal.compareAndSet(null, e);
+		} catch (ExecutionException e) {
+			fatal.compareAndSet(null, e.getCause());
+		} catch (IOException e) {
+			fatal.compareAndSet(null, e);
+			throw e;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		Throwable t = fatal.get();
+		if (t != null)
+			throw new MappingException("Import of " + file + " into " + dbColl.getName() + " failed after " + inserted.get()
+					+ " inserts", t);
+
+		ImportStats stats = new ImportStats(docs, bytes, System.currentTimeMillis() - start, inserted.get(), rejected.get(), errors);
+		if (log.isInfoEnabled())
+			log.info("Imported " + file + " into " + dbColl.getName() + ": " + stats);
+		return stats;
+	}
+
+	/** @return the length of the document at off, or -1 if it does not (completely) fit in the window */
+	private int nextDocumentLength(MappedByteBuffer window, int off, boolean lastWindow) throws IOException {
+		int remaining = window.limit() - off;
+		if (remaining == 0)
+			return -1;
+		if (format == ExportFormat.BSON) {
+			if (remaining < 4)
+				return -1;
+			int len = window.getInt(off);
+			if (len < 5)
+				throw new IOException("Corrupt BSON document length (" + len + ")");
+			return (len <= remaining) ? len : -1;
+		}
+		for (int i = off; i < window.limit(); i++)
+			if (window.get(i) == '\n')
+				return i - off + 1;
+		// the last line may have no newline
+		return lastWindow ? remaining : -1;
+	}
+
+	private void decode(BlockingQueue<List<byte[]>> raw, BlockingQueue<List<DBObject>> batches,
+			AtomicReference<Throwable> fatal, AtomicLong rejected, List<Throwable> errors) throws Exception {
+		List<DBObject> batch = new ArrayList<DBObject>(batchSize);
+		int batchBytes = 0;
+		for (;;) {
+			List<byte[]> chunk = raw.take();
+			if (chunk == END_OF_INPUT)
+				break;
+			for (byte[] doc : chunk) {
+				DBObject dbObj;
+				try {
+					dbObj = toDBObject(doc);
+				} catch (RuntimeException e) {
+					rejected.incrementAndGet();
+					if (errors.size() < MAX_ERRORS)
+						errors.add(e);
+					if (stopOnError) {
+						fatal.compareAndSet(null, e);
+						return;
+					}
+					continue;
+				}
+				if (!batch.isEmpty() && (batch.size() == batchSize || batchBytes + doc.length > maxBatchBytes)) {
+					put(batches, batch, fatal);
+					batch = new ArrayList<DBObject>(batchSize);
+					batchBytes = 0;
+				}
+				batch.add(dbObj);
+				batchBytes += doc.length;
+			}
+			if (fatal.get() != null)
+				return;
+		}
+		if (!batch.isEmpty())
+			put(batches, batch, fatal);
+	}
+
+	private DBObject toDBObject(byte[] doc) {
+		DBObject dbObj;
+		if (format == ExportFormat.BSON)
+			dbObj = (DBObject) toDBValue(BSON.decode(doc));
+		else {
+			try {
+				dbObj = (DBObject) JSON.parse(new String(doc, "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		if (validate || prePersist) {
+			Object entity = mapr.fromDBObject(clazz, dbObj, mapr.createEntityCache());
+			if (prePersist)
+				dbObj = mapr.toDBObject(entity);
+		}
+		return dbObj;
+	}
+
+	private void insert(BlockingQueue<List<DBObject>> batches, AtomicReference<Throwable> fatal, AtomicLong inserted)
+			throws Exception {
+		try {
+			for (;;) {
+				List<DBObject> batch = batches.take();
+				if (batch == END_OF_BATCHES)
+					return;
+				dbColl.insert(batch);
+				CommandResult lastErr = dbColl.getDB().getLastError();
+				if (lastErr.get("err") != null)
+					throw new MappingException("Error inserting into " + dbColl.getName() + ": " + lastErr.get("err"));
+				inserted.addAndGet(batch.size());
+			}
+		} catch (Exception e) {
+			fatal.compareAndSet(null, e);
+			throw e;
+		}
+	}
+
+	/** Converts the (decoded) BSON into DBObjects/DBLists, all the way down */
+	@SuppressWarnings("unchecked")
+	private static Object toDBValue(Object val) {
+		if (val instanceof List) {
+			BasicDBList list = new BasicDBList();
+			for (Object o : (List<Object>) val)
+				list.add(toDBValue(o));
+			return list;
+		} else if (val instanceof BSONObject) {
+			BasicDBObject dbObj = new BasicDBObject();
+			for (Map.Entry<String, Object> e : ((Map<String, Object>) ((BSONObject) val).toMap()).entrySet())
+				dbObj.put(e.getKey(), toDBValue(e.getValue()));
+			return dbObj;
+		}
+		return val;
+	}
+
+	private static boolean isBlank(byte[] line) {
+		for (byte b : line)
+			if (b != '\n' && b != '\r' && b != ' ' && b != '\t')
+				return false;
+		return true;
+	}
+
+	/** Puts the item on the queue, giving up if (fatal is given and) another stage failed */
+	private static <E> void put(BlockingQueue<E> queue, E item, AtomicReference<Throwable> fatal) throws InterruptedException {
+		while (!queue.offer(item, 100, TimeUnit.MILLISECONDS))
+			if (fatal != null && fatal.get() != null)
+				throw new AbortException(fatal.get());
+	}
+
+	/** Unwinds a stage when another one failed */
+	private static class AbortException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		AbortException(Throwable cause) {
+			super(cause);
+		}
+	}
+}
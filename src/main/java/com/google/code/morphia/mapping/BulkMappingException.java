@@ -0,0 +1,32 @@
+package com.google.code.morphia.mapping;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The classes of a bulk mapping (see {@link Mapper#addMappedClasses(java.util.Collection, java.util.concurrent.ExecutorService, boolean)})
+ * which could not be mapped, with why; the message is a report of all of them.
+ */
+public class BulkMappingException extends MappingException {
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, RuntimeException> errors;
+
+	public BulkMappingException(int classes, Map<String, RuntimeException> errors) {
+		super(report(classes, errors), errors.values().iterator().next());
+		this.errors = Collections.unmodifiableMap(errors);
+	}
+
+	private static String report(int classes, Map<String, RuntimeException> errors) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(errors.size()).append(" of ").append(classes).append(" classes could not be mapped:");
+		for (Map.Entry<String, RuntimeException> e : errors.entrySet())
+			sb.append("\n").append(e.getKey()).append(": ").append(e.getValue().getMessage());
+		return sb.toString();
+	}
+
+	/** @return the errors, by class name */
+	public Map<String, RuntimeException> getErrors() {
+		return errors;
+	}
+}
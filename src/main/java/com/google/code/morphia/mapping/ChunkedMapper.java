@@ -0,0 +1,53 @@
+package com.google.code.morphia.mapping;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.ChunkedData;
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.annotations.Chunked;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+
+/**
+ * Maps {@link Chunked} fields: the document only keeps the id of the GridFS file. New data is written to GridFS by the
+ * datastore saving the entity, before it is mapped (see {@link com.google.code.morphia.DatastoreImpl#save(Object)}).
+ */
+class ChunkedMapper {
+	private final Mapper mapper;
+
+	ChunkedMapper(Mapper mapper) {
+		this.mapper = mapper;
+	}
+
+	void toDBObject(final Object entity, final MappedField mf, final DBObject dbObject, MapperOptions opts) {
+		ChunkedData data = (ChunkedData) mf.getFieldValue(entity);
+		if (data == null) {
+			if (opts.storeNulls)
+				dbObject.put(mf.getNameToStore(), null);
+			return;
+		}
+		if (!data.isStored())
+			throw new MappingException(mf.getFullName() + " is not stored yet; @" + Chunked.class.getSimpleName()
+					+ " data is written when its entity is saved (or inserted) through a datastore");
+		dbObject.put(mf.getNameToStore(), data.getId());
+	}
+
+	/** @param loadedFrom the database the document was read from; if null, the default datastore's */
+	void fromDBObject(final DBObject dbObject, final MappedField mf, final Object entity, DB loadedFrom) {
+		Object id = mf.getDbObjectValue(dbObject);
+		if (id == null)
+			return;
+		if (!(id instanceof ObjectId))
+			throw new MappingException("The stored value of " + mf.getFullName() + " is not a GridFS file id; it is a "
+					+ id.getClass().getName());
+		String bucket = mf.getAnnotation(Chunked.class).bucket();
+		DB db = (loadedFrom != null) ? loadedFrom : defaultDB();
+		mf.setFieldValue(entity, new ChunkedData((ObjectId) id, bucket, db));
+	}
+
+	private DB defaultDB() {
+		Datastore ds = mapper.datastoreProvider.get();
+		return (ds instanceof DatastoreImpl) ? ((DatastoreImpl) ds).getDB() : null;
+	}
+}
@@ -22,6 +22,7 @@ import com.google.code.morphia.EntityInterceptor;
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Entity;
 import com.google.code.morphia.annotations.EntityListeners;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Id;
 import com.google.code.morphia.annotations.Polymorphic;
 import com.google.code.morphia.annotations.PostLoad;
@@ -35,6 +36,7 @@ import com.google.code.morphia.annotations.Transient;
 import com.google.code.morphia.annotations.Version;
 import com.google.code.morphia.logging.MorphiaLogger;
 import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.registry.MappingRegistry;
 import com.google.code.morphia.mapping.validation.MappingValidator;
 import com.google.code.morphia.utils.ReflectionUtils;
 import com.mongodb.DBObject;
@@ -67,7 +69,7 @@ public class MappedClass {
 	
 	/** Annotations we are interested in looking for. */
 	public static List<Class<? extends Annotation>> interestingAnnotations = new ArrayList<Class<? extends Annotation>>(
-			Arrays.asList(Embedded.class, Entity.class, Polymorphic.class, EntityListeners.class, Version.class));
+			Arrays.asList(Embedded.class, Entity.class, Polymorphic.class, EntityListeners.class, Version.class, Indexes.class));
 	/** Annotations we were interested in, and found. */
 	private Map<Class<? extends Annotation>, Annotation> releventAnnotations = new HashMap<Class<? extends Annotation>, Annotation>();
 	
@@ -84,11 +86,19 @@ public class MappedClass {
 	private Class clazz;
 	private Constructor ctor;
 	Mapper mapr;
+	/** the fields/methods recorded (at compile time) in the mapping registry; null to find them by reflection */
+	private final MappingRegistry.Entry registered;
 	
 	/** constructor */
 	public MappedClass(Class clazz, Mapper mapr) {
+		this(clazz, mapr, null);
+	}
+	
+	/** Maps the class with the fields and lifecycle methods of its {@link MappingRegistry} entry (null to find them) */
+	public MappedClass(Class clazz, Mapper mapr, MappingRegistry.Entry registered) {
 		this.mapr = mapr;
 		this.clazz = clazz;
+		this.registered = registered;
 		discover();
 	}
 	
@@ -117,7 +127,9 @@ public class MappedClass {
 		
 		Class<? extends Annotation>[] lifecycleAnnotations = new Class[] {PrePersist.class, PreSave.class, PostPersist.class, PreLoad.class, PostLoad.class};
 		for (Class<?> cls : lifecycleClasses) {
-			for (Method m : ReflectionUtils.getDeclaredAndInheritedMethods(cls)) {
+			List<Method> methods = (registered != null && cls.equals(clazz)) ? registered.getLifecycleMethods(clazz)
+					: ReflectionUtils.getDeclaredAndInheritedMethods(cls);
+			for (Method m : methods) {
 				for(Class<? extends Annotation> c : lifecycleAnnotations) {
 					if (m.isAnnotationPresent(c)) {
 						addLifecycleEventMethod(c, m, cls.equals(clazz) ? null : cls);
@@ -132,7 +144,8 @@ public class MappedClass {
 		//        polymorphicAn = (Polymorphic) releventAnnotations.get(Polymorphic.class);
 		collName = (entityAn == null || entityAn.value().equals(Mapper.IGNORED_FIELDNAME)) ? clazz.getSimpleName() : entityAn.value();
 		
-		for (Field field : ReflectionUtils.getDeclaredAndInheritedFields(clazz, true)) {
+		Field[] fields = (registered != null) ? registered.getFields(clazz) : ReflectionUtils.getDeclaredAndInheritedFields(clazz, true);
+		for (Field field : fields) {
 			field.setAccessible(true);
 			int fieldMods = field.getModifiers();
 			if (field.isAnnotationPresent(Transient.class))
@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.google.code.morphia.annotations.AlsoLoad;
+import com.google.code.morphia.annotations.Chunked;
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Id;
 import com.google.code.morphia.annotations.Indexed;
@@ -47,7 +48,7 @@ public class MappedField {
 	// mappingAnnotations)
 	public static List<Class<? extends Annotation>> interestingAnnotations = new ArrayList<Class<? extends Annotation>>(
 			Arrays.asList(Serialized.class, Indexed.class, Property.class, Reference.class, Embedded.class, Id.class,
-					Version.class, AlsoLoad.class, NotSaved.class));
+					Version.class, AlsoLoad.class, NotSaved.class, Chunked.class));
 	
 	private Class subType = null; // the type (T) for the Collection<T>/T[]/Map<?,T>
 	private Class keyType = null; // the type (T) for the Map<T,?>
@@ -223,6 +224,10 @@ public class MappedField {
 			Serialized me = (Serialized) mappingAnnotations.get(Serialized.class);
 			if (!me.value().equals(Mapper.IGNORED_FIELDNAME))
 				return me.value();
+		} else if (hasAnnotation(Chunked.class)) {
+			Chunked mc = (Chunked) mappingAnnotations.get(Chunked.class);
+			if (!mc.value().equals(Mapper.IGNORED_FIELDNAME))
+				return mc.value();
 		} else if (hasAnnotation(Id.class))
 			return Mapper.ID_KEY;
 		
@@ -14,15 +14,24 @@ package com.google.code.morphia.mapping;
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import com.google.code.morphia.EntityInterceptor;
 import com.google.code.morphia.Key;
+import com.google.code.morphia.annotations.Chunked;
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Id;
 import com.google.code.morphia.annotations.NotSaved;
@@ -44,9 +53,18 @@ import com.google.code.morphia.mapping.lazy.DefaultDatastoreProvider;
 import com.google.code.morphia.mapping.lazy.LazyFeatureDependencies;
 import com.google.code.morphia.mapping.lazy.LazyProxyFactory;
 import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+import com.google.code.morphia.mapping.registry.MappingRegistry;
+import com.google.code.morphia.metrics.MappingProfiler;
+import com.google.code.morphia.metrics.OperationMetrics;
+import com.google.code.morphia.metrics.OperationTimer;
+import com.google.code.morphia.metrics.OperationType;
+import com.google.code.morphia.metrics.RoundTrips;
+import com.google.code.morphia.metrics.SlowOperationLog;
 import com.google.code.morphia.utils.ReflectionUtils;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBObject;
+import com.mongodb.DBRef;
 
 /**
  * @author Olafur Gauti Gudmundsson
@@ -63,6 +81,8 @@ public class Mapper {
 
 	/** Set of classes that registered by this mapper */
 	private final ConcurrentHashMap<String, MappedClass> mappedClasses = new ConcurrentHashMap<String, MappedClass>();
+	/** things built from the mappings (like projection plans), kept as long as this mapper */
+	private final ConcurrentHashMap<Object, Object> planCache = new ConcurrentHashMap<Object, Object>();
 	private final ConcurrentLinkedQueue<EntityInterceptor> interceptors = new ConcurrentLinkedQueue<EntityInterceptor>();
 	
 	// TODO: make these configurable
@@ -70,9 +90,14 @@ public class Mapper {
 	private final ReferenceMapper referenceMapper = new ReferenceMapper(this, converters);
 	private final EmbeddedMapper embeddedMapper = new EmbeddedMapper(this, converters);
 	private final ValueMapper valueMapper = new ValueMapper(converters);
+	private final ChunkedMapper chunkedMapper = new ChunkedMapper(this);
 	final LazyProxyFactory proxyFactory = LazyFeatureDependencies.testDependencyFullFilled() ? new CGLibLazyProxyFactory() : null;
 	DatastoreProvider datastoreProvider = new DefaultDatastoreProvider();
 	MapperOptions opts = new MapperOptions();
+	private volatile OperationMetrics metrics;
+	private volatile MappingProfiler profiler;
+	private volatile SlowOperationLog slowOperationLog;
+	private volatile ReferenceResolver referenceResolver;
 	
 	public Mapper() {
 		converters.setMapper(this);
@@ -103,6 +128,57 @@ public class Mapper {
 		this.opts = options;
 	}
 
+	/** @return the metrics operations are reported to; null if they are not being measured */
+	public OperationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Sets the metrics operations are reported to; null to stop measuring */
+	public void setMetrics(OperationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/** @return the profiler mapping is measured by; null if it is not being measured */
+	public MappingProfiler getProfiler() {
+		return profiler;
+	}
+
+	/** Sets the profiler mapping is measured by; null to stop measuring */
+	public void setProfiler(MappingProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/** @return the log slow operations are written to; null if they are not being logged */
+	public SlowOperationLog getSlowOperationLog() {
+		return slowOperationLog;
+	}
+
+	/** Sets the log slow operations are written to; null to stop logging them */
+	public void setSlowOperationLog(SlowOperationLog slowOperationLog) {
+		this.slowOperationLog = slowOperationLog;
+	}
+
+	/** @return what references are fetched with; null if they are fetched from the server */
+	public ReferenceResolver getReferenceResolver() {
+		return referenceResolver;
+	}
+
+	/** Sets what references are fetched with; null to fetch them from the server ({@link DBRef#fetch()}) */
+	public void setReferenceResolver(ReferenceResolver referenceResolver) {
+		this.referenceResolver = referenceResolver;
+	}
+
+	/** Fetches the referenced document (for the field), reporting it to the metrics (and {@link RoundTrips}) */
+	public DBObject fetchReference(DBRef dbRef, MappedField mf) {
+		OperationTimer timer = OperationTimer.start(metrics, OperationType.FETCH_REFERENCE, dbRef.getRef());
+		RoundTrips.referenceFetched(mf);
+		ReferenceResolver resolver = referenceResolver;
+		DBObject dbObj = (resolver == null) ? dbRef.fetch() : resolver.resolve(dbRef);
+		if (timer != null)
+			timer.server().document(dbObj).done();
+		return dbObj;
+	}
+
 	public boolean isMapped(final Class c) {
 		return mappedClasses.containsKey(c.getName());
 	}
@@ -119,6 +195,78 @@ public class Mapper {
 		return mc;
 	}
 
+	/**
+	 * Maps and validates the classes concurrently, each one on the executor (or all in this thread, if it is null). The
+	 * mapped classes are only added once all of them are built; if any can't be mapped, a
+	 * {@link BulkMappingException} reports all of them, and none are added (unless ignoreInvalid).
+	 * 
+	 * @return the classes mapped (the ones already mapped are skipped)
+	 */
+	public List<MappedClass> addMappedClasses(Collection<Class> classes, ExecutorService executor, boolean ignoreInvalid) {
+		return addMappedClasses(classes, null, executor, ignoreInvalid);
+	}
+
+	/**
+	 * Like {@link #addMappedClasses(Collection, ExecutorService, boolean)}, with the fields and methods recorded in the
+	 * {@link MappingRegistry} entries of the classes (by class name; those without one are discovered by reflection).
+	 */
+	public List<MappedClass> addMappedClasses(Collection<Class> classes, Map<String, MappingRegistry.Entry> registered,
+			ExecutorService executor, boolean ignoreInvalid) {
+		// picked before any is validated, which may cache (unvalidated) the classes it refers to
+		Set<String> before = new HashSet<String>(mappedClasses.keySet());
+		List<Class> toMap = new ArrayList<Class>();
+		for (Class c : new LinkedHashSet<Class>(classes))
+			if (!before.contains(c.getName()))
+				toMap.add(c);
+
+		List<Future<MappedClass>> pending = new ArrayList<Future<MappedClass>>();
+		for (final Class c : toMap) {
+			final MappingRegistry.Entry entry = (registered == null) ? null : registered.get(c.getName());
+			FutureTask<MappedClass> task = new FutureTask<MappedClass>(new Callable<MappedClass>() {
+				public MappedClass call() {
+					MappedClass mc = new MappedClass(c, Mapper.this, entry);
+					mc.validate();
+					return mc;
+				}
+			});
+			if (executor == null)
+				task.run();
+			else
+				executor.execute(task);
+			pending.add(task);
+		}
+
+		Map<String, MappedClass> mapped = new LinkedHashMap<String, MappedClass>();
+		Map<String, RuntimeException> errors = new LinkedHashMap<String, RuntimeException>();
+		for (int i = 0; i < pending.size(); i++) {
+			String name = toMap.get(i).getName();
+			try {
+				mapped.put(name, pending.get(i).get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MappingException("Interrupted while mapping " + name, e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error)
+					throw (Error) cause;
+				errors.put(name, (RuntimeException) cause);
+			}
+		}
+
+		if (!errors.isEmpty()) {
+			// don't leave those cached, they may be the invalid ones
+			for (String name : new ArrayList<String>(mappedClasses.keySet()))
+				if (!before.contains(name))
+					mappedClasses.remove(name);
+			BulkMappingException ex = new BulkMappingException(toMap.size(), errors);
+			if (!ignoreInvalid)
+				throw ex;
+			logger.warning(ex.getMessage());
+		}
+		mappedClasses.putAll(mapped);
+		return new ArrayList<MappedClass>(mapped.values());
+	}
+
 	public Map<String, MappedClass> getMappedClasses() {
 		return mappedClasses;
 	}
@@ -198,6 +346,14 @@ public class Mapper {
 
 	/** coverts a DBObject back to a type-safe java object */
 	public Object fromDBObject(final Class entityClass, final DBObject dbObject, EntityCache cache) {
+		return fromDBObject(entityClass, dbObject, cache, null);
+	}
+
+	/**
+	 * coverts a DBObject, loaded from the database, back to a type-safe java object; its
+	 * {@link com.google.code.morphia.ChunkedData} is read from that database (if null, from the default datastore's)
+	 */
+	public Object fromDBObject(final Class entityClass, final DBObject dbObject, EntityCache cache, DB loadedFrom) {
 		if (dbObject == null) {
 			Throwable t = new Throwable();
 			logger.error("Somebody passed in a null dbObject; bad client!", t);
@@ -206,7 +362,7 @@ public class Mapper {
 
 		Object entity = null;
 		entity = ReflectionUtils.createInstance(entityClass, dbObject);
-		fromDb(dbObject, entity, cache);
+		fromDb(dbObject, entity, cache, loadedFrom);
 		return entity;
 	}
 
@@ -274,13 +430,17 @@ public class Mapper {
 	 */
 	public DBObject toDBObject(Object entity, final LinkedHashMap<Object, DBObject> involvedObjects) {
 		
+		MappingProfiler prof = activeProfiler();
+		long profAlloc = (prof == null) ? 0 : prof.allocatedBytes();
+		long profStart = (prof == null) ? 0 : System.nanoTime();
+
 		BasicDBObject dbObject = new BasicDBObject();
 		MappedClass mc = getMappedClass(entity);
 		
 		if (mc.getEntityAnnotation() == null || !mc.getEntityAnnotation().noClassnameStored())
 			dbObject.put(CLASS_NAME_FIELDNAME, entity.getClass().getName());
 
-		dbObject = (BasicDBObject) mc.callLifecycleMethods(PrePersist.class, entity, dbObject, this);
+		dbObject = (BasicDBObject) callLifecycleMethods(prof, mc, PrePersist.class, entity, dbObject);
 		for (MappedField mf : mc.getPersistenceFields()) {
 			try {
 				Class<? extends Annotation> annType = null;
@@ -289,12 +449,14 @@ public class Mapper {
 				if (mf.hasAnnotation(NotSaved.class))
 						continue;
 			
+				long fieldStart = (prof == null) ? 0 : System.nanoTime();
 				// get the annotation from the field.
 				for (Class<? extends Annotation> testType : new Class[] { 	Id.class, 
 																			Property.class, 
 																			Embedded.class, 
 																			Serialized.class, 
-																			Reference.class }) {
+																			Reference.class,
+																			Chunked.class }) {
 					if (mf.hasAnnotation(testType)) {
 						annType = testType;
 						break;
@@ -311,7 +473,9 @@ public class Mapper {
 							dbObject.put(ID_KEY, dbVal);
 						}
 					}
-				} else if (Property.class.equals(annType) || Serialized.class.equals(annType)
+				} else if (Chunked.class.equals(annType))
+					chunkedMapper.toDBObject(entity, mf, dbObject, opts);
+				else if (Property.class.equals(annType) || Serialized.class.equals(annType)
 						|| mf.isTypeMongoCompatible() || (converters.hasSimpleValueConverter(mf)))
 					valueMapper.toDBObject(entity, mf, dbObject, opts);
 				else if (Reference.class.equals(annType))
@@ -322,6 +486,8 @@ public class Mapper {
 					logger.debug("No annotation was found, embedding " + mf);
 					embeddedMapper.toDBObject(entity, mf, dbObject, involvedObjects, opts);
 				}
+				if (prof != null)
+					prof.field(mc, mf, strategy(mf), true, System.nanoTime() - fieldStart);
 
 			} catch (Exception e) {
 				throw new MappingException("Error mapping field:" + mf.getFullName(), e);
@@ -330,11 +496,17 @@ public class Mapper {
 		if (involvedObjects != null) {
 			involvedObjects.put(entity, dbObject);
 		}
-		mc.callLifecycleMethods(PreSave.class, entity, dbObject, this);
+		callLifecycleMethods(prof, mc, PreSave.class, entity, dbObject);
+		if (prof != null)
+			prof.encoded(mc, profStart, profAlloc);
 		return dbObject;
 	}
 	
 	Object fromDb(DBObject dbObject, final Object entity, EntityCache cache) {
+		return fromDb(dbObject, entity, cache, null);
+	}
+
+	private Object fromDb(DBObject dbObject, final Object entity, EntityCache cache, DB loadedFrom) {
 		// check the history key (a key is the namespace + id)
 		
 		if (dbObject.containsField(ID_KEY) && getMappedClass(entity).getIdField() != null
@@ -348,14 +520,21 @@ public class Mapper {
 												// recursive refs
 		}
 
+		MappingProfiler prof = activeProfiler();
+		long profAlloc = (prof == null) ? 0 : prof.allocatedBytes();
+		long profStart = (prof == null) ? 0 : System.nanoTime();
+
 		MappedClass mc = getMappedClass(entity);
 		
-		dbObject = (BasicDBObject) mc.callLifecycleMethods(PreLoad.class, entity, dbObject, this);
+		dbObject = (BasicDBObject) callLifecycleMethods(prof, mc, PreLoad.class, entity, dbObject);
 		try {
 			for (MappedField mf : mc.getPersistenceFields()) {
+				long fieldStart = (prof == null) ? 0 : System.nanoTime();
 				if (mf.hasAnnotation(Id.class)) {
 					setIdValue(entity, mf, dbObject, cache);
-				} else if (mf.hasAnnotation(Property.class) || mf.hasAnnotation(Serialized.class)
+				} else if (mf.hasAnnotation(Chunked.class))
+					chunkedMapper.fromDBObject(dbObject, mf, entity, loadedFrom);
+				else if (mf.hasAnnotation(Property.class) || mf.hasAnnotation(Serialized.class)
 						|| mf.isTypeMongoCompatible() || converters.hasSimpleValueConverter(mf))
 					valueMapper.fromDBObject(dbObject, mf, entity);
 				else if (mf.hasAnnotation(Embedded.class))
@@ -365,6 +544,8 @@ public class Mapper {
 				else {
 					embeddedMapper.fromDBObject(dbObject, mf, entity, cache);
 				}
+				if (prof != null)
+					prof.field(mc, mf, strategy(mf), false, System.nanoTime() - fieldStart);
 			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
@@ -374,9 +555,39 @@ public class Mapper {
 			Key key = new Key(entity.getClass(), dbObject.get(ID_KEY));
 			cache.putEntity(key, entity);
 		}
-		mc.callLifecycleMethods(PostLoad.class, entity, dbObject, this);
+		callLifecycleMethods(prof, mc, PostLoad.class, entity, dbObject);
+		if (prof != null)
+			prof.decoded(mc, profStart, profAlloc);
 		return entity;
 	}
+
+	private MappingProfiler activeProfiler() {
+		MappingProfiler prof = profiler;
+		return (prof != null && prof.isEnabled()) ? prof : null;
+	}
+
+	/** Calls the lifecycle methods, timing them when profiling */
+	private DBObject callLifecycleMethods(MappingProfiler prof, MappedClass mc, Class<? extends Annotation> event,
+			Object entity, DBObject dbObject) {
+		if (prof == null)
+			return mc.callLifecycleMethods(event, entity, dbObject, this);
+		long start = System.nanoTime();
+		DBObject res = mc.callLifecycleMethods(event, entity, dbObject, this);
+		prof.lifecycle(mc, System.nanoTime() - start);
+		return res;
+	}
+
+	/** How the field is mapped, for the profiler */
+	private MappingProfiler.Strategy strategy(MappedField mf) {
+		if (mf.hasAnnotation(Serialized.class))
+			return MappingProfiler.Strategy.SERIALIZED;
+		if (mf.hasAnnotation(Reference.class) || mf.hasAnnotation(Chunked.class))
+			return MappingProfiler.Strategy.REFERENCE;
+		if (mf.hasAnnotation(Id.class) || mf.hasAnnotation(Property.class) || mf.isTypeMongoCompatible()
+				|| converters.hasSimpleValueConverter(mf))
+			return MappingProfiler.Strategy.VALUE;
+		return MappingProfiler.Strategy.EMBEDDED;
+	}
 	
 	private void setIdValue(Object entity, MappedField mf, DBObject dbObject, EntityCache cache) {
 		if (dbObject.get(ID_KEY) != null) {
@@ -396,6 +607,11 @@ public class Mapper {
 		}
 	}
 
+	/** A cache for things built from this mapper's mappings (like projection plans); it lives as long as the mapper */
+	public ConcurrentMap<Object, Object> getPlanCache() {
+		return planCache;
+	}
+
 	// TODO might be better to expose via some "options" object?
 	public DefaultConverters getConverters() {
 		return converters;
@@ -3,6 +3,8 @@ package com.google.code.morphia.mapping;
 import java.lang.annotation.Annotation;
 
 import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.mapping.serialization.JavaSerializedCodec;
+import com.google.code.morphia.mapping.serialization.SerializedCodec;
 
 /**
  * Options to control mapping behavior.
@@ -19,4 +21,12 @@ public class MapperOptions {
 	public boolean storeEmpties = false;
 	/** <p>Controls if final fields are stored. </p>*/
 	public boolean ignoreFinals = false; //ignore final fields.
+	/** <p>The codec of <code>@Serialized</code> fields which don't set one (on the field or its type).</p>*/
+	public SerializedCodec serializedCodec = new JavaSerializedCodec();
+	/**
+	 * <p>Controls if <code>@Serialized</code> byte[] fields are serialized (with their codec and compression), instead
+	 * of being stored as is. Turning it on is a migration: the values stored as is can't be read any more, nor found
+	 * by equality queries, until their documents are saved again (loaded with it off, saved with it on).</p>
+	 */
+	public boolean serializeByteArrays = false;
 }
@@ -22,9 +22,9 @@ import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReference;
 import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceList;
 import com.google.code.morphia.mapping.lazy.proxy.ProxiedEntityReferenceMap;
 import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+import com.google.code.morphia.metrics.RoundTrips;
 import com.google.code.morphia.utils.ReflectionUtils;
 import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.DBRef;
 
@@ -169,7 +169,7 @@ class ReferenceMapper {
 			
 			Object resolvedObject = null;
 			if (refAnn.lazy() && LazyFeatureDependencies.assertDependencyFullFilled()) {
-				if (exists(referenceObjClass, dbRef, cache)) {
+				if (exists(referenceObjClass, dbRef, cache, mf)) {
 					resolvedObject = createOrReuseProxy(referenceObjClass, dbRef, cache);
 				} else {
 					if (!refAnn.ignoreMissing()) {
@@ -217,7 +217,7 @@ class ReferenceMapper {
 					referencesAsProxy.__addAll(keys);
 				} else {
 					DBRef dbRef = (DBRef) dbVal;
-					if (!exists(mf.getSubType(), dbRef, cache)) {
+					if (!exists(mf.getSubType(), dbRef, cache, mf)) {
 						String msg = "The reference(" + dbRef.toString() + ") could not be fetched for "
 								+ mf.getFullName();
 						if (!refAnn.ignoreMissing())
@@ -243,7 +243,7 @@ class ReferenceMapper {
 						if (cachedEntity != null) {
 							references.add(cachedEntity);
 						} else {
-							BasicDBObject refDbObject = (BasicDBObject) dbRef.fetch();
+							BasicDBObject refDbObject = (BasicDBObject) mapper.fetchReference(dbRef, mf);
 							
 							if (refDbObject == null) {
 								if (!refAnn.ignoreMissing()) {
@@ -265,7 +265,7 @@ class ReferenceMapper {
 					if (cachedEntity != null) {
 						references.add(cachedEntity);
 					} else {
-						BasicDBObject refDbObject = (BasicDBObject) dbRef.fetch();
+						BasicDBObject refDbObject = (BasicDBObject) mapper.fetchReference(dbRef, mf);
 						if (refDbObject == null) {
 							if (!refAnn.ignoreMissing()) {
 								throw new MappingException("The reference(" + dbRef.toString()
@@ -289,17 +289,18 @@ class ReferenceMapper {
 		}
 	}
 	
-	boolean exists(Class c, final DBRef dbRef, EntityCache cache) {
+	boolean exists(Class c, final DBRef dbRef, EntityCache cache, MappedField mf) {
 		Key key = new Key(dbRef);
 		Boolean cached = cache.exists(key);
 		if (cached != null)
 			return cached;
 
+		RoundTrips.referenceFetched(mf);
 		DatastoreImpl dsi = (DatastoreImpl) mapper.datastoreProvider.get();
 
-		DBCollection dbColl = dsi.getCollection(c);
-		if (!dbColl.getName().equals(dbRef.getRef()))
-			log.warning("Class " + c.getName() + " is stored in the '" + dbColl.getName()
+		String kind = dsi.getContext(c).getCollectionName();
+		if (!kind.equals(dbRef.getRef()))
+			log.warning("Class " + c.getName() + " is stored in the '" + kind
 					+ "' collection but a reference was found for this type to another collection, '" + dbRef.getRef()
 					+ "'. The reference will be loaded using the class anyway. " + dbRef);
 		boolean exists = (dsi.find(dbRef.getRef(), c).disableValidation().filter("_id", dbRef.getId()).asKeyList()
@@ -318,7 +319,7 @@ class ReferenceMapper {
 		if (cached != null)
 			return cached;
 		
-		BasicDBObject refDbObject = (BasicDBObject) dbRef.fetch();
+		BasicDBObject refDbObject = (BasicDBObject) mapper.fetchReference(dbRef, mf);
 		
 		if (refDbObject != null) {
 			Object refObj = ReflectionUtils.createInstance(referenceObjClass, refDbObject);
@@ -0,0 +1,13 @@
+package com.google.code.morphia.mapping;
+
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+
+/**
+ * Fetches the documents references point to, for datastores which don't keep them on a server (see
+ * {@link Mapper#setReferenceResolver(ReferenceResolver)}); by default {@link DBRef#fetch()} is used.
+ */
+public interface ReferenceResolver {
+	/** @return the referenced document; null if there is none */
+	DBObject resolve(DBRef ref);
+}
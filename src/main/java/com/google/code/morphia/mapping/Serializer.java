@@ -10,16 +10,209 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import org.bson.types.Binary;
 
+import com.google.code.morphia.mapping.serialization.SerializedCodec;
+
 /**
+ * <p>
+ * Serializes the values of {@link com.google.code.morphia.annotations.Serialized @Serialized} fields with a
+ * {@link SerializedCodec}, deflating the ones above a size, into a format starting with a header (see
+ * {@link #serialize(Object, SerializedCodec, int, int)}); {@link #deserialize(Object, SerializedCodec)} also reads the
+ * older (java serialized, maybe gzipped) values, by their first bytes.
+ * </p>
+ * <p>
+ * The buffers, {@link Deflater} and {@link Inflater} are reused, per thread.
+ * </p>
+ * 
  * @author Uwe Schaefer, (us@thomas-daily.de)
  */
 public class Serializer
 {
+	/** the header: these two bytes, then a byte of flags (and the size before deflating, if deflated) */
+	private static final byte[] MAGIC = { 'M', 'S' };
+	private static final int HEADER = 3;
+	private static final int DEFLATED = 1;
+	/** larger buffers are not kept */
+	private static final int MAX_POOLED = 1024 * 1024;
+
+	private static final ThreadLocal<Buffers> pool = new ThreadLocal<Buffers>();
+
+	/** A ByteArrayOutputStream which doesn't copy its array to be read */
+	private static class Buffer extends ByteArrayOutputStream
+	{
+		Buffer()
+		{
+			super(8 * 1024);
+		}
+
+		byte[] array()
+		{
+			return buf;
+		}
+	}
+
+	private static class Buffers
+	{
+		final Buffer raw = new Buffer();
+		final Buffer deflated = new Buffer();
+		final byte[] chunk = new byte[8 * 1024];
+		byte[] inflated = new byte[8 * 1024];
+		final Deflater deflater = new Deflater();
+		final Inflater inflater = new Inflater();
+	}
+
+	/** the buffers of this thread; a new set if they are in use (by a codec serializing a nested value) */
+	private static Buffers take()
+	{
+		Buffers b = pool.get();
+		if (b == null)
+			return new Buffers();
+		pool.set(null);
+		return b;
+	}
+
+	private static void release(Buffers b)
+	{
+		if (b.raw.array().length > MAX_POOLED || b.deflated.array().length > MAX_POOLED
+				|| b.inflated.length > MAX_POOLED || pool.get() != null)
+		{
+			b.deflater.end();
+			b.inflater.end();
+			return;
+		}
+		b.raw.reset();
+		b.deflated.reset();
+		pool.set(b);
+	}
+
+	/**
+	 * Serializes the value with the codec, after a header; the encoded bytes are deflated (at the level) if there are
+	 * more than compressAbove of them, and it makes them smaller.
+	 * 
+	 * @param level
+	 *            the {@link Deflater} level; {@link Deflater#NO_COMPRESSION} to never compress
+	 */
+	public static byte[] serialize(final Object o, final SerializedCodec codec, final int level, final int compressAbove)
+			throws IOException
+	{
+		final Buffers b = take();
+		try
+		{
+			final Buffer raw = b.raw;
+			raw.write(MAGIC);
+			raw.write(0);
+			codec.encode(o, raw);
+			final int length = raw.size() - HEADER;
+			if (level == Deflater.NO_COMPRESSION || length <= compressAbove)
+			{
+				return raw.toByteArray();
+			}
+
+			final Deflater deflater = b.deflater;
+			deflater.reset();
+			deflater.setLevel(level);
+			deflater.setInput(raw.array(), HEADER, length);
+			deflater.finish();
+			final Buffer deflated = b.deflated;
+			deflated.write(MAGIC);
+			deflated.write(DEFLATED);
+			for (int i = 3; i >= 0; i--)
+			{
+				deflated.write(length >>> (8 * i));
+			}
+			while (!deflater.finished() && deflated.size() < raw.size())
+			{
+				deflated.write(b.chunk, 0, deflater.deflate(b.chunk));
+			}
+			return (deflater.finished() && deflated.size() < raw.size()) ? deflated.toByteArray() : raw.toByteArray();
+		}
+		finally
+		{
+			release(b);
+		}
+	}
+
+	/**
+	 * Deserializes DBBinary/byte[] written by {@link #serialize(Object, SerializedCodec, int, int)} with the codec, or
+	 * by {@link #serialize(Object, boolean)}
+	 */
+	public static Object deserialize(final Object data, final SerializedCodec codec) throws IOException,
+			ClassNotFoundException
+	{
+		final byte[] bytes = (data instanceof Binary) ? ((Binary) data).getData() : (byte[]) data;
+		if (startsWith(bytes, 0xAC, 0xED))
+		{
+			return deserialize(bytes, false);
+		}
+		if (startsWith(bytes, 0x1F, 0x8B))
+		{
+			return deserialize(bytes, true);
+		}
+		if (!isSerialized(bytes))
+		{
+			throw new IOException("Not a serialized value; unknown header");
+		}
+		if ((bytes[2] & DEFLATED) == 0)
+		{
+			return codec.decode(new ByteArrayInputStream(bytes, HEADER, bytes.length - HEADER));
+		}
+
+		final int length = ((bytes[3] & 0xFF) << 24) | ((bytes[4] & 0xFF) << 16) | ((bytes[5] & 0xFF) << 8)
+				| (bytes[6] & 0xFF);
+		final Buffers b = take();
+		try
+		{
+			if (b.inflated.length < length)
+			{
+				b.inflated = new byte[length];
+			}
+			final Inflater inflater = b.inflater;
+			inflater.reset();
+			inflater.setInput(bytes, HEADER + 4, bytes.length - HEADER - 4);
+			int n = 0;
+			while (n < length)
+			{
+				final int read = inflater.inflate(b.inflated, n, length - n);
+				if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+				{
+					throw new IOException("Truncated deflated value; " + n + " of " + length + " bytes");
+				}
+				n += read;
+			}
+			return codec.decode(new ByteArrayInputStream(b.inflated, 0, length));
+		}
+		catch (final DataFormatException e)
+		{
+			final IOException ioe = new IOException("Corrupt deflated value: " + e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+		finally
+		{
+			release(b);
+		}
+	}
+
+	/** @return true if the bytes start with a known header (of either format) */
+	public static boolean isSerialized(final byte[] bytes)
+	{
+		return (startsWith(bytes, MAGIC[0], MAGIC[1]) && bytes.length >= HEADER && (bytes[2] & ~DEFLATED) == 0
+				&& ((bytes[2] & DEFLATED) == 0 || bytes.length > HEADER + 4))
+				|| startsWith(bytes, 0xAC, 0xED) || startsWith(bytes, 0x1F, 0x8B);
+	}
+
+	private static boolean startsWith(final byte[] bytes, final int first, final int second)
+	{
+		return bytes.length >= 2 && (bytes[0] & 0xFF) == first && (bytes[1] & 0xFF) == second;
+	}
+
 	/** serializes object to byte[] */
 	public static byte[] serialize(final Object o, final boolean zip) throws IOException
 	{
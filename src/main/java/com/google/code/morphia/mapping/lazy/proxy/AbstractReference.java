@@ -8,6 +8,7 @@ import java.io.Serializable;
 
 import com.google.code.morphia.Key;
 import com.google.code.morphia.mapping.lazy.DatastoreProvider;
+import com.google.code.morphia.metrics.RoundTrips;
 import com.thoughtworks.proxy.kit.ObjectReference;
 
 /**
@@ -55,6 +56,7 @@ public abstract class AbstractReference implements Serializable, ObjectReference
 	}
 
 	protected final Object fetch(Key<?> id) {
+		RoundTrips.referenceFetched("lazy proxy of " + referenceObjClass.getName());
 		return p.get().getByKey(referenceObjClass, id);
 	}
 
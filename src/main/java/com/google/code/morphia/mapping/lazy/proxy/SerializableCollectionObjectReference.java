@@ -42,9 +42,8 @@ public class SerializableCollectionObjectReference<T> extends AbstractReference
 		
 		// so we do it the lousy way: FIXME
 		List<T> retrievedEntities = new ArrayList<T>(listOfKeys.size());
-		Datastore ds = p.get();
 		for (Key<?> k : listOfKeys) {
-			retrievedEntities.add((T) ds.getByKey(referenceObjClass, k));
+			retrievedEntities.add((T) fetch(k));
 		}
 		
 		if (!ignoreMissing && (numberOfEntitiesExpected != retrievedEntities.size())) {
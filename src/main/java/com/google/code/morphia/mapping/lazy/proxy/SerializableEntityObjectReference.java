@@ -25,7 +25,7 @@ public class SerializableEntityObjectReference extends AbstractReference impleme
 	@Override
 	protected Object fetch() {
 
-		Object entity = p.get().getByKey(referenceObjClass, key);
+		Object entity = fetch(key);
 		if (entity == null) {
 			throw new LazyReferenceFetchingException(
 					"During the lifetime of the proxy, the Entity identified by '"
@@ -0,0 +1,213 @@
+package com.google.code.morphia.mapping.registry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.code.morphia.mapping.MappingException;
+
+/**
+ * <p>
+ * The mapped ({@code @Entity}/{@code @Embedded}) classes of a package, with their fields and lifecycle methods, as
+ * recorded at compile time by the {@link MappingRegistryProcessor}.
+ * {@link com.google.code.morphia.Morphia#mapPackage(String)} uses it (when every jar or directory with classes of the
+ * package has one) instead of scanning the classpath and loading every class of the package.
+ * </p>
+ * <p>
+ * The registry is a text resource, {@code META-INF/morphia/<package>.mapping}, with lines like:
+ * </p>
+ *
+ * <pre>
+ * class com.example.Hotel
+ * field com.example.Hotel name
+ * field com.example.BaseEntity id
+ * lifecycle com.example.Hotel prePersist
+ * </pre>
+ */
+public class MappingRegistry {
+	public static final String RESOURCE_PREFIX = "META-INF/morphia/";
+	public static final String RESOURCE_SUFFIX = ".mapping";
+
+	/** A mapped class, with the (non-static, not {@code @Transient}) fields and the lifecycle methods it declares or inherits */
+	public static class Entry {
+		private final String className;
+		private final List<String[]> fields = new ArrayList<String[]>();
+		private final List<String[]> lifecycleMethods = new ArrayList<String[]>();
+
+		public Entry(String className) {
+			this.className = className;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		/** Adds a field (by the binary name of the class declaring it); in the order of mapping, the class' own first */
+		public Entry addField(String declaringClass, String name) {
+			fields.add(new String[] { declaringClass, name });
+			return this;
+		}
+
+		/** Adds a method annotated with a lifecycle annotation; in the order of calling, the superclasses' first */
+		public Entry addLifecycleMethod(String declaringClass, String name) {
+			lifecycleMethods.add(new String[] { declaringClass, name });
+			return this;
+		}
+
+		/** @return the number of fields recorded */
+		public int getFieldCount() {
+			return fields.size();
+		}
+
+		public Class<?> load(ClassLoader loader) {
+			try {
+				return Class.forName(className, true, loader);
+			} catch (ClassNotFoundException e) {
+				throw new MappingException("Class " + className + " is in the mapping registry but can't be loaded; the registry is out of date", e);
+			}
+		}
+
+		/** @return the recorded fields of the class */
+		public Field[] getFields(Class<?> clazz) {
+			Field[] found = new Field[fields.size()];
+			for (int i = 0; i < found.length; i++) {
+				String[] f = fields.get(i);
+				try {
+					found[i] = declaring(clazz, f[0]).getDeclaredField(f[1]);
+				} catch (NoSuchFieldException e) {
+					throw stale(f[0] + "." + f[1], e);
+				}
+			}
+			return found;
+		}
+
+		/** @return the recorded lifecycle methods of the class (all of them, if a name is overloaded) */
+		public List<Method> getLifecycleMethods(Class<?> clazz) {
+			List<Method> found = new ArrayList<Method>(lifecycleMethods.size());
+			for (String[] m : lifecycleMethods) {
+				int before = found.size();
+				for (Method method : declaring(clazz, m[0]).getDeclaredMethods())
+					if (method.getName().equals(m[1]) && !Modifier.isStatic(method.getModifiers()))
+						found.add(method);
+				if (found.size() == before)
+					throw stale(m[0] + "." + m[1] + "()", null);
+			}
+			return found;
+		}
+
+		/** finds the (super) class by name, without loading anything */
+		private Class<?> declaring(Class<?> clazz, String name) {
+			for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+				if (c.getName().equals(name))
+					return c;
+			throw stale(name, null);
+		}
+
+		private MappingException stale(String what, Throwable cause) {
+			return new MappingException("The mapping registry entry of " + className + " refers to " + what
+					+ ", which isn't there; the registry is out of date (recompile the class)", cause);
+		}
+	}
+
+	private MappingRegistry() {
+	}
+
+	/** @return the name of the registry resource of the package */
+	public static String resourceName(String packageName) {
+		return RESOURCE_PREFIX + packageName + RESOURCE_SUFFIX;
+	}
+
+	/**
+	 * @return the registered classes of the package, from all the registries of the package on the classpath (each jar
+	 *         or directory has its own); null if there are none, or if some jar or directory has classes of the package
+	 *         but no registry (compiled without the processor), so the registries don't have all the classes
+	 */
+	public static List<Entry> forPackage(ClassLoader loader, String packageName) throws IOException {
+		String resource = resourceName(packageName);
+		Enumeration<URL> resources = loader.getResources(resource);
+		if (resources == null || !resources.hasMoreElements())
+			return null;
+		List<URL> registries = Collections.list(resources);
+		Set<String> registered = new HashSet<String>();
+		for (URL url : registries)
+			registered.add(root(url, resource));
+		String path = packageName.replace('.', '/');
+		Enumeration<URL> dirs = loader.getResources(path);
+		while (dirs != null && dirs.hasMoreElements())
+			if (!registered.contains(root(dirs.nextElement(), path)))
+				return null;
+
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		for (URL url : registries) {
+			InputStream in = url.openStream();
+			try {
+				for (Entry e : read(new InputStreamReader(in, "UTF-8")))
+					if (!entries.containsKey(e.getClassName()))
+						entries.put(e.getClassName(), e);
+			} finally {
+				in.close();
+			}
+		}
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	/** @return the jar or directory of the resource (the url, without the resource's path) */
+	private static String root(URL url, String resource) {
+		String s = url.toExternalForm();
+		if (s.endsWith("/"))
+			s = s.substring(0, s.length() - 1);
+		return s.endsWith(resource) ? s.substring(0, s.length() - resource.length()) : s;
+	}
+
+	/** Reads a registry; blank lines and lines starting with # are ignored */
+	public static List<Entry> read(Reader reader) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		BufferedReader r = new BufferedReader(reader);
+		Entry current = null;
+		int lineNo = 0;
+		for (String line = r.readLine(); line != null; line = r.readLine()) {
+			lineNo++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#"))
+				continue;
+			String[] parts = line.split("\\s+");
+			if (parts[0].equals("class") && parts.length == 2) {
+				current = new Entry(parts[1]);
+				entries.add(current);
+			} else if (current != null && parts[0].equals("field") && parts.length == 3)
+				current.addField(parts[1], parts[2]);
+			else if (current != null && parts[0].equals("lifecycle") && parts.length == 3)
+				current.addLifecycleMethod(parts[1], parts[2]);
+			else
+				throw new IOException("Bad mapping registry line " + lineNo + ": " + line);
+		}
+		return entries;
+	}
+
+	/** Writes a registry (as {@link #read(Reader)} reads it) */
+	public static void write(Writer w, List<Entry> entries) throws IOException {
+		w.write("# generated by " + MappingRegistryProcessor.class.getName() + "; do not edit\n");
+		for (Entry e : entries) {
+			w.write("class " + e.className + "\n");
+			for (String[] f : e.fields)
+				w.write("field " + f[0] + " " + f[1] + "\n");
+			for (String[] m : e.lifecycleMethods)
+				w.write("lifecycle " + m[0] + " " + m[1] + "\n");
+		}
+	}
+}
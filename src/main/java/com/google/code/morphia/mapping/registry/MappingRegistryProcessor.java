@@ -0,0 +1,198 @@
+package com.google.code.morphia.mapping.registry;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.PostLoad;
+import com.google.code.morphia.annotations.PostPersist;
+import com.google.code.morphia.annotations.PreLoad;
+import com.google.code.morphia.annotations.PrePersist;
+import com.google.code.morphia.annotations.PreSave;
+import com.google.code.morphia.annotations.Transient;
+
+/**
+ * <p>
+ * Writes the {@link MappingRegistry} of each package with {@link Entity @Entity}/{@link Embedded @Embedded} classes,
+ * at compile time. Like {@link com.google.code.morphia.Morphia#mapPackage(String)}, a class is mapped if it, a
+ * superclass or an interface is annotated. It is not registered as a service (it looks at every class compiled), so
+ * it only runs when asked for: {@code javac -processor com.google.code.morphia.mapping.registry.MappingRegistryProcessor},
+ * or the {@code <annotationProcessors>} of the maven-compiler-plugin.
+ * </p>
+ * <p>
+ * The registries of an incremental compile are merged with the ones already in the output, dropping the classes
+ * which are gone or no longer mapped.
+ * </p>
+ */
+@SupportedAnnotationTypes("*")
+public class MappingRegistryProcessor extends AbstractProcessor {
+	private static final List<Class<? extends Annotation>> LIFECYCLE = Arrays.<Class<? extends Annotation>> asList(
+			PrePersist.class, PreSave.class, PostPersist.class, PreLoad.class, PostLoad.class);
+
+	/** the mapped classes found so far, by package, by binary name */
+	private final Map<String, Map<String, MappingRegistry.Entry>> packages = new TreeMap<String, Map<String, MappingRegistry.Entry>>();
+
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (TypeElement type : ElementFilter.typesIn(round.getRootElements()))
+			addIfMapped(type);
+		if (round.processingOver())
+			for (Map.Entry<String, Map<String, MappingRegistry.Entry>> pkg : packages.entrySet())
+				write(pkg.getKey(), pkg.getValue());
+		return false;
+	}
+
+	/** adds the type, and its member types, if they are mapped */
+	private void addIfMapped(TypeElement type) {
+		if (isMapped(type))
+			add(type);
+		for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements()))
+			addIfMapped(member);
+	}
+
+	/** the same rules as {@link com.google.code.morphia.utils.ReflectionUtils#getAnnotation(Class, Class)} */
+	private static boolean isMapped(TypeElement type) {
+		if (isAnnotated(type))
+			return true;
+		for (TypeElement t = superclass(type); t != null; t = superclass(t)) {
+			if (isAnnotated(t))
+				return true;
+			for (TypeMirror i : t.getInterfaces())
+				if (isAnnotated((TypeElement) ((DeclaredType) i).asElement()))
+					return true;
+		}
+		for (TypeMirror i : type.getInterfaces())
+			if (isAnnotated((TypeElement) ((DeclaredType) i).asElement()))
+				return true;
+		return false;
+	}
+
+	private static boolean isAnnotated(TypeElement type) {
+		return type.getAnnotation(Entity.class) != null || type.getAnnotation(Embedded.class) != null;
+	}
+
+	private void add(TypeElement type) {
+		String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		Map<String, MappingRegistry.Entry> entries = packages.get(pkg);
+		if (entries == null) {
+			entries = new TreeMap<String, MappingRegistry.Entry>();
+			packages.put(pkg, entries);
+		}
+		MappingRegistry.Entry entry = entry(type);
+		entries.put(entry.getClassName(), entry);
+	}
+
+	/** records the fields (own first, like the mapper) and lifecycle methods (superclasses' first) */
+	private MappingRegistry.Entry entry(TypeElement type) {
+		MappingRegistry.Entry entry = new MappingRegistry.Entry(binaryName(type));
+		List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+		for (TypeElement t = type; t != null; t = superclass(t))
+			hierarchy.add(t);
+
+		for (TypeElement t : hierarchy)
+			for (VariableElement f : ElementFilter.fieldsIn(t.getEnclosedElements()))
+				if (!f.getModifiers().contains(Modifier.STATIC) && f.getAnnotation(Transient.class) == null)
+					entry.addField(binaryName(t), f.getSimpleName().toString());
+
+		for (int i = hierarchy.size() - 1; i >= 0; i--) {
+			TypeElement t = hierarchy.get(i);
+			List<String> seen = new ArrayList<String>();
+			for (ExecutableElement m : ElementFilter.methodsIn(t.getEnclosedElements())) {
+				String name = m.getSimpleName().toString();
+				if (!m.getModifiers().contains(Modifier.STATIC) && isLifecycle(m) && !seen.contains(name)) {
+					seen.add(name);
+					entry.addLifecycleMethod(binaryName(t), name);
+				}
+			}
+		}
+		return entry;
+	}
+
+	private static boolean isLifecycle(ExecutableElement m) {
+		for (Class<? extends Annotation> a : LIFECYCLE)
+			if (m.getAnnotation(a) != null)
+				return true;
+		return false;
+	}
+
+	/** the superclass; null for (or above) java.lang.Object */
+	private static TypeElement superclass(TypeElement type) {
+		TypeMirror sup = type.getSuperclass();
+		if (sup.getKind() != TypeKind.DECLARED)
+			return null;
+		TypeElement t = (TypeElement) ((DeclaredType) sup).asElement();
+		return t.getQualifiedName().contentEquals("java.lang.Object") ? null : t;
+	}
+
+	private String binaryName(TypeElement type) {
+		return processingEnv.getElementUtils().getBinaryName(type).toString();
+	}
+
+	private void write(String pkg, Map<String, MappingRegistry.Entry> entries) {
+		String resource = MappingRegistry.resourceName(pkg);
+		mergePrevious(resource, pkg, entries);
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", resource);
+			Writer w = new OutputStreamWriter(file.openOutputStream(), "UTF-8");
+			try {
+				MappingRegistry.write(w, new ArrayList<MappingRegistry.Entry>(entries.values()));
+			} finally {
+				w.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + resource + ": " + e);
+		}
+	}
+
+	/** adds the classes of the registry already in the output (from an earlier compile) which are still mapped */
+	private void mergePrevious(String resource, String pkg, Map<String, MappingRegistry.Entry> entries) {
+		List<MappingRegistry.Entry> previous;
+		try {
+			FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", resource);
+			InputStreamReader r = new InputStreamReader(file.openInputStream(), "UTF-8");
+			try {
+				previous = MappingRegistry.read(r);
+			} finally {
+				r.close();
+			}
+		} catch (IOException e) {
+			return; // none
+		}
+		for (MappingRegistry.Entry old : previous) {
+			if (entries.containsKey(old.getClassName()))
+				continue;
+			TypeElement type = processingEnv.getElementUtils().getTypeElement(old.getClassName().replace('$', '.'));
+			if (type != null && isMapped(type) && processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().contentEquals(pkg))
+				entries.put(old.getClassName(), entry(type));
+		}
+	}
+}
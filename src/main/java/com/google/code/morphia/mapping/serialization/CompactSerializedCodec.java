@@ -0,0 +1,261 @@
+package com.google.code.morphia.mapping.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * <p>
+ * A compact binary format for the common values: strings, boxed primitives (variable length integers), dates,
+ * <code>byte[]/int[]/long[]/double[]</code>, and {@link ArrayList}s, {@link HashSet}s and {@link HashMap}s (and the
+ * linked ones) of those. Any other value is written with java serialization, so it must be
+ * {@link java.io.Serializable}.
+ * </p>
+ * <p>
+ * Collections are written by their exact class, so they are read back as the same class; a subclass of one of them
+ * (or any other collection) is written with java serialization.
+ * </p>
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class CompactSerializedCodec implements SerializedCodec {
+	private static final int NULL = 0, STRING = 1, INT = 2, LONG = 3, DOUBLE = 4, FLOAT = 5, SHORT = 6, BYTE = 7,
+			TRUE = 8, FALSE = 9, CHAR = 10, DATE = 11, BYTES = 12, INTS = 13, LONGS = 14, DOUBLES = 15, ARRAY_LIST = 16,
+			HASH_SET = 17, LINKED_HASH_SET = 18, HASH_MAP = 19, LINKED_HASH_MAP = 20, SERIALIZED = 21;
+
+	private final JavaSerializedCodec java = new JavaSerializedCodec();
+
+	public void encode(Object value, OutputStream out) throws IOException {
+		write(value, out);
+	}
+
+	public Object decode(InputStream in) throws IOException, ClassNotFoundException {
+		return read(in);
+	}
+
+	private void write(Object value, OutputStream out) throws IOException {
+		if (value == null) {
+			out.write(NULL);
+			return;
+		}
+		Class<?> c = value.getClass();
+		if (c == String.class) {
+			out.write(STRING);
+			writeBytes(((String) value).getBytes("UTF-8"), out);
+		} else if (c == Integer.class) {
+			out.write(INT);
+			writeSigned(((Integer) value).intValue(), out);
+		} else if (c == Long.class) {
+			out.write(LONG);
+			writeSigned(((Long) value).longValue(), out);
+		} else if (c == Double.class) {
+			out.write(DOUBLE);
+			writeFixed(Double.doubleToLongBits(((Double) value).doubleValue()), 8, out);
+		} else if (c == Float.class) {
+			out.write(FLOAT);
+			writeFixed(Float.floatToIntBits(((Float) value).floatValue()), 4, out);
+		} else if (c == Short.class) {
+			out.write(SHORT);
+			writeSigned(((Short) value).shortValue(), out);
+		} else if (c == Byte.class) {
+			out.write(BYTE);
+			out.write(((Byte) value).byteValue());
+		} else if (c == Boolean.class) {
+			out.write(((Boolean) value).booleanValue() ? TRUE : FALSE);
+		} else if (c == Character.class) {
+			out.write(CHAR);
+			writeUnsigned(((Character) value).charValue(), out);
+		} else if (c == Date.class) {
+			out.write(DATE);
+			writeSigned(((Date) value).getTime(), out);
+		} else if (c == byte[].class) {
+			out.write(BYTES);
+			writeBytes((byte[]) value, out);
+		} else if (c == int[].class) {
+			int[] a = (int[]) value;
+			out.write(INTS);
+			writeUnsigned(a.length, out);
+			for (int v : a)
+				writeSigned(v, out);
+		} else if (c == long[].class) {
+			long[] a = (long[]) value;
+			out.write(LONGS);
+			writeUnsigned(a.length, out);
+			for (long v : a)
+				writeSigned(v, out);
+		} else if (c == double[].class) {
+			double[] a = (double[]) value;
+			out.write(DOUBLES);
+			writeUnsigned(a.length, out);
+			for (double v : a)
+				writeFixed(Double.doubleToLongBits(v), 8, out);
+		} else if (c == ArrayList.class || c == HashSet.class || c == LinkedHashSet.class) {
+			Collection coll = (Collection) value;
+			out.write(c == ArrayList.class ? ARRAY_LIST : (c == HashSet.class ? HASH_SET : LINKED_HASH_SET));
+			writeUnsigned(coll.size(), out);
+			for (Object o : coll)
+				write(o, out);
+		} else if (c == HashMap.class || c == LinkedHashMap.class) {
+			Map<Object, Object> map = (Map<Object, Object>) value;
+			out.write(c == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+			writeUnsigned(map.size(), out);
+			for (Map.Entry<Object, Object> e : map.entrySet()) {
+				write(e.getKey(), out);
+				write(e.getValue(), out);
+			}
+		} else {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			java.encode(value, baos);
+			out.write(SERIALIZED);
+			writeBytes(baos.toByteArray(), out);
+		}
+	}
+
+	private Object read(InputStream in) throws IOException, ClassNotFoundException {
+		int tag = readByte(in);
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(in), "UTF-8");
+		case INT:
+			return Integer.valueOf((int) readSigned(in));
+		case LONG:
+			return Long.valueOf(readSigned(in));
+		case DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(readFixed(8, in)));
+		case FLOAT:
+			return Float.valueOf(Float.intBitsToFloat((int) readFixed(4, in)));
+		case SHORT:
+			return Short.valueOf((short) readSigned(in));
+		case BYTE:
+			return Byte.valueOf((byte) readByte(in));
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case CHAR:
+			return Character.valueOf((char) readUnsigned(in));
+		case DATE:
+			return new Date(readSigned(in));
+		case BYTES:
+			return readBytes(in);
+		case INTS: {
+			int[] a = new int[(int) readUnsigned(in)];
+			for (int i = 0; i < a.length; i++)
+				a[i] = (int) readSigned(in);
+			return a;
+		}
+		case LONGS: {
+			long[] a = new long[(int) readUnsigned(in)];
+			for (int i = 0; i < a.length; i++)
+				a[i] = readSigned(in);
+			return a;
+		}
+		case DOUBLES: {
+			double[] a = new double[(int) readUnsigned(in)];
+			for (int i = 0; i < a.length; i++)
+				a[i] = Double.longBitsToDouble(readFixed(8, in));
+			return a;
+		}
+		case ARRAY_LIST:
+		case HASH_SET:
+		case LINKED_HASH_SET: {
+			int size = (int) readUnsigned(in);
+			Collection coll = (tag == ARRAY_LIST) ? new ArrayList(size) : (tag == HASH_SET) ? new HashSet(size * 2)
+					: new LinkedHashSet(size * 2);
+			for (int i = 0; i < size; i++)
+				coll.add(read(in));
+			return coll;
+		}
+		case HASH_MAP:
+		case LINKED_HASH_MAP: {
+			int size = (int) readUnsigned(in);
+			Map map = (tag == HASH_MAP) ? new HashMap(size * 2) : new LinkedHashMap(size * 2);
+			for (int i = 0; i < size; i++)
+				map.put(read(in), read(in));
+			return map;
+		}
+		case SERIALIZED:
+			return java.decode(new ByteArrayInputStream(readBytes(in)));
+		default:
+			throw new IOException("Unknown type tag " + tag);
+		}
+	}
+
+	private static void writeBytes(byte[] bytes, OutputStream out) throws IOException {
+		writeUnsigned(bytes.length, out);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(InputStream in) throws IOException {
+		byte[] bytes = new byte[(int) readUnsigned(in)];
+		int read = 0;
+		while (read < bytes.length) {
+			int n = in.read(bytes, read, bytes.length - read);
+			if (n < 0)
+				throw new EOFException();
+			read += n;
+		}
+		return bytes;
+	}
+
+	/** zig-zag, so small negative numbers are small too */
+	private static void writeSigned(long v, OutputStream out) throws IOException {
+		writeUnsigned((v << 1) ^ (v >> 63), out);
+	}
+
+	private static long readSigned(InputStream in) throws IOException {
+		long v = readUnsigned(in);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/** 7 bits per byte, the high bit set on all but the last one */
+	private static void writeUnsigned(long v, OutputStream out) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private static long readUnsigned(InputStream in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte(in);
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	private static void writeFixed(long v, int bytes, OutputStream out) throws IOException {
+		for (int i = 0; i < bytes; i++)
+			out.write((int) (v >>> (8 * i)));
+	}
+
+	private static long readFixed(int bytes, InputStream in) throws IOException {
+		long v = 0;
+		for (int i = 0; i < bytes; i++)
+			v |= (long) readByte(in) << (8 * i);
+		return v;
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+}
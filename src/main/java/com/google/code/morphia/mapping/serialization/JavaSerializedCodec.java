@@ -0,0 +1,22 @@
+package com.google.code.morphia.mapping.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Java serialization ({@link ObjectOutputStream}); handles any {@link java.io.Serializable} value. The default codec.
+ */
+public class JavaSerializedCodec implements SerializedCodec {
+	public void encode(Object value, OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(value);
+		oos.flush();
+	}
+
+	public Object decode(InputStream in) throws IOException, ClassNotFoundException {
+		return new ObjectInputStream(in).readObject();
+	}
+}
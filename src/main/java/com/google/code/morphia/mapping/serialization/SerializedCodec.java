@@ -0,0 +1,18 @@
+package com.google.code.morphia.mapping.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes and reads the values of {@link com.google.code.morphia.annotations.Serialized @Serialized} fields; the
+ * (optional) compression and the format header are added by {@link com.google.code.morphia.mapping.Serializer}.
+ * Implementations are shared by all fields using them, so they must be thread-safe, and need a no-args constructor.
+ */
+public interface SerializedCodec {
+	/** Writes the (non-null) value to the stream */
+	void encode(Object value, OutputStream out) throws IOException;
+
+	/** Reads a value written by {@link #encode(Object, OutputStream)} */
+	Object decode(InputStream in) throws IOException, ClassNotFoundException;
+}
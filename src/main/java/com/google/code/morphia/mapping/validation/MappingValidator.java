@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
+import com.google.code.morphia.annotations.Chunked;
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Property;
 import com.google.code.morphia.annotations.Reference;
@@ -27,6 +28,7 @@ import com.google.code.morphia.mapping.validation.classrules.EntityAndEmbed;
 import com.google.code.morphia.mapping.validation.classrules.MultipleId;
 import com.google.code.morphia.mapping.validation.classrules.MultipleVersions;
 import com.google.code.morphia.mapping.validation.classrules.NoId;
+import com.google.code.morphia.mapping.validation.fieldrules.ChunkedMisuse;
 import com.google.code.morphia.mapping.validation.fieldrules.ContradictingFieldAnnotation;
 import com.google.code.morphia.mapping.validation.fieldrules.LazyReferenceMissingDependencies;
 import com.google.code.morphia.mapping.validation.fieldrules.LazyReferenceOnArray;
@@ -101,6 +103,7 @@ public class MappingValidator {
 		constraints.add(new MapKeyDifferentFromString());
 		constraints.add(new MapNotSerializable());
 		constraints.add(new VersionMisuse());
+		constraints.add(new ChunkedMisuse());
 		//
 		constraints.add(new ContradictingFieldAnnotation(Reference.class, Serialized.class));
 		constraints.add(new ContradictingFieldAnnotation(Reference.class, Property.class));
@@ -110,6 +113,11 @@ public class MappingValidator {
 		constraints.add(new ContradictingFieldAnnotation(Embedded.class, Property.class));
 		//
 		constraints.add(new ContradictingFieldAnnotation(Property.class, Serialized.class));
+		//
+		constraints.add(new ContradictingFieldAnnotation(Chunked.class, Serialized.class));
+		constraints.add(new ContradictingFieldAnnotation(Chunked.class, Property.class));
+		constraints.add(new ContradictingFieldAnnotation(Chunked.class, Reference.class));
+		constraints.add(new ContradictingFieldAnnotation(Chunked.class, Embedded.class));
 
 		return constraints;
 	}
@@ -0,0 +1,33 @@
+package com.google.code.morphia.mapping.validation.fieldrules;
+
+import java.util.Set;
+
+import com.google.code.morphia.ChunkedData;
+import com.google.code.morphia.annotations.Chunked;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.validation.ConstraintViolation;
+import com.google.code.morphia.mapping.validation.ConstraintViolation.Level;
+
+/**
+ * {@link Chunked} is only for {@link ChunkedData} fields, which need it; and only in entities (the datastore saving an
+ * entity writes the data of its own fields).
+ */
+public class ChunkedMisuse extends FieldConstraint {
+
+	@Override
+	protected void check(MappedClass mc, MappedField mf, Set<ConstraintViolation> ve) {
+		boolean chunked = mf.hasAnnotation(Chunked.class);
+		boolean data = ChunkedData.class.equals(mf.getType());
+		if (chunked && !data)
+			ve.add(new ConstraintViolation(Level.FATAL, mc, mf, this.getClass(), "@" + Chunked.class.getSimpleName()
+					+ " can only be used on a field of type " + ChunkedData.class.getName()));
+		else if (data && !chunked)
+			ve.add(new ConstraintViolation(Level.FATAL, mc, mf, this.getClass(), ChunkedData.class.getSimpleName()
+					+ " fields need @" + Chunked.class.getSimpleName()));
+		else if (chunked && mc.getEmbeddedAnnotation() != null)
+			ve.add(new ConstraintViolation(Level.FATAL, mc, mf, this.getClass(), "@" + Chunked.class.getSimpleName()
+					+ " fields can't be in an @" + Embedded.class.getSimpleName() + " class"));
+	}
+}
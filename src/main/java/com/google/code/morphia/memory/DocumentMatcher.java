@@ -0,0 +1,255 @@
+package com.google.code.morphia.memory;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.query.FilterOperator;
+import com.google.code.morphia.query.QueryException;
+import com.mongodb.DBRefBase;
+
+/**
+ * Evaluates a query document (as built by {@link com.google.code.morphia.query.QueryImpl}) against a document, with
+ * the semantics of the server for the {@link FilterOperator}s; {@code $where} (javascript) is not supported.
+ */
+final class DocumentMatcher {
+
+	private DocumentMatcher() {
+	}
+
+	/** @return true if the document matches the query; a null/empty query matches everything */
+	static boolean matches(Object doc, Object query) {
+		if (query == null)
+			return true;
+		for (String key : Documents.keys(query)) {
+			Object cond = Documents.get(query, key);
+			if (key.startsWith("$")) {
+				if (!matchesLogical(doc, key, cond))
+					return false;
+			} else if (!matchesField(Documents.values(doc, key), cond))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean matchesLogical(Object doc, String op, Object cond) {
+		if (FilterOperator.AND.val().equals(op)) {
+			for (Object sub : toList(cond))
+				if (!matches(doc, sub))
+					return false;
+			return true;
+		}
+		if (FilterOperator.OR.val().equals(op)) {
+			for (Object sub : toList(cond))
+				if (matches(doc, sub))
+					return true;
+			return false;
+		}
+		if (FilterOperator.WHERE.val().equals(op))
+			throw new QueryException("$where (javascript) queries are not supported in memory");
+		throw new QueryException("Unsupported query operator " + op);
+	}
+
+	/** matches the values found at a path against a value or an operator document */
+	private static boolean matchesField(List<Object> found, Object cond) {
+		if (isOperatorDocument(cond)) {
+			for (String op : Documents.keys(cond))
+				if (!matchesOperator(found, op, Documents.get(cond, op)))
+					return false;
+			return true;
+		}
+		return anyEquals(found, cond);
+	}
+
+	private static boolean isOperatorDocument(Object cond) {
+		if (!Documents.isDocument(cond))
+			return false;
+		for (String key : Documents.keys(cond))
+			return key.startsWith("$");
+		return false;
+	}
+
+	/** equality, where a list matches if it is equal, or if any of its elements is; a pattern matches strings */
+	private static boolean anyEquals(List<Object> found, Object cond) {
+		if (found.isEmpty())
+			return cond == null;
+		for (Object val : found) {
+			if (valueEquals(val, cond))
+				return true;
+			if (val instanceof List)
+				for (Object elem : (List<?>) val)
+					if (valueEquals(elem, cond))
+						return true;
+		}
+		return false;
+	}
+
+	private static boolean valueEquals(Object val, Object cond) {
+		if (cond instanceof Pattern)
+			return (val instanceof String) && ((Pattern) cond).matcher((String) val).find();
+		return Documents.equal(val, normalize(cond));
+	}
+
+	private static boolean matchesOperator(List<Object> found, String op, Object arg) {
+		FilterOperator fo = FilterOperator.fromString(op);
+		if (fo == null)
+			throw new QueryException("Unsupported query operator " + op);
+		switch (fo) {
+		case EQUAL:
+			return anyEquals(found, arg);
+		case NOT_EQUAL:
+			return !anyEquals(found, arg);
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQUAL:
+		case LESS_THAN:
+		case LESS_THAN_OR_EQUAL:
+			return anyCompares(found, fo, normalize(arg));
+		case IN:
+			for (Object o : toList(arg))
+				if (anyEquals(found, o))
+					return true;
+			return false;
+		case NOT_IN:
+			for (Object o : toList(arg))
+				if (anyEquals(found, o))
+					return false;
+			return true;
+		case ALL:
+			for (Object o : toList(arg))
+				if (!anyEquals(found, o))
+					return false;
+			return true;
+		case EXISTS:
+			return found.isEmpty() != isTrue(arg);
+		case SIZE:
+			for (Object val : found)
+				if (val instanceof List && ((List<?>) val).size() == ((Number) arg).intValue())
+					return true;
+			return false;
+		case MOD:
+			List<Object> divRem = toList(arg);
+			long div = ((Number) divRem.get(0)).longValue(), rem = ((Number) divRem.get(1)).longValue();
+			for (Object val : expand(found))
+				if (val instanceof Number && ((Number) val).longValue() % div == rem)
+					return true;
+			return false;
+		case TYPE:
+			int type = ((Number) arg).intValue();
+			for (Object val : expand(found))
+				if (bsonType(val) == type)
+					return true;
+			return false;
+		case ELEMENT_MATCH:
+			for (Object val : found)
+				if (val instanceof List)
+					for (Object elem : (List<?>) val)
+						if (Documents.isDocument(elem) ? matches(elem, arg) : matchesField(single(elem), arg))
+							return true;
+			return false;
+		case NOT:
+			return !matchesField(found, arg);
+		default:
+			throw new QueryException("Unsupported query operator " + op);
+		}
+	}
+
+	private static boolean anyCompares(List<Object> found, FilterOperator fo, Object arg) {
+		for (Object val : expand(found)) {
+			// like the server, only values of the same (kind of) type are compared
+			if (val == null || arg == null || (val instanceof Number) != (arg instanceof Number)
+					|| (!(val instanceof Number) && !val.getClass().equals(arg.getClass())))
+				continue;
+			int c = Documents.compare(val, arg);
+			switch (fo) {
+			case GREATER_THAN:
+				if (c > 0) return true;
+				break;
+			case GREATER_THAN_OR_EQUAL:
+				if (c >= 0) return true;
+				break;
+			case LESS_THAN:
+				if (c < 0) return true;
+				break;
+			default:
+				if (c <= 0) return true;
+			}
+		}
+		return false;
+	}
+
+	/** the values, and the elements of the values which are lists */
+	private static List<Object> expand(List<Object> found) {
+		List<Object> all = new ArrayList<Object>();
+		for (Object val : found)
+			if (val instanceof List)
+				all.addAll((List<?>) val);
+			else
+				all.add(val);
+		return all;
+	}
+
+	private static List<Object> single(Object val) {
+		List<Object> l = new ArrayList<Object>(1);
+		l.add(val);
+		return l;
+	}
+
+	private static int bsonType(Object val) {
+		if (val == null) return 10;
+		if (val instanceof Double || val instanceof Float) return 1;
+		if (val instanceof String) return 2;
+		if (val instanceof List) return 4;
+		if (Documents.isDocument(val) || val instanceof DBRefBase) return 3;
+		if (val instanceof byte[]) return 5;
+		if (val instanceof ObjectId) return 7;
+		if (val instanceof Boolean) return 8;
+		if (val instanceof Date) return 9;
+		if (val instanceof Pattern) return 11;
+		if (val instanceof Integer || val instanceof Short || val instanceof Byte) return 16;
+		if (val instanceof Long) return 18;
+		return -1;
+	}
+
+	private static boolean isTrue(Object arg) {
+		if (arg instanceof Boolean)
+			return (Boolean) arg;
+		if (arg instanceof Number)
+			return ((Number) arg).intValue() != 0;
+		return arg != null;
+	}
+
+	/** arrays (of values sent in a query) are lists in a document */
+	private static Object normalize(Object val) {
+		if (val != null && val.getClass().isArray() && !(val instanceof byte[]))
+			return toList(val);
+		return val;
+	}
+
+	static List<Object> toList(Object val) {
+		if (val instanceof List)
+			return new ArrayList<Object>((List<?>) val);
+		if (val instanceof Collection)
+			return new ArrayList<Object>((Collection<?>) val);
+		if (val instanceof Object[])
+			return new ArrayList<Object>(Arrays.asList((Object[]) val));
+		if (val != null && val.getClass().isArray()) {
+			List<Object> l = new ArrayList<Object>();
+			for (int i = 0; i < Array.getLength(val); i++)
+				l.add(Array.get(val, i));
+			return l;
+		}
+		if (val instanceof Iterable) {
+			List<Object> l = new ArrayList<Object>();
+			for (Object o : (Iterable<?>) val)
+				l.add(o);
+			return l;
+		}
+		throw new QueryException("Expected a list, not " + val);
+	}
+}
@@ -0,0 +1,207 @@
+package com.google.code.morphia.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.query.QueryException;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Applies an update document (as built by {@link com.google.code.morphia.query.UpdateOpsImpl}, or a whole replacement
+ * document) to a document, with the semantics of the server.
+ */
+final class DocumentUpdater {
+
+	private DocumentUpdater() {
+	}
+
+	/** @return true if the update has operators; otherwise it replaces the document */
+	static boolean isOperatorUpdate(DBObject update) {
+		for (String key : update.keySet())
+			return key.startsWith("$");
+		return false;
+	}
+
+	/** Applies the update to the (decoded) document; a replacement keeps the document's _id */
+	static DBObject apply(DBObject doc, DBObject update) {
+		if (!isOperatorUpdate(update)) {
+			BasicDBObject replaced = new BasicDBObject();
+			Object id = doc.get(Mapper.ID_KEY);
+			if (id != null)
+				replaced.put(Mapper.ID_KEY, id);
+			for (String key : update.keySet())
+				if (!Mapper.ID_KEY.equals(key))
+					replaced.put(key, update.get(key));
+			return replaced;
+		}
+
+		for (String op : update.keySet()) {
+			Object fields = update.get(op);
+			for (String path : Documents.keys(fields)) {
+				if (Mapper.ID_KEY.equals(path))
+					throw new QueryException("Mod on _id not allowed");
+				apply(doc, op, path, Documents.get(fields, path));
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * Seeds the document an upsert inserts from the equality conditions of the query, then applies the update (a
+	 * replacement only keeps the _id of the query)
+	 */
+	static DBObject upsert(DBObject query, DBObject update) {
+		BasicDBObject doc = new BasicDBObject();
+		if (query != null)
+			for (String key : query.keySet()) {
+				Object cond = query.get(key);
+				if (!key.startsWith("$") && !(Documents.isDocument(cond) && isOperatorDocument(cond)))
+					set(doc, key, cond);
+			}
+		return apply(doc, update);
+	}
+
+	private static boolean isOperatorDocument(Object cond) {
+		for (String key : Documents.keys(cond))
+			return key.startsWith("$");
+		return false;
+	}
+
+	private static void apply(DBObject doc, String op, String path, Object arg) {
+		if ("$set".equals(op))
+			set(doc, path, arg);
+		else if ("$unset".equals(op))
+			unset(doc, path);
+		else if ("$inc".equals(op)) {
+			Object cur = get(doc, path);
+			if (cur != null && !(cur instanceof Number))
+				throw new QueryException("Cannot apply $inc to a non-number at " + path);
+			set(doc, path, add((Number) cur, (Number) arg));
+		} else if ("$push".equals(op))
+			array(doc, path).add(arg);
+		else if ("$pushAll".equals(op))
+			array(doc, path).addAll(DocumentMatcher.toList(arg));
+		else if ("$addToSet".equals(op)) {
+			List<Object> list = array(doc, path);
+			boolean each = Documents.isDocument(arg) && Documents.get(arg, "$each") != null;
+			for (Object val : each ? DocumentMatcher.toList(Documents.get(arg, "$each")) : single(arg))
+				if (!contains(list, val))
+					list.add(val);
+		} else if ("$pull".equals(op) || "$pullAll".equals(op)) {
+			Object cur = get(doc, path);
+			if (!(cur instanceof List))
+				return;
+			List<Object> pulled = "$pullAll".equals(op) ? DocumentMatcher.toList(arg) : single(arg);
+			for (Iterator<?> it = ((List<?>) cur).iterator(); it.hasNext();) {
+				Object val = it.next();
+				for (Object p : pulled)
+					if (Documents.equal(val, p)
+							|| ("$pull".equals(op) && Documents.isDocument(p) && Documents.isDocument(val) && DocumentMatcher.matches(val, p))) {
+						it.remove();
+						break;
+					}
+			}
+		} else if ("$pop".equals(op)) {
+			Object cur = get(doc, path);
+			if (cur instanceof List && !((List<?>) cur).isEmpty()) {
+				List<?> list = (List<?>) cur;
+				list.remove((((Number) arg).intValue() < 0) ? 0 : list.size() - 1);
+			}
+		} else
+			throw new QueryException("Unsupported update operator " + op);
+	}
+
+	private static List<Object> single(Object val) {
+		List<Object> l = new ArrayList<Object>(1);
+		l.add(val);
+		return l;
+	}
+
+	private static boolean contains(List<Object> list, Object val) {
+		for (Object o : list)
+			if (Documents.equal(o, val))
+				return true;
+		return false;
+	}
+
+	/** numbers are added in the widest of the two types */
+	private static Number add(Number cur, Number inc) {
+		if (cur == null)
+			return inc;
+		if (cur instanceof Double || cur instanceof Float || inc instanceof Double || inc instanceof Float)
+			return cur.doubleValue() + inc.doubleValue();
+		if (cur instanceof Long || inc instanceof Long)
+			return cur.longValue() + inc.longValue();
+		return cur.intValue() + inc.intValue();
+	}
+
+	/** @return the list at the path, created if missing */
+	@SuppressWarnings("unchecked")
+	private static List<Object> array(DBObject doc, String path) {
+		Object cur = get(doc, path);
+		if (cur == null) {
+			cur = new BasicDBList();
+			set(doc, path, cur);
+		} else if (!(cur instanceof List))
+			throw new QueryException("Cannot apply an array operator to a non-array at " + path);
+		return (List<Object>) cur;
+	}
+
+	private static Object get(DBObject doc, String path) {
+		List<Object> found = Documents.values(doc, path);
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	private static void set(DBObject doc, String path, Object val) {
+		String[] parts = path.split("\\.");
+		Object container = doc;
+		for (int i = 0; i < parts.length - 1; i++) {
+			Object next = child(container, parts[i]);
+			if (next == null) {
+				next = new BasicDBObject();
+				put(container, parts[i], next);
+			} else if (!Documents.isDocument(next) && !(next instanceof List))
+				throw new QueryException("Cannot set " + path + "; " + parts[i] + " is not a document");
+			container = next;
+		}
+		put(container, parts[parts.length - 1], val);
+	}
+
+	private static void unset(DBObject doc, String path) {
+		String[] parts = path.split("\\.");
+		Object container = doc;
+		for (int i = 0; i < parts.length - 1 && container != null; i++)
+			container = child(container, parts[i]);
+		String last = parts[parts.length - 1];
+		if (container instanceof DBObject)
+			((DBObject) container).removeField(last);
+		else if (container instanceof List && Documents.isIndex(last) && Integer.parseInt(last) < ((List<?>) container).size())
+			put(container, last, null); // like the server, an unset element becomes null
+	}
+
+	private static Object child(Object container, String key) {
+		if (container instanceof List) {
+			List<?> list = (List<?>) container;
+			return (Documents.isIndex(key) && Integer.parseInt(key) < list.size()) ? list.get(Integer.parseInt(key)) : null;
+		}
+		return (container instanceof DBObject) ? ((DBObject) container).get(key) : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void put(Object container, String key, Object val) {
+		if (container instanceof List) {
+			if (!Documents.isIndex(key))
+				throw new QueryException("Cannot use the field name " + key + " in an array");
+			List<Object> list = (List<Object>) container;
+			int i = Integer.parseInt(key);
+			while (list.size() <= i)
+				list.add(null);
+			list.set(i, val);
+		} else
+			((DBObject) container).put(key, val);
+	}
+}
@@ -0,0 +1,228 @@
+package com.google.code.morphia.memory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBRefBase;
+import com.mongodb.DBRef;
+
+/**
+ * Encoding (to BSON), paths, equality and ordering of documents, the way the server does them.
+ */
+final class Documents {
+	private static final String REF = "$ref", REF_ID = "$id";
+
+	private Documents() {
+	}
+
+	/** @return the document as BSON; references are stored as {@code {$ref, $id}} */
+	static byte[] encode(DBObject doc) {
+		return BSON.encode((BSONObject) toStorable(doc));
+	}
+
+	/** @return the document, with {@link BasicDBObject}s, {@link BasicDBList}s and {@link DBRef}s (without a DB) in it */
+	static DBObject decode(byte[] bson) {
+		return (DBObject) fromStored(BSON.decode(bson));
+	}
+
+	private static Object toStorable(Object val) {
+		if (val instanceof DBRefBase) {
+			DBRefBase ref = (DBRefBase) val;
+			return new BasicDBObject(REF, ref.getRef()).append(REF_ID, toStorable(ref.getId()));
+		}
+		if (val instanceof List) {
+			BasicDBList list = new BasicDBList();
+			for (Object o : (List<?>) val)
+				list.add(toStorable(o));
+			return list;
+		}
+		if (val instanceof BSONObject || val instanceof Map) {
+			BasicDBObject doc = new BasicDBObject();
+			for (String key : keys(val))
+				doc.put(key, toStorable(get(val, key)));
+			return doc;
+		}
+		return val;
+	}
+
+	private static Object fromStored(Object val) {
+		if (val instanceof List) {
+			BasicDBList list = new BasicDBList();
+			for (Object o : (List<?>) val)
+				list.add(fromStored(o));
+			return list;
+		}
+		if (val instanceof BSONObject) {
+			BSONObject bo = (BSONObject) val;
+			if (bo.containsField(REF) && bo.containsField(REF_ID) && bo.keySet().size() == 2)
+				return new DBRef(null, (String) bo.get(REF), fromStored(bo.get(REF_ID)));
+			BasicDBObject doc = new BasicDBObject();
+			for (String key : bo.keySet())
+				doc.put(key, fromStored(bo.get(key)));
+			return doc;
+		}
+		return val;
+	}
+
+	@SuppressWarnings("unchecked")
+	static Iterable<String> keys(Object doc) {
+		return (doc instanceof BSONObject) ? ((BSONObject) doc).keySet() : ((Map<String, ?>) doc).keySet();
+	}
+
+	static Object get(Object doc, String key) {
+		return (doc instanceof BSONObject) ? ((BSONObject) doc).get(key) : ((Map<?, ?>) doc).get(key);
+	}
+
+	/** @return true if the value is a (sub) document */
+	static boolean isDocument(Object val) {
+		return (val instanceof BSONObject && !(val instanceof List)) || val instanceof Map;
+	}
+
+	/**
+	 * @return the values at the (dotted) path; arrays on the way are expanded, so "a.b" finds b in each element of a
+	 *         list a. Empty if there is nothing there.
+	 */
+	static List<Object> values(Object doc, String path) {
+		List<Object> found = new ArrayList<Object>();
+		collect(doc, path.split("\\."), 0, found);
+		return found;
+	}
+
+	private static void collect(Object val, String[] parts, int i, List<Object> found) {
+		if (i == parts.length) {
+			found.add(val);
+			return;
+		}
+		if (isDocument(val)) {
+			if (containsKey(val, parts[i]))
+				collect(get(val, parts[i]), parts, i + 1, found);
+		} else if (val instanceof List) {
+			List<?> list = (List<?>) val;
+			if (isIndex(parts[i]) && Integer.parseInt(parts[i]) < list.size())
+				collect(list.get(Integer.parseInt(parts[i])), parts, i + 1, found);
+			else
+				for (Object o : list)
+					if (isDocument(o))
+						collect(o, parts, i, found);
+		}
+	}
+
+	private static boolean containsKey(Object doc, String key) {
+		return (doc instanceof BSONObject) ? ((BSONObject) doc).containsField(key) : ((Map<?, ?>) doc).containsKey(key);
+	}
+
+	static boolean isIndex(String part) {
+		if (part.length() == 0)
+			return false;
+		for (int i = 0; i < part.length(); i++)
+			if (!Character.isDigit(part.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/** @return a key for hash lookups; numbers are equal by value, whatever their type */
+	static Object indexKey(Object val) {
+		if (val instanceof Number)
+			return ((Number) val).doubleValue();
+		if (val instanceof DBRefBase)
+			return ((DBRefBase) val).getRef() + "/" + indexKey(((DBRefBase) val).getId());
+		return val;
+	}
+
+	/** Equality, as the server compares: by value for numbers, by content for documents and lists */
+	static boolean equal(Object a, Object b) {
+		if (a == null || b == null)
+			return a == b;
+		if (a instanceof Number && b instanceof Number)
+			return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+		if (a instanceof DBRefBase && b instanceof DBRefBase)
+			return ((DBRefBase) a).getRef().equals(((DBRefBase) b).getRef())
+					&& equal(((DBRefBase) a).getId(), ((DBRefBase) b).getId());
+		if (a instanceof List && b instanceof List) {
+			List<?> la = (List<?>) a, lb = (List<?>) b;
+			if (la.size() != lb.size())
+				return false;
+			for (int i = 0; i < la.size(); i++)
+				if (!equal(la.get(i), lb.get(i)))
+					return false;
+			return true;
+		}
+		if (isDocument(a) && isDocument(b)) {
+			List<String> ka = new ArrayList<String>(), kb = new ArrayList<String>();
+			for (String k : keys(a))
+				ka.add(k);
+			for (String k : keys(b))
+				kb.add(k);
+			if (!ka.equals(kb))
+				return false;
+			for (String k : ka)
+				if (!equal(get(a, k), get(b, k)))
+					return false;
+			return true;
+		}
+		if (a instanceof byte[] && b instanceof byte[])
+			return java.util.Arrays.equals((byte[]) a, (byte[]) b);
+		return a.equals(b);
+	}
+
+	/** The order of the types when comparing values of different types (as the server does) */
+	private static int typeRank(Object val) {
+		if (val == null)
+			return 1;
+		if (val instanceof Number)
+			return 2;
+		if (val instanceof String || val instanceof Character)
+			return 3;
+		if (isDocument(val))
+			return 4;
+		if (val instanceof List)
+			return 5;
+		if (val instanceof byte[])
+			return 6;
+		if (val instanceof ObjectId)
+			return 7;
+		if (val instanceof Boolean)
+			return 8;
+		if (val instanceof Date)
+			return 9;
+		if (val instanceof Pattern)
+			return 10;
+		return 11;
+	}
+
+	/** Orders values as the server does: by type, then by value */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compare(Object a, Object b) {
+		int ra = typeRank(a), rb = typeRank(b);
+		if (ra != rb)
+			return (ra < rb) ? -1 : 1;
+		if (a == null)
+			return 0;
+		if (a instanceof Number)
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		if (a instanceof List) {
+			List<?> la = (List<?>) a, lb = (List<?>) b;
+			for (int i = 0; i < Math.min(la.size(), lb.size()); i++) {
+				int c = compare(la.get(i), lb.get(i));
+				if (c != 0)
+					return c;
+			}
+			return la.size() - lb.size();
+		}
+		if (isDocument(a))
+			return a.toString().compareTo(b.toString());
+		if (a instanceof Comparable && a.getClass().isInstance(b))
+			return ((Comparable) a).compareTo(b);
+		return a.toString().compareTo(b.toString());
+	}
+}
@@ -0,0 +1,431 @@
+package com.google.code.morphia.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.query.FilterOperator;
+import com.google.code.morphia.query.UpdateResults;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * A collection of an {@link InMemoryDatastore}: the documents (as BSON) by {@code _id}, in insertion order, and hash
+ * indexes on fields. Queries use the {@code _id} or an index when they have an equality (or {@code $in}) condition on
+ * the field, and scan the collection otherwise.
+ * </p>
+ * <p>
+ * All operations are synchronized on the collection; each one is atomic, like a single document operation on the
+ * server.
+ * </p>
+ */
+public class InMemoryCollection {
+	private final String name;
+	private final Map<Object, byte[]> docs = new LinkedHashMap<Object, byte[]>();
+	private final Map<String, Index> indexes = new LinkedHashMap<String, Index>();
+
+	/** a hash index; single field indexes are multikey (an entry for each element of a list) */
+	private static class Index {
+		final String[] fields;
+		final boolean unique, sparse;
+		final Map<Object, Set<Object>> ids = new HashMap<Object, Set<Object>>();
+
+		Index(String[] fields, boolean unique, boolean sparse) {
+			this.fields = fields;
+			this.unique = unique;
+			this.sparse = sparse;
+		}
+
+		/** the keys of the document in this index; none if it is sparse and the document doesn't have the field(s) */
+		List<Object> keys(DBObject doc) {
+			List<Object> keys = new ArrayList<Object>();
+			if (fields.length == 1) {
+				List<Object> vals = Documents.values(doc, fields[0]);
+				if (vals.isEmpty() && !sparse)
+					keys.add(null);
+				for (Object val : vals)
+					if (val instanceof List && !((List<?>) val).isEmpty())
+						for (Object elem : (List<?>) val)
+							keys.add(Documents.indexKey(elem));
+					else
+						keys.add(Documents.indexKey(val));
+			} else {
+				List<Object> tuple = new ArrayList<Object>();
+				boolean any = false;
+				for (String field : fields) {
+					List<Object> vals = Documents.values(doc, field);
+					any |= !vals.isEmpty();
+					tuple.add(vals.isEmpty() ? null : Documents.indexKey(vals.get(0)));
+				}
+				if (any || !sparse)
+					keys.add(tuple);
+			}
+			return keys;
+		}
+	}
+
+	InMemoryCollection(String name) {
+		this.name = name;
+		indexes.put(Mapper.ID_KEY, new Index(new String[] { Mapper.ID_KEY }, true, false));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Creates a (hash) index on the fields, if there isn't one yet; indexes the documents already stored */
+	public synchronized void ensureIndex(String[] fields, boolean unique, boolean sparse) {
+		String key = indexName(fields);
+		if (indexes.containsKey(key))
+			return;
+		Index idx = new Index(fields, unique, sparse);
+		for (Map.Entry<Object, byte[]> e : docs.entrySet())
+			addToIndex(idx, Documents.decode(e.getValue()), e.getKey());
+		indexes.put(key, idx);
+	}
+
+	private static String indexName(String[] fields) {
+		StringBuilder sb = new StringBuilder();
+		for (String f : fields)
+			sb.append((sb.length() == 0) ? "" : ",").append(f);
+		return sb.toString();
+	}
+
+	/** @return the (names of the) fields of the indexes, the {@code _id} index first */
+	public synchronized List<String> getIndexNames() {
+		return new ArrayList<String>(indexes.keySet());
+	}
+
+	public synchronized long count(DBObject query) {
+		return find(query, null, null, 0, -1).size();
+	}
+
+	/** @return the number of documents */
+	public synchronized int size() {
+		return docs.size();
+	}
+
+	/**
+	 * Finds the (copies of the) documents matching the query, in the order of the sort (or insertion order), limited
+	 * to the fields.
+	 *
+	 * @param limit the maximum number of documents; <= 0 for all
+	 */
+	public synchronized List<DBObject> find(DBObject query, DBObject sort, DBObject fields, int offset, int limit) {
+		List<DBObject> found = new ArrayList<DBObject>();
+		for (Object id : candidates(query)) {
+			byte[] bson = docs.get(id);
+			if (bson == null)
+				continue;
+			DBObject doc = Documents.decode(bson);
+			if (DocumentMatcher.matches(doc, query))
+				found.add(doc);
+		}
+		if (sort != null && !sort.keySet().isEmpty())
+			Collections.sort(found, comparator(sort));
+		if (offset > 0)
+			found = (offset >= found.size()) ? new ArrayList<DBObject>() : found.subList(offset, found.size());
+		if (limit > 0 && found.size() > limit)
+			found = found.subList(0, limit);
+		List<DBObject> results = new ArrayList<DBObject>(found.size());
+		for (DBObject doc : found)
+			results.add(project(doc, fields));
+		return results;
+	}
+
+	/** @return the document with the id; null if there is none */
+	public synchronized DBObject findById(Object id) {
+		byte[] bson = docs.get(Documents.indexKey(id));
+		return (bson == null) ? null : Documents.decode(bson);
+	}
+
+	/** the ids of the documents which may match; from an index if the query has an equality/$in on its field */
+	private Iterable<Object> candidates(DBObject query) {
+		if (query != null)
+			for (Index idx : indexes.values()) {
+				if (idx.fields.length != 1 || idx.sparse || !query.containsField(idx.fields[0]))
+					continue;
+				List<Object> vals = lookupValues(query.get(idx.fields[0]));
+				if (vals == null)
+					continue;
+				Set<Object> ids = new LinkedHashSet<Object>();
+				for (Object val : vals) {
+					Set<Object> matching = idx.ids.get(Documents.indexKey(val));
+					if (matching != null)
+						ids.addAll(matching);
+				}
+				return ids;
+			}
+		return new ArrayList<Object>(docs.keySet());
+	}
+
+	/** the values an index can be used to look up for the condition; null if it can't be */
+	private static List<Object> lookupValues(Object cond) {
+		if (Documents.isDocument(cond)) {
+			if (!isOnly(cond))
+				return null;
+			Object in = Documents.get(cond, FilterOperator.IN.val());
+			List<Object> vals = (in == null) ? null : DocumentMatcher.toList(in);
+			if (vals == null)
+				return null;
+			for (Object val : vals)
+				if (!isIndexable(val))
+					return null;
+			return vals;
+		}
+		if (!isIndexable(cond))
+			return null;
+		List<Object> vals = new ArrayList<Object>(1);
+		vals.add(cond);
+		return vals;
+	}
+
+	private static boolean isOnly(Object cond) {
+		Iterator<String> it = Documents.keys(cond).iterator();
+		return it.hasNext() && FilterOperator.IN.val().equals(it.next()) && !it.hasNext();
+	}
+
+	/** documents, lists, nulls and patterns match in ways a hash lookup doesn't find */
+	private static boolean isIndexable(Object val) {
+		return val != null && !Documents.isDocument(val) && !(val instanceof List) && !(val instanceof java.util.regex.Pattern)
+				&& !val.getClass().isArray();
+	}
+
+	private static Comparator<DBObject> comparator(final DBObject sort) {
+		return new Comparator<DBObject>() {
+			public int compare(DBObject a, DBObject b) {
+				for (String field : sort.keySet()) {
+					int dir = ((Number) sort.get(field)).intValue() < 0 ? -1 : 1;
+					int c = Documents.compare(sortValue(a, field, dir), sortValue(b, field, dir));
+					if (c != 0)
+						return c * dir;
+				}
+				return 0;
+			}
+		};
+	}
+
+	/** the value a document is sorted by; the smallest (ascending) or largest (descending) element of a list */
+	private static Object sortValue(DBObject doc, String field, int dir) {
+		List<Object> vals = Documents.values(doc, field);
+		if (vals.isEmpty())
+			return null;
+		Object val = vals.get(0);
+		if (val instanceof List && !((List<?>) val).isEmpty()) {
+			Object best = null;
+			for (Object elem : (List<?>) val)
+				if (best == null || Documents.compare(elem, best) * dir < 0)
+					best = elem;
+			return best;
+		}
+		return val;
+	}
+
+	/** @return the document limited to the fields (all included, or all excluded); _id is included unless excluded */
+	private static DBObject project(DBObject doc, DBObject fields) {
+		if (fields == null || fields.keySet().isEmpty())
+			return doc;
+		boolean include = false;
+		for (String f : fields.keySet())
+			if (!Mapper.ID_KEY.equals(f) && isTrue(fields.get(f)))
+				include = true;
+		if (!include) {
+			for (String f : fields.keySet())
+				remove(doc, f);
+			return doc;
+		}
+		BasicDBObject projected = new BasicDBObject();
+		if (!fields.containsField(Mapper.ID_KEY) || isTrue(fields.get(Mapper.ID_KEY)))
+			if (doc.containsField(Mapper.ID_KEY))
+				projected.put(Mapper.ID_KEY, doc.get(Mapper.ID_KEY));
+		for (String f : fields.keySet()) {
+			if (Mapper.ID_KEY.equals(f))
+				continue;
+			String top = f.split("\\.")[0];
+			if (doc.containsField(top))
+				projected.put(top, doc.get(top)); // sub-fields are returned with their whole (top level) field
+		}
+		return projected;
+	}
+
+	private static void remove(DBObject doc, String path) {
+		String[] parts = path.split("\\.");
+		Object container = doc;
+		for (int i = 0; i < parts.length - 1 && container instanceof DBObject; i++)
+			container = ((DBObject) container).get(parts[i]);
+		if (container instanceof DBObject)
+			((DBObject) container).removeField(parts[parts.length - 1]);
+	}
+
+	private static boolean isTrue(Object val) {
+		return Boolean.TRUE.equals(val) || (val instanceof Number && ((Number) val).intValue() != 0);
+	}
+
+	/** Inserts the document, giving it an _id (an {@link ObjectId}) if it has none */
+	public synchronized void insert(DBObject doc) {
+		if (doc.get(Mapper.ID_KEY) == null)
+			doc.put(Mapper.ID_KEY, new ObjectId());
+		Object id = Documents.indexKey(doc.get(Mapper.ID_KEY));
+		if (docs.containsKey(id))
+			throw duplicate(Mapper.ID_KEY, doc.get(Mapper.ID_KEY));
+		store(id, doc);
+	}
+
+	/** Inserts, or replaces, the document (by _id); gives it an _id (an {@link ObjectId}) if it has none */
+	public synchronized void save(DBObject doc) {
+		if (doc.get(Mapper.ID_KEY) == null) {
+			insert(doc);
+			return;
+		}
+		Object id = Documents.indexKey(doc.get(Mapper.ID_KEY));
+		byte[] old = docs.get(id);
+		if (old == null) {
+			store(id, doc);
+			return;
+		}
+		replace(id, Documents.decode(old), doc);
+	}
+
+	/** stores a new document; the document is encoded before any index is changed, so a bad document changes nothing */
+	private void store(Object id, DBObject doc) {
+		byte[] bson = Documents.encode(doc);
+		DBObject stored = Documents.decode(bson);
+		checkUnique(stored, null);
+		docs.put(id, bson);
+		for (Index idx : indexes.values())
+			addToIndex(idx, stored, id);
+	}
+
+	private void replace(Object id, DBObject oldDoc, DBObject newDoc) {
+		byte[] bson = Documents.encode(newDoc);
+		DBObject stored = Documents.decode(bson);
+		checkUnique(stored, id);
+		for (Index idx : indexes.values())
+			removeFromIndex(idx, oldDoc, id);
+		docs.put(id, bson);
+		for (Index idx : indexes.values())
+			addToIndex(idx, stored, id);
+	}
+
+	private void checkUnique(DBObject doc, Object ownId) {
+		for (Map.Entry<String, Index> e : indexes.entrySet()) {
+			Index idx = e.getValue();
+			if (!idx.unique)
+				continue;
+			for (Object key : idx.keys(doc)) {
+				Set<Object> ids = idx.ids.get(key);
+				if (ids != null && !ids.isEmpty() && !(ids.size() == 1 && ids.contains(ownId)))
+					throw duplicate(e.getKey(), key);
+			}
+		}
+	}
+
+	private MappingException duplicate(String index, Object key) {
+		return new MappingException("E11000 duplicate key error index: " + name + ".$" + index + " dup key: { : " + key + " }");
+	}
+
+	private static void addToIndex(Index idx, DBObject doc, Object id) {
+		for (Object key : idx.keys(doc)) {
+			Set<Object> ids = idx.ids.get(key);
+			if (ids == null) {
+				ids = new LinkedHashSet<Object>();
+				idx.ids.put(key, ids);
+			}
+			ids.add(id);
+		}
+	}
+
+	private static void removeFromIndex(Index idx, DBObject doc, Object id) {
+		for (Object key : idx.keys(doc)) {
+			Set<Object> ids = idx.ids.get(key);
+			if (ids != null) {
+				ids.remove(id);
+				if (ids.isEmpty())
+					idx.ids.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Updates the first (or all, if multi) matching documents; inserts one (from the query's equality conditions and
+	 * the update) if none match and upsert is set.
+	 */
+	public synchronized <T> UpdateResults<T> update(DBObject query, DBObject update, boolean upsert, boolean multi) {
+		List<DBObject> matching = find(query, null, null, 0, multi ? -1 : 1);
+		if (matching.isEmpty()) {
+			if (!upsert)
+				return new UpdateResults<T>(false, 0, null);
+			DBObject doc = DocumentUpdater.upsert(query, update);
+			insert(doc);
+			return new UpdateResults<T>(false, 1, doc.get(Mapper.ID_KEY));
+		}
+		// check all the changes before applying any, so a failing update changes nothing
+		List<DBObject> updated = new ArrayList<DBObject>(matching.size());
+		for (DBObject doc : matching)
+			updated.add(DocumentUpdater.apply(Documents.decode(Documents.encode(doc)), update));
+		Set<Object> seen = new HashSet<Object>();
+		for (int i = 0; i < matching.size(); i++) {
+			Object id = Documents.indexKey(matching.get(i).get(Mapper.ID_KEY));
+			if (seen.add(id))
+				replace(id, matching.get(i), updated.get(i));
+		}
+		return new UpdateResults<T>(true, matching.size(), null);
+	}
+
+	/** Removes the matching documents; returns how many */
+	public synchronized int remove(DBObject query) {
+		int removed = 0;
+		for (DBObject doc : find(query, null, null, 0, -1)) {
+			Object id = Documents.indexKey(doc.get(Mapper.ID_KEY));
+			byte[] bson = docs.remove(id);
+			if (bson != null) {
+				DBObject old = Documents.decode(bson);
+				for (Index idx : indexes.values())
+					removeFromIndex(idx, old, id);
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Updates (or removes) the first matching document in the order of the sort, like the {@code findandmodify}
+	 * command.
+	 *
+	 * @return the document before (or, if returnNew, after) the change; null if none matched
+	 */
+	public synchronized DBObject findAndModify(DBObject query, DBObject sort, DBObject update, boolean returnNew, boolean remove) {
+		List<DBObject> found = find(query, sort, null, 0, 1);
+		if (found.isEmpty())
+			return null;
+		DBObject doc = found.get(0);
+		Object id = doc.get(Mapper.ID_KEY);
+		if (remove) {
+			remove(new BasicDBObject(Mapper.ID_KEY, id));
+			return doc;
+		}
+		if (update != null)
+			update(new BasicDBObject(Mapper.ID_KEY, id), update, false, false);
+		return returnNew ? findById(id) : doc;
+	}
+
+	/** Removes all the documents (the indexes stay) */
+	public synchronized void clear() {
+		docs.clear();
+		for (Index idx : indexes.values())
+			idx.ids.clear();
+	}
+}
@@ -0,0 +1,386 @@
+package com.google.code.morphia.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.DeleteResults;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.MapreduceResults;
+import com.google.code.morphia.MapreduceType;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.ScanConsumer;
+import com.google.code.morphia.ScanProgressListener;
+import com.google.code.morphia.ScanResults;
+import com.google.code.morphia.VersionHelper;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexed;
+import com.google.code.morphia.annotations.Indexes;
+import com.google.code.morphia.io.ExportFormat;
+import com.google.code.morphia.io.ExportStats;
+import com.google.code.morphia.io.ImportStats;
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.ReferenceResolver;
+import com.google.code.morphia.mapping.lazy.proxy.ProxyHelper;
+import com.google.code.morphia.query.CheckpointStore;
+import com.google.code.morphia.query.CheckpointedIterator;
+import com.google.code.morphia.query.FilterOperator;
+import com.google.code.morphia.query.Query;
+import com.google.code.morphia.query.QueryException;
+import com.google.code.morphia.query.QueryImpl;
+import com.google.code.morphia.query.QueryTemplate;
+import com.google.code.morphia.query.UpdateOperations;
+import com.google.code.morphia.query.UpdateOpsImpl;
+import com.google.code.morphia.query.UpdateResults;
+import com.google.code.morphia.utils.IndexFieldDef;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+
+/**
+ * <p>
+ * A {@link com.google.code.morphia.Datastore} which keeps its documents in memory, for tests, benchmarks and embedded
+ * use. Entities are mapped exactly as they are for a server, and stored (as BSON) per collection; queries, sorts,
+ * projections, update operators and findAndModify are evaluated in-process, with hash indexes on {@code _id} and the
+ * {@link Indexed @Indexed}/{@link Indexes @Indexes} fields (unique ones are enforced).
+ * </p>
+ *
+ * <pre>
+ * Morphia morphia = new Morphia().map(Hotel.class);
+ * Datastore ds = new InMemoryDatastore(morphia);
+ * ds.save(new Hotel("Hilton", 4));
+ * </pre>
+ * <p>
+ * References are resolved from this datastore, so give it a Morphia (mapper) of its own. Javascript ($where,
+ * mapReduce, group), cursors, capped collections, and the bulk operations (parallel scans, export/import) need a
+ * server and throw {@link UnsupportedOperationException}. There is no {@link #getDB() DB} and
+ * {@link #getCollection(Class)} is null; use {@link #getInMemoryCollection(String)}.
+ * </p>
+ */
+public class InMemoryDatastore extends DatastoreImpl implements ReferenceResolver {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(InMemoryDatastore.class);
+
+	private final ConcurrentHashMap<String, InMemoryCollection> collections = new ConcurrentHashMap<String, InMemoryCollection>();
+
+	public InMemoryDatastore(Morphia morphia) {
+		super(morphia);
+		morphia.getMapper().setReferenceResolver(this);
+	}
+
+	/** @return the collection (created if it doesn't exist yet) */
+	public InMemoryCollection getInMemoryCollection(String kind) {
+		InMemoryCollection coll = collections.get(kind);
+		if (coll == null) {
+			coll = new InMemoryCollection(kind);
+			InMemoryCollection existing = collections.putIfAbsent(kind, coll);
+			if (existing != null)
+				coll = existing;
+		}
+		return coll;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private InMemoryCollection collection(Class clazz) {
+		return getInMemoryCollection(getContext(clazz).getCollectionName());
+	}
+
+	private InMemoryCollection collection(Query<?> query) {
+		return ((InMemoryQuery<?>) query).getInMemoryCollection();
+	}
+
+	/** Removes all the documents of all the collections (indexes stay) */
+	public void clear() {
+		for (InMemoryCollection coll : collections.values())
+			coll.clear();
+	}
+
+	public DBObject resolve(DBRef ref) {
+		InMemoryCollection coll = collections.get(ref.getRef());
+		return (coll == null) ? null : coll.findById(ref.getId());
+	}
+
+	@Override
+	protected <T> QueryImpl<T> newQuery(Class<T> clazz, String kind) {
+		return new InMemoryQuery<T>(clazz, getInMemoryCollection(kind), this);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T get(Class<T> clazz, DBRef ref) {
+		DBObject dbObj = resolve(ref);
+		return (dbObj == null) ? null : (T) getMapper().fromDBObject(clazz, dbObj, getMapper().createEntityCache());
+	}
+
+	@Override
+	public <T> long getCount(T entity) {
+		return collection(ProxyHelper.unwrap(entity).getClass()).size();
+	}
+
+	@Override
+	public <T> long getCount(Class<T> clazz) {
+		return collection(clazz).size();
+	}
+
+	@Override
+	public long getCount(String kind) {
+		return getInMemoryCollection(kind).size();
+	}
+
+	@Override
+	public <T> Key<T> insert(T entity) {
+		entity = ProxyHelper.unwrap(entity);
+		return insert(getContext(entity.getClass()).getCollectionName(), entity);
+	}
+
+	@Override
+	public <T> Key<T> insert(String kind, T entity) {
+		entity = ProxyHelper.unwrap(entity);
+		LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
+		DBObject dbObj = getMapper().toDBObject(entity, involvedObjects);
+		getInMemoryCollection(kind).insert(dbObj);
+		postSaveOperations(entity, dbObj, null, involvedObjects);
+		return key(kind, entity);
+	}
+
+	@Override
+	public <T> Key<T> save(T entity) {
+		entity = ProxyHelper.unwrap(entity);
+		return save(getContext(entity.getClass()).getCollectionName(), entity);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Key<T> save(String kind, T entity) {
+		entity = ProxyHelper.unwrap(entity);
+		InMemoryCollection coll = getInMemoryCollection(kind);
+		MappedField mfVersion = getContext(entity.getClass()).getVersionField();
+		LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
+		DBObject dbObj = getMapper().toDBObject(entity, involvedObjects);
+
+		if (mfVersion != null) {
+			String versionKeyName = mfVersion.getNameToStore();
+			Long oldVersion = (Long) mfVersion.getFieldValue(entity);
+			long newVersion = VersionHelper.nextValue(oldVersion);
+			dbObj.put(versionKeyName, newVersion);
+			if (oldVersion != null && oldVersion > 0) {
+				Object idValue = dbObj.get(Mapper.ID_KEY);
+				UpdateResults<T> res = coll.update(new BasicDBObject(Mapper.ID_KEY, idValue).append(versionKeyName, oldVersion),
+						dbObj, false, false);
+				if (res.getUpdatedCount() != 1)
+					throw new ConcurrentModificationException("Entity of class " + entity.getClass().getName()
+							+ " (id='" + idValue + "',version='" + oldVersion + "') was concurrently updated.");
+			} else
+				coll.save(dbObj);
+			mfVersion.setFieldValue(entity, newVersion);
+		} else
+			coll.save(dbObj);
+
+		postSaveOperations(entity, dbObj, null, involvedObjects);
+		return key(kind, entity);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Key<T> key(String kind, T entity) {
+		Key<T> key = new Key<T>(kind, getId(entity));
+		key.setKindClass((Class<? extends T>) entity.getClass());
+		return key;
+	}
+
+	@Override
+	public <T> void delete(String kind, T id) {
+		getInMemoryCollection(kind).remove(new BasicDBObject(Mapper.ID_KEY, getMapper().toMongoObject(id)));
+	}
+
+	@Override
+	public <T, V> void delete(Class<T> clazz, V id) {
+		collection(clazz).remove(new BasicDBObject(Mapper.ID_KEY, getMapper().toMongoObject(id)));
+	}
+
+	@Override
+	public <T, V> void delete(Class<T> clazz, Iterable<V> ids) {
+		List<Object> mapped = new ArrayList<Object>();
+		for (V id : ids)
+			mapped.add(getMapper().toMongoObject(id));
+		collection(clazz).remove(new BasicDBObject(Mapper.ID_KEY, new BasicDBObject(FilterOperator.IN.val(), mapped)));
+	}
+
+	/** Deletes in this thread; the chunk size and executor don't matter in memory */
+	@Override
+	public DeleteResults deleteAll(Iterable<?> entitiesOrKeys, int chunkSize, ExecutorService executor) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize must be > 0");
+		Map<String, List<Object>> idsByKind = new LinkedHashMap<String, List<Object>>();
+		for (Object o : entitiesOrKeys) {
+			if (o == null)
+				continue;
+			Key<?> key = getKey(o);
+			String kind = key.updateKind(getMapper());
+			List<Object> ids = idsByKind.get(kind);
+			if (ids == null) {
+				ids = new ArrayList<Object>();
+				idsByKind.put(kind, ids);
+			}
+			ids.add(getMapper().toMongoObject(key.getId()));
+		}
+		DeleteResults results = new DeleteResults();
+		for (Map.Entry<String, List<Object>> e : idsByKind.entrySet())
+			results.add(e.getKey(), getInMemoryCollection(e.getKey()).remove(
+					new BasicDBObject(Mapper.ID_KEY, new BasicDBObject(FilterOperator.IN.val(), e.getValue()))));
+		return results;
+	}
+
+	@Override
+	public <T> void delete(Query<T> query) {
+		collection(query).remove(((QueryImpl<T>) query).getQueryObject());
+	}
+
+	@Override
+	public <T> UpdateResults<T> update(Query<T> query, UpdateOperations<T> ops, boolean createIfMissing) {
+		return update(query, ((UpdateOpsImpl<T>) ops).getOps(), createIfMissing, false);
+	}
+
+	@Override
+	public <T> UpdateResults<T> update(Query<T> query, UpdateOperations<T> ops) {
+		return update(query, ((UpdateOpsImpl<T>) ops).getOps(), false, true);
+	}
+
+	@Override
+	public <T> UpdateResults<T> updateFirst(Query<T> query, UpdateOperations<T> ops) {
+		return update(query, ((UpdateOpsImpl<T>) ops).getOps(), false, false);
+	}
+
+	@Override
+	public <T> UpdateResults<T> updateFirst(Query<T> query, UpdateOperations<T> ops, boolean createIfMissing) {
+		return update(query, ((UpdateOpsImpl<T>) ops).getOps(), createIfMissing, false);
+	}
+
+	@Override
+	public <T> UpdateResults<T> updateFirst(Query<T> query, T entity, boolean createIfMissing) {
+		LinkedHashMap<Object, DBObject> involvedObjects = new LinkedHashMap<Object, DBObject>();
+		DBObject u = getMapper().toDBObject(entity, involvedObjects);
+		UpdateResults<T> res = update(query, u, createIfMissing, false);
+		postSaveOperations(entity, u, null, involvedObjects);
+		return res;
+	}
+
+	private <T> UpdateResults<T> update(Query<T> query, DBObject u, boolean createIfMissing, boolean multi) {
+		QueryImpl<T> qi = (QueryImpl<T>) query;
+		if (qi.getSortObject() != null && !qi.getSortObject().keySet().isEmpty())
+			throw new QueryException("sorting is not allowed for updates.");
+		if (qi.getOffset() > 0)
+			throw new QueryException("a query offset is not allowed for updates.");
+		if (qi.getLimit() > 0)
+			throw new QueryException("a query limit is not allowed for updates.");
+		return collection(query).update(qi.getQueryObject(), u, createIfMissing, multi);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T findAndDelete(Query<T> query) {
+		QueryImpl<T> qi = (QueryImpl<T>) query;
+		DBObject res = collection(query).findAndModify(qi.getQueryObject(), qi.getSortObject(), null, false, true);
+		return (res == null) ? null : (T) getMapper().fromDBObject(qi.getEntityClass(), res, getMapper().createEntityCache());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T findAndModify(Query<T> query, UpdateOperations<T> ops, boolean oldVersion) {
+		QueryImpl<T> qi = (QueryImpl<T>) query;
+		DBObject update = (ops == null) ? null : ((UpdateOpsImpl<T>) ops).getOps();
+		DBObject res = collection(query).findAndModify(qi.getQueryObject(), qi.getSortObject(), update, !oldVersion, false);
+		return (res == null) ? null : (T) getMapper().fromDBObject(qi.getEntityClass(), res, getMapper().createEntityCache());
+	}
+
+	@Override
+	public <T> void ensureIndex(Class<T> clazz, String name, IndexFieldDef[] defs, boolean unique,
+			boolean dropDupsOnCreate, boolean background) {
+		String[] fields = new String[defs.length];
+		for (int i = 0; i < defs.length; i++)
+			fields[i] = defs[i].getField();
+		collection(clazz).ensureIndex(fields, unique, false);
+	}
+
+	@Override
+	protected int ensureIndexes(MappedClass mc, boolean background) {
+		if (mc.getEntityAnnotation() == null)
+			return 0;
+		InMemoryCollection coll = collection(mc.getClazz());
+		int before = coll.getIndexNames().size();
+
+		Indexes indexes = (Indexes) mc.getReleventAnnotations().get(Indexes.class);
+		if (indexes != null)
+			for (Index index : indexes.value()) {
+				DBObject keys = parseIndexFields(mc, index.value());
+				coll.ensureIndex(keys.keySet().toArray(new String[0]), index.unique(), index.sparse());
+			}
+		for (MappedField mf : mc.getPersistenceFields())
+			if (mf.hasAnnotation(Indexed.class)) {
+				Indexed index = mf.getAnnotation(Indexed.class);
+				coll.ensureIndex(new String[] { mf.getNameToStore() }, index.unique(), index.sparse());
+			}
+		return coll.getIndexNames().size() - before;
+	}
+
+	/** Capped collections are not supported in memory; the caps are ignored */
+	@Override
+	public void ensureCaps() {
+		log.debug("Capped collections are not supported in memory; ignoring the caps");
+	}
+
+	@Override
+	public <T> QueryTemplate<T> createQueryTemplate(Class<T> clazz) {
+		throw unsupported("query templates");
+	}
+
+	@Override
+	public <T> MapreduceResults<T> mapReduce(MapreduceType type, Query<?> q, String map, String reduce, String finalize,
+			Map<String, Object> scopeFields, Class<T> outputType) {
+		throw unsupported("mapReduce");
+	}
+
+	@Override
+	public <T> List<T> group(Query<?> q, String[] keys, DBObject initial, String reduce, String finalize, Class<T> resultType) {
+		throw unsupported("group");
+	}
+
+	@Override
+	public <T> ScanResults parallelScan(Query<T> query, int partitions, ScanConsumer<? super T> consumer,
+			ScanProgressListener listener, ExecutorService executor) {
+		throw unsupported("parallel scans");
+	}
+
+	@Override
+	public <T> CheckpointedIterator<T> fetchCheckpointed(Query<T> query, String scanName, CheckpointStore store) {
+		throw unsupported("checkpointed iteration");
+	}
+
+	@Override
+	public <T> ExportStats export(Query<T> query, File file, ExportFormat format, boolean gzip) throws IOException {
+		throw unsupported("export");
+	}
+
+	@Override
+	public <T> ImportStats importFrom(File file, Class<T> clazz, ExportFormat format, boolean prePersist) throws IOException {
+		throw unsupported("import");
+	}
+
+	private static UnsupportedOperationException unsupported(String what) {
+		return new UnsupportedOperationException("The in-memory datastore doesn't support " + what);
+	}
+
+	@Override
+	public String toString() {
+		return "InMemoryDatastore" + collections.keySet();
+	}
+}
@@ -0,0 +1,143 @@
+package com.google.code.morphia.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.query.KeysetPage;
+import com.google.code.morphia.query.MorphiaKeyIterator;
+import com.google.code.morphia.query.QueryImpl;
+import com.google.code.morphia.query.QueryPlan;
+import com.google.code.morphia.query.ResultPublisher;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * A query of an {@link InMemoryDatastore}; built like any other query, and run against an {@link InMemoryCollection}.
+ * Cursors, explain, keyset paging, streaming and projections into other classes need a server, and are not supported.
+ */
+public class InMemoryQuery<T> extends QueryImpl<T> {
+	private final InMemoryCollection coll;
+	private final Mapper mapr;
+
+	public InMemoryQuery(Class<T> clazz, InMemoryCollection coll, InMemoryDatastore ds) {
+		super(clazz, null, ds);
+		this.coll = coll;
+		this.mapr = ds.getMapper();
+	}
+
+	/** @return the collection this query runs against */
+	public InMemoryCollection getInMemoryCollection() {
+		return coll;
+	}
+
+	/** the matching documents, in order, limited to the fields (all if null) */
+	List<DBObject> documents(DBObject fields, int limit) {
+		return coll.find(getQueryObject(), getSortObject(), fields, getOffset(), limit);
+	}
+
+	@Override
+	public long countAll() {
+		return coll.count(getQueryObject());
+	}
+
+	@Override
+	public Iterable<T> fetch() {
+		return asList();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> asList() {
+		EntityCache cache = mapr.createEntityCache();
+		List<T> results = new ArrayList<T>();
+		for (DBObject doc : documents(getFieldsObject(), getLimit()))
+			results.add((T) mapr.fromDBObject(getEntityClass(), doc, cache));
+		return results;
+	}
+
+	@Override
+	public Iterable<Key<T>> fetchKeys() {
+		return keys(getLimit());
+	}
+
+	@Override
+	public List<Key<T>> asKeyList() {
+		List<Key<T>> results = new ArrayList<Key<T>>();
+		for (Key<T> key : keys(getLimit()))
+			results.add(key);
+		return results;
+	}
+
+	private Iterable<Key<T>> keys(int limit) {
+		List<DBObject> ids = documents(new BasicDBObject(Mapper.ID_KEY, 1), limit);
+		return new MorphiaKeyIterator<T>(ids.iterator(), mapr, getEntityClass(), coll.getName());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Iterable<T> fetchEmptyEntities() {
+		EntityCache cache = mapr.createEntityCache();
+		List<T> results = new ArrayList<T>();
+		for (DBObject doc : documents(new BasicDBObject(Mapper.ID_KEY, 1), getLimit()))
+			results.add((T) mapr.fromDBObject(getEntityClass(), doc, cache));
+		return results;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get() {
+		List<DBObject> docs = documents(getFieldsObject(), 1);
+		return docs.isEmpty() ? null : (T) mapr.fromDBObject(getEntityClass(), docs.get(0), mapr.createEntityCache());
+	}
+
+	@Override
+	public Key<T> getKey() {
+		Iterator<Key<T>> it = keys(1).iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return fetch().iterator();
+	}
+
+	@Override
+	public DBCursor prepareCursor() {
+		throw new UnsupportedOperationException("In-memory queries have no cursor");
+	}
+
+	@Override
+	public QueryPlan explain() {
+		throw new UnsupportedOperationException("In-memory queries can't be explained");
+	}
+
+	@Override
+	public KeysetPage<T> page(int pageSize, String continuationToken) {
+		throw new UnsupportedOperationException("In-memory queries don't support keyset paging");
+	}
+
+	@Override
+	public ResultPublisher<T> stream() {
+		throw new UnsupportedOperationException("In-memory queries can't be streamed");
+	}
+
+	@Override
+	public <D> Iterable<D> fetch(Class<D> projection) {
+		throw new UnsupportedOperationException("In-memory queries don't support projections");
+	}
+
+	@Override
+	public <D> List<D> asList(Class<D> projection) {
+		throw new UnsupportedOperationException("In-memory queries don't support projections");
+	}
+
+	@Override
+	public String toString() {
+		return "InMemoryQuery(" + coll.getName() + "){" + getQueryObject() + "}";
+	}
+}
@@ -0,0 +1,134 @@
+package com.google.code.morphia.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+
+/**
+ * <p>
+ * The default {@link OperationMetrics}: an {@link OperationStats} (counts and lock-free latency histograms) per
+ * collection and operation type. Optionally exports each to JMX as
+ * {@code <domain>:type=OperationStats,collection=<name>,operation=<type>}.
+ * </p>
+ *
+ * <pre>
+ * HistogramMetrics metrics = new HistogramMetrics();
+ * metrics.exportToJmx("com.google.code.morphia");
+ * morphia.setMetrics(metrics);
+ * </pre>
+ */
+public class HistogramMetrics implements OperationMetrics {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(HistogramMetrics.class);
+	private static final OperationType[] TYPES = OperationType.values();
+
+	private final ConcurrentHashMap<String, AtomicReferenceArray<OperationStats>> stats = new ConcurrentHashMap<String, AtomicReferenceArray<OperationStats>>();
+	private final boolean measureBytes;
+	private volatile String jmxDomain;
+
+	public HistogramMetrics() {
+		this(false);
+	}
+
+	/** @param measureBytes measure the size of the documents read and written (costs an extra encoding of each) */
+	public HistogramMetrics(boolean measureBytes) {
+		this.measureBytes = measureBytes;
+	}
+
+	public boolean isMeasuringBytes() {
+		return measureBytes;
+	}
+
+	public void record(OperationType type, String collection, long serverNanos, long mappingNanos, int documents, long bytes) {
+		getOrCreate(collection, type).record(serverNanos, mappingNanos, documents, bytes);
+	}
+
+	private OperationStats getOrCreate(String collection, OperationType type) {
+		AtomicReferenceArray<OperationStats> byType = stats.get(collection);
+		if (byType == null) {
+			AtomicReferenceArray<OperationStats> fresh = new AtomicReferenceArray<OperationStats>(TYPES.length);
+			byType = stats.putIfAbsent(collection, fresh);
+			if (byType == null)
+				byType = fresh;
+		}
+		OperationStats s = byType.get(type.ordinal());
+		if (s == null) {
+			OperationStats fresh = new OperationStats(collection, type);
+			if (byType.compareAndSet(type.ordinal(), null, fresh)) {
+				s = fresh;
+				if (jmxDomain != null)
+					register(s);
+			} else
+				s = byType.get(type.ordinal());
+		}
+		return s;
+	}
+
+	/** @return the stats for the collection and type; null if there have been no such operations */
+	public OperationStats getStats(String collection, OperationType type) {
+		AtomicReferenceArray<OperationStats> byType = stats.get(collection);
+		return (byType == null) ? null : byType.get(type.ordinal());
+	}
+
+	/** @return all the stats (a snapshot of the list, the stats themselves are live) */
+	public List<OperationStats> getAllStats() {
+		List<OperationStats> all = new ArrayList<OperationStats>();
+		for (AtomicReferenceArray<OperationStats> byType : stats.values())
+			for (int i = 0; i < byType.length(); i++)
+				if (byType.get(i) != null)
+					all.add(byType.get(i));
+		return all;
+	}
+
+	/** Clears all the counts and histograms */
+	public void reset() {
+		for (OperationStats s : getAllStats())
+			s.reset();
+	}
+
+	/** Registers (now, and as they are created) the stats as MBeans under the domain */
+	public synchronized void exportToJmx(String domain) {
+		jmxDomain = domain;
+		for (OperationStats s : getAllStats())
+			register(s);
+	}
+
+	/** Unregisters the MBeans */
+	public synchronized void unexportFromJmx() {
+		if (jmxDomain == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (OperationStats s : getAllStats())
+			try {
+				ObjectName name = objectName(s);
+				if (server.isRegistered(name))
+					server.unregisterMBean(name);
+			} catch (Exception e) {
+				log.warning("Could not unregister " + s, e);
+			}
+		jmxDomain = null;
+	}
+
+	private void register(OperationStats s) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = objectName(s);
+			if (!server.isRegistered(name))
+				server.registerMBean(s, name);
+		} catch (Exception e) {
+			log.warning("Could not register " + s + " with JMX", e);
+		}
+	}
+
+	private ObjectName objectName(OperationStats s) throws Exception {
+		return new ObjectName(jmxDomain + ":type=OperationStats,collection=" + ObjectName.quote(s.getCollection())
+				+ ",operation=" + s.getOperation());
+	}
+}
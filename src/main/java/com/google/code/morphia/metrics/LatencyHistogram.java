@@ -0,0 +1,80 @@
+package com.google.code.morphia.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, with power-of-two (nanosecond) buckets; bucket {@code i} counts the durations
+ * in {@code [2^(i-1), 2^i)}. Percentiles are therefore accurate to within a factor of two, which is plenty to tell a
+ * 1ms operation from a 100ms one.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m = max.get();
+		while (nanos > m && !max.compareAndSet(m, nanos))
+			m = max.get();
+	}
+
+	/** 0 for 0, 1 for 1, 2 for 2-3, 3 for 4-7, ... */
+	private static int bucket(long nanos) {
+		return Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(nanos));
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotalNanos() {
+		return total.get();
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	public long getMeanNanos() {
+		long c = count.get();
+		return (c == 0) ? 0 : total.get() / c;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the upper bound (in nanos) of the bucket the percentile falls in; 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long c = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			c += (snapshot[i] = buckets.get(i));
+		if (c == 0)
+			return 0;
+		long rank = (long) Math.ceil(c * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank && snapshot[i] > 0)
+				return (i == 0) ? 0 : (i >= 62) ? max.get() : Math.min(1L << i, max.get());
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+}
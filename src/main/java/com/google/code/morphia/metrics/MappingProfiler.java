@@ -0,0 +1,305 @@
+package com.google.code.morphia.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+
+/**
+ * <p>
+ * Measures what mapping entities to and from documents costs, per {@link MappedClass} (time, bytes allocated, time in
+ * lifecycle methods) and per {@link MappedField} (time, by mapping {@link Strategy}). Set it with
+ * {@link com.google.code.morphia.Morphia#setMappingProfiler(MappingProfiler)}; when none is set nothing is measured.
+ * </p>
+ * <p>
+ * Times are inclusive: a class's time includes its embedded (and, when decoding, referenced) entities, which are
+ * also counted on their own. Allocations are only measured on JVMs whose {@link ThreadMXBean} reports allocated bytes
+ * per thread (HotSpot); elsewhere they are -1.
+ * </p>
+ *
+ * <pre>
+ * MappingProfiler profiler = new MappingProfiler(true);
+ * profiler.exportToJmx("com.google.code.morphia");
+ * morphia.setMappingProfiler(profiler);
+ * ...
+ * log.info(profiler.getReport());
+ * </pre>
+ */
+public class MappingProfiler implements MappingProfilerMBean {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(MappingProfiler.class);
+
+	/** How a field is mapped */
+	public enum Strategy { VALUE, EMBEDDED, REFERENCE, SERIALIZED }
+
+	/** The costs for one class */
+	public static class ClassProfile {
+		private final String className;
+		final AtomicLong encodes = new AtomicLong(), encodeNanos = new AtomicLong(), encodeBytes = new AtomicLong();
+		final AtomicLong decodes = new AtomicLong(), decodeNanos = new AtomicLong(), decodeBytes = new AtomicLong();
+		final AtomicLong lifecycleNanos = new AtomicLong();
+		final ConcurrentHashMap<String, FieldProfile> fields = new ConcurrentHashMap<String, FieldProfile>();
+
+		private final boolean measured;
+
+		ClassProfile(String className, boolean measured) {
+			this.className = className;
+			this.measured = measured;
+		}
+
+		public String getClassName() { return className; }
+		public long getEncodeCount() { return encodes.get(); }
+		public long getEncodeNanos() { return encodeNanos.get(); }
+		/** -1 if not measured */
+		public long getEncodeAllocatedBytes() { return measured ? encodeBytes.get() : -1; }
+		public long getDecodeCount() { return decodes.get(); }
+		public long getDecodeNanos() { return decodeNanos.get(); }
+		/** -1 if not measured */
+		public long getDecodeAllocatedBytes() { return measured ? decodeBytes.get() : -1; }
+		/** @return the time spent in the lifecycle methods (@PrePersist, @PostLoad, ...) */
+		public long getLifecycleNanos() { return lifecycleNanos.get(); }
+		public long getTotalNanos() { return encodeNanos.get() + decodeNanos.get(); }
+
+		/** @return the fields, most expensive first */
+		public List<FieldProfile> getFields() {
+			List<FieldProfile> list = new ArrayList<FieldProfile>(fields.values());
+			Collections.sort(list, new Comparator<FieldProfile>() {
+				public int compare(FieldProfile a, FieldProfile b) {
+					return compareLongs(b.getTotalNanos(), a.getTotalNanos());
+				}
+			});
+			return list;
+		}
+
+		void reset() {
+			encodes.set(0); encodeNanos.set(0); encodeBytes.set(encodeBytes.get() < 0 ? -1 : 0);
+			decodes.set(0); decodeNanos.set(0); decodeBytes.set(decodeBytes.get() < 0 ? -1 : 0);
+			lifecycleNanos.set(0);
+			fields.clear();
+		}
+	}
+
+	/** The costs for one field */
+	public static class FieldProfile {
+		private final String name;
+		private final Strategy strategy;
+		final AtomicLong encodes = new AtomicLong(), encodeNanos = new AtomicLong();
+		final AtomicLong decodes = new AtomicLong(), decodeNanos = new AtomicLong();
+
+		FieldProfile(String name, Strategy strategy) {
+			this.name = name;
+			this.strategy = strategy;
+		}
+
+		public String getName() { return name; }
+		public Strategy getStrategy() { return strategy; }
+		public long getEncodeCount() { return encodes.get(); }
+		public long getEncodeNanos() { return encodeNanos.get(); }
+		public long getDecodeCount() { return decodes.get(); }
+		public long getDecodeNanos() { return decodeNanos.get(); }
+		public long getTotalNanos() { return encodeNanos.get() + decodeNanos.get(); }
+	}
+
+	private final ConcurrentHashMap<String, ClassProfile> classes = new ConcurrentHashMap<String, ClassProfile>();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final Method allocatedBytes;
+	private volatile boolean enabled = true;
+	private volatile String jmxDomain;
+
+	public MappingProfiler() {
+		this(false);
+	}
+
+	/** @param measureAllocations also estimate the bytes allocated per class (costs a bit more per entity) */
+	public MappingProfiler(boolean measureAllocations) {
+		allocatedBytes = measureAllocations ? findAllocatedBytesMethod(threads) : null;
+	}
+
+	/**
+	 * com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long), if this JVM has it; looked up on the (exported)
+	 * interface, since the implementing class isn't accessible on newer JVMs
+	 */
+	private static Method findAllocatedBytesMethod(ThreadMXBean threads) {
+		try {
+			Class<?> sunThreads = Class.forName("com.sun.management.ThreadMXBean");
+			if (!sunThreads.isInstance(threads))
+				return null;
+			Method m = sunThreads.getMethod("getThreadAllocatedBytes", long.class);
+			if (((Number) m.invoke(threads, Thread.currentThread().getId())).longValue() >= 0)
+				return m;
+		} catch (Exception e) {
+			log.debug("Allocated bytes per thread are not available: " + e);
+		}
+		return null;
+	}
+
+	/** @return true if the allocated bytes are measured (asked for, and this JVM supports it) */
+	public boolean isMeasuringAllocations() {
+		return allocatedBytes != null;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Pauses (or resumes) measuring, without removing the profiler */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/** @return the bytes allocated by this thread so far; -1 if not measured */
+	public long allocatedBytes() {
+		if (allocatedBytes == null)
+			return -1;
+		try {
+			return ((Number) allocatedBytes.invoke(threads, Thread.currentThread().getId())).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private ClassProfile profile(MappedClass mc) {
+		String name = mc.getClazz().getName();
+		ClassProfile p = classes.get(name);
+		if (p == null) {
+			ClassProfile fresh = new ClassProfile(name, allocatedBytes != null);
+			if (allocatedBytes == null) {
+				fresh.encodeBytes.set(-1);
+				fresh.decodeBytes.set(-1);
+			}
+			p = classes.putIfAbsent(name, fresh);
+			if (p == null)
+				p = fresh;
+		}
+		return p;
+	}
+
+	/** Records an entity encoded to a document; the starts are {@link System#nanoTime()} and {@link #allocatedBytes()} */
+	public void encoded(MappedClass mc, long startNanos, long startAllocated) {
+		ClassProfile p = profile(mc);
+		p.encodeNanos.addAndGet(System.nanoTime() - startNanos);
+		p.encodes.incrementAndGet();
+		if (startAllocated >= 0)
+			p.encodeBytes.addAndGet(allocatedBytes() - startAllocated);
+	}
+
+	/** Records a document decoded to an entity; the starts are {@link System#nanoTime()} and {@link #allocatedBytes()} */
+	public void decoded(MappedClass mc, long startNanos, long startAllocated) {
+		ClassProfile p = profile(mc);
+		p.decodeNanos.addAndGet(System.nanoTime() - startNanos);
+		p.decodes.incrementAndGet();
+		if (startAllocated >= 0)
+			p.decodeBytes.addAndGet(allocatedBytes() - startAllocated);
+	}
+
+	/** Records time spent in the lifecycle methods of the class */
+	public void lifecycle(MappedClass mc, long nanos) {
+		profile(mc).lifecycleNanos.addAndGet(nanos);
+	}
+
+	/** Records a field mapped, to the document (encode) or from it */
+	public void field(MappedClass mc, MappedField mf, Strategy strategy, boolean encode, long nanos) {
+		ClassProfile p = profile(mc);
+		FieldProfile f = p.fields.get(mf.getNameToStore());
+		if (f == null) {
+			FieldProfile fresh = new FieldProfile(mf.getNameToStore(), strategy);
+			f = p.fields.putIfAbsent(mf.getNameToStore(), fresh);
+			if (f == null)
+				f = fresh;
+		}
+		if (encode) {
+			f.encodes.incrementAndGet();
+			f.encodeNanos.addAndGet(nanos);
+		} else {
+			f.decodes.incrementAndGet();
+			f.decodeNanos.addAndGet(nanos);
+		}
+	}
+
+	/** @return the profile of the class; null if it hasn't been mapped since the profiler was set (or reset) */
+	public ClassProfile getProfile(Class<?> clazz) {
+		return classes.get(clazz.getName());
+	}
+
+	/** @return all the classes, most expensive (encode + decode time) first */
+	public List<ClassProfile> getRanking() {
+		List<ClassProfile> list = new ArrayList<ClassProfile>(classes.values());
+		Collections.sort(list, new Comparator<ClassProfile>() {
+			public int compare(ClassProfile a, ClassProfile b) {
+				return compareLongs(b.getTotalNanos(), a.getTotalNanos());
+			}
+		});
+		return list;
+	}
+
+	private static int compareLongs(long a, long b) {
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+
+	public String[] getTopClasses() {
+		List<ClassProfile> ranking = getRanking();
+		String[] top = new String[Math.min(10, ranking.size())];
+		for (int i = 0; i < top.length; i++)
+			top[i] = ranking.get(i).getClassName();
+		return top;
+	}
+
+	public String getReport() {
+		StringBuilder sb = new StringBuilder("Mapping profile (times in microseconds, most expensive first)\n");
+		for (ClassProfile c : getRanking()) {
+			sb.append(c.getClassName())
+				.append(": encode ").append(c.getEncodeCount()).append("x ").append(c.getEncodeNanos() / 1000).append("us");
+			if (c.getEncodeAllocatedBytes() >= 0)
+				sb.append(" ").append(c.getEncodeAllocatedBytes()).append("B");
+			sb.append(", decode ").append(c.getDecodeCount()).append("x ").append(c.getDecodeNanos() / 1000).append("us");
+			if (c.getDecodeAllocatedBytes() >= 0)
+				sb.append(" ").append(c.getDecodeAllocatedBytes()).append("B");
+			sb.append(", lifecycle ").append(c.getLifecycleNanos() / 1000).append("us\n");
+			for (FieldProfile f : c.getFields())
+				sb.append("    ").append(f.getName()).append(" (").append(f.getStrategy()).append("): encode ")
+					.append(f.getEncodeNanos() / 1000).append("us, decode ").append(f.getDecodeNanos() / 1000).append("us\n");
+		}
+		return sb.toString();
+	}
+
+	public void reset() {
+		for (ClassProfile c : classes.values())
+			c.reset();
+	}
+
+	/** Registers this profiler as an MBean: {@code <domain>:type=MappingProfiler} */
+	public synchronized void exportToJmx(String domain) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(domain + ":type=MappingProfiler");
+			if (!server.isRegistered(name))
+				server.registerMBean(this, name);
+			jmxDomain = domain;
+		} catch (Exception e) {
+			log.warning("Could not register the mapping profiler with JMX", e);
+		}
+	}
+
+	public synchronized void unexportFromJmx() {
+		if (jmxDomain == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(jmxDomain + ":type=MappingProfiler"));
+		} catch (Exception e) {
+			log.warning("Could not unregister the mapping profiler", e);
+		}
+		jmxDomain = null;
+	}
+}
@@ -0,0 +1,14 @@
+package com.google.code.morphia.metrics;
+
+/**
+ * The JMX view of a {@link MappingProfiler}.
+ */
+public interface MappingProfilerMBean {
+	/** @return the classes (and their fields), most expensive first, as text */
+	String getReport();
+	/** @return the names of the (at most) 10 most expensive classes */
+	String[] getTopClasses();
+	boolean isEnabled();
+	void setEnabled(boolean enabled);
+	void reset();
+}
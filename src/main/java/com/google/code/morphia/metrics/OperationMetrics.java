@@ -0,0 +1,30 @@
+package com.google.code.morphia.metrics;
+
+/**
+ * <p>
+ * Receives the timing of every operation run by the {@link com.google.code.morphia.Datastore Datastore} and its
+ * queries. Set it with {@link com.google.code.morphia.Morphia#setMetrics(OperationMetrics)}; when none is set the
+ * operations are not timed at all.
+ * </p>
+ * <p>
+ * Implementations are called from the threads running the operations, so must be thread-safe and fast.
+ * </p>
+ *
+ * @see HistogramMetrics
+ */
+public interface OperationMetrics {
+	/**
+	 * @param collection the collection name
+	 * @param serverNanos the time spent in the driver (sending, waiting for and reading the reply)
+	 * @param mappingNanos the time spent (client-side) mapping entities to and from documents
+	 * @param documents the number of documents read, written or affected
+	 * @param bytes the (BSON) size of the documents read or written; -1 if not measured
+	 */
+	void record(OperationType type, String collection, long serverNanos, long mappingNanos, int documents, long bytes);
+
+	/**
+	 * @return true to have the document sizes measured; they are not available from the driver so they are measured by
+	 *         encoding each document again, which is not free
+	 */
+	boolean isMeasuringBytes();
+}
@@ -0,0 +1,103 @@
+package com.google.code.morphia.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counts and latency histograms of one kind of operation on one collection; see {@link HistogramMetrics}.
+ */
+public class OperationStats implements OperationStatsMBean {
+	private final String collection;
+	private final OperationType type;
+	private final AtomicLong documents = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private volatile boolean bytesMeasured = false;
+	private final LatencyHistogram server = new LatencyHistogram();
+	private final LatencyHistogram mapping = new LatencyHistogram();
+
+	OperationStats(String collection, OperationType type) {
+		this.collection = collection;
+		this.type = type;
+	}
+
+	void record(long serverNanos, long mappingNanos, int docs, long size) {
+		server.record(serverNanos);
+		mapping.record(mappingNanos);
+		documents.addAndGet(docs);
+		if (size >= 0) {
+			bytes.addAndGet(size);
+			bytesMeasured = true;
+		}
+	}
+
+	public String getCollection() {
+		return collection;
+	}
+
+	public OperationType getType() {
+		return type;
+	}
+
+	public String getOperation() {
+		return type.name();
+	}
+
+	public long getCount() {
+		return server.getCount();
+	}
+
+	public long getDocuments() {
+		return documents.get();
+	}
+
+	public long getBytes() {
+		return bytesMeasured ? bytes.get() : -1;
+	}
+
+	/** @return the histogram of the server (driver) times */
+	public LatencyHistogram getServerTimes() {
+		return server;
+	}
+
+	/** @return the histogram of the mapping times */
+	public LatencyHistogram getMappingTimes() {
+		return mapping;
+	}
+
+	public long getServerMeanMicros() {
+		return server.getMeanNanos() / 1000;
+	}
+
+	public long getServerP50Micros() {
+		return server.getPercentileNanos(50) / 1000;
+	}
+
+	public long getServerP99Micros() {
+		return server.getPercentileNanos(99) / 1000;
+	}
+
+	public long getServerMaxMicros() {
+		return server.getMaxNanos() / 1000;
+	}
+
+	public long getMappingMeanMicros() {
+		return mapping.getMeanNanos() / 1000;
+	}
+
+	public long getMappingP99Micros() {
+		return mapping.getPercentileNanos(99) / 1000;
+	}
+
+	public void reset() {
+		server.reset();
+		mapping.reset();
+		documents.set(0);
+		bytes.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return collection + "." + type + "{count=" + getCount() + ", docs=" + getDocuments() + ", bytes=" + getBytes()
+				+ ", server(mean/p99)=" + getServerMeanMicros() + "/" + getServerP99Micros() + "us, mapping(mean/p99)="
+				+ getMappingMeanMicros() + "/" + getMappingP99Micros() + "us}";
+	}
+}
@@ -0,0 +1,20 @@
+package com.google.code.morphia.metrics;
+
+/**
+ * The JMX view of {@link OperationStats}; times are in microseconds.
+ */
+public interface OperationStatsMBean {
+	String getCollection();
+	String getOperation();
+	long getCount();
+	long getDocuments();
+	/** -1 if the sizes are not measured */
+	long getBytes();
+	long getServerMeanMicros();
+	long getServerP50Micros();
+	long getServerP99Micros();
+	long getServerMaxMicros();
+	long getMappingMeanMicros();
+	long getMappingP99Micros();
+	void reset();
+}
@@ -0,0 +1,104 @@
+package com.google.code.morphia.metrics;
+
+import org.bson.BSON;
+
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * Times one operation, split into server and mapping time, and reports it when {@link #done()}. Created by
+ * {@link #start(OperationMetrics, OperationType, String)}, which returns null when there are no metrics, so callers
+ * only pay for a null check:
+ * </p>
+ *
+ * <pre>
+ * OperationTimer timer = OperationTimer.start(mapr.getMetrics(), OperationType.SAVE, dbColl.getName());
+ * DBObject dbObj = mapr.toDBObject(entity);
+ * if (timer != null) timer.mapped();
+ * dbColl.save(dbObj);
+ * if (timer != null) timer.server().document(dbObj).done();
+ * </pre>
+ *
+ * <p>
+ * Not thread-safe; a timer belongs to one operation.
+ * </p>
+ */
+public class OperationTimer {
+	private final OperationMetrics metrics;
+	private OperationType type;
+	private final String collection;
+	private long mark;
+	private long serverNanos, mappingNanos;
+	private int documents;
+	private long bytes;
+	private boolean done;
+
+	protected OperationTimer(OperationMetrics metrics, OperationType type, String collection) {
+		this.metrics = metrics;
+		this.type = type;
+		this.collection = collection;
+		this.bytes = metrics.isMeasuringBytes() ? 0 : -1;
+		this.mark = System.nanoTime();
+	}
+
+	/** @return a started timer, or null if metrics is null; the operation is counted as a {@link RoundTrips round trip} */
+	public static OperationTimer start(OperationMetrics metrics, OperationType type, String collection) {
+		RoundTrips.operation(type, collection);
+		return (metrics == null) ? null : new OperationTimer(metrics, type, collection);
+	}
+
+	/** Reports the operation as another type (like a {@code GET} done with a cursor) */
+	public OperationTimer as(OperationType type) {
+		this.type = type;
+		return this;
+	}
+
+	/** Adds the time since the last mark to the server time */
+	public OperationTimer server() {
+		long now = System.nanoTime();
+		serverNanos += now - mark;
+		mark = now;
+		return this;
+	}
+
+	/** Adds the time since the last mark to the mapping time */
+	public OperationTimer mapped() {
+		long now = System.nanoTime();
+		mappingNanos += now - mark;
+		mark = now;
+		return this;
+	}
+
+	/** Skips the time since the last mark (time spent by the caller, between calls) */
+	public OperationTimer idle() {
+		mark = System.nanoTime();
+		return this;
+	}
+
+	/** Counts a document read or written (measuring its size, if asked to) */
+	public OperationTimer document(DBObject dbObj) {
+		if (dbObj == null)
+			return this;
+		documents++;
+		if (bytes >= 0) {
+			long now = System.nanoTime();
+			bytes += BSON.encode(dbObj).length;
+			mark += System.nanoTime() - now; // measuring isn't part of the operation
+		}
+		return this;
+	}
+
+	/** Counts documents affected (by an update or remove) */
+	public OperationTimer documents(int n) {
+		documents += n;
+		return this;
+	}
+
+	/** Reports the operation; only the first call has an effect */
+	public void done() {
+		if (done)
+			return;
+		done = true;
+		metrics.record(type, collection, serverNanos, mappingNanos, documents, bytes);
+	}
+}
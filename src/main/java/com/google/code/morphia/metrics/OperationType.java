@@ -0,0 +1,22 @@
+package com.google.code.morphia.metrics;
+
+/**
+ * The kinds of operation reported to {@link OperationMetrics}.
+ */
+public enum OperationType {
+	/** a single entity read ({@code Query.get()}, {@code Datastore.get(...)}) */
+	GET,
+	/** iterating the results of a query */
+	FIND,
+	COUNT,
+	SAVE,
+	INSERT,
+	UPDATE,
+	DELETE,
+	/** findAndModify/findAndDelete */
+	FIND_AND_MODIFY,
+	/** loading a {@code @Reference} while mapping an entity */
+	FETCH_REFERENCE,
+	/** other commands (map-reduce, group) */
+	COMMAND
+}
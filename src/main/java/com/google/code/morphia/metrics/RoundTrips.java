@@ -0,0 +1,197 @@
+package com.google.code.morphia.metrics;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.MappedField;
+
+/**
+ * <p>
+ * Counts the round trips to the server made by the current thread within a {@link Scope}, to find N+1 patterns:
+ * references fetched one at a time, in a loop, while mapping (or by lazy proxies being used one by one).
+ * </p>
+ * <p>
+ * With {@link #setMaxFetchesPerReference(int)} set (the diagnostic mode) every {@code Query.asList()} and
+ * {@code Query.get()} is a scope, and a warning naming the field is logged when one reference path is fetched more than
+ * that many times in a scope. Scopes can also be opened explicitly, for a request for instance, and nest:
+ * </p>
+ *
+ * <pre>
+ * RoundTrips.Scope scope = RoundTrips.begin("GET /hotels");
+ * try {
+ *     ...
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ *
+ * <p>
+ * In tests, {@link #assertMaxRoundTrips(int, Runnable)} checks the budget of a block of code. Nothing is counted (beyond
+ * reading a counter) when no scope is open.
+ * </p>
+ */
+public final class RoundTrips {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(RoundTrips.class);
+
+	private static final ThreadLocal<Scope> current = new ThreadLocal<Scope>();
+	private static final AtomicInteger openScopes = new AtomicInteger();
+	private static volatile int maxFetchesPerReference = 0;
+
+	/** The round trips of one logical operation (or request), on one thread */
+	public static final class Scope {
+		private final String name;
+		private final Scope parent;
+		private int roundTrips;
+		private final Map<String, Integer> operations = new LinkedHashMap<String, Integer>();
+		private final Map<String, Integer> referenceFetches = new LinkedHashMap<String, Integer>();
+		private final Set<String> warned = new HashSet<String>();
+		private boolean closed;
+
+		Scope(String name, Scope parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** @return the number of round trips made so far */
+		public int getRoundTrips() {
+			return roundTrips;
+		}
+
+		/** @return the round trips by operation and collection ("FIND hotels") */
+		public Map<String, Integer> getOperations() {
+			return Collections.unmodifiableMap(operations);
+		}
+
+		/** @return the references fetched one by one, by path (field, or lazy proxy class) */
+		public Map<String, Integer> getReferenceFetches() {
+			return Collections.unmodifiableMap(referenceFetches);
+		}
+
+		/** Ends the scope (and any scope opened within it and not closed) */
+		public void close() {
+			if (closed)
+				return;
+			for (Scope s = current.get(); s != null; s = s.parent) {
+				if (!s.closed) {
+					s.closed = true;
+					openScopes.decrementAndGet();
+				}
+				if (s == this) {
+					current.set(parent);
+					break;
+				}
+			}
+			closed = true;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + roundTrips + " round trip(s) " + operations
+					+ (referenceFetches.isEmpty() ? "" : ", references fetched one by one " + referenceFetches);
+		}
+
+		private static int increment(Map<String, Integer> counts, String key) {
+			Integer n = counts.get(key);
+			int count = (n == null) ? 1 : n + 1;
+			counts.put(key, count);
+			return count;
+		}
+	}
+
+	private RoundTrips() {
+	}
+
+	/**
+	 * Turns the diagnostic mode on: each {@code Query.asList()}/{@code get()} becomes a scope, and a warning is logged
+	 * when a reference path is fetched more than {@code max} times in a scope; 0 turns it off.
+	 */
+	public static void setMaxFetchesPerReference(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException("max must be >= 0");
+		maxFetchesPerReference = max;
+	}
+
+	public static int getMaxFetchesPerReference() {
+		return maxFetchesPerReference;
+	}
+
+	/** Opens a scope on this thread (within the current one, if any); close it when done */
+	public static Scope begin(String name) {
+		Scope scope = new Scope(name, current.get());
+		current.set(scope);
+		openScopes.incrementAndGet();
+		return scope;
+	}
+
+	/** Opens a scope for one logical operation (on the collection) if the diagnostic mode is on; null otherwise */
+	public static Scope beginOperation(String operation, String collection) {
+		return (maxFetchesPerReference > 0) ? begin(operation + " " + collection) : null;
+	}
+
+	/** @return the innermost open scope of this thread; null if there is none */
+	public static Scope current() {
+		return (openScopes.get() == 0) ? null : current.get();
+	}
+
+	/** Counts a round trip, in the current scope and the ones it is in */
+	public static void operation(OperationType type, String collection) {
+		Scope scope = current();
+		if (scope == null)
+			return;
+		String key = type + " " + collection;
+		for (Scope s = scope; s != null; s = s.parent) {
+			s.roundTrips++;
+			Scope.increment(s.operations, key);
+		}
+	}
+
+	/** Counts a reference fetched on its own while decoding the field */
+	public static void referenceFetched(MappedField mf) {
+		if (current() != null)
+			referenceFetched(mf.getFullName());
+	}
+
+	/** Counts a reference fetched on its own, by path */
+	public static void referenceFetched(String path) {
+		Scope scope = current();
+		if (scope == null)
+			return;
+		int max = maxFetchesPerReference;
+		for (Scope s = scope; s != null; s = s.parent) {
+			int count = Scope.increment(s.referenceFetches, path);
+			if (max > 0 && count > max && !s.warned.contains(path)) {
+				log.warning("Possible N+1: " + path + " fetched references one at a time more than " + max
+						+ " times in '" + s.name + "'; consider fetching them with one query (or fewer lazy proxies)");
+				for (Scope w = s; w != null; w = w.parent)
+					w.warned.add(path);
+			}
+		}
+	}
+
+	/**
+	 * Runs the block, failing (with {@link AssertionError}) if it made more than {@code max} round trips.
+	 *
+	 * @return the number of round trips made
+	 */
+	public static int assertMaxRoundTrips(int max, Runnable block) {
+		Scope scope = begin("assertMaxRoundTrips(" + max + ")");
+		try {
+			block.run();
+		} finally {
+			scope.close();
+		}
+		if (scope.getRoundTrips() > max)
+			throw new AssertionError("Expected at most " + max + " round trip(s) but was " + scope);
+		return scope.getRoundTrips();
+	}
+}
@@ -0,0 +1,154 @@
+package com.google.code.morphia.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * Logs (as warnings, to this class's logger) the queries, counts, updates and deletes that take longer than a
+ * threshold: the collection, the shape of the query (its literals replaced by {@code ?}), the sort, the projection, the
+ * elapsed time and the number of documents. Optionally the query's {@code explain()} and, for a sample of the entries,
+ * the caller's stack are logged too. At most {@link #maxPerMinute(int)} entries are logged a minute; the others are
+ * counted, and the count reported with the next entry.
+ * </p>
+ *
+ * <pre>
+ * morphia.setSlowOperationLog(new SlowOperationLog(100, TimeUnit.MILLISECONDS).explain(true).sampleStacks(10));
+ * </pre>
+ */
+public class SlowOperationLog {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(SlowOperationLog.class);
+	private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+	private static final String LITERAL = "?";
+
+	private final long thresholdNanos;
+	private volatile boolean explain = false;
+	private volatile int stackEvery = 0;
+	private volatile int maxPerMinute = 60;
+
+	private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+	private final AtomicInteger inWindow = new AtomicInteger();
+	private final AtomicInteger suppressed = new AtomicInteger();
+	private final AtomicLong logged = new AtomicLong();
+
+	public SlowOperationLog(long threshold, TimeUnit unit) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("threshold must be >= 0");
+		this.thresholdNanos = unit.toNanos(threshold);
+	}
+
+	/** Also logs the explain() of the query (which runs it again, on the server) */
+	public SlowOperationLog explain(boolean explain) {
+		this.explain = explain;
+		return this;
+	}
+
+	/** Logs the caller's stack with every n-th entry; 0 (the default) never does */
+	public SlowOperationLog sampleStacks(int everyNth) {
+		if (everyNth < 0)
+			throw new IllegalArgumentException("everyNth must be >= 0");
+		this.stackEvery = everyNth;
+		return this;
+	}
+
+	/** The most entries logged a minute (60 by default) */
+	public SlowOperationLog maxPerMinute(int max) {
+		if (max < 1)
+			throw new IllegalArgumentException("max must be > 0");
+		this.maxPerMinute = max;
+		return this;
+	}
+
+	public long getThreshold(TimeUnit unit) {
+		return unit.convert(thresholdNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isExplaining() {
+		return explain;
+	}
+
+	/** @return the number of entries logged so far */
+	public long getLogged() {
+		return logged.get();
+	}
+
+	/** @return true if an operation which took that long should be logged (is slow, and the rate limit allows it) */
+	public boolean permits(long elapsedNanos) {
+		if (elapsedNanos < thresholdNanos)
+			return false;
+		long now = System.nanoTime();
+		long start = windowStart.get();
+		if (now - start > MINUTE && windowStart.compareAndSet(start, now))
+			inWindow.set(0);
+		if (inWindow.incrementAndGet() <= maxPerMinute)
+			return true;
+		suppressed.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Logs the operation; call only if {@link #permits(long)}.
+	 *
+	 * @param count the number of documents returned/counted/updated; -1 if unknown
+	 * @param plan the explain() output (or its summary); may be null
+	 */
+	public void log(OperationType type, String collection, DBObject query, DBObject sort, DBObject fields,
+			long elapsedNanos, long count, Object plan) {
+		StringBuilder sb = new StringBuilder("Slow ").append(type).append(" on ").append(collection).append(" took ")
+				.append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append("ms");
+		if (count >= 0)
+			sb.append(" (").append(count).append(" documents)");
+		sb.append(": query ").append((query == null) ? "{ }" : shape(query));
+		if (sort != null && !sort.keySet().isEmpty())
+			sb.append(", sort ").append(sort);
+		if (fields != null && !fields.keySet().isEmpty())
+			sb.append(", fields ").append(fields);
+		if (plan != null)
+			sb.append(", plan ").append(plan);
+		int skipped = suppressed.getAndSet(0);
+		if (skipped > 0)
+			sb.append(" [").append(skipped).append(" slow operations not logged]");
+
+		long n = logged.incrementAndGet();
+		int every = stackEvery;
+		if (every > 0 && n % every == 0)
+			log.warning(sb.toString(), new Throwable("caller of the slow " + type));
+		else
+			log.warning(sb.toString());
+	}
+
+	/**
+	 * @return the query with every literal value replaced by {@code ?} ({@code $in} lists by one {@code ?}), keeping
+	 *         the field names and operators; queries differing only by values have the same shape
+	 */
+	public static DBObject shape(DBObject query) {
+		BasicDBObject shape = new BasicDBObject();
+		for (String key : query.keySet())
+			shape.put(key, shapeOf(query.get(key)));
+		return shape;
+	}
+
+	private static Object shapeOf(Object val) {
+		if (val instanceof List) {
+			List<Object> list = new ArrayList<Object>();
+			for (Object o : (List<?>) val)
+				if (o instanceof DBObject || o instanceof Map)
+					list.add(shapeOf(o)); // $or/$and clauses
+			return list.isEmpty() ? LITERAL : list;
+		}
+		if (val instanceof DBObject)
+			return shape((DBObject) val);
+		if (val instanceof Map)
+			return shape(new BasicDBObject((Map<?, ?>) val));
+		return LITERAL;
+	}
+}
@@ -0,0 +1,15 @@
+package com.google.code.morphia.query;
+
+/**
+ * Persists the last processed key of a {@link CheckpointedIterator}, so a scan can resume after a restart.
+ */
+public interface CheckpointStore {
+	/** @return the last saved key for the scan, or null if there is none */
+	Object load(String scanName);
+
+	/** Saves the key (replacing the previous one) */
+	void save(String scanName, Object lastKey);
+
+	/** Removes the checkpoint; the next scan with that name starts from the beginning */
+	void clear(String scanName);
+}
@@ -0,0 +1,212 @@
+package com.google.code.morphia.query;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.code.morphia.logging.MorphiaLogger;
+import com.google.code.morphia.logging.MorphiaLoggerFactory;
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * Iterates over the results of a query in (ascending) order of a unique key, {@code _id} by default, and records the
+ * last processed key in a {@link CheckpointStore} every {@code checkpointEvery} entities. A new iterator with the same
+ * name starts right after the saved key, so a long running job can resume where it died.
+ * </p>
+ * <p>
+ * An entity counts as processed once the next one is requested (or {@link #checkpoint()} is called); results are read
+ * in batches, each with a fresh range query, so no server cursor is kept open for the whole scan. Entities are loaded
+ * through the {@link Mapper}, so the lifecycle callbacks (@PreLoad, @PostLoad, ...) run as usual. When the scan is
+ * finished the checkpoint is kept; call {@link #reset()} to start over.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+public class CheckpointedIterator<T> implements Iterable<T>, Iterator<T> {
+	private static final MorphiaLogger log = MorphiaLoggerFactory.get(CheckpointedIterator.class);
+
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private final QueryImpl<T> query;
+	private final Mapper mapr;
+	private final String name;
+	private final String keyField;
+	private final CheckpointStore store;
+	private final int checkpointEvery;
+	private final int batchSize;
+
+	private DBCursor cursor;
+	private int batchRemaining = 0;
+	private boolean exhausted = false;
+	/** the key of the last entity handed out */
+	private Object lastReturnedKey;
+	/** the key of the last entity known to be processed, and whether it is saved */
+	private Object processedKey;
+	private boolean processedSaved = true;
+	private long sinceCheckpoint = 0;
+	private long count = 0;
+
+	public CheckpointedIterator(Query<T> query, Mapper mapr, String name, CheckpointStore store) {
+		this(query, mapr, name, store, Mapper.ID_KEY, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param keyField the (stored) name of a unique, indexed field to walk in order of
+	 * @param checkpointEvery how many processed entities between saves
+	 */
+	public CheckpointedIterator(Query<T> query, Mapper mapr, String name, CheckpointStore store, String keyField, int checkpointEvery, int batchSize) {
+		if (checkpointEvery < 1 || batchSize < 1)
+			throw new IllegalArgumentException("checkpointEvery and batchSize must be > 0");
+		this.query = (QueryImpl<T>) query;
+		if (this.query.getOffset() > 0 || this.query.getLimit() > 0)
+			throw new QueryException("A checkpointed scan can not use offset/limit");
+		DBObject q = this.query.getQueryObject();
+		if (q != null && q.containsField(keyField))
+			throw new QueryException("A checkpointed scan walks '" + keyField + "'; the query can not filter on it too");
+		if (!Mapper.ID_KEY.equals(keyField))
+			validateUniqueIndex(this.query.getCollection(), keyField);
+
+		this.mapr = mapr;
+		this.name = name;
+		this.store = store;
+		this.keyField = keyField;
+		this.checkpointEvery = checkpointEvery;
+		this.batchSize = batchSize;
+		this.processedKey = store.load(name);
+		this.lastReturnedKey = processedKey;
+		if (processedKey != null && log.isInfoEnabled())
+			log.info("Resuming scan '" + name + "' after " + keyField + "=" + processedKey);
+	}
+
+	public Iterator<T> iterator() {
+		return this;
+	}
+
+	public boolean hasNext() {
+		if (exhausted)
+			return false;
+		if (cursor != null && batchRemaining > 0 && cursor.hasNext())
+			return true;
+		// the batch is used up (or there is none yet); if it was a short one there is nothing left
+		boolean shortBatch = (cursor != null && batchRemaining > 0);
+		closeCursor();
+		if (!shortBatch) {
+			openCursor();
+			if (cursor.hasNext())
+				return true;
+			closeCursor();
+		}
+		finish();
+		return false;
+	}
+
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		markProcessed();
+		DBObject dbObj = cursor.next();
+		batchRemaining--;
+		lastReturnedKey = valueAt(dbObj, keyField);
+		if (lastReturnedKey == null)
+			throw new QueryException("Entity " + dbObj.get(Mapper.ID_KEY) + " has no '" + keyField + "'; can not checkpoint on it");
+		count++;
+		return (T) mapr.fromDBObject(query.getEntityClass(), dbObj, mapr.createEntityCache(), query.getCollection().getDB());
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/** Marks everything returned so far as processed and saves the checkpoint now */
+	public void checkpoint() {
+		markProcessed();
+		save();
+	}
+
+	/** Removes the checkpoint; the next scan with this name starts from the beginning */
+	public void reset() {
+		store.clear(name);
+	}
+
+	/** Closes the open cursor (if any); the entities returned so far are not marked as processed */
+	public void close() {
+		closeCursor();
+		save();
+	}
+
+	/** @return the number of entities returned (in this run) */
+	public long getCount() {
+		return count;
+	}
+
+	/** @return the last processed key (possibly not saved yet), or null */
+	public Object getLastProcessedKey() {
+		return processedKey;
+	}
+
+	private void markProcessed() {
+		if (lastReturnedKey == null || lastReturnedKey.equals(processedKey))
+			return;
+		processedKey = lastReturnedKey;
+		processedSaved = false;
+		if (++sinceCheckpoint >= checkpointEvery)
+			save();
+	}
+
+	private void save() {
+		if (processedSaved || processedKey == null)
+			return;
+		store.save(name, processedKey);
+		processedSaved = true;
+		sinceCheckpoint = 0;
+		if (log.isDebugEnabled())
+			log.debug("Checkpointed scan '" + name + "' at " + keyField + "=" + processedKey);
+	}
+
+	private void finish() {
+		exhausted = true;
+		markProcessed();
+		save();
+	}
+
+	private void openCursor() {
+		DBObject q = query.getQueryObject();
+		if (q == null)
+			q = new BasicDBObject();
+		if (lastReturnedKey != null)
+			q.put(keyField, new BasicDBObject(FilterOperator.GREATER_THAN.val(), lastReturnedKey));
+		DBObject fields = query.getFieldsObject();
+		if (fields != null && !fields.keySet().isEmpty() && Boolean.TRUE.equals(fields.get(fields.keySet().iterator().next())))
+			fields.put(keyField, true); // only including some fields; make sure the key is one of them
+		cursor = query.getCollection().find(q, fields).sort(new BasicDBObject(keyField, 1)).limit(batchSize);
+		batchRemaining = batchSize;
+	}
+
+	/** Drops the cursor; it is limited to one batch, so the server closes it once that is read (or it is collected). */
+	private void closeCursor() {
+		cursor = null;
+	}
+
+	private static void validateUniqueIndex(DBCollection dbColl, String keyField) {
+		for (DBObject idx : dbColl.getIndexInfo()) {
+			DBObject key = (DBObject) idx.get("key");
+			if (key != null && key.keySet().size() == 1 && key.containsField(keyField) && Boolean.TRUE.equals(idx.get("unique")))
+				return;
+		}
+		throw new QueryException("A checkpointed scan needs a unique index on '" + keyField + "' in '" + dbColl.getName() + "'");
+	}
+
+	private static Object valueAt(DBObject dbObj, String path) {
+		Object val = dbObj;
+		for (String part : path.split("\\.")) {
+			if (!(val instanceof DBObject))
+				return null;
+			val = ((DBObject) val).get(part);
+		}
+		return val;
+	}
+}
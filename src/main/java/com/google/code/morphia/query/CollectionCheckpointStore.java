@@ -0,0 +1,42 @@
+package com.google.code.morphia.query;
+
+import java.util.Date;
+
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+/**
+ * Keeps checkpoints in a (small) collection, one document per scan: <code>{_id: scanName, key: ..., updated: ...}</code>.
+ */
+public class CollectionCheckpointStore implements CheckpointStore {
+	public static final String DEFAULT_COLLECTION = "morphia_checkpoints";
+
+	private final DBCollection dbColl;
+
+	public CollectionCheckpointStore(DB db) {
+		this(db.getCollection(DEFAULT_COLLECTION));
+	}
+
+	public CollectionCheckpointStore(DBCollection dbColl) {
+		this.dbColl = dbColl;
+	}
+
+	public Object load(String scanName) {
+		DBObject state = dbColl.findOne(new BasicDBObject(Mapper.ID_KEY, scanName));
+		return (state == null) ? null : state.get("key");
+	}
+
+	public void save(String scanName, Object lastKey) {
+		BasicDBObject state = new BasicDBObject(Mapper.ID_KEY, scanName);
+		state.put("key", lastKey);
+		state.put("updated", new Date());
+		dbColl.update(new BasicDBObject(Mapper.ID_KEY, scanName), state, true, false);
+	}
+
+	public void clear(String scanName) {
+		dbColl.remove(new BasicDBObject(Mapper.ID_KEY, scanName));
+	}
+}
@@ -0,0 +1,76 @@
+package com.google.code.morphia.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bson.BSON;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * Keeps checkpoints as (BSON) files in a local directory, one file per scan. Each save writes a temp file and renames
+ * it over the previous one, so a crash during a save leaves the previous checkpoint intact.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+	private final File dir;
+
+	public FileCheckpointStore(File dir) {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IllegalArgumentException("Can not create checkpoint directory " + dir);
+		this.dir = dir;
+	}
+
+	private File file(String scanName) {
+		return new File(dir, scanName.replaceAll("[^A-Za-z0-9._-]", "_") + ".checkpoint");
+	}
+
+	public Object load(String scanName) {
+		File f = file(scanName);
+		if (!f.exists())
+			return null;
+		try {
+			InputStream in = new FileInputStream(f);
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) f.length());
+				byte[] buf = new byte[4096];
+				int n;
+				while ((n = in.read(buf)) > 0)
+					bytes.write(buf, 0, n);
+				return BSON.decode(bytes.toByteArray()).get("key");
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new QueryException("Can not read checkpoint " + f, e);
+		}
+	}
+
+	public void save(String scanName, Object lastKey) {
+		File f = file(scanName);
+		File tmp = new File(dir, f.getName() + ".tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(BSON.encode(new BasicDBObject("key", lastKey)));
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new QueryException("Can not write checkpoint " + tmp, e);
+		}
+		// File.renameTo does not replace an existing file on all platforms
+		if (!tmp.renameTo(f) && !(f.delete() && tmp.renameTo(f)))
+			throw new QueryException("Can not replace checkpoint " + f);
+	}
+
+	public void clear(String scanName) {
+		File f = file(scanName);
+		if (f.exists() && !f.delete())
+			throw new QueryException("Can not delete checkpoint " + f);
+	}
+}
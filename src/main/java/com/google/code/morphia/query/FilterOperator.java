@@ -21,7 +21,9 @@ public enum FilterOperator {
 	ALL("$all"),
 	ELEMENT_MATCH("$elemMatch"),
 	NOT_EQUAL("$ne"), 
-	WHERE("$where");
+	WHERE("$where"),
+	OR("$or"),
+	AND("$and");
 	
 	private String value;
 	private FilterOperator(String val) {
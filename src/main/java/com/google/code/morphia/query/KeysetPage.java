@@ -0,0 +1,96 @@
+package com.google.code.morphia.query;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.BSON;
+import org.bson.BSONObject;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * One page of results from {@link Query#page(int, String)}, and the token to get the next one.
+ * </p>
+ * <p>
+ * The token holds the sort values (and {@code _id}) of the last entity in the page, so the next page starts right
+ * after it with a range query instead of a skip; every page costs the same, however deep it is.
+ * </p>
+ */
+public class KeysetPage<T> implements Iterable<T> {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final List<T> results;
+	private final String nextToken;
+
+	KeysetPage(List<T> results, String nextToken) {
+		this.results = results;
+		this.nextToken = nextToken;
+	}
+
+	/** @return the entities in this page */
+	public List<T> getResults() {
+		return results;
+	}
+
+	public Iterator<T> iterator() {
+		return results.iterator();
+	}
+
+	/** @return the continuation token for the next page, or null if this is the last page */
+	public String getNextToken() {
+		return nextToken;
+	}
+
+	public boolean hasNext() {
+		return nextToken != null;
+	}
+
+	/** Encodes the sort spec and the last seen values as (hex) BSON */
+	static String encodeToken(DBObject sort, List<Object> lastValues) {
+		BasicDBObject tok = new BasicDBObject("s", sort);
+		tok.put("v", lastValues);
+		byte[] bytes = BSON.encode(tok);
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/** Decodes a token, checking it was created for the same sort; returns the last seen values */
+	@SuppressWarnings("unchecked")
+	static List<Object> decodeToken(String token, DBObject sort) {
+		BSONObject tok;
+		try {
+			if (token.length() % 2 != 0)
+				throw new IllegalArgumentException("odd length");
+			byte[] bytes = new byte[token.length() / 2];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = (byte) Integer.parseInt(token.substring(i * 2, i * 2 + 2), 16);
+			tok = BSON.decode(bytes);
+		} catch (RuntimeException e) {
+			throw new QueryException("Invalid continuation token: " + token);
+		}
+		if (!sameSort((BSONObject) tok.get("s"), sort))
+			throw new QueryException("The continuation token was created for sort " + tok.get("s") + ", not " + sort);
+		return (List<Object>) tok.get("v");
+	}
+
+	/** compares the fields (in order) and directions */
+	private static boolean sameSort(BSONObject a, DBObject b) {
+		if (a == null)
+			return false;
+		Iterator<String> ai = a.keySet().iterator();
+		Iterator<String> bi = b.keySet().iterator();
+		while (ai.hasNext() && bi.hasNext()) {
+			String ak = ai.next();
+			String bk = bi.next();
+			if (!ak.equals(bk) || ((Number) a.get(ak)).intValue() != ((Number) b.get(bk)).intValue())
+				return false;
+		}
+		return !ai.hasNext() && !bi.hasNext();
+	}
+}
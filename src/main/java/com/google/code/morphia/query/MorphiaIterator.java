@@ -5,7 +5,10 @@ import java.util.NoSuchElementException;
 
 import com.google.code.morphia.mapping.Mapper;
 import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.metrics.OperationTimer;
+import com.google.code.morphia.metrics.OperationType;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCursor;
 
 /**
@@ -19,13 +22,29 @@ public class MorphiaIterator<T> implements Iterable<T>, Iterator<T>{
 	private final Class<T> clazz;
 	private final String kind;
 	private final EntityCache cache;
+	private final DB db;
+	private OperationTimer timer;
+	private volatile boolean closed = false;
 
 	public MorphiaIterator(DBCursor it, Mapper m, Class<T> clazz, String kind, EntityCache cache) {
+		this(it, m, clazz, kind, cache, null);
+	}
+	
+	/** @param db the database the cursor reads from (which {@link com.google.code.morphia.ChunkedData} is read from) */
+	public MorphiaIterator(DBCursor it, Mapper m, Class<T> clazz, String kind, EntityCache cache, DB db) {
 		this.wrapped = it;
 		this.m = m;
 		this.clazz = clazz;
 		this.kind = kind;
 		this.cache = cache;
+		this.db = db;
+		this.timer = OperationTimer.start(m.getMetrics(), OperationType.FIND, kind);
+	}
+	
+	/** reports the iteration as another type of operation (like a {@code GET}) */
+	public void reportAs(OperationType type) {
+		if (timer != null)
+			timer.as(type);
 	}
 	
 	public Iterator<T> iterator() {
@@ -33,17 +52,47 @@ public class MorphiaIterator<T> implements Iterable<T>, Iterator<T>{
 	}
 	
 	public boolean hasNext() {
-		if(wrapped == null) return false;
-		return wrapped.hasNext();
+		if(wrapped == null || closed) return false;
+		if (timer == null)
+			return wrapped.hasNext();
+		
+		timer.idle();
+		boolean more = wrapped.hasNext();
+		timer.server();
+		if (!more)
+			timer.done();
+		return more;
 	}
 	
 	public T next() {
 		if(!hasNext()) throw new NoSuchElementException();
-		T entity = (T) m.fromDBObject(clazz, (BasicDBObject) wrapped.next(), cache);
-		return (T) entity;
+		if (timer == null)
+			return (T) m.fromDBObject(clazz, (BasicDBObject) wrapped.next(), cache, db);
+		
+		timer.idle();
+		BasicDBObject dbObj = (BasicDBObject) wrapped.next();
+		timer.server().document(dbObj);
+		T entity = (T) m.fromDBObject(clazz, dbObj, cache, db);
+		timer.mapped();
+		return entity;
 	}
 	
 	public void remove() {
 		wrapped.remove();
 	}
+	
+	/**
+	 * Stops the iteration; any remaining results are discarded. (The driver has no way to close a cursor: its results
+	 * on the server are released when it is garbage collected, or once it is read to the end.)
+	 */
+	public void close() {
+		closed = true;
+		if (timer != null)
+			timer.done();
+	}
+	
+	/** @return the underlying cursor */
+	public DBCursor getCursor() {
+		return wrapped;
+	}
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import java.util.NoSuchElementException;
 
 import com.google.code.morphia.Key;
 import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.metrics.OperationTimer;
+import com.google.code.morphia.metrics.OperationType;
 import com.mongodb.BasicDBObject;
 
 /**
@@ -17,9 +19,11 @@ public class MorphiaKeyIterator<T> implements Iterable<Key<T>>, Iterator<Key<T>>
 	Mapper m;
 	Class<T> clazz;
 	String kind;
+	OperationTimer timer;
 	
 	public MorphiaKeyIterator(Iterator it, Mapper m, Class<T> clazz, String kind) {
 		this.wrapped = it; this.m = m; this.clazz = clazz;this.kind = kind;
+		this.timer = OperationTimer.start(m.getMetrics(), OperationType.FIND, kind);
 	}
 	
 	public Iterator<Key<T>> iterator() {
@@ -28,12 +32,24 @@ public class MorphiaKeyIterator<T> implements Iterable<Key<T>>, Iterator<Key<T>>
 	
 	public boolean hasNext() {
 		if(wrapped == null) return false;
-		return wrapped.hasNext();
+		if (timer == null)
+			return wrapped.hasNext();
+		
+		timer.idle();
+		boolean more = wrapped.hasNext();
+		timer.server();
+		if (!more)
+			timer.done();
+		return more;
 	}
 	
 	public Key<T> next() {
 		if(!hasNext()) throw new NoSuchElementException();
+		if (timer != null)
+			timer.idle();
 		BasicDBObject dbObj = (BasicDBObject) wrapped.next();
+		if (timer != null)
+			timer.server().document(dbObj);
 		Key<T> key = new Key<T>(kind, dbObj.get(Mapper.ID_KEY));
 		key.setKindClass(this.clazz);
 		return key;
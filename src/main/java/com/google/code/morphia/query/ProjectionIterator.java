@@ -0,0 +1,44 @@
+package com.google.code.morphia.query;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.mongodb.DBCursor;
+
+/**
+ * Iterates over query results decoded into a projection (DTO) class; see {@link Query#fetch(Class)}.
+ */
+public class ProjectionIterator<D> implements Iterable<D>, Iterator<D> {
+	private final DBCursor wrapped;
+	private final ProjectionPlan<D> plan;
+
+	ProjectionIterator(DBCursor cursor, ProjectionPlan<D> plan) {
+		this.wrapped = cursor;
+		this.plan = plan;
+	}
+
+	public Iterator<D> iterator() {
+		return this;
+	}
+
+	public boolean hasNext() {
+		return wrapped.hasNext();
+	}
+
+	public D next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return plan.decode(wrapped.next());
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Does nothing: the driver can't close a cursor. Its results on the server are released once it is read to the
+	 * end, or when it is garbage collected.
+	 */
+	public void close() {
+	}
+}
@@ -0,0 +1,248 @@
+package com.google.code.morphia.query;
+
+import java.beans.Introspector;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.code.morphia.annotations.Property;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.utils.ReflectionUtils;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * How to decode documents of an entity class into a projection (DTO) class or interface; built once per pair of
+ * classes.
+ * </p>
+ * <p>
+ * DTO fields (or, for interfaces, getters) are matched to the entity's fields by stored name (or java field name, or
+ * {@link Property @Property} on the DTO field). Values are decoded directly with the converters, and embedded values
+ * with a plan of their own class; no lifecycle methods are called and no entity cache is used. References are not
+ * resolved, so a DTO can not hold a {@code @Reference} field.
+ * </p>
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+class ProjectionPlan<D> {
+	private enum Kind { SIMPLE, LIST, EMBEDDED, RAW }
+
+	/** one DTO property and where its value comes from */
+	private static class Slot {
+		String storedName;
+		Class type;
+		Class subType;
+		Kind kind;
+		Field field; // for classes
+		String property; // for interfaces
+	}
+
+	private final Mapper mapr;
+	private final Class<D> dtoClass;
+	private final List<Slot> slots = new ArrayList<Slot>();
+	private final String[] fieldNames;
+	private final Constructor<D> ctor;
+
+	/** The plan for the pair of classes, cached on the mapper (which the plan refers to) */
+	static <D> ProjectionPlan<D> get(Mapper mapr, Class<?> entityClass, Class<D> dtoClass) {
+		List<Object> key = Arrays.<Object> asList(ProjectionPlan.class, entityClass, dtoClass);
+		ProjectionPlan<D> plan = (ProjectionPlan<D>) mapr.getPlanCache().get(key);
+		if (plan == null) {
+			plan = new ProjectionPlan<D>(mapr, mapr.getMappedClass(entityClass), dtoClass);
+			ProjectionPlan<D> existing = (ProjectionPlan<D>) mapr.getPlanCache().putIfAbsent(key, plan);
+			if (existing != null)
+				plan = existing;
+		}
+		return plan;
+	}
+
+	/** The plan decoding an embedded class into itself, field by field; cached on the mapper */
+	static ProjectionPlan<?> embedded(Mapper mapr, Class<?> clazz) {
+		List<Object> key = Arrays.<Object> asList(ProjectionPlan.class, clazz);
+		ProjectionPlan<?> plan = (ProjectionPlan<?>) mapr.getPlanCache().get(key);
+		if (plan == null) {
+			plan = new ProjectionPlan(mapr, mapr.getMappedClass(clazz));
+			ProjectionPlan<?> existing = (ProjectionPlan<?>) mapr.getPlanCache().putIfAbsent(key, plan);
+			if (existing != null)
+				plan = existing;
+		}
+		return plan;
+	}
+
+	private ProjectionPlan(Mapper mapr, MappedClass mc) {
+		this.mapr = mapr;
+		this.dtoClass = (Class<D>) mc.getClazz();
+		this.ctor = ReflectionUtils.getNoArgsConstructor(dtoClass);
+		for (MappedField mf : mc.getPersistenceFields()) {
+			Slot s = slot(mf, mf.getType());
+			s.field = mf.getField();
+			s.field.setAccessible(true);
+			slots.add(s);
+		}
+		this.fieldNames = new String[0];
+	}
+
+	private ProjectionPlan(Mapper mapr, MappedClass mc, Class<D> dtoClass) {
+		this.mapr = mapr;
+		this.dtoClass = dtoClass;
+		if (dtoClass.isInterface()) {
+			ctor = null;
+			for (Method m : dtoClass.getMethods()) {
+				String prop = propertyName(m);
+				if (prop == null)
+					continue;
+				Slot s = slot(mc, prop, m.getReturnType());
+				s.property = prop;
+				slots.add(s);
+			}
+		} else {
+			ctor = ReflectionUtils.getNoArgsConstructor(dtoClass);
+			for (Field f : ReflectionUtils.getDeclaredAndInheritedFields(dtoClass, false)) {
+				if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers()) || f.isSynthetic())
+					continue;
+				Property p = f.getAnnotation(Property.class);
+				String name = (p != null && !p.value().equals(Mapper.IGNORED_FIELDNAME)) ? p.value() : f.getName();
+				Slot s = slot(mc, name, f.getType());
+				f.setAccessible(true);
+				s.field = f;
+				slots.add(s);
+			}
+		}
+		if (slots.isEmpty())
+			throw new MappingException("Projection " + dtoClass.getName() + " has no fields/getters to fill");
+
+		Set<String> names = new HashSet<String>();
+		for (Slot s : slots)
+			names.add(s.storedName);
+		fieldNames = names.toArray(new String[names.size()]);
+	}
+
+	private Slot slot(MappedClass mc, String name, Class type) {
+		MappedField mf = mc.getMappedField(name);
+		if (mf == null)
+			mf = mc.getMappedFieldByJavaField(name);
+		if (mf == null)
+			throw new MappingException("Projection " + dtoClass.getName() + " has '" + name + "' which is not in "
+					+ mc.getClazz().getName());
+		return slot(mf, type);
+	}
+
+	private Slot slot(MappedField mf, Class type) {
+		if (mf.hasAnnotation(Reference.class))
+			throw new MappingException("Projection " + dtoClass.getName() + " can not hold " + mf.getFullName()
+					+ "; references are not resolved in a projection");
+		Slot s = new Slot();
+		s.storedName = mf.getNameToStore();
+		s.type = type;
+		s.subType = mf.getSubType();
+		if (DBObject.class.isAssignableFrom(type) || Object.class.equals(type) || Map.class.isAssignableFrom(type))
+			s.kind = Kind.RAW;
+		else if (Collection.class.isAssignableFrom(type))
+			s.kind = Kind.LIST;
+		else if (ReflectionUtils.isPropertyType(type) || type.isArray())
+			s.kind = Kind.SIMPLE;
+		else
+			s.kind = Kind.EMBEDDED;
+		return s;
+	}
+
+	/** getFoo()/isFoo() to foo; null for anything else */
+	private static String propertyName(Method m) {
+		if (m.getParameterTypes().length != 0 || m.getReturnType() == void.class)
+			return null;
+		String n = m.getName();
+		if (n.startsWith("get") && n.length() > 3)
+			return Introspector.decapitalize(n.substring(3));
+		if (n.startsWith("is") && n.length() > 2 && (m.getReturnType() == boolean.class || m.getReturnType() == Boolean.class))
+			return Introspector.decapitalize(n.substring(2));
+		return null;
+	}
+
+	/** @return the (stored) names of the fields to retrieve */
+	String[] getFieldNames() {
+		return fieldNames;
+	}
+
+	D decode(DBObject dbObj) {
+		if (ctor == null) {
+			final Map<String, Object> values = new HashMap<String, Object>();
+			for (Slot s : slots)
+				values.put(s.property, value(s, dbObj.get(s.storedName)));
+			return (D) Proxy.newProxyInstance(dtoClass.getClassLoader(), new Class[] { dtoClass }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+					if (m.getDeclaringClass() == Object.class) {
+						if (m.getName().equals("equals"))
+							return proxy == args[0];
+						if (m.getName().equals("hashCode"))
+							return System.identityHashCode(proxy);
+						return dtoClass.getSimpleName() + values;
+					}
+					Object v = values.get(propertyName(m));
+					if (v == null && m.getReturnType().isPrimitive())
+						return Array.get(Array.newInstance(m.getReturnType(), 1), 0); // the default (0/false)
+					return v;
+				}
+			});
+		}
+
+		try {
+			D dto = ctor.newInstance();
+			for (Slot s : slots) {
+				Object v = value(s, dbObj.get(s.storedName));
+				if (v != null)
+					s.field.set(dto, v);
+			}
+			return dto;
+		} catch (Exception e) {
+			throw new MappingException("Error creating projection " + dtoClass.getName(), e);
+		}
+	}
+
+	private Object value(Slot s, Object dbVal) {
+		if (dbVal == null)
+			return null;
+		switch (s.kind) {
+		case SIMPLE:
+			return mapr.getConverters().decode(s.type, dbVal);
+		case LIST:
+			Collection<Object> vals = Set.class.isAssignableFrom(s.type) ? new HashSet<Object>() : new ArrayList<Object>();
+			for (Object o : (Iterable<Object>) dbVal) {
+				if (o instanceof DBObject && s.subType != null && !DBObject.class.isAssignableFrom(s.subType))
+					vals.add(embedded(s.subType, (DBObject) o));
+				else if (o != null && s.subType != null && ReflectionUtils.isPropertyType(s.subType))
+					vals.add(mapr.getConverters().decode(s.subType, o));
+				else
+					vals.add(o);
+			}
+			return vals;
+		case EMBEDDED:
+			if (dbVal instanceof DBObject)
+				return embedded(s.type, (DBObject) dbVal);
+			return dbVal;
+		default:
+			return dbVal;
+		}
+	}
+
+	/** Decodes an embedded value (of the stored class name, if any) without lifecycle methods */
+	private Object embedded(Class type, DBObject dbObj) {
+		String className = (String) dbObj.get(Mapper.CLASS_NAME_FIELDNAME);
+		Class c = (className == null) ? type : ReflectionUtils.getClassForName(className, type);
+		return embedded(mapr, c).decode(dbObj);
+	}
+}
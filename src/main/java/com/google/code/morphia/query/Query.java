@@ -77,12 +77,31 @@ public interface Query<T> extends QueryResults<T> {
 	/** Turns off validation (for all calls made after)*/
 	Query<T> disableValidation();
 	
-	/** Hints as to which index should be used.*/
+	/** Hints as to which index should be used (by name).*/
 	Query<T> hintIndex(String idxName);
 	
+	/**
+	 * Hints as to which index should be used, by its key pattern; the fields (in order) are separated by commas, with
+	 * a '-' prefix for descending: {@code "lastName, -age"}.
+	 */
+	Query<T> hintIndexFields(String fields);
+	
+	/** Runs the query with explain, returning how the server executed it (index, documents scanned, time). */
+	QueryPlan explain();
+	
 	/** Limits the fields retrieved */
 	Query<T> retrievedFields(boolean include, String...fields);
 	
+	/**
+	 * <p>Fetches (at most) {@code pageSize} results, starting after the entity the continuation token was created
+	 * for; pass null for the first page. Uses the {@link #order(String)} (plus {@code _id}, to break ties) and ignores
+	 * the offset/limit.</p>
+	 * 
+	 * <p>Unlike {@link #offset(int)} no results are skipped on the server, so every page costs the same. Unless
+	 * validation is disabled, the sort must be backed by an index.</p>
+	 */
+	KeysetPage<T> page(int pageSize, String continuationToken);
+	
 	/**
 	 * <p>Generates a string that consistently and uniquely specifies this query.  There
 	 * is no way to convert this string back into a query and there is no guarantee that
@@ -1,7 +1,7 @@
 package com.google.code.morphia.query;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -12,9 +12,11 @@ import java.util.regex.Pattern;
 import org.bson.types.CodeWScope;
 import org.bson.types.ObjectId;
 
+import com.google.code.morphia.ChunkedData;
 import com.google.code.morphia.Datastore;
 import com.google.code.morphia.DatastoreImpl;
 import com.google.code.morphia.Key;
+import com.google.code.morphia.annotations.Chunked;
 import com.google.code.morphia.annotations.Reference;
 import com.google.code.morphia.annotations.Serialized;
 import com.google.code.morphia.logging.MorphiaLogger;
@@ -22,8 +24,11 @@ import com.google.code.morphia.logging.MorphiaLoggerFactory;
 import com.google.code.morphia.mapping.MappedClass;
 import com.google.code.morphia.mapping.MappedField;
 import com.google.code.morphia.mapping.Mapper;
-import com.google.code.morphia.mapping.Serializer;
 import com.google.code.morphia.mapping.cache.EntityCache;
+import com.google.code.morphia.metrics.OperationTimer;
+import com.google.code.morphia.metrics.OperationType;
+import com.google.code.morphia.metrics.RoundTrips;
+import com.google.code.morphia.metrics.SlowOperationLog;
 import com.google.code.morphia.utils.Assert;
 import com.google.code.morphia.utils.ReflectionUtils;
 import com.mongodb.BasicDBObject;
@@ -53,6 +58,7 @@ public class QueryImpl<T> implements Query<T> {
 	private int offset = 0;
 	private int limit = -1;
 	private String indexHint;
+	private DBObject indexHintKeys;
 	private Class<T> clazz = null;
 	
 	public QueryImpl(Class<T> clazz, DBCollection coll, Datastore ds) {
@@ -105,7 +111,41 @@ public class QueryImpl<T> implements Query<T> {
 		DBObject query = getQueryObject();
 		if (log.isTraceEnabled())
 			log.trace("Executing count(" + dbColl.getName() + ") for query: " + query);
-		return dbColl.getCount(query);
+		OperationTimer timer = OperationTimer.start(ds.getMapper().getMetrics(), OperationType.COUNT, dbColl.getName());
+		long start = slowLogStart();
+		long count = dbColl.getCount(query);
+		if (timer != null)
+			timer.server().done();
+		logIfSlow(OperationType.COUNT, start, count);
+		return count;
+	}
+	
+	/** @return the time to measure a (possibly) slow operation from; 0 if slow operations are not being logged */
+	public long slowLogStart() {
+		return (ds.getMapper().getSlowOperationLog() == null) ? 0 : System.nanoTime();
+	}
+	
+	/**
+	 * Logs the operation, run with this query since {@code start} (see {@link #slowLogStart()}), if it was slow
+	 * 
+	 * @param count the number of documents returned/counted/updated; -1 if unknown
+	 */
+	public void logIfSlow(OperationType type, long start, long count) {
+		SlowOperationLog slowLog = ds.getMapper().getSlowOperationLog();
+		if (slowLog == null || start == 0)
+			return;
+		long elapsed = System.nanoTime() - start;
+		if (!slowLog.permits(elapsed))
+			return;
+		QueryPlan plan = null;
+		if (slowLog.isExplaining()) {
+			try {
+				plan = explain();
+			} catch (Exception e) {
+				log.debug("Could not explain the slow query on " + dbColl.getName(), e);
+			}
+		}
+		slowLog.log(type, dbColl.getName(), getQueryObject(), getSortObject(), getFieldsObject(), elapsed, count, plan);
 	}
 	
 	public DBCursor prepareCursor() {
@@ -125,12 +165,26 @@ public class QueryImpl<T> implements Query<T> {
 			cursor.limit(limit);
 		if (sort != null)
 			cursor.sort(getSortObject());
-		if (indexHint != null)
-			cursor.hint(indexHint);
+		applyHint(cursor);
 		
 		return cursor;
 	}
 	
+	private void applyHint(DBCursor cursor) {
+		if (indexHintKeys != null)
+			cursor.hint(indexHintKeys);
+		else if (indexHint != null)
+			cursor.hint(indexHint);
+	}
+	
+	public QueryPlan explain() {
+		DBCursor cursor = prepareCursor();
+		DBObject plan = cursor.explain();
+		if (log.isDebugEnabled())
+			log.debug("Explained query(" + dbColl.getName() + ") : " + getQueryObject() + " -> " + plan);
+		return new QueryPlan(plan);
+	}
+	
 
 	public Iterable<T> fetch() {
 		DBCursor cursor = prepareCursor();
@@ -142,7 +196,31 @@ public class QueryImpl<T> implements Query<T> {
 			log.error("Error trace-logging!", e);
 		}
 
-		return new MorphiaIterator<T>(cursor, ds.getMapper(), clazz, dbColl.getName(), cache);
+		return new MorphiaIterator<T>(cursor, ds.getMapper(), clazz, dbColl.getName(), cache, dbColl.getDB());
+	}
+	
+
+	public <D> Iterable<D> fetch(Class<D> projection) {
+		ProjectionPlan<D> plan = ProjectionPlan.get(ds.getMapper(), clazz, projection);
+		String[] oldFields = fields;
+		Boolean oldInclude = includeFields;
+		fields = plan.getFieldNames();
+		includeFields = true;
+		DBCursor cursor = prepareCursor();
+		fields = oldFields;
+		includeFields = oldInclude;
+		return new ProjectionIterator<D>(cursor, plan);
+	}
+	
+	public <D> List<D> asList(Class<D> projection) {
+		List<D> results = new ArrayList<D>();
+		for (D dto : fetch(projection))
+			results.add(dto);
+		return results;
+	}
+	
+	public ResultPublisher<T> stream() {
+		return new QueryPublisher<T>(this, ds.getMapper());
 	}
 	
 
@@ -163,9 +241,17 @@ public class QueryImpl<T> implements Query<T> {
 	
 
 	public List<T> asList() {
+		RoundTrips.Scope scope = RoundTrips.beginOperation("asList", dbColl.getName());
+		long start = slowLogStart();
 		List<T> results = new ArrayList<T>();
-		for(T ent : fetch())
-			results.add(ent);
+		try {
+			for(T ent : fetch())
+				results.add(ent);
+		} finally {
+			if (scope != null)
+				scope.close();
+		}
+		logIfSlow(OperationType.FIND, start, results.size());
 
 		if (log.isTraceEnabled())
 			log.trace("\nasList: " + dbColl.getName() + "\n result size " + results.size() + "\n cache: "
@@ -176,13 +262,160 @@ public class QueryImpl<T> implements Query<T> {
 	
 
 	public List<Key<T>> asKeyList() {
+		long start = slowLogStart();
 		List<Key<T>> results = new ArrayList<Key<T>>();
 		for(Key<T> key : fetchKeys())
 			results.add(key);
+		logIfSlow(OperationType.FIND, start, results.size());
 		return results;
 	}
 	
 
+	@SuppressWarnings("unchecked")
+	public KeysetPage<T> page(int pageSize, String continuationToken) {
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize must be > 0");
+		
+		DBObject sortObj = getKeysetSortObject();
+		if (continuationToken == null && validating)
+			validateSortIndex(sortObj);
+		
+		DBObject q = getQueryObject();
+		if (q == null) q = new BasicDBObject();
+		if (continuationToken != null) {
+			DBObject range = keysetRange(sortObj, KeysetPage.decodeToken(continuationToken, sortObj));
+			if (q.containsField(FilterOperator.OR.val()))
+				q = new BasicDBObject(FilterOperator.AND.val(), Arrays.asList(q, range));
+			else
+				q.putAll(range);
+		}
+		
+		DBObject fieldsObj = getFieldsObject();
+		if (fieldsObj != null && Boolean.TRUE.equals(includeFields))
+			for (String f : sortObj.keySet())
+				fieldsObj.put(f, true);
+		
+		if (log.isTraceEnabled())
+			log.trace("Running page query(" + dbColl.getName() + ") : " + q + ", sort:" + sortObj + ",size:" + pageSize);
+		
+		// read one extra to know if there is a next page
+		DBCursor cursor = dbColl.find(q, fieldsObj).sort(sortObj).limit(pageSize + 1);
+		applyHint(cursor);
+		
+		Mapper mapr = ds.getMapper();
+		OperationTimer timer = OperationTimer.start(mapr.getMetrics(), OperationType.FIND, dbColl.getName());
+		List<T> results = new ArrayList<T>(pageSize);
+		DBObject lastObj = null;
+		boolean more = false;
+		try {
+			while (cursor.hasNext()) {
+				DBObject dbObj = cursor.next();
+				if (timer != null)
+					timer.server();
+				if (results.size() == pageSize) {
+					more = true;
+					break;
+				}
+				results.add((T) mapr.fromDBObject(clazz, dbObj, cache, dbColl.getDB()));
+				lastObj = dbObj;
+				if (timer != null)
+					timer.document(dbObj).mapped();
+			}
+		} finally {
+			if (timer != null)
+				timer.server().done();
+		}
+		
+		String next = null;
+		if (more) {
+			List<Object> lastValues = new ArrayList<Object>(sortObj.keySet().size());
+			for (String f : sortObj.keySet()) {
+				Object v = valueAt(lastObj, f);
+				if (v == null)
+					throw new QueryException("Can not page on '" + f + "'; it is missing (or null) in " + lastObj.get(Mapper.ID_KEY));
+				lastValues.add(v);
+			}
+			next = KeysetPage.encodeToken(sortObj, lastValues);
+		}
+		return new KeysetPage<T>(results, next);
+	}
+	
+	/** The sort order, with {@code _id} added (in the direction of the last sort field) to break ties */
+	@SuppressWarnings("unchecked")
+	private DBObject getKeysetSortObject() {
+		BasicDBObject s = new BasicDBObject();
+		int dir = 1;
+		if (sort != null)
+			for (Map.Entry<String, Object> e : ((Map<String, Object>) sort.get().toMap()).entrySet()) {
+				dir = ((Number) e.getValue()).intValue();
+				s.put(e.getKey(), dir);
+			}
+		if (!s.containsField(Mapper.ID_KEY))
+			s.put(Mapper.ID_KEY, dir);
+		return s;
+	}
+	
+	/** Builds the range predicate for everything after the last values, in sort order */
+	static DBObject keysetRange(DBObject sortObj, List<Object> last) {
+		List<String> keys = new ArrayList<String>(sortObj.keySet());
+		if (last == null || last.size() != keys.size())
+			throw new QueryException("The continuation token does not match the sort " + sortObj);
+		
+		// (a > x) or (a == x and b > y) or (a == x and b == y and _id > z)
+		List<DBObject> or = new ArrayList<DBObject>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			BasicDBObject clause = new BasicDBObject();
+			for (int j = 0; j < i; j++)
+				clause.put(keys.get(j), last.get(j));
+			FilterOperator op = ((Number) sortObj.get(keys.get(i))).intValue() < 0 ? FilterOperator.LESS_THAN : FilterOperator.GREATER_THAN;
+			clause.put(keys.get(i), new BasicDBObject(op.val(), last.get(i)));
+			or.add(clause);
+		}
+		return new BasicDBObject(FilterOperator.OR.val(), or);
+	}
+	
+	/** Checks that an index (or its reverse) starts with the sort fields; the {@code _id} tie-breaker is always indexed */
+	private void validateSortIndex(DBObject sortObj) {
+		List<String> keys = new ArrayList<String>(sortObj.keySet());
+		keys.remove(Mapper.ID_KEY);
+		if (keys.isEmpty())
+			return;
+		
+		for (DBObject idx : dbColl.getIndexInfo()) {
+			DBObject key = (DBObject) idx.get("key");
+			if (key == null)
+				continue;
+			List<String> idxKeys = new ArrayList<String>(key.keySet());
+			if (idxKeys.size() < keys.size())
+				continue;
+			int same = 0, reversed = 0;
+			for (int i = 0; i < keys.size(); i++) {
+				if (!keys.get(i).equals(idxKeys.get(i)) || !(key.get(idxKeys.get(i)) instanceof Number))
+					break;
+				int idxDir = ((Number) key.get(idxKeys.get(i))).intValue();
+				int sortDir = ((Number) sortObj.get(keys.get(i))).intValue();
+				if (idxDir == sortDir) same++;
+				else if (idxDir == -sortDir) reversed++;
+			}
+			if (same == keys.size() || reversed == keys.size())
+				return;
+		}
+		throw new QueryException("The sort " + sortObj + " is not backed by an index on '" + dbColl.getName()
+				+ "'; each page would scan/sort the collection. Add an index, or use disableValidation().");
+	}
+	
+	/** Gets the value at the (dotted) path, or null */
+	private static Object valueAt(DBObject dbObj, String path) {
+		Object val = dbObj;
+		for (String part : path.split("\\.")) {
+			if (!(val instanceof DBObject))
+				return null;
+			val = ((DBObject) val).get(part);
+		}
+		return val;
+	}
+	
+
 	public Iterable<T> fetchEmptyEntities() {
 		String[] oldFields = fields;
 		Boolean oldInclude = includeFields;
@@ -199,6 +432,11 @@ public class QueryImpl<T> implements Query<T> {
 	 * Forgiving about the syntax; != and <> are NOT_EQUAL, = and == are EQUAL.
 	 */
 	protected FilterOperator translate(String operator)
+	{
+		return translateOperator(operator);
+	}
+	
+	static FilterOperator translateOperator(String operator)
 	{
 		operator = operator.trim();
 		
@@ -247,6 +485,26 @@ public class QueryImpl<T> implements Query<T> {
 		//TODO differentiate between the key/value for maps; we will just get the mf for the field, not which part we are looking for
 		
 		if (query == null) query = new HashMap<String, Object>();
+		Object mappedValue = toQueryValue(ds, mf, op, value);
+		
+		if (FilterOperator.EQUAL.equals(op))
+			query.put(prop, mappedValue); // no operator, prop equals value
+		else {
+			Object inner = query.get(prop); // operator within inner object
+			if (!(inner instanceof Map)) {
+				inner = new HashMap<String, Object>();
+				query.put(prop, inner);
+			}
+			((Map<String, Object>)inner).put(op.val(), mappedValue);
+		}
+		return this;	
+	}
+
+	/**
+	 * Converts the filter value to what is sent to the server (a DBRef for references, the serialized bytes for
+	 * {@link Serialized} fields, ...); the {@link MappedField} may be null if the query is not validated.
+	 */
+	static Object toQueryValue(DatastoreImpl ds, MappedField mf, FilterOperator op, Object value) {
 		Mapper mapr = ds.getMapper();
 		Object mappedValue;
 		MappedClass mc = null;
@@ -273,11 +531,9 @@ public class QueryImpl<T> implements Query<T> {
 			}
 		}
 		else if (mf!=null && mf.hasAnnotation(Serialized.class))
-			try {
-				mappedValue = Serializer.serialize(value, !mf.getAnnotation(Serialized.class).disableCompression());
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+			mappedValue = mapr.getConverters().encode(value, mf);
+		else if (mf!=null && mf.hasAnnotation(Chunked.class))
+			mappedValue = (value instanceof ChunkedData) ? ((ChunkedData) value).getId() : value;
 		else
 			mappedValue = mapr.toMongoObject(value);
 		
@@ -288,17 +544,7 @@ public class QueryImpl<T> implements Query<T> {
 			mappedValue = Collections.singletonList(mappedValue);
 		}
 		
-		if (FilterOperator.EQUAL.equals(op))
-			query.put(prop, mappedValue); // no operator, prop equals value
-		else {
-			Object inner = query.get(prop); // operator within inner object
-			if (!(inner instanceof Map)) {
-				inner = new HashMap<String, Object>();
-				query.put(prop, inner);
-			}
-			((Map<String, Object>)inner).put(op.val(), mappedValue);
-		}
-		return this;	
+		return mappedValue;
 	}
 
     protected Query<T> filterWhere(Object obj){
@@ -324,10 +570,27 @@ public class QueryImpl<T> implements Query<T> {
 	
 	/** Validate the path, and value type, returning the mappedfield for the field at the path */
 	private MappedField validate(String prop, Object value) {
+		if (this.clazz == null) return null;
+		MappedField mf = validatePath(ds.getMapper(), this.clazz, prop);
+		
+		if (	 (mf.isSingleValue() && !isCompatibleForQuery(mf.getType(), value)) || 
+				((mf.isMultipleValues() && !isCompatibleForQuery(mf.getSubType(), value)))) {
+				
+			Throwable t = new Throwable();
+			log.warning("Datatypes for the query may be inconsistent; searching with an instance of "
+					+ value.getClass().getName() + " when the field " + mf.getDeclaringClass().getName()+ "." + mf.getJavaFieldName()
+					+ " is a " + mf.getType().getName());
+			log.debug("Location of warning:\r\n", t);
+		}
+		
+		return mf;
+	}
+	
+	/** Validate the (dotted) path against the mapping of clazz, returning the mappedfield for the field at the path */
+	static MappedField validatePath(Mapper mapr, Class<?> clazz, String prop) {
 		String[] parts = prop.split("\\.");
 		//		if (parts.length == 0) parts = new String[]{prop};
-		if (this.clazz == null) return null;
-		MappedClass mc = ds.getMapper().getMappedClass(this.clazz);
+		MappedClass mc = mapr.getMappedClass(clazz);
 		MappedField mf;
 		for(int i=0; ; ) {
 			String part = parts[i];
@@ -336,10 +599,10 @@ public class QueryImpl<T> implements Query<T> {
 			if (mf == null) {
 				mf = mc.getMappedFieldByJavaField(part);
 				if (mf != null)
-					throw new QueryException("The field '" + part + "' is named '" + mf.getNameToStore() + "' in '" + this.clazz.getName()+ "' " +
+					throw new QueryException("The field '" + part + "' is named '" + mf.getNameToStore() + "' in '" + clazz.getName()+ "' " +
 							"(while validating - '" + prop + "'); Please use '" + mf.getNameToStore() + "' in your query.");
 				else
-					throw new QueryException("The field '" + part + "' could not be found in '" + this.clazz.getName()+ "' while validating - " + prop);
+					throw new QueryException("The field '" + part + "' could not be found in '" + clazz.getName()+ "' while validating - " + prop);
 			}
 			i++;
 			if (mf.isMap()) {
@@ -348,28 +611,18 @@ public class QueryImpl<T> implements Query<T> {
 			}
 			//catch people trying to search into @Reference/@Serialized fields
 			if (i < parts.length && !canQueryPast(mf))
-				throw new QueryException("Can not use dot-notation past '" + part + "' could not be found in '" + this.clazz.getName()+ "' while validating - " + prop);
+				throw new QueryException("Can not use dot-notation past '" + part + "' could not be found in '" + clazz.getName()+ "' while validating - " + prop);
 			
 			if (i >= parts.length) break;
-			mc = ds.getMapper().getMappedClass((mf.isSingleValue()) ? mf.getType() : mf.getSubType());
-		}
-		
-		if (	 (mf.isSingleValue() && !isCompatibleForQuery(mf.getType(), value)) || 
-				((mf.isMultipleValues() && !isCompatibleForQuery(mf.getSubType(), value)))) {
-				
-			Throwable t = new Throwable();
-			log.warning("Datatypes for the query may be inconsistent; searching with an instance of "
-					+ value.getClass().getName() + " when the field " + mf.getDeclaringClass().getName()+ "." + mf.getJavaFieldName()
-					+ " is a " + mf.getType().getName());
-			log.debug("Location of warning:\r\n", t);
+			mc = mapr.getMappedClass((mf.isSingleValue()) ? mf.getType() : mf.getSubType());
 		}
 		
 		return mf;
 	}
 	
-	/** Returns if the MappedField is a Reference or Serilized  */
+	/** Returns if the MappedField is a Reference, Serilized or Chunked */
 	public static boolean canQueryPast(MappedField mf) {
-		return !(mf.hasAnnotation(Reference.class) || mf.hasAnnotation(Serialized.class));
+		return !(mf.hasAnnotation(Reference.class) || mf.hasAnnotation(Serialized.class) || mf.hasAnnotation(Chunked.class));
 	}
 	
 	public static boolean isCompatibleForQuery(Class<?> type, Object value) {
@@ -394,11 +647,22 @@ public class QueryImpl<T> implements Query<T> {
 	}
 
 	public T get() {
-		int oldLimit = limit;
-		limit = 1;
-		Iterator<T> it = fetch().iterator();
-		limit = oldLimit;
-		return (it.hasNext()) ? it.next() : null ;
+		RoundTrips.Scope scope = RoundTrips.beginOperation("get", dbColl.getName());
+		long start = slowLogStart();
+		try {
+			int oldLimit = limit;
+			limit = 1;
+			MorphiaIterator<T> it = (MorphiaIterator<T>) fetch();
+			limit = oldLimit;
+			it.reportAs(OperationType.GET);
+			T entity = (it.hasNext()) ? it.next() : null;
+			it.close();
+			logIfSlow(OperationType.GET, start, (entity == null) ? 0 : 1);
+			return entity;
+		} finally {
+			if (scope != null)
+				scope.close();
+		}
 	}
 	
 
@@ -455,6 +719,11 @@ public class QueryImpl<T> implements Query<T> {
 		return this.clazz;
 	}
 	
+	/** @return the collection this query runs against */
+	public DBCollection getCollection() {
+		return dbColl;
+	}
+	
 	public static class QueryFieldEndImpl<T> implements QueryFieldEnd<T>{
 		
 		protected final String fieldExpr;
@@ -584,9 +853,30 @@ public class QueryImpl<T> implements Query<T> {
 		return new QueryFieldEndImpl<T>(fieldExpr, this);
 	}
 
-	//TODO: make me work!
 	public Query<T> hintIndex(String idxName) {
-		return null;
+		indexHint = idxName;
+		indexHintKeys = null;
+		return this;
+	}
+	
+	public Query<T> hintIndexFields(String fields) {
+		BasicDBObjectBuilder keys = BasicDBObjectBuilder.start();
+		for (String s : fields.split(",", -1)) {
+			s = s.trim();
+			int dir = 1;
+			if (s.startsWith("-")) {
+				dir = -1;
+				s = s.substring(1).trim();
+			}
+			if (s.length() == 0)
+				throw new QueryException("The index hint '" + fields + "' has an empty field name");
+			if (validating && clazz != null)
+				validatePath(ds.getMapper(), clazz, s);
+			keys.add(s, dir);
+		}
+		indexHintKeys = keys.get();
+		indexHint = null;
+		return this;
 	}
 
 	public Query<T> retrievedFields(boolean include, String...fields){
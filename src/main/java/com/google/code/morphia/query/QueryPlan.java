@@ -0,0 +1,117 @@
+package com.google.code.morphia.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.mongodb.DBObject;
+
+/**
+ * How the server ran a query; a typed view of the {@code explain} output. For an {@code $or} query the totals are for
+ * the whole query, and each clause's plan is in {@link #getClauses()}.
+ */
+public class QueryPlan {
+	private static final String BTREE_CURSOR = "BtreeCursor ";
+
+	private final DBObject raw;
+	private final List<QueryPlan> clauses;
+
+	QueryPlan(DBObject raw) {
+		this.raw = raw;
+		Object cl = raw.get("clauses");
+		if (cl instanceof Iterable) {
+			List<QueryPlan> plans = new ArrayList<QueryPlan>();
+			for (Object o : (Iterable<?>) cl)
+				plans.add(new QueryPlan((DBObject) o));
+			clauses = Collections.unmodifiableList(plans);
+		} else
+			clauses = Collections.emptyList();
+	}
+
+	/** @return the cursor type, like {@code BasicCursor} (a collection scan) or {@code BtreeCursor name_1} */
+	public String getCursor() {
+		Object c = raw.get("cursor");
+		return (c == null) ? null : c.toString();
+	}
+
+	/** @return the name of the index used; null for a collection scan (or an $or query, see the clauses) */
+	public String getIndexName() {
+		String c = getCursor();
+		if (c == null || !c.startsWith(BTREE_CURSOR))
+			return null;
+		String name = c.substring(BTREE_CURSOR.length());
+		int space = name.indexOf(' '); // "BtreeCursor a_1 reverse" / "... multi"
+		return (space < 0) ? name : name.substring(0, space);
+	}
+
+	/** @return true if an index was used (by the query, or by all clauses of an $or) */
+	public boolean isIndexed() {
+		if (!clauses.isEmpty()) {
+			for (QueryPlan p : clauses)
+				if (!p.isIndexed())
+					return false;
+			return true;
+		}
+		return getIndexName() != null;
+	}
+
+	/** @return the number of documents returned */
+	public long getN() {
+		return number("n");
+	}
+
+	/** @return the number of index entries (or documents, for a collection scan) scanned */
+	public long getNscanned() {
+		return number("nscanned");
+	}
+
+	/** @return the number of documents scanned; 0 if the server doesn't report it */
+	public long getNscannedObjects() {
+		return number("nscannedObjects");
+	}
+
+	/** @return true if the results had to be sorted in memory (the sort wasn't satisfied by the index) */
+	public boolean isScanAndOrder() {
+		if (Boolean.TRUE.equals(raw.get("scanAndOrder")))
+			return true;
+		for (QueryPlan p : clauses)
+			if (p.isScanAndOrder())
+				return true;
+		return false;
+	}
+
+	/** @return true if the query was answered from the index alone */
+	public boolean isIndexOnly() {
+		return Boolean.TRUE.equals(raw.get("indexOnly"));
+	}
+
+	public long getMillis() {
+		return number("millis");
+	}
+
+	/** @return the index bounds used; may be null */
+	public DBObject getIndexBounds() {
+		return (DBObject) raw.get("indexBounds");
+	}
+
+	/** @return the plans of the clauses of an $or query; empty otherwise */
+	public List<QueryPlan> getClauses() {
+		return clauses;
+	}
+
+	/** @return the explain output, as returned by the server */
+	public DBObject getRaw() {
+		return raw;
+	}
+
+	private long number(String name) {
+		Object o = raw.get(name);
+		return (o instanceof Number) ? ((Number) o).longValue() : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryPlan{cursor=" + getCursor() + ", n=" + getN() + ", nscanned=" + getNscanned() + ", scanAndOrder="
+				+ isScanAndOrder() + ", millis=" + getMillis() + "}";
+	}
+}
@@ -0,0 +1,139 @@
+package com.google.code.morphia.query;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.cache.EntityCache;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * Streams the results of a {@link QueryImpl}, decoding one document at a time, as they are requested.
+ * </p>
+ * <p>
+ * Results are pushed on the thread calling {@link ResultSubscription#request(long)} (re-entrant calls from within
+ * {@code onNext} just add to the demand). Each entity is decoded with its own {@link EntityCache}, so memory use does
+ * not grow with the size of the result set.
+ * </p>
+ */
+class QueryPublisher<T> implements ResultPublisher<T> {
+	private final QueryImpl<T> query;
+	private final Mapper mapr;
+
+	QueryPublisher(QueryImpl<T> query, Mapper mapr) {
+		this.query = query;
+		this.mapr = mapr;
+	}
+
+	public void subscribe(ResultSubscriber<? super T> subscriber) {
+		if (subscriber == null)
+			throw new IllegalArgumentException("subscriber can not be null");
+		Subscription<T> s = new Subscription<T>(query, mapr, subscriber);
+		subscriber.onSubscribe(s);
+	}
+
+	private static class Subscription<T> implements ResultSubscription {
+		private final QueryImpl<T> query;
+		private final Mapper mapr;
+		private final ResultSubscriber<? super T> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean done = false;
+		private DBCursor cursor;
+
+		Subscription(QueryImpl<T> query, Mapper mapr, ResultSubscriber<? super T> subscriber) {
+			this.query = query;
+			this.mapr = mapr;
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			if (done)
+				return;
+			if (n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("request(" + n + "): the number of results must be > 0"));
+				return;
+			}
+			for (;;) {
+				long cur = demand.get();
+				long next = cur + n;
+				if (next < 0)
+					next = Long.MAX_VALUE; // overflow; treat as unbounded
+				if (demand.compareAndSet(cur, next))
+					break;
+			}
+			drain();
+		}
+
+		public void cancel() {
+			done = true;
+			// the draining thread closes the cursor if one is running
+			if (wip.getAndIncrement() == 0)
+				close();
+		}
+
+		/** Emits as many results as there is demand for; only one thread drains at a time. */
+		@SuppressWarnings("unchecked")
+		private void drain() {
+			if (wip.getAndIncrement() != 0)
+				return;
+			int missed = 1;
+			for (;;) {
+				long emitted = 0;
+				long requested = demand.get();
+				while (emitted != requested) {
+					if (done) {
+						close();
+						return;
+					}
+					T entity;
+					try {
+						if (cursor == null)
+							cursor = query.prepareCursor();
+						if (!cursor.hasNext()) {
+							done = true;
+							close();
+							subscriber.onComplete();
+							return;
+						}
+						DBObject dbObj = cursor.next();
+						EntityCache cache = mapr.createEntityCache();
+						entity = (T) mapr.fromDBObject(query.getEntityClass(), dbObj, cache, query.getCollection().getDB());
+					} catch (RuntimeException e) {
+						fail(e);
+						return;
+					}
+					subscriber.onNext(entity);
+					emitted++;
+				}
+				if (done) {
+					close();
+					return;
+				}
+				if (emitted != 0 && requested != Long.MAX_VALUE)
+					demand.addAndGet(-emitted);
+
+				missed = wip.addAndGet(-missed);
+				if (missed == 0)
+					return;
+			}
+		}
+
+		private void fail(Throwable t) {
+			done = true;
+			close();
+			subscriber.onError(t);
+		}
+
+		/**
+		 * Drops the cursor. (The driver can't close one: its results on the server are released once it is read to the
+		 * end, or garbage collected.)
+		 */
+		private void close() {
+			cursor = null;
+		}
+	}
+}
@@ -37,6 +37,22 @@ public interface QueryResults<T>  extends Iterable<T> {
 	 * Query.fetch().iterator() is identical to Query.iterator().
 	 */
 	Iterable<T> fetch();
+
+	/**
+	 * <p>Execute the query, decoding each result into the projection class (or interface) instead of the entity.</p>
+	 * <p>The fields (or getters) of the projection are matched to the entity's fields by stored name, and only those
+	 * fields are retrieved. No lifecycle methods are called, and nothing is cached.</p>
+	 */
+	<D> Iterable<D> fetch(Class<D> projection);
+	
+	/** Execute the query and get the results decoded into the projection class (or interface); see {@link #fetch(Class)} */
+	<D> List<D> asList(Class<D> projection);
+	
+	/**
+	 * <p>Execute the query lazily, for each subscriber, reading and decoding results only as they are requested.</p>
+	 * <p>Unlike {@link #asList()} (or holding on to {@link #fetch()}) the memory used does not depend on the number of results.</p>
+	 */
+	ResultPublisher<T> stream();
 	
 	/**
 	 * Execute the query and get only the ids of the results.  This is more efficient than
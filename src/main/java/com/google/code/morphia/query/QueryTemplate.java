@@ -0,0 +1,149 @@
+package com.google.code.morphia.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.mapping.MappedField;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * A prepared query shape; the filter conditions are parsed and validated against the mapping once, and each execution
+ * only binds the (positional) parameter values.
+ * </p>
+ *
+ * <pre>
+ * QueryTemplate&lt;Hotel&gt; byStars = ads.createQueryTemplate(Hotel.class).filter("stars &gt;=").filter("address.city").order("-stars");
+ * ...
+ * List&lt;Hotel&gt; hotels = byStars.bind(4, "Reykjavik").asList();
+ * </pre>
+ *
+ * <p>
+ * Configure the template once, then share it; {@link #bind(Object...)} may be called from any number of threads.
+ * </p>
+ */
+public class QueryTemplate<T> {
+	private final Class<T> clazz;
+	private final DBCollection dbColl;
+	private final DatastoreImpl ds;
+	private final List<Param> params = new ArrayList<Param>();
+	private boolean validating = true;
+	private String order;
+	private int offset = 0;
+	private int limit = -1;
+	private String[] fields;
+	private boolean includeFields;
+
+	/** One compiled filter condition */
+	private static class Param {
+		final String prop;
+		final FilterOperator op;
+		final MappedField mf;
+
+		Param(String prop, FilterOperator op, MappedField mf) {
+			this.prop = prop;
+			this.op = op;
+			this.mf = mf;
+		}
+	}
+
+	public QueryTemplate(Class<T> clazz, DBCollection coll, Datastore ds) {
+		this.clazz = clazz;
+		this.dbColl = coll;
+		this.ds = (DatastoreImpl) ds;
+	}
+
+	/**
+	 * Adds a filter condition, in the same form as {@link Query#filter(String, Object)}, whose value is supplied (in
+	 * the same order) when the template is bound.
+	 */
+	public QueryTemplate<T> filter(String condition) {
+		String[] parts = condition.trim().split(" ");
+		if (parts.length < 1 || parts.length > 2)
+			throw new IllegalArgumentException("'" + condition + "' is not a legal filter condition");
+
+		String prop = parts[0].trim();
+		FilterOperator op = (parts.length == 2) ? QueryImpl.translateOperator(parts[1]) : FilterOperator.EQUAL;
+		MappedField mf = validating ? QueryImpl.validatePath(ds.getMapper(), clazz, prop) : null;
+		params.add(new Param(prop, op, mf));
+		return this;
+	}
+
+	/** Turns off validation (for all conditions added after) */
+	public QueryTemplate<T> disableValidation() {
+		validating = false;
+		return this;
+	}
+
+	/** See {@link Query#order(String)} */
+	public QueryTemplate<T> order(String condition) {
+		this.order = condition;
+		return this;
+	}
+
+	/** See {@link Query#offset(int)} */
+	public QueryTemplate<T> offset(int value) {
+		this.offset = value;
+		return this;
+	}
+
+	/** See {@link Query#limit(int)} */
+	public QueryTemplate<T> limit(int value) {
+		this.limit = value;
+		return this;
+	}
+
+	/** See {@link Query#retrievedFields(boolean, String...)} */
+	public QueryTemplate<T> retrievedFields(boolean include, String... fields) {
+		this.includeFields = include;
+		this.fields = fields;
+		return this;
+	}
+
+	/** @return the number of parameters to bind */
+	public int getParameterCount() {
+		return params.size();
+	}
+
+	/** Builds the query object for the given parameter values (one per filter condition, in order) */
+	public DBObject toQueryObject(Object... values) {
+		if (values.length != params.size())
+			throw new IllegalArgumentException("Expected " + params.size() + " parameter(s) but got " + values.length);
+
+		BasicDBObject q = new BasicDBObject();
+		for (int i = 0; i < values.length; i++) {
+			Param p = params.get(i);
+			Object mappedValue = QueryImpl.toQueryValue(ds, p.mf, p.op, values[i]);
+			if (FilterOperator.EQUAL.equals(p.op))
+				q.put(p.prop, mappedValue);
+			else {
+				Object inner = q.get(p.prop);
+				if (!(inner instanceof DBObject)) {
+					inner = new BasicDBObject();
+					q.put(p.prop, inner);
+				}
+				((DBObject) inner).put(p.op.val(), mappedValue);
+			}
+		}
+		return q;
+	}
+
+	/** Creates a query for the given parameter values (one per filter condition, in order) */
+	public Query<T> bind(Object... values) {
+		QueryImpl<T> q = new QueryImpl<T>(clazz, dbColl, ds, offset, limit);
+		q.setQueryObject(toQueryObject(values));
+		if (order != null)
+			q.order(order);
+		if (fields != null)
+			q.retrievedFields(includeFields, fields);
+		return q;
+	}
+
+	public Class<T> getEntityClass() {
+		return clazz;
+	}
+}
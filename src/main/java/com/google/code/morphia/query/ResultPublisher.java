@@ -0,0 +1,9 @@
+package com.google.code.morphia.query;
+
+/**
+ * A lazy source of query results, read from the cursor only as fast as the subscriber asks for them.
+ */
+public interface ResultPublisher<T> {
+	/** Runs the query (again) for this subscriber; each subscriber gets its own cursor */
+	void subscribe(ResultSubscriber<? super T> subscriber);
+}
@@ -0,0 +1,22 @@
+package com.google.code.morphia.query;
+
+/**
+ * <p>
+ * Receives the results of a {@link ResultPublisher}. No results are sent until they are asked for through
+ * {@link ResultSubscription#request(long)}; the stream ends with exactly one of {@link #onComplete()} or
+ * {@link #onError(Throwable)} (unless cancelled).
+ * </p>
+ */
+public interface ResultSubscriber<T> {
+	/** Called once, before anything else; nothing is read from the server until {@code s.request(n)} is called */
+	void onSubscribe(ResultSubscription s);
+
+	/** The next (decoded) entity */
+	void onNext(T entity);
+
+	/** The query or the decoding of an entity failed; the cursor has been closed */
+	void onError(Throwable t);
+
+	/** All results have been sent; the cursor has been closed */
+	void onComplete();
+}
@@ -0,0 +1,12 @@
+package com.google.code.morphia.query;
+
+/**
+ * The link between a {@link ResultPublisher} and one {@link ResultSubscriber}; used to signal demand and to cancel.
+ */
+public interface ResultSubscription {
+	/** Asks for (up to) {@code n} more results; {@link Long#MAX_VALUE} means everything */
+	void request(long n);
+
+	/** Stops the stream and closes the cursor; no more signals are sent */
+	void cancel();
+}
@@ -25,6 +25,17 @@ public class UpdateResults<T> {
 			newId = opRes.get("upserted");
 	}
 	
+	/** The results of an update made without a server (like {@code getLastError} would report them) */
+	public UpdateResults(boolean updatedExisting, int n, Object upsertedId) {
+		this.updatedExisting = updatedExisting;
+		if (updatedExisting)
+			updateCount = n;
+		else
+			insertCount = n;
+		if (insertCount > 0)
+			newId = upsertedId;
+	}
+	
 	public String getError() {return error;}
 	public boolean getHadError() {return hadError;}
 	public boolean getUpdatedExisting() {return updatedExisting;}
@@ -18,14 +18,20 @@ package com.google.code.morphia;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bson.types.ObjectId;
 import org.junit.Test;
@@ -44,6 +50,7 @@ import com.google.code.morphia.testmodel.Hotel;
 import com.google.code.morphia.testmodel.Rectangle;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.DB.WriteConcern;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.Mongo;
@@ -229,6 +236,25 @@ public class TestDatastore  extends TestBase{
 		assertEquals("facebook_users", morphia.getMapper().getCollectionName(FacebookUser.class));
 	}
 	@Test
+    public void testCollectionContextIsCached() throws Exception {
+		DatastoreImpl dsi = (DatastoreImpl) ds;
+		MappedClassContext ctx = dsi.getContext(FacebookUser.class);
+		assertTrue(ctx == dsi.getContext(FacebookUser.class));
+		assertTrue(ctx.getCollection() == ds.getCollection(FacebookUser.class));
+		assertEquals("facebook_users", ctx.getCollectionName());
+		assertEquals("_id", ctx.getIdField().getNameToStore());
+		assertEquals(7L, ctx.getId(new FacebookUser(7, "user 7")));
+		
+		// the default write concern is set once, and again on the cached collections when it changes
+		assertTrue(ds.getCollection(FacebookUser.class).getWriteConcern() == WriteConcern.STRICT);
+		dsi.setDefaultWriteConcern(WriteConcern.NORMAL);
+		try {
+			assertTrue(ds.getCollection(FacebookUser.class).getWriteConcern() == WriteConcern.NORMAL);
+		} finally {
+			dsi.setDefaultWriteConcern(WriteConcern.STRICT);
+		}
+	}
+	@Test
     public void testGet() throws Exception {
 		List<FacebookUser> fbUsers = new ArrayList<FacebookUser>();
 		fbUsers.add(new FacebookUser(1,"user 1"));
@@ -326,6 +352,32 @@ public class TestDatastore  extends TestBase{
 		assertEquals(1, ds.getCount(rect));
 	}
 	
+    @Test
+    public void testDeleteAllEntitiesAndKeys() throws Exception {
+		List<FacebookUser> fbUsers = new ArrayList<FacebookUser>();
+		for (int i = 1; i <= 5; i++)
+			fbUsers.add(new FacebookUser(i, "user " + i));
+		ds.save(fbUsers);
+		Rectangle r1 = new Rectangle(1, 1);
+		Rectangle r2 = new Rectangle(2, 2);
+		ds.save(r1, r2);
+		
+		List<Object> toDelete = new ArrayList<Object>();
+		toDelete.add(fbUsers.get(0));
+		toDelete.add(ds.getKey(fbUsers.get(1)));
+		toDelete.add(fbUsers.get(2));
+		toDelete.add(ds.getKey(r1));
+		
+		DeleteResults res = ((AdvancedDatastore) ds).deleteAll(toDelete, 2, null);
+		assertEquals(4, res.getTotal());
+		assertEquals(3, res.getCount("facebook_users"));
+		assertEquals(2, ds.getCount(FacebookUser.class));
+		assertEquals(1, ds.getCount(Rectangle.class));
+		
+		res = ds.deleteAll(toDelete);
+		assertEquals(0, res.getTotal());
+	}
+	
     @Test
     public void testEmbedded() throws Exception {
         Hotel borg = Hotel.create();
@@ -349,5 +401,125 @@ public class TestDatastore  extends TestBase{
         assertEquals(borg.getAddress().getPostCode(), hotelLoaded.getAddress().getPostCode());
         
     }
-    
+
+	@Entity
+	public static class ScanItem {
+		@Id ObjectId id;
+		int n;
+		public ScanItem() {}
+		public ScanItem(int n) {
+			this.id = new ObjectId(String.format("%08x", 1000000 + n * 100) + "0000000000" + String.format("%06x", n));
+			this.n = n;
+		}
+	}
+
+	@Test
+	public void testParallelScan() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			ds.save(new ScanItem(i));
+			ds.save(new FacebookUser(i, "user" + i));
+		}
+
+		final Set<Integer> seen = Collections.synchronizedSet(new HashSet<Integer>());
+		final AtomicInteger done = new AtomicInteger();
+		ScanResults res = ((AdvancedDatastore) ds).parallelScan(ds.find(ScanItem.class).field("n").lessThan(90), 4,
+				new ScanConsumer<ScanItem>() {
+					public void consume(int partition, ScanItem entity) {
+						assertTrue(seen.add(entity.n));
+					}
+				}, new ScanProgressListener() {
+					public void progress(int partition, long scanned) {}
+					public void partitionDone(int partition, long scanned, Throwable error) {
+						done.incrementAndGet();
+					}
+				}, null);
+		assertTrue(res.isSuccessful());
+		assertEquals(4, res.getPartitionCount());
+		assertEquals(4, done.get());
+		assertEquals(90, res.getTotal());
+		assertEquals(90, seen.size());
+
+		final AtomicInteger users = new AtomicInteger();
+		res = ((AdvancedDatastore) ds).parallelScan(ds.find(FacebookUser.class), 3, new ScanConsumer<FacebookUser>() {
+			public void consume(int partition, FacebookUser entity) {
+				users.incrementAndGet();
+			}
+		}, null, null);
+		assertEquals(3, res.getPartitionCount());
+		assertEquals(100, users.get());
+		assertEquals(100, res.getTotal());
+	}
+
+	@Entity
+	public static class NamedScanItem {
+		@Id String name;
+		public NamedScanItem() {}
+		public NamedScanItem(String name) {
+			this.name = name;
+		}
+	}
+
+	@Test
+	public void testParallelScanOfStringIds() throws Exception {
+		for (int i = 0; i < 100; i++)
+			ds.save(new NamedScanItem(String.format("item%02d", i)));
+
+		final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+		ScanResults res = ((AdvancedDatastore) ds).parallelScan(ds.find(NamedScanItem.class), 4, new ScanConsumer<NamedScanItem>() {
+			public void consume(int partition, NamedScanItem entity) {
+				assertTrue(seen.add(entity.name));
+			}
+		}, null, null);
+		assertTrue(res.isSuccessful());
+		assertEquals(4, res.getPartitionCount());
+		assertEquals(100, res.getTotal());
+		assertEquals(100, seen.size());
+	}
+
+	@Entity(value = "rect_counts", noClassnameStored = true)
+	public static class RectCount {
+		@Id double height;
+		double value;
+	}
+
+	public static class RectGroup {
+		double height;
+		double width;
+		double count;
+	}
+
+	@Test
+	public void testMapReduceAndGroup() throws Exception {
+		ds.save(new Rectangle(1, 10), new Rectangle(1, 10), new Rectangle(1, 20), new Rectangle(2, 10), new Rectangle(3, 30));
+		String map = "function() { emit(this.height, 1); }";
+		String reduce = "function(key, values) { var sum = 0; values.forEach(function(v) { sum += v; }); return sum; }";
+
+		MapreduceResults<RectCount> inline = ds.mapReduce(MapreduceType.INLINE, ds.find(Rectangle.class).filter("height <", 3),
+				map, reduce, null, null, RectCount.class);
+		assertEquals(4, inline.getInputCount());
+		assertNull(inline.getOutputCollectionName());
+		Map<Double, Double> counts = new HashMap<Double, Double>();
+		for (RectCount c : inline)
+			counts.put(c.height, c.value);
+		assertEquals(2, counts.size());
+		assertEquals(3.0, counts.get(1.0), 0);
+		assertEquals(1.0, counts.get(2.0), 0);
+
+		MapreduceResults<RectCount> out = ds.mapReduce(MapreduceType.REPLACE, ds.find(Rectangle.class), map, reduce, null,
+				null, RectCount.class);
+		assertEquals("rect_counts", out.getOutputCollectionName());
+		assertEquals(3, ds.getCount(RectCount.class));
+		assertEquals(3, out.asList().size());
+
+		// incremental refresh: reduce new documents into the existing counts
+		ds.save(new Rectangle(3, 40));
+		ds.mapReduce(MapreduceType.REDUCE, ds.find(Rectangle.class).filter("width", 40), map, reduce, null, null, RectCount.class);
+		assertEquals(2.0, ds.get(RectCount.class, 3.0).value, 0);
+
+		List<RectGroup> groups = ds.group(ds.find(Rectangle.class).filter("height", 1), new String[] { "height", "width" },
+				new BasicDBObject("count", 0), "function(doc, out) { out.count++; }", null, RectGroup.class);
+		assertEquals(2, groups.size());
+		for (RectGroup g : groups)
+			assertEquals((g.width == 10) ? 2.0 : 1.0, g.count, 0);
+	}
 }
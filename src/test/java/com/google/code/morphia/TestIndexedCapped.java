@@ -29,7 +29,9 @@ import org.junit.Test;
 import com.google.code.morphia.annotations.CappedAt;
 import com.google.code.morphia.annotations.Entity;
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Index;
 import com.google.code.morphia.annotations.Indexed;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Property;
 import com.google.code.morphia.mapping.MappedClass;
 import com.google.code.morphia.utils.IndexDirection;
@@ -72,6 +74,14 @@ public class TestIndexedCapped  extends TestBase{
 		UniqueIndexClass(String name){this.name = name;}
 	}
 	
+	@Entity @Indexes(@Index(value = "name, -l", background = true))
+	public static class CompoundIndexClass{
+		@Id ObjectId id;
+		long l=4;
+		String name;
+		@Indexed(sparse=true) String email;
+	}
+	
 	public static class Ad {
 		@Id public long id;
 
@@ -163,6 +173,28 @@ public class TestIndexedCapped  extends TestBase{
 		assertTrue(hasNamedIndex("l_ascending", db.getCollection(mc.getCollectionName()).getIndexInfo()));
 	}
 
+	@Test
+	public void testCompoundAndSparseIndexes() throws Exception {
+		morphia.map(CompoundIndexClass.class);
+		MappedClass mc = morphia.getMapper().getMappedClass(CompoundIndexClass.class);
+		((AdvancedDatastore) ds).ensureIndexesAsync(false, null).get();
+		List<DBObject> indexes = db.getCollection(mc.getCollectionName()).getIndexInfo();
+		assertTrue(hasNamedIndex("name_1_l_-1", indexes));
+		assertTrue(hasNamedIndex("email_1", indexes));
+		for (DBObject dbObj : indexes)
+			if (dbObj.get("name").equals("email_1"))
+				assertEquals(Boolean.TRUE, dbObj.get("sparse"));
+		
+		// only missing indexes are created
+		DatastoreImpl dsi = (DatastoreImpl) ds;
+		assertEquals(0, dsi.ensureIndexes(mc, true));
+		db.getCollection(mc.getCollectionName()).dropIndex("email_1");
+		assertEquals(1, dsi.ensureIndexes(mc, true));
+		indexes = db.getCollection(mc.getCollectionName()).getIndexInfo();
+		assertEquals(3, indexes.size());
+		assertTrue(hasNamedIndex("email_1", indexes));
+	}
+
 	protected boolean hasNamedIndex(String name, List<DBObject> indexes) {
 		for(DBObject dbObj : indexes) {
 			if (dbObj.get("name").equals(name)) return true;
@@ -17,13 +17,17 @@
 package com.google.code.morphia;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.bson.types.CodeWScope;
@@ -41,10 +45,17 @@ import com.google.code.morphia.annotations.Entity;
 import com.google.code.morphia.annotations.Id;
 import com.google.code.morphia.annotations.Property;
 import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.query.KeysetPage;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.QueryException;
+import com.google.code.morphia.query.QueryPlan;
+import com.google.code.morphia.query.QueryTemplate;
+import com.google.code.morphia.query.ResultSubscriber;
+import com.google.code.morphia.query.ResultSubscription;
 import com.google.code.morphia.testmodel.Hotel;
 import com.google.code.morphia.testmodel.Rectangle;
+import com.google.code.morphia.utils.IndexDirection;
 import com.mongodb.BasicDBObject;
 import com.mongodb.MongoInternalException;
 
@@ -571,4 +582,189 @@ public class TestQuery  extends TestBase {
         assertEquals(1, ds.getCount(ds.createQuery(Rectangle.class).filter("height >", 3).filter("height <", 8).filter("width", 10)));
     }
 
+    @Test
+    public void testStreamWithDemand() throws Exception {
+        for (int i = 1; i <= 10; i++)
+            ds.save(new Rectangle(i, i));
+
+        final List<Rectangle> received = new ArrayList<Rectangle>();
+        final boolean[] completed = {false};
+        final ResultSubscription[] sub = new ResultSubscription[1];
+        ds.createQuery(Rectangle.class).order("height").stream().subscribe(new ResultSubscriber<Rectangle>() {
+            public void onSubscribe(ResultSubscription s) { sub[0] = s; }
+            public void onNext(Rectangle r) {
+                received.add(r);
+                if (received.size() == 7)
+                    sub[0].cancel();
+            }
+            public void onError(Throwable t) { Assert.fail(t.toString()); }
+            public void onComplete() { completed[0] = true; }
+        });
+
+        assertEquals(0, received.size());
+        sub[0].request(3);
+        assertEquals(3, received.size());
+        sub[0].request(Long.MAX_VALUE);
+        assertEquals(7, received.size());
+        Assert.assertFalse(completed[0]);
+
+        final int[] count = {0};
+        ds.createQuery(Rectangle.class).stream().subscribe(new ResultSubscriber<Rectangle>() {
+            public void onSubscribe(ResultSubscription s) { s.request(Long.MAX_VALUE); }
+            public void onNext(Rectangle r) { count[0]++; }
+            public void onError(Throwable t) { Assert.fail(t.toString()); }
+            public void onComplete() { completed[0] = true; }
+        });
+        assertEquals(10, count[0]);
+        Assert.assertTrue(completed[0]);
+    }
+
+    @Test
+    public void testQueryTemplate() throws Exception {
+        for (int i = 1; i <= 10; i++)
+            ds.save(new Rectangle(i, 11 - i));
+
+        QueryTemplate<Rectangle> t = ((AdvancedDatastore) ds).createQueryTemplate(Rectangle.class)
+                .filter("height >").filter("height <=").filter("width !=").order("-height");
+        assertEquals(3, t.getParameterCount());
+
+        List<Rectangle> rects = t.bind(3, 7, 5).asList();
+        assertEquals(3, rects.size());
+        assertEquals(7, rects.get(0).getHeight(), 0);
+        assertEquals(ds.createQuery(Rectangle.class).filter("height >", 3).filter("height <=", 7).filter("width !=", 5).countAll(),
+                t.bind(3, 7, 5).countAll());
+        assertEquals(1, t.bind(8, 9, 100).countAll());
+
+        try {
+            ((AdvancedDatastore) ds).createQueryTemplate(Rectangle.class).filter("notAField");
+            Assert.fail("should have failed validation");
+        } catch (QueryException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testKeysetPaging() throws Exception {
+        for (int i = 1; i <= 25; i++)
+            ds.save(new Rectangle(i % 5, i));
+
+        try {
+            ds.createQuery(Rectangle.class).order("-height").page(10, null);
+            Assert.fail("sort is not indexed");
+        } catch (QueryException e) {
+            // expected
+        }
+        ds.getCollection(Rectangle.class).ensureIndex(new BasicDBObject("height", 1));
+
+        List<Rectangle> all = new ArrayList<Rectangle>();
+        String token = null;
+        int pages = 0;
+        do {
+            KeysetPage<Rectangle> page = ds.createQuery(Rectangle.class).order("-height").page(10, token);
+            all.addAll(page.getResults());
+            token = page.getNextToken();
+            pages++;
+        } while (token != null);
+
+        assertEquals(3, pages);
+        assertEquals(25, all.size());
+        for (int i = 1; i < all.size(); i++)
+            Assert.assertTrue(all.get(i - 1).getHeight() >= all.get(i).getHeight());
+        Set<Object> ids = new HashSet<Object>();
+        for (Rectangle r : all)
+            ids.add(r.getId());
+        assertEquals(25, ids.size());
+
+        KeysetPage<Rectangle> first = ds.createQuery(Rectangle.class).order("-height").page(10, null);
+        try {
+            ds.createQuery(Rectangle.class).order("height").page(10, first.getNextToken());
+            Assert.fail("token is for another sort");
+        } catch (QueryException e) {
+            // expected
+        }
+    }
+
+    public static class RectHeight {
+        double height;
+    }
+
+    public interface RectWidth {
+        double getWidth();
+    }
+
+    @Test
+    public void testProjectionIntoDto() throws Exception {
+        for (int i = 1; i <= 5; i++)
+            ds.save(new Rectangle(i, i * 10));
+
+        List<RectHeight> heights = ds.createQuery(Rectangle.class).order("height").asList(RectHeight.class);
+        assertEquals(5, heights.size());
+        assertEquals(1, heights.get(0).height, 0);
+        assertEquals(5, heights.get(4).height, 0);
+
+        int n = 0;
+        for (RectWidth w : ds.createQuery(Rectangle.class).filter("height >", 3).order("height").fetch(RectWidth.class))
+            assertEquals(++n == 1 ? 40 : 50, w.getWidth(), 0);
+        assertEquals(2, n);
+    }
+
+    public static class PhotoKeywords {
+        List<Keyword> keywords;
+    }
+
+    public static class PicOnly {
+        Pic pic;
+    }
+
+    @Test
+    public void testProjectionOfEmbeddedAndReferences() throws Exception {
+        ds.save(new PhotoWithKeywords("alpha", "beta"));
+
+        PhotoKeywords pk = ds.createQuery(PhotoWithKeywords.class).asList(PhotoKeywords.class).get(0);
+        assertEquals(2, pk.keywords.size());
+        assertEquals("beta", pk.keywords.get(1).keyword);
+        assertEquals(12, pk.keywords.get(1).score);
+
+        try {
+            ds.createQuery(ContainsPic.class).asList(PicOnly.class);
+            Assert.fail("references are not resolved in a projection");
+        } catch (MappingException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHintAndExplain() throws Exception {
+        for (int i = 1; i <= 20; i++)
+            ds.save(new Rectangle(i, i % 5));
+        ds.ensureIndex(Rectangle.class, "height", IndexDirection.ASC);
+        ds.ensureIndex(Rectangle.class, "width", IndexDirection.ASC);
+
+        QueryPlan plan = ds.createQuery(Rectangle.class).filter("height >", 10).order("width").hintIndex("height_1").explain();
+        assertEquals("height_1", plan.getIndexName());
+        assertTrue(plan.isIndexed());
+        assertTrue(plan.isScanAndOrder());
+        assertEquals(10, plan.getN());
+
+        plan = ds.createQuery(Rectangle.class).filter("height >", 10).order("width").hintIndexFields("width").explain();
+        assertEquals("width_1", plan.getIndexName());
+        assertFalse(plan.isScanAndOrder());
+        assertEquals(20, plan.getNscanned());
+
+        assertEquals(10, ds.createQuery(Rectangle.class).filter("height >", 10).hintIndexFields("width").countAll());
+        assertEquals(10, ds.createQuery(Rectangle.class).filter("height >", 10).hintIndexFields("width").asList().size());
+    }
+
+    @Test
+    public void testHintIndexFieldsRejectsEmptyNames() throws Exception {
+        for (final String fields : new String[] { "height,,width", "height,", " , ", "-" }) {
+            try {
+                ds.createQuery(Rectangle.class).disableValidation().hintIndexFields(fields);
+                Assert.fail("'" + fields + "' has an empty field name");
+            } catch (QueryException e) {
+                // expected
+            }
+        }
+    }
+
 }
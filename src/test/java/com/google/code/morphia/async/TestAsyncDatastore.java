@@ -0,0 +1,151 @@
+package com.google.code.morphia.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.code.morphia.Key;
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+
+public class TestAsyncDatastore extends TestBase {
+
+	@Entity
+	public static class Item {
+		@Id ObjectId id;
+		int n;
+
+		public Item() {
+		}
+
+		public Item(int n) {
+			this.n = n;
+		}
+	}
+
+	private ExecutorService executor;
+	private AsyncDatastore ads;
+
+	@Before
+	@Override
+	public void setUp() {
+		super.setUp();
+		morphia.map(Item.class);
+		executor = Executors.newFixedThreadPool(4);
+		ads = new AsyncDatastoreImpl(ds, executor, 2);
+	}
+
+	@After
+	@Override
+	public void tearDown() {
+		executor.shutdownNow();
+		super.tearDown();
+	}
+
+	@Test
+	public void testSaveAndQuery() throws Exception {
+		List<ResultFuture<Key<Item>>> saves = new ArrayList<ResultFuture<Key<Item>>>();
+		for (int i = 0; i < 10; i++)
+			saves.add(ads.save(new Item(i)));
+		for (ResultFuture<Key<Item>> f : saves)
+			assertNotNull(f.get(5, TimeUnit.SECONDS));
+
+		assertEquals(10, ads.asList(ds.find(Item.class)).get(5, TimeUnit.SECONDS).size());
+		assertEquals(Long.valueOf(3), ads.count(ds.find(Item.class).field("n").lessThan(3)).get(5, TimeUnit.SECONDS));
+		assertEquals(7, ads.first(ds.find(Item.class, "n", 7)).get(5, TimeUnit.SECONDS).n);
+	}
+
+	@Test
+	public void testGetAndGetByKeys() throws Exception {
+		Item one = new Item(1), two = new Item(2);
+		ds.save(one, two);
+
+		assertEquals(2, ads.get(Item.class, two.id).get(5, TimeUnit.SECONDS).n);
+		assertNull(ads.get(Item.class, new ObjectId()).get(5, TimeUnit.SECONDS));
+
+		List<Key<Item>> keys = new ArrayList<Key<Item>>();
+		keys.add(new Key<Item>(Item.class, one.id));
+		keys.add(new Key<Item>(Item.class, two.id));
+		assertEquals(2, ads.getByKeys(Item.class, keys).get(5, TimeUnit.SECONDS).size());
+	}
+
+	@Test
+	public void testSameThreadExecutor() throws Exception {
+		ds.save(new Item(1), new Item(2));
+		AsyncDatastore sameThread = new AsyncDatastoreImpl(ds, new Executor() {
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		ResultFuture<List<Item>> f = sameThread.asList(ds.find(Item.class));
+		assertTrue(f.isDone());
+		assertEquals(2, f.get().size());
+	}
+
+	@Test
+	public void testCallbackAndTransform() throws Exception {
+		ds.save(new Item(1), new Item(2), new Item(3));
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Integer> sum = new AtomicReference<Integer>();
+		ads.asList(ds.find(Item.class)).transform(new ResultFuture.Transformer<List<Item>, Integer>() {
+			public Integer transform(List<Item> items) {
+				int s = 0;
+				for (Item i : items)
+					s += i.n;
+				return s;
+			}
+		}).addCallback(new AsyncCallback<Integer>() {
+			public void onSuccess(Integer result) {
+				sum.set(result);
+				latch.countDown();
+			}
+
+			public void onFailure(Throwable t) {
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(6), sum.get());
+	}
+
+	@Test
+	public void testFailureIsReported() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		ads.count(ds.find(Item.class)).transform(new ResultFuture.Transformer<Long, Long>() {
+			public Long transform(Long count) {
+				throw new IllegalStateException("boom");
+			}
+		}).addCallback(new AsyncCallback<Long>() {
+			public void onSuccess(Long result) {
+				latch.countDown();
+			}
+
+			public void onFailure(Throwable t) {
+				error.set(t);
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(error.get() instanceof IllegalStateException);
+	}
+}
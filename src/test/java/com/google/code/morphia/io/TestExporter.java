@@ -0,0 +1,96 @@
+package com.google.code.morphia.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.google.code.morphia.AdvancedDatastore;
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PrePersist;
+import com.google.code.morphia.testmodel.Rectangle;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+public class TestExporter extends TestBase {
+
+	@Test
+	public void testExportBsonAndJson() throws Exception {
+		for (int i = 1; i <= 50; i++)
+			ds.save(new Rectangle(i, i * 2));
+
+		File bson = File.createTempFile("morphia-export", ".bson");
+		bson.deleteOnExit();
+		ExportStats stats = new Exporter(ds).bufferSize(1024).export(ds.find(Rectangle.class), bson);
+		assertEquals(50, stats.getDocuments());
+		assertEquals(bson.length(), stats.getBytes());
+
+		File json = File.createTempFile("morphia-export", ".json.gz");
+		json.deleteOnExit();
+		stats = ((AdvancedDatastore) ds).export(ds.find(Rectangle.class).filter("height >", 40).retrievedFields(true, "width"),
+				json, ExportFormat.JSON, true);
+		assertEquals(10, stats.getDocuments());
+
+		BufferedReader r = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(json)), "UTF-8"));
+		int lines = 0;
+		for (String line = r.readLine(); line != null; line = r.readLine()) {
+			DBObject doc = (DBObject) JSON.parse(line);
+			assertTrue(doc.containsField("width"));
+			assertFalse(doc.containsField("height"));
+			lines++;
+		}
+		r.close();
+		assertEquals(10, lines);
+	}
+
+	@Entity
+	public static class Stamped {
+		static int persisted = 0;
+		@Id ObjectId id;
+		String name;
+
+		public Stamped() {
+		}
+
+		Stamped(String name) {
+			this.name = name;
+		}
+
+		@PrePersist
+		void prePersist() {
+			persisted++;
+		}
+	}
+
+	@Test
+	public void testEntityJsonDoesNotPersist() throws Exception {
+		ds.save(new Stamped("one"), new Stamped("two"));
+		ds.getCollection(Stamped.class).update(new BasicDBObject(), new BasicDBObject("$set", new BasicDBObject("unmapped", 1)), false, true);
+		int persisted = Stamped.persisted;
+
+		File json = File.createTempFile("morphia-export", ".json");
+		json.deleteOnExit();
+		ExportStats stats = new Exporter(ds).format(ExportFormat.ENTITY_JSON).export(ds.find(Stamped.class), json);
+		assertEquals(2, stats.getDocuments());
+		assertEquals(persisted, Stamped.persisted);
+
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(json), "UTF-8"));
+		for (String line = r.readLine(); line != null; line = r.readLine()) {
+			DBObject doc = (DBObject) JSON.parse(line);
+			assertTrue(doc.containsField("name"));
+			assertFalse(doc.containsField("unmapped"));
+		}
+		r.close();
+	}
+}
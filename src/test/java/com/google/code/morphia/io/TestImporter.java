@@ -0,0 +1,51 @@
+package com.google.code.morphia.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import com.google.code.morphia.AdvancedDatastore;
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.testmodel.Rectangle;
+
+public class TestImporter extends TestBase {
+
+	@Test
+	public void testRoundTripBson() throws Exception {
+		for (int i = 1; i <= 200; i++)
+			ds.save(new Rectangle(i, i * 2));
+
+		File bson = File.createTempFile("morphia-import", ".bson");
+		bson.deleteOnExit();
+		((AdvancedDatastore) ds).export(ds.find(Rectangle.class), bson, ExportFormat.BSON, false);
+		ds.getCollection(Rectangle.class).drop();
+
+		// a small window, so documents straddle window boundaries
+		ImportStats stats = new Importer<Rectangle>(ds, Rectangle.class).threads(3).batchSize(17, 1024).windowSize(1024)
+				.pendingBatches(1).importFrom(bson);
+		assertEquals(200, stats.getDocuments());
+		assertEquals(200, stats.getInserted());
+		assertEquals(200, ds.getCount(Rectangle.class));
+		assertEquals(10, ds.find(Rectangle.class).filter("height <=", 10).countAll());
+	}
+
+	@Test
+	public void testJsonSkipsBadLines() throws Exception {
+		File json = File.createTempFile("morphia-import", ".json");
+		json.deleteOnExit();
+		OutputStream out = new FileOutputStream(json);
+		out.write(("{\"height\": 1.0, \"width\": 2.0}\n" + "{not json\n" + "\n" + "{\"height\": 3.0, \"width\": 4.0}").getBytes("UTF-8"));
+		out.close();
+
+		ImportStats stats = new Importer<Rectangle>(ds, Rectangle.class).format(ExportFormat.JSON).stopOnError(false)
+				.prePersist(true).importFrom(json);
+		assertEquals(3, stats.getDocuments());
+		assertEquals(2, stats.getInserted());
+		assertEquals(1, stats.getRejected());
+		assertEquals(2, ds.getCount(Rectangle.class));
+	}
+}
@@ -0,0 +1,166 @@
+package com.google.code.morphia.mapping;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.google.code.morphia.ChunkedData;
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Chunked;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PrePersist;
+import com.google.code.morphia.mapping.validation.ConstraintViolationException;
+import com.google.code.morphia.testutil.AssertedFailure;
+import com.mongodb.DBObject;
+import com.mongodb.gridfs.GridFS;
+
+public class ChunkedMappingTest extends TestBase {
+	public static class Attachment {
+		@Id ObjectId id;
+		String name;
+		@Chunked(bucket = "attachments") ChunkedData data;
+	}
+
+	public static class WrongType {
+		@Id ObjectId id;
+		@Chunked byte[] data;
+	}
+
+	public static class FailsToSave {
+		@Id ObjectId id;
+		@Chunked ChunkedData data;
+
+		@PrePersist
+		void prePersist() {
+			throw new IllegalStateException("not saved");
+		}
+	}
+
+	@Embedded
+	public static class EmbeddedChunks {
+		@Chunked ChunkedData data;
+	}
+
+	@Test
+	public void testStoredInChunks() throws Exception {
+		byte[] bytes = new byte[600 * 1024]; // more than two (default) chunks
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) i;
+
+		Attachment a = new Attachment();
+		a.name = "big";
+		a.data = new ChunkedData(new ByteArrayInputStream(bytes));
+		ds.save(a);
+		Assert.assertTrue(a.data.isStored());
+
+		// only the file id is in the document
+		DBObject dbObj = ds.getCollection(Attachment.class).findOne();
+		Assert.assertEquals(a.data.getId(), dbObj.get("data"));
+		Assert.assertEquals(3, db.getCollection("attachments.chunks").count());
+
+		Attachment loaded = ds.get(Attachment.class, a.id);
+		Assert.assertEquals(bytes.length, loaded.data.getLength());
+		Assert.assertTrue(Arrays.equals(bytes, loaded.data.getBytes()));
+
+		// saved again, it is not written again
+		ds.save(loaded);
+		Assert.assertEquals(1, db.getCollection("attachments.files").count());
+		Assert.assertNotNull(new GridFS(db, "attachments").findOne(a.data.getId()));
+
+		Assert.assertEquals(1, ds.find(Attachment.class).filter("data", loaded.data).countAll());
+	}
+
+	@Test
+	public void testOnlyForChunkedData() {
+		new AssertedFailure(ConstraintViolationException.class) {
+			public void thisMustFail() throws Throwable {
+				morphia.map(WrongType.class);
+			}
+		};
+		new AssertedFailure(ConstraintViolationException.class) {
+			public void thisMustFail() throws Throwable {
+				morphia.map(EmbeddedChunks.class);
+			}
+		};
+	}
+
+	@Test
+	public void testStoredInTheDatabaseOfTheDatastore() throws Exception {
+		// the last datastore created is the default one
+		Datastore other = morphia.createDatastore(mongo, "morphia_test_chunks");
+		try {
+			Attachment a = new Attachment();
+			a.data = new ChunkedData("in the first one".getBytes());
+			ds.save(a);
+			Assert.assertEquals(1, db.getCollection("attachments.files").count());
+			Assert.assertEquals(0, other.getDB().getCollection("attachments.files").count());
+			Assert.assertEquals("in the first one", new String(ds.get(Attachment.class, a.id).data.getBytes()));
+
+			Attachment b = new Attachment();
+			b.data = new ChunkedData("in the other one".getBytes());
+			other.save(b);
+			Assert.assertEquals(1, db.getCollection("attachments.files").count());
+			Assert.assertEquals("in the other one", new String(other.get(Attachment.class, b.id).data.getBytes()));
+		} finally {
+			mongo.dropDatabase("morphia_test_chunks");
+		}
+	}
+
+	@Test
+	public void testRemovedIfNotSaved() throws Exception {
+		final FailsToSave f = new FailsToSave();
+		f.data = new ChunkedData(new byte[1000]);
+		new AssertedFailure(IllegalStateException.class) {
+			public void thisMustFail() throws Throwable {
+				ds.save(f);
+			}
+		};
+		Assert.assertFalse(f.data.isStored());
+		Assert.assertEquals(0, db.getCollection("fs.files").count());
+		Assert.assertEquals(0, db.getCollection("fs.chunks").count());
+	}
+
+	@Test
+	public void testRemovedWhenReplacedOrDeleted() throws Exception {
+		Attachment a = new Attachment();
+		a.data = new ChunkedData("first".getBytes());
+		ds.save(a);
+		ObjectId first = a.data.getId();
+
+		a.data = new ChunkedData("second".getBytes());
+		ds.save(a);
+		GridFS fs = new GridFS(db, "attachments");
+		Assert.assertNull(fs.findOne(first));
+		Assert.assertEquals("second", new String(ds.get(Attachment.class, a.id).data.getBytes()));
+		Assert.assertEquals(1, db.getCollection("attachments.files").count());
+
+		ds.delete(a);
+		Assert.assertEquals(0, db.getCollection("attachments.files").count());
+		Assert.assertEquals(0, db.getCollection("attachments.chunks").count());
+
+		Attachment b = new Attachment();
+		b.data = new ChunkedData("third".getBytes());
+		ds.save(b);
+		ds.delete(ds.find(Attachment.class));
+		Assert.assertEquals(0, db.getCollection("attachments.files").count());
+	}
+
+	@Test
+	public void testNotWrittenWhenMapped() throws Exception {
+		morphia.map(Attachment.class);
+		final Attachment a = new Attachment();
+		a.data = new ChunkedData(new byte[1000]);
+		new AssertedFailure(MappingException.class) {
+			public void thisMustFail() throws Throwable {
+				morphia.toDBObject(a);
+			}
+		};
+		Assert.assertEquals(0, db.getCollection("attachments.files").count());
+	}
+}
@@ -0,0 +1,98 @@
+package com.google.code.morphia.mapping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.mapping.validation.ConstraintViolationException;
+import com.google.code.morphia.testmodel.Address;
+import com.google.code.morphia.testmodel.Hotel;
+import com.google.code.morphia.testmodel.PhoneNumber;
+
+public class TestBulkMapping {
+
+	@Entity
+	public static class NoId {
+		String name;
+	}
+
+	@Entity
+	public static class TwoIds {
+		@Id ObjectId id;
+		@Id ObjectId other;
+	}
+
+	@Entity
+	public static class RefersToTwoIds {
+		@Id ObjectId id;
+		@Reference TwoIds ref;
+	}
+
+	@Test
+	public void testMapPackageConcurrently() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Morphia morphia = new Morphia().mapPackage("com.google.code.morphia.testmodel", true, executor);
+			assertTrue(morphia.isMapped(Hotel.class));
+			assertTrue(morphia.isMapped(Address.class));
+
+			Morphia serial = new Morphia().mapPackage("com.google.code.morphia.testmodel", true);
+			assertEquals(serial.getMappedClasses().keySet(), morphia.getMappedClasses().keySet());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testErrorsAreReportedAndNothingIsAdded() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Class> classes = new ArrayList<Class>(Arrays.<Class> asList(Hotel.class, NoId.class, PhoneNumber.class));
+			Morphia morphia = new Morphia();
+			try {
+				morphia.mapAll(classes, executor, false);
+				fail("NoId has no @Id");
+			} catch (BulkMappingException e) {
+				assertEquals(1, e.getErrors().size());
+				assertTrue(e.getErrors().containsKey(NoId.class.getName()));
+			}
+			assertFalse(morphia.isMapped(Hotel.class));
+
+			morphia.mapAll(classes, executor, true);
+			assertTrue(morphia.isMapped(Hotel.class));
+			assertTrue(morphia.isMapped(PhoneNumber.class));
+			assertFalse(morphia.isMapped(NoId.class));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testInvalidReferencedClassIsNotLeftMapped() throws Exception {
+		Morphia morphia = new Morphia();
+		// validating RefersToTwoIds looks TwoIds up
+		morphia.mapAll(Arrays.<Class> asList(RefersToTwoIds.class, TwoIds.class), null, true);
+		assertTrue(morphia.isMapped(RefersToTwoIds.class));
+		assertFalse(morphia.isMapped(TwoIds.class));
+
+		try {
+			morphia.map(TwoIds.class);
+			fail("TwoIds has two @Id fields");
+		} catch (ConstraintViolationException expected) {
+		}
+	}
+}
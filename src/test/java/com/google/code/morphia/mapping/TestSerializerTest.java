@@ -4,6 +4,13 @@
 package com.google.code.morphia.mapping;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 
 import junit.framework.Assert;
 
@@ -13,6 +20,8 @@ import org.junit.Test;
 import com.google.code.morphia.TestBase;
 import com.google.code.morphia.annotations.Id;
 import com.google.code.morphia.annotations.Serialized;
+import com.google.code.morphia.mapping.serialization.CompactSerializedCodec;
+import com.google.code.morphia.mapping.serialization.JavaSerializedCodec;
 
 /**
  * @author Uwe Schaefer, (us@thomas-daily.de)
@@ -41,6 +50,35 @@ public class TestSerializerTest extends TestBase {
 		Assert.assertTrue(new String(after).startsWith(TEST_TEXT));
 	}
 	
+	@Test
+	public final void testCodecsAndOldFormats() throws IOException, ClassNotFoundException {
+		Map<String, Object> value = new HashMap<String, Object>();
+		List<Object> list = new ArrayList<Object>();
+		list.add(-1);
+		list.add(Long.MAX_VALUE);
+		list.add(null);
+		list.add(new Date(1234L));
+		value.put("list", list);
+		value.put("text", TEST_TEXT);
+		value.put("locale", java.util.Locale.FRANCE); // java serialized
+		
+		byte[] compact = Serializer.serialize(value, new CompactSerializedCodec(), Deflater.NO_COMPRESSION, 0);
+		byte[] java = Serializer.serialize(value, new JavaSerializedCodec(), Deflater.NO_COMPRESSION, 0);
+		Assert.assertTrue(compact.length < java.length);
+		Assert.assertEquals(value, Serializer.deserialize(compact, new CompactSerializedCodec()));
+		
+		// only compressed above the threshold
+		byte[] deflated = Serializer.serialize(value, new CompactSerializedCodec(), Deflater.BEST_SPEED, 16);
+		Assert.assertTrue(deflated.length < compact.length);
+		Assert.assertEquals(value, Serializer.deserialize(deflated, new CompactSerializedCodec()));
+		Assert.assertEquals(compact.length, Serializer.serialize(value, new CompactSerializedCodec(), Deflater.BEST_SPEED,
+				compact.length).length);
+		
+		// written by older versions
+		Assert.assertEquals(value, Serializer.deserialize(Serializer.serialize(value, true), new CompactSerializedCodec()));
+		Assert.assertEquals(value, Serializer.deserialize(Serializer.serialize(value, false), new CompactSerializedCodec()));
+	}
+	
 	@Test
 	public final void testSerializedAttribute() throws IOException, ClassNotFoundException {
 		byte[] test = new byte[2048];
@@ -60,6 +98,46 @@ public class TestSerializerTest extends TestBase {
 		Assert.assertTrue(e.payload2.length == 2048);
 		Assert.assertTrue(new String(e.payload2).startsWith(TEST_TEXT));
 		
+		Assert.assertEquals(1, ds.find(E.class).filter("payload1", test).countAll());
+		// stored as is
+		byte[] stored = (byte[]) ds.getCollection(E.class).findOne().get("payload1");
+		Assert.assertTrue(Arrays.equals(test, stored));
+	}
+	
+	@Test
+	public final void testSerializedByteArrays() throws Exception {
+		byte[] test = new byte[2048];
+		byte[] stringBytes = TEST_TEXT.getBytes();
+		System.arraycopy(stringBytes, 0, test, 0, stringBytes.length);
+		// starts like a java serialization stream, but isn't one
+		test[0] = (byte) 0xAC;
+		test[1] = (byte) 0xED;
+		
+		E e = new E();
+		e.payload1 = test;
+		ds.save(e);
+		Assert.assertTrue(Arrays.equals(test, ds.get(e).payload1));
+		
+		morphia.getMapper().getOptions().serializeByteArrays = true;
+		e = new E();
+		e.payload1 = test;
+		ds.save(e);
+		byte[] stored = (byte[]) ds.getCollection(E.class).findOne(e.id).get("payload1");
+		Assert.assertTrue(stored.length < test.length);
+		Assert.assertTrue(Arrays.equals(test, ds.get(e).payload1));
+		// the one stored as is isn't found any more
+		Assert.assertEquals(1, ds.find(E.class).filter("payload1", test).countAll());
+	}
+	
+	@Test
+	public final void testCodecOfField() throws Exception {
+		C c = new C();
+		c.values.put("a", 1L);
+		c.values.put("b", TEST_TEXT);
+		ds.save(c);
+		c = ds.get(c);
+		Assert.assertEquals(1L, c.values.get("a"));
+		Assert.assertEquals(TEST_TEXT, c.values.get("b"));
 	}
 	
 	public static class E {
@@ -70,4 +148,10 @@ public class TestSerializerTest extends TestBase {
 		byte[] payload2;
 
 	}
+	
+	public static class C {
+		@Id ObjectId id;
+		@Serialized(codec = CompactSerializedCodec.class, compressionLevel = Deflater.BEST_SPEED, compressAbove = 128)
+		HashMap<String, Object> values = new HashMap<String, Object>();
+	}
 }
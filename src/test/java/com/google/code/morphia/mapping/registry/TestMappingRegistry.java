@@ -0,0 +1,107 @@
+package com.google.code.morphia.mapping.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.MappedField;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.testmodel.Hotel;
+
+/** The registries of the test packages are written by the processor when the tests are compiled */
+public class TestMappingRegistry {
+
+	@Test
+	public void testRegistryWrittenAtCompileTime() throws Exception {
+		ClassLoader loader = getClass().getClassLoader();
+		List<MappingRegistry.Entry> entries = MappingRegistry.forPackage(loader, "com.google.code.morphia.testmodel");
+		assertNotNull(entries);
+		List<String> names = new ArrayList<String>();
+		for (MappingRegistry.Entry e : entries)
+			names.add(e.getClassName());
+		assertTrue(names.contains(Hotel.class.getName()));
+		// mapped through the @Entity of its interface
+		assertTrue(names.contains("com.google.code.morphia.testmodel.Rectangle"));
+
+		assertNull(MappingRegistry.forPackage(loader, "com.google.code.morphia.no.such.pkg"));
+	}
+
+	@Test
+	public void testNotTrustedUnlessEveryRootHasOne() throws Exception {
+		File withRegistry = newRoot(true);
+		File without = newRoot(false);
+		ClassLoader one = new URLClassLoader(new URL[] { withRegistry.toURI().toURL() }, null);
+		assertEquals(1, MappingRegistry.forPackage(one, "example.model").size());
+		// the classes of the second directory were compiled without the processor
+		ClassLoader both = new URLClassLoader(new URL[] { withRegistry.toURI().toURL(), without.toURI().toURL() }, null);
+		assertNull(MappingRegistry.forPackage(both, "example.model"));
+	}
+
+	private static File newRoot(boolean withRegistry) throws IOException {
+		File root = File.createTempFile("registry", "");
+		root.delete();
+		new File(root, "example/model").mkdirs();
+		if (withRegistry) {
+			File registry = new File(root, MappingRegistry.resourceName("example.model"));
+			registry.getParentFile().mkdirs();
+			Writer w = new FileWriter(registry);
+			MappingRegistry.write(w, Arrays.asList(new MappingRegistry.Entry("example.model.Hotel")));
+			w.close();
+		}
+		return root;
+	}
+
+	@Test
+	public void testSameMappingAsReflection() throws Exception {
+		Morphia morphia = new Morphia().mapPackage("com.google.code.morphia.testmodel", true);
+		assertTrue(morphia.isMapped(Hotel.class));
+		for (MappedClass mc : morphia.getMappedClasses().values()) {
+			MappedClass reflected = new MappedClass(mc.getClazz(), new Mapper());
+			assertEquals(mc.getClazz().getName(), storedNames(reflected), storedNames(mc));
+		}
+	}
+
+	private static List<String> storedNames(MappedClass mc) {
+		List<String> names = new ArrayList<String>();
+		for (MappedField mf : mc.getPersistenceFields())
+			names.add(mf.getNameToStore());
+		return names;
+	}
+
+	@Test
+	public void testReadWrite() throws Exception {
+		MappingRegistry.Entry hotel = new MappingRegistry.Entry(Hotel.class.getName()).addField(Hotel.class.getName(), "name")
+				.addField("com.google.code.morphia.testutil.TestEntity", "id");
+		StringWriter w = new StringWriter();
+		MappingRegistry.write(w, Arrays.asList(hotel));
+		List<MappingRegistry.Entry> read = MappingRegistry.read(new StringReader(w.toString()));
+		assertEquals(1, read.size());
+		assertEquals(2, read.get(0).getFields(Hotel.class).length);
+		assertEquals("id", read.get(0).getFields(Hotel.class)[1].getName());
+
+		try {
+			new MappingRegistry.Entry(Hotel.class.getName()).addField(Hotel.class.getName(), "gone").getFields(Hotel.class);
+			fail("the registry is out of date");
+		} catch (MappingException expected) {
+		}
+	}
+}
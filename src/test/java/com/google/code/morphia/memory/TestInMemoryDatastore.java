@@ -0,0 +1,161 @@
+package com.google.code.morphia.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Indexed;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.annotations.Version;
+import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.query.UpdateResults;
+
+/** Runs without a server */
+public class TestInMemoryDatastore {
+
+	@Entity
+	public static class City {
+		@Id ObjectId id;
+		@Indexed(unique = true) String name;
+		int population;
+		List<String> tags = new ArrayList<String>();
+		@Reference City twin;
+
+		City() {
+		}
+
+		City(String name, int population, String... tags) {
+			this.name = name;
+			this.population = population;
+			this.tags.addAll(Arrays.asList(tags));
+		}
+	}
+
+	@Entity
+	public static class Counter {
+		@Id String id;
+		long count;
+		@Version Long version;
+	}
+
+	private Datastore ds;
+
+	@Before
+	public void setUp() {
+		ds = new InMemoryDatastore(new Morphia().map(City.class).map(Counter.class));
+		ds.ensureIndexes();
+	}
+
+	@Test
+	public void testQueryWithoutCollection() throws Exception {
+		// the in-memory queries have no DBCollection
+		assertTrue(ds.createQuery(City.class).asList().isEmpty());
+		assertNull(ds.find(City.class, "name", "Oslo").get());
+	}
+
+	@Test
+	public void testQueries() throws Exception {
+		ds.save(new City("Oslo", 600, "north", "capital"), new City("Rome", 2800, "south", "capital"),
+				new City("Turku", 190, "north"), new City("Naples", 960, "south"));
+
+		assertEquals(4, ds.getCount(City.class));
+		assertEquals(2, ds.find(City.class).filter("population >", 800).countAll());
+		assertEquals(2, ds.find(City.class, "tags", "north").countAll());
+		assertEquals(1, ds.find(City.class).field("tags").hasAllOf(Arrays.asList("south", "capital")).countAll());
+		assertEquals("Rome", ds.find(City.class).field("name").startsWith("R").get().name);
+
+		List<City> bySize = ds.find(City.class).filter("name in", Arrays.asList("Oslo", "Rome", "Turku")).order("-population")
+				.limit(2).asList();
+		assertEquals(2, bySize.size());
+		assertEquals("Rome", bySize.get(0).name);
+		assertEquals("Oslo", bySize.get(1).name);
+
+		City partial = ds.find(City.class, "name", "Turku").retrievedFields(true, "name").get();
+		assertNotNull(partial.id);
+		assertEquals(0, partial.population);
+
+		ds.delete(ds.find(City.class).filter("population <", 700));
+		assertEquals(2, ds.getCount(City.class));
+		assertNull(ds.find(City.class, "name", "Oslo").get());
+	}
+
+	@Test
+	public void testUpdates() throws Exception {
+		City oslo = new City("Oslo", 600, "north");
+		ds.save(oslo);
+
+		UpdateResults<City> res = ds.update(ds.find(City.class, "name", "Oslo"),
+				ds.createUpdateOperations(City.class).inc("population", 10).addAll("tags", Arrays.asList("capital", "north"), false));
+		assertEquals(1, res.getUpdatedCount());
+		City loaded = ds.get(City.class, oslo.id);
+		assertEquals(610, loaded.population);
+		assertEquals(Arrays.asList("north", "capital"), loaded.tags);
+
+		res = ds.update(ds.find(City.class, "name", "Bergen"), ds.createUpdateOperations(City.class).set("population", 280), true);
+		assertEquals(1, res.getInsertedCount());
+		assertEquals(280, ds.find(City.class, "name", "Bergen").get().population);
+
+		City before = ds.findAndModify(ds.find(City.class).order("population"),
+				ds.createUpdateOperations(City.class).removeAll("tags", "north"), true);
+		assertEquals("Bergen", before.name);
+		City after = ds.findAndModify(ds.find(City.class, "name", "Oslo"), ds.createUpdateOperations(City.class).removeAll("tags", "north"));
+		assertEquals(Arrays.asList("capital"), after.tags);
+
+		assertEquals("Bergen", ds.findAndDelete(ds.find(City.class).order("population")).name);
+		assertEquals(1, ds.getCount(City.class));
+	}
+
+	@Test
+	public void testUniqueIndexAndVersions() throws Exception {
+		ds.save(new City("Oslo", 600));
+		try {
+			ds.save(new City("Oslo", 700));
+			fail("the name is unique");
+		} catch (MappingException expected) {
+			assertTrue(expected.getMessage().contains("E11000"));
+		}
+		assertEquals(1, ds.getCount(City.class));
+
+		Counter c = new Counter();
+		c.id = "hits";
+		ds.save(c);
+		Counter stale = ds.get(Counter.class, "hits");
+		c.count = 1;
+		ds.save(c);
+		stale.count = 2;
+		try {
+			ds.save(stale);
+			fail("the counter was saved since it was loaded");
+		} catch (ConcurrentModificationException expected) {
+		}
+		assertEquals(1, ds.get(Counter.class, "hits").count);
+	}
+
+	@Test
+	public void testReferences() throws Exception {
+		City turku = new City("Turku", 190);
+		ds.save(turku);
+		City gothenburg = new City("Gothenburg", 580);
+		gothenburg.twin = turku;
+		ds.save(gothenburg);
+
+		City loaded = ds.find(City.class, "name", "Gothenburg").get();
+		assertEquals("Turku", loaded.twin.name);
+		assertEquals(1, ds.find(City.class).filter("twin", turku).countAll());
+	}
+}
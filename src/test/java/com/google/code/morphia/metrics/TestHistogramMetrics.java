@@ -0,0 +1,62 @@
+package com.google.code.morphia.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.testmodel.Rectangle;
+
+public class TestHistogramMetrics extends TestBase {
+
+	@Test
+	public void testOperationsAreRecorded() throws Exception {
+		HistogramMetrics metrics = new HistogramMetrics(true);
+		morphia.setMetrics(metrics);
+		try {
+			for (int i = 1; i <= 10; i++)
+				ds.save(new Rectangle(i, i));
+			assertEquals(6, ds.find(Rectangle.class).filter("height >", 4).asList().size());
+			Rectangle first = ds.find(Rectangle.class).filter("height", 1).get();
+			ds.get(first); // Datastore.get is a GET too
+			ds.getCount(Rectangle.class);
+			ds.update(ds.createQuery(Rectangle.class), ds.createUpdateOperations(Rectangle.class).inc("width"));
+			ds.delete(ds.createQuery(Rectangle.class).filter("height", 2));
+
+			String coll = ds.getCollection(Rectangle.class).getName();
+			OperationStats saves = metrics.getStats(coll, OperationType.SAVE);
+			assertEquals(10, saves.getCount());
+			assertEquals(10, saves.getDocuments());
+			assertTrue(saves.getBytes() > 0);
+			assertTrue(saves.getServerTimes().getPercentileNanos(50) > 0);
+			assertTrue(saves.getMappingTimes().getTotalNanos() > 0);
+
+			OperationStats finds = metrics.getStats(coll, OperationType.FIND);
+			assertEquals(1, finds.getCount());
+			assertEquals(6, finds.getDocuments());
+			assertEquals(2, metrics.getStats(coll, OperationType.GET).getDocuments());
+			assertEquals(1, metrics.getStats(coll, OperationType.COUNT).getCount());
+			assertEquals(10, metrics.getStats(coll, OperationType.UPDATE).getDocuments());
+			assertEquals(1, metrics.getStats(coll, OperationType.DELETE).getCount());
+
+			metrics.exportToJmx("morphia.test");
+			ObjectName name = new ObjectName("morphia.test:type=OperationStats,collection=" + ObjectName.quote(coll)
+					+ ",operation=SAVE");
+			assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count"));
+			metrics.unexportFromJmx();
+
+			metrics.reset();
+			assertEquals(0, saves.getCount());
+		} finally {
+			morphia.setMetrics(null);
+		}
+		ds.save(new Rectangle(1, 1));
+		assertNull(morphia.getMetrics());
+	}
+}
@@ -0,0 +1,90 @@
+package com.google.code.morphia.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PostLoad;
+import com.google.code.morphia.annotations.Serialized;
+import com.google.code.morphia.mapping.cache.DefaultEntityCache;
+import com.google.code.morphia.metrics.MappingProfiler.ClassProfile;
+import com.google.code.morphia.metrics.MappingProfiler.FieldProfile;
+import com.google.code.morphia.metrics.MappingProfiler.Strategy;
+import com.mongodb.DBObject;
+
+public class TestMappingProfiler extends TestBase {
+
+	@Embedded
+	public static class Size {
+		int width = 1, height = 2;
+	}
+
+	@Entity
+	public static class Profiled {
+		@Id ObjectId id = new ObjectId();
+		String name = "a";
+		@Embedded Size size = new Size();
+		@Serialized Map<String, String> blob = new HashMap<String, String>();
+		transient int loaded;
+
+		@PostLoad
+		void postLoad() {
+			loaded++;
+		}
+	}
+
+	@Test
+	public void testClassesAndFieldsAreProfiled() throws Exception {
+		MappingProfiler profiler = new MappingProfiler(true);
+		morphia.map(Profiled.class);
+		morphia.setMappingProfiler(profiler);
+		try {
+			for (int i = 0; i < 20; i++) {
+				DBObject dbObj = morphia.toDBObject(new Profiled());
+				morphia.fromDBObject(Profiled.class, dbObj, new DefaultEntityCache());
+			}
+
+			ClassProfile p = profiler.getProfile(Profiled.class);
+			assertEquals(20, p.getEncodeCount());
+			assertEquals(20, p.getDecodeCount());
+			assertTrue(p.getTotalNanos() > 0);
+			assertTrue(p.getLifecycleNanos() > 0);
+			if (profiler.isMeasuringAllocations()) {
+				assertTrue(p.getEncodeAllocatedBytes() > 0);
+				assertTrue(p.getDecodeAllocatedBytes() > 0);
+			} else
+				assertEquals(-1, p.getEncodeAllocatedBytes());
+			// embedded classes are profiled too, and included in their parent's time
+			assertEquals(20, profiler.getProfile(Size.class).getEncodeCount());
+			assertEquals(Profiled.class.getName(), profiler.getRanking().get(0).getClassName());
+
+			Map<String, Strategy> strategies = new HashMap<String, Strategy>();
+			for (FieldProfile f : p.getFields())
+				strategies.put(f.getName(), f.getStrategy());
+			assertEquals(Strategy.VALUE, strategies.get("name"));
+			assertEquals(Strategy.EMBEDDED, strategies.get("size"));
+			assertEquals(Strategy.SERIALIZED, strategies.get("blob"));
+
+			assertTrue(profiler.getReport().contains(Profiled.class.getName()));
+			profiler.reset();
+			assertEquals(0, p.getEncodeCount());
+		} finally {
+			morphia.setMappingProfiler(null);
+		}
+		assertNull(morphia.getMappingProfiler());
+		morphia.toDBObject(new Profiled());
+		assertNotNull(profiler.getProfile(Profiled.class));
+		assertEquals(0, profiler.getProfile(Profiled.class).getEncodeCount());
+	}
+}
@@ -0,0 +1,71 @@
+package com.google.code.morphia.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Reference;
+
+public class TestRoundTrips extends TestBase {
+
+	@Entity
+	public static class Author {
+		@Id ObjectId id;
+		String name;
+	}
+
+	@Entity
+	public static class Book {
+		@Id ObjectId id;
+		@Reference Author author;
+	}
+
+	@Test
+	public void testReferenceFetchesAreCounted() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			Author a = new Author();
+			a.name = "a" + i;
+			ds.save(a);
+			Book b = new Book();
+			b.author = a;
+			ds.save(b);
+		}
+
+		Runnable loadBooks = new Runnable() {
+			public void run() {
+				List<Book> books = ds.find(Book.class).asList();
+				assertEquals(5, books.size());
+			}
+		};
+		// one query, plus one fetch per author
+		assertEquals(6, RoundTrips.assertMaxRoundTrips(6, loadBooks));
+		try {
+			RoundTrips.assertMaxRoundTrips(5, loadBooks);
+			fail("the budget was exceeded");
+		} catch (AssertionError expected) {
+		}
+
+		RoundTrips.setMaxFetchesPerReference(3);
+		RoundTrips.Scope request = RoundTrips.begin("request");
+		try {
+			loadBooks.run();
+			ds.find(Book.class).get();
+			assertSame(request, RoundTrips.current());
+			assertEquals(8, request.getRoundTrips());
+			assertEquals(Integer.valueOf(6), request.getReferenceFetches().get(Book.class.getName() + ".author"));
+		} finally {
+			request.close();
+			RoundTrips.setMaxFetchesPerReference(0);
+		}
+		assertNull(RoundTrips.current());
+	}
+}
@@ -0,0 +1,53 @@
+package com.google.code.morphia.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.testmodel.Rectangle;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class TestSlowOperationLog extends TestBase {
+
+	@Test
+	public void testShapeStripsLiterals() throws Exception {
+		DBObject q = new BasicDBObject("name", "x").append("age", new BasicDBObject("$gt", 5))
+				.append("tags", new BasicDBObject("$in", Arrays.asList(1, 2, 3)))
+				.append("$or", Arrays.asList(new BasicDBObject("a", 1), new BasicDBObject("b", "2")));
+		DBObject shape = SlowOperationLog.shape(q);
+		assertEquals("?", shape.get("name"));
+		assertEquals(new BasicDBObject("$gt", "?"), shape.get("age"));
+		assertEquals(new BasicDBObject("$in", "?"), shape.get("tags"));
+		assertEquals(Arrays.asList(new BasicDBObject("a", "?"), new BasicDBObject("b", "?")), shape.get("$or"));
+	}
+
+	@Test
+	public void testSlowOperationsAreLoggedAndLimited() throws Exception {
+		SlowOperationLog slowLog = new SlowOperationLog(0, TimeUnit.MILLISECONDS).explain(true).sampleStacks(2)
+				.maxPerMinute(3);
+		assertFalse(new SlowOperationLog(1, TimeUnit.SECONDS).permits(TimeUnit.MILLISECONDS.toNanos(999)));
+
+		morphia.setSlowOperationLog(slowLog);
+		try {
+			ds.save(new Rectangle(1, 2));
+			ds.find(Rectangle.class).filter("height >", 0).asList();
+			ds.find(Rectangle.class).filter("height", 1).countAll();
+			assertEquals(2, slowLog.getLogged());
+			ds.update(ds.createQuery(Rectangle.class), ds.createUpdateOperations(Rectangle.class).inc("width"));
+			ds.find(Rectangle.class).get();
+			// limited to 3 a minute
+			assertEquals(3, slowLog.getLogged());
+			assertFalse(slowLog.permits(TimeUnit.SECONDS.toNanos(1)));
+		} finally {
+			morphia.setSlowOperationLog(null);
+		}
+		assertTrue(slowLog.isExplaining());
+	}
+}
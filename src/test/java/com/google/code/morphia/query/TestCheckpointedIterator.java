@@ -0,0 +1,67 @@
+package com.google.code.morphia.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.google.code.morphia.TestBase;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+
+public class TestCheckpointedIterator extends TestBase {
+
+	@Entity
+	static class User {
+		@Id long id;
+		String name;
+		User() {}
+		User(long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Test
+	public void testResumeFromCollection() throws Exception {
+		for (int i = 0; i < 25; i++)
+			ds.save(new User(i, "user" + i));
+		CheckpointStore store = new CollectionCheckpointStore(db);
+
+		CheckpointedIterator<User> it = new CheckpointedIterator<User>(ds.find(User.class),
+				morphia.getMapper(), "users", store, "_id", 5, 7);
+		for (int i = 0; i < 12; i++)
+			assertEquals(i, it.next().id);
+		// 11 processed (the 12th is still being worked on), only the first 10 saved; now "crash"
+		assertEquals(9L, ((Number) store.load("users")).longValue());
+
+		it = new CheckpointedIterator<User>(ds.find(User.class), morphia.getMapper(), "users", store, "_id", 5, 7);
+		long expected = 10;
+		for (User u : it)
+			assertEquals(expected++, u.id);
+		assertEquals(25, expected);
+		assertEquals(24L, ((Number) store.load("users")).longValue());
+
+		it = new CheckpointedIterator<User>(ds.find(User.class), morphia.getMapper(), "users", store);
+		assertFalse(it.hasNext());
+		it.reset();
+		assertNull(store.load("users"));
+		assertEquals(25, ds.find(User.class).countAll());
+	}
+
+	@Test
+	public void testFileStore() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "morphia-checkpoints-" + System.nanoTime());
+		FileCheckpointStore store = new FileCheckpointStore(dir);
+		assertNull(store.load("scan/1"));
+		store.save("scan/1", 42L);
+		store.save("scan/1", 43L);
+		assertEquals(43L, store.load("scan/1"));
+		store.clear("scan/1");
+		assertNull(store.load("scan/1"));
+		dir.delete();
+	}
+}